@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) Michael Houston 2021. All rights reserved.
+ */
+
+package org.simplemes.benchmark
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import org.simplemes.eframe.json.TypeableMapper
+import org.simplemes.mes.demand.domain.Order
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * Benchmarks the JSON format used for the archive files (typed lists of domain objects).  No files are used.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+class ArchiveMapperBenchmark {
+
+  /**
+   * The number of objects written/read.
+   */
+  @Param(['1', '100'])
+  public int objectCount
+
+  /**
+   * The objects to write.
+   */
+  List<Order> orders
+
+  /**
+   * The JSON for the objects.
+   */
+  String json
+
+  @Setup(Level.Trial)
+  void setup() {
+    BenchmarkContext.start()
+    orders = (1..objectCount).collect {
+      new Order(order: "M$it", uuid: UUID.randomUUID(), qtyToBuild: it, dateReleased: new Date())
+    }
+    json = write()
+  }
+
+  @TearDown(Level.Trial)
+  void tearDown() {
+    BenchmarkContext.stop()
+  }
+
+  @Benchmark
+  String write() {
+    def writer = new StringWriter()
+    TypeableMapper.instance.writeList(writer, orders)
+    return writer.toString()
+  }
+
+  @Benchmark
+  List read() {
+    return TypeableMapper.instance.read(new StringReader(json))
+  }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) Michael Houston 2021. All rights reserved.
+ */
+
+package org.simplemes.benchmark
+
+import groovy.util.logging.Slf4j
+import io.micronaut.context.ApplicationContext
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres
+import org.simplemes.eframe.security.SecurityUtils
+
+/**
+ * Starts the application context with an embedded Postgres database for the benchmarks that need the
+ * framework (domains, field definitions, services, etc).  The database is empty when started, so the
+ * Flyway migrations and the normal startup logic create the tables and initial data.
+ * <p>
+ * JMH runs each benchmark in a forked JVM, so the context is started once per benchmark.  The benchmarks
+ * that only need simple utility classes do not use this context.
+ * <pre>
+ *   &#64;Setup(Level.Trial)
+ *   void setup() {
+ *     BenchmarkContext.start()
+ *   }
+ *
+ *   &#64;TearDown(Level.Trial)
+ *   void tearDown() {
+ *     BenchmarkContext.stop()
+ *   }
+ * </pre>
+ */
+@Slf4j
+class BenchmarkContext {
+
+  /**
+   * The database user/name used for the embedded database.
+   */
+  static final String DB_NAME = 'postgres'
+
+  /**
+   * The application context.  Null if not started.
+   */
+  static ApplicationContext applicationContext
+
+  /**
+   * The embedded database.  Null if not started.
+   */
+  static EmbeddedPostgres postgres
+
+  /**
+   * Starts the embedded database and the application context, if needed.  The current user is set to the test user
+   * so the services can record the user in the action logs.
+   * @return The application context.
+   */
+  static synchronized ApplicationContext start() {
+    if (applicationContext == null) {
+      def start = System.currentTimeMillis()
+      postgres = EmbeddedPostgres.builder().start()
+      Map<String, Object> properties = ['datasources.default.url'     : postgres.getJdbcUrl(DB_NAME, DB_NAME),
+                                        'datasources.default.username': DB_NAME,
+                                        'datasources.default.password': '']
+      applicationContext = ApplicationContext.run(properties)
+      SecurityUtils.currentUserOverride = SecurityUtils.TEST_USER
+      log.warn('start(): Started benchmark context in {}ms', System.currentTimeMillis() - start)
+    }
+    return applicationContext
+  }
+
+  /**
+   * Stops the application context and the embedded database.
+   */
+  static synchronized void stop() {
+    applicationContext?.close()
+    applicationContext = null
+    postgres?.close()
+    postgres = null
+    SecurityUtils.currentUserOverride = null
+  }
+
+  /**
+   * Returns the bean of the given type.  Starts the context, if needed.
+   * @param type The bean type.
+   * @return The bean.
+   */
+  static <T> T getBean(Class<T> type) {
+    return start().getBean(type)
+  }
+
+}
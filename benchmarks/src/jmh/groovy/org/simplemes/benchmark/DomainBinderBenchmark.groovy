@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) Michael Houston 2021. All rights reserved.
+ */
+
+package org.simplemes.benchmark
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import org.simplemes.eframe.custom.ExtensibleFieldHelper
+import org.simplemes.eframe.date.ISODate
+import org.simplemes.eframe.domain.DomainBinder
+import org.simplemes.mes.demand.domain.Order
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * Benchmarks the binding of request parameters to a domain object and the field definition lookup used by the
+ * binder (and most GUI/API logic).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+class DomainBinderBenchmark {
+
+  /**
+   * The parameters bound to the order.  Copied for each bind since the binder can modify the map.
+   */
+  Map<String, Object> params
+
+  @Setup(Level.Trial)
+  void setup() {
+    BenchmarkContext.start()
+    params = [order        : 'M1001',
+              qtyToBuild   : '12.5',
+              qtyReleased  : '2',
+              dateCompleted: ISODate.format(new Date()),
+              dateReleased : ISODate.format(new Date()),
+              unknownField : 'ignored']
+  }
+
+  @TearDown(Level.Trial)
+  void tearDown() {
+    BenchmarkContext.stop()
+  }
+
+  /**
+   * Binds the parameters to a new domain object with a new binder (the typical controller case).
+   */
+  @Benchmark
+  Object bind() {
+    def order = new Order()
+    DomainBinder.build().bind(order, new HashMap(params))
+    return order
+  }
+
+  /**
+   * Finds the field definitions (core and custom fields) for a domain.
+   */
+  @Benchmark
+  Object getEffectiveFieldDefinitions() {
+    return ExtensibleFieldHelper.instance.getEffectiveFieldDefinitions(Order)
+  }
+
+}
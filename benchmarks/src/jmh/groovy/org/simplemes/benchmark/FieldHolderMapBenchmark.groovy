@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) Michael Houston 2021. All rights reserved.
+ */
+
+package org.simplemes.benchmark
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import org.openjdk.jmh.infra.Blackhole
+import org.simplemes.eframe.custom.FieldHolderMap
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * Benchmarks the JSON round trips for the custom field holder (the JSONB column used for custom fields).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+class FieldHolderMapBenchmark {
+
+  /**
+   * The number of custom fields in the map.
+   */
+  @Param(['5', '50'])
+  public int fieldCount
+
+  /**
+   * The JSON for the map.
+   */
+  String json
+
+  @Setup(Level.Trial)
+  void setup() {
+    BenchmarkContext.start()
+    def map = new FieldHolderMap(parsingFromJSON: false)
+    for (i in 0..<fieldCount) {
+      switch (i % 4) {
+        case 0:
+          map.put("string$i".toString(), "value $i".toString())
+          break
+        case 1:
+          map.put("number$i".toString(), new BigDecimal("${i}.5"))
+          break
+        case 2:
+          map.put("date$i".toString(), new Date(1608068730456L + i))
+          break
+        default:
+          map.put("boolean$i".toString(), (i % 2) == 0)
+      }
+    }
+    json = map.toJSON()
+  }
+
+  @TearDown(Level.Trial)
+  void tearDown() {
+    BenchmarkContext.stop()
+  }
+
+  /**
+   * Parses the JSON and writes it back without using the values (e.g. a record read and saved).
+   */
+  @Benchmark
+  String readWrite() {
+    return FieldHolderMap.fromJSON(json).toJSON()
+  }
+
+  /**
+   * Parses the JSON and reads one value.
+   */
+  @Benchmark
+  Object readOne() {
+    return FieldHolderMap.fromJSON(json).get('string0')
+  }
+
+  /**
+   * Parses the JSON and reads all values.
+   */
+  @Benchmark
+  void readAll(Blackhole blackhole) {
+    def map = FieldHolderMap.fromJSON(json)
+    for (key in map.keySet()) {
+      blackhole.consume(map.get(key))
+    }
+  }
+
+  /**
+   * Parses the JSON, changes one value and writes it back.
+   */
+  @Benchmark
+  String updateOne() {
+    def map = FieldHolderMap.fromJSON(json)
+    map.put('string0', 'changed')
+    return map.toJSON()
+  }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) Michael Houston 2021. All rights reserved.
+ */
+
+package org.simplemes.benchmark
+
+import groovy.transform.CompileStatic
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.State
+import org.simplemes.eframe.date.DateUtils
+import org.simplemes.eframe.date.ISODate
+import org.simplemes.eframe.misc.NumberUtils
+
+import java.text.DateFormat
+import java.text.NumberFormat
+import java.util.concurrent.TimeUnit
+
+/**
+ * Compares the cached date/number formats (DateFormatRegistry and NumberFormatRegistry) with the original approach
+ * (a new java.text format for each call).  Does not need the application context.
+ */
+@CompileStatic
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+class FormatBenchmark {
+
+  /**
+   * The date formatted.
+   */
+  Date date = new Date(1608068730456L)
+
+  /**
+   * The number formatted.
+   */
+  BigDecimal number = new BigDecimal('12345.678')
+
+  /**
+   * The locale used.
+   */
+  Locale locale = Locale.US
+
+  /**
+   * The date string parsed.
+   */
+  String dateString = DateUtils.formatDate(date, locale)
+
+  @Benchmark
+  String formatDate() {
+    return DateUtils.formatDate(date, locale)
+  }
+
+  /**
+   * The original approach: a new java.text format for each call.
+   */
+  @Benchmark
+  String formatDateNewFormat() {
+    return DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.MEDIUM, locale).format(date)
+  }
+
+  @Benchmark
+  Date parseDate() {
+    return DateUtils.parseDate(dateString, locale)
+  }
+
+  @Benchmark
+  String formatISODate() {
+    return ISODate.format(date)
+  }
+
+  @Benchmark
+  String formatNumber() {
+    return NumberUtils.formatNumber(number, locale)
+  }
+
+  /**
+   * The original approach: a new java.text format for each call.
+   */
+  @Benchmark
+  String formatNumberNewFormat() {
+    def format = NumberFormat.getInstance(locale)
+    format.maximumFractionDigits = 10
+    return format.format(number)
+  }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) Michael Houston 2021. All rights reserved.
+ */
+
+package org.simplemes.benchmark
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import org.simplemes.mes.demand.CompleteRequest
+import org.simplemes.mes.demand.FindWorkRequest
+import org.simplemes.mes.demand.FindWorkResponse
+import org.simplemes.mes.demand.OrderReleaseRequest
+import org.simplemes.mes.demand.OrderReleaseResponse
+import org.simplemes.mes.demand.StartRequest
+import org.simplemes.mes.demand.domain.Order
+import org.simplemes.mes.demand.service.OrderService
+import org.simplemes.mes.demand.service.WorkListService
+import org.simplemes.mes.demand.service.WorkService
+import org.simplemes.mes.test.MESUnitTestUtils
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * Benchmarks the main MES production actions against the embedded database: release, start/complete and the
+ * work list query.  The work list has a mix of orders with and without routings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+class MESWorkflowBenchmark {
+
+  /**
+   * The number of orders in the work list (with routings and without).
+   */
+  @Param(['200'])
+  public int workListSize
+
+  OrderService orderService
+  WorkService workService
+  WorkListService workListService
+
+  /**
+   * The order (no routing) used for the start/complete benchmark.  Has a large qty in queue.
+   */
+  String workOrder
+
+  /**
+   * The order created (not released) for each release() invocation.
+   */
+  Order orderToRelease
+
+  /**
+   * The sequence for the orders created for the release() benchmark.
+   */
+  int releaseSequence = 0
+
+  @Setup(Level.Trial)
+  void setup() {
+    BenchmarkContext.start()
+    orderService = BenchmarkContext.getBean(OrderService)
+    workService = BenchmarkContext.getBean(WorkService)
+    workListService = BenchmarkContext.getBean(WorkListService)
+
+    workOrder = MESUnitTestUtils.releaseOrders(id: 'WORK', qty: 1_000_000_000.0)[0].order
+    MESUnitTestUtils.releaseOrders(id: 'WL', nOrders: workListSize.intdiv(2), spreadQueuedDates: true)
+    MESUnitTestUtils.releaseOrders(id: 'WLR', nOrders: workListSize.intdiv(2), operations: [10, 20, 30],
+                                   spreadQueuedDates: true)
+  }
+
+  @TearDown(Level.Trial)
+  void tearDown() {
+    BenchmarkContext.stop()
+  }
+
+  /**
+   * Creates a new un-released order for the release() benchmark.
+   */
+  @Setup(Level.Invocation)
+  void createOrderToRelease() {
+    Order.withTransaction {
+      releaseSequence++
+      orderToRelease = new Order(order: "REL$releaseSequence", qtyToBuild: 1.0).save()
+    }
+  }
+
+  @Benchmark
+  OrderReleaseResponse release() {
+    return orderService.release(new OrderReleaseRequest(orderToRelease))
+  }
+
+  /**
+   * Starts and completes one piece on the work order.  The order is read inside of the transaction, as the
+   * dashboard requests do.
+   */
+  @Benchmark
+  Object startComplete() {
+    return Order.withTransaction {
+      def order = Order.findByOrder(workOrder)
+      workService.start(new StartRequest(order: order, qty: 1.0))
+      workService.complete(new CompleteRequest(order: order, qty: 1.0))
+    }
+  }
+
+  @Benchmark
+  FindWorkResponse findWork() {
+    return Order.withTransaction {
+      workListService.findWork(new FindWorkRequest())
+    }
+  }
+
+}
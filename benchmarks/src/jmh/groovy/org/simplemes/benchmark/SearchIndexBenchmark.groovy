@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) Michael Houston 2021. All rights reserved.
+ */
+
+package org.simplemes.benchmark
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import org.simplemes.eframe.search.SearchEngineClient
+import org.simplemes.mes.demand.domain.Order
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * Benchmarks the creation of the search engine bulk index request content.  The search engine is not called.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+class SearchIndexBenchmark {
+
+  /**
+   * The number of objects in each bulk request.
+   */
+  @Param(['1', '100'])
+  public int batchSize
+
+  /**
+   * The objects to index.
+   */
+  List<Order> orders
+
+  @Setup(Level.Trial)
+  void setup() {
+    BenchmarkContext.start()
+    orders = (1..batchSize).collect {
+      new Order(order: "M$it", uuid: UUID.randomUUID(), qtyToBuild: it, dateReleased: new Date())
+    }
+  }
+
+  @TearDown(Level.Trial)
+  void tearDown() {
+    BenchmarkContext.stop()
+  }
+
+  @Benchmark
+  String buildBulkIndexContent() {
+    return SearchEngineClient.buildBulkIndexContent(orders)
+  }
+
+}
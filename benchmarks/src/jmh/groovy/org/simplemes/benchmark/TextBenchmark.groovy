@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) Michael Houston 2021. All rights reserved.
+ */
+
+package org.simplemes.benchmark
+
+import groovy.transform.CompileStatic
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.State
+import org.simplemes.eframe.i18n.MessageSource
+import org.simplemes.eframe.misc.TextUtils
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * Benchmarks the text utilities: the GString evaluation (e.g. archive file names) and the message lookups.
+ * Does not need the application context.
+ */
+@CompileStatic
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+class TextBenchmark {
+
+  /**
+   * The message source.  Created directly, as the framework does when there is no application context.
+   */
+  MessageSource messageSource = new MessageSource()
+
+  /**
+   * The parameters for the GString.
+   */
+  Map<String, Object> parameters = [year: '2021', month: '03', day: '15', key: 'M1001'] as Map<String, Object>
+
+  /**
+   * Evaluates a simple GString with bare and bracketed variables (the common case).
+   */
+  @Benchmark
+  String evaluateGString() {
+    return TextUtils.evaluateGString('$year-$month-${day}/${key}', new HashMap(parameters))
+  }
+
+  /**
+   * Evaluates a GString with an expression (uses the slower template engine).
+   */
+  @Benchmark
+  String evaluateGStringExpression() {
+    return TextUtils.evaluateGString('${year}-${key.toLowerCase()}', new HashMap(parameters))
+  }
+
+  @Benchmark
+  String getMessage() {
+    return messageSource.getMessage('search.label', Locale.US)
+  }
+
+  @Benchmark
+  String getMessageWithArgs() {
+    return messageSource.getMessage('error.110.message', Locale.US, 'Report', 'sample/Sample.jrxml')
+  }
+
+  /**
+   * Looks up a key that is not in any bundle.
+   */
+  @Benchmark
+  String getMessageMissing() {
+    return messageSource.getMessage('missing.gibberish.label', Locale.US)
+  }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) Michael Houston 2021. All rights reserved.
+ */
+
+package org.simplemes.benchmark.load
+
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Records the latency of each request by workload (e.g. 'start') and calculates the throughput and
+ * latency percentiles.  Only records the requests while the recording is enabled (after the warm-up).
+ */
+class LatencyRecorder {
+
+  /**
+   * The percentiles reported.
+   */
+  static final List<Double> PERCENTILES = [50.0d, 90.0d, 95.0d, 99.0d]
+
+  /**
+   * The statistics for each workload.
+   */
+  protected final Map<String, WorkloadStatistics> statistics = new ConcurrentHashMap<>()
+
+  /**
+   * If true, then the requests are recorded.
+   */
+  volatile boolean recording
+
+  /**
+   * Records a single request.
+   * @param workload The workload (e.g. 'start').
+   * @param nanos The elapsed time (nanoseconds).
+   * @param error The error message.  Null if the request succeeded.
+   */
+  void record(String workload, long nanos, String error = null) {
+    if (recording) {
+      statistics.computeIfAbsent(workload, { new WorkloadStatistics() }).add(nanos, error)
+    }
+  }
+
+  /**
+   * Builds the summary for each workload and the total.
+   * @param seconds The elapsed time of the recording (seconds).
+   * @return The summary rows.  Times are in milliseconds.
+   */
+  List<Map<String, Object>> summarize(double seconds) {
+    List<Map<String, Object>> res = []
+    def total = new WorkloadStatistics()
+    for (workload in statistics.keySet().sort()) {
+      def workloadStatistics = statistics[workload]
+      res << workloadStatistics.summarize(workload, seconds)
+      total.addAll(workloadStatistics)
+    }
+    res << total.summarize('total', seconds)
+    return res
+  }
+
+  /**
+   * The latencies for a single workload.
+   */
+  static class WorkloadStatistics {
+    long[] latencies = new long[1024]
+    int count = 0
+    long totalNanos = 0
+    long errors = 0
+    String lastError
+
+    synchronized void add(long nanos, String error) {
+      if (count == latencies.length) {
+        latencies = Arrays.copyOf(latencies, count * 2)
+      }
+      latencies[count++] = nanos
+      totalNanos += nanos
+      if (error) {
+        errors++
+        lastError = error
+      }
+    }
+
+    synchronized void addAll(WorkloadStatistics other) {
+      for (int i = 0; i < other.count; i++) {
+        add(other.latencies[i], null)
+      }
+      errors += other.errors
+    }
+
+    synchronized Map<String, Object> summarize(String workload, double seconds) {
+      def sorted = Arrays.copyOf(latencies, count)
+      Arrays.sort(sorted)
+      Map<String, Object> res = [workload : workload, count: count, throughput: count / seconds,
+                                 errors   : errors, mean: count ? toMillis(totalNanos.intdiv(count)) : 0.0d,
+                                 max      : count ? toMillis(sorted[count - 1]) : 0.0d]
+      for (percentile in PERCENTILES) {
+        def index = Math.max((int) Math.ceil(percentile / 100.0d * count) - 1, 0)
+        res["p${percentile.intValue()}".toString()] = count ? toMillis(sorted[index]) : 0.0d
+      }
+      if (lastError) {
+        res.lastError = lastError
+      }
+      return res
+    }
+
+    static double toMillis(long nanos) {
+      return nanos / 1_000_000.0d
+    }
+  }
+
+}
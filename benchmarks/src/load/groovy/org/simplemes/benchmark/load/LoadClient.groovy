@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) Michael Houston 2021. All rights reserved.
+ */
+
+package org.simplemes.benchmark.load
+
+import groovy.json.JsonOutput
+
+import java.net.http.HttpClient
+import java.net.http.HttpRequest
+import java.net.http.HttpResponse
+import java.time.Duration
+
+/**
+ * A simple HTTP client for one simulated operator.  Logs in with the normal login endpoint and sends the JWT cookie
+ * with each request.  Logs in again if the token has expired.
+ */
+class LoadClient {
+
+  /**
+   * The shared HTTP client (connection pool).
+   */
+  static final HttpClient httpClient = HttpClient.newBuilder()
+    .version(HttpClient.Version.HTTP_1_1)
+    .followRedirects(HttpClient.Redirect.NEVER)
+    .connectTimeout(Duration.ofSeconds(10))
+    .build()
+
+  /**
+   * The server URL (e.g. 'http://localhost:8080').
+   */
+  String server
+
+  /**
+   * The user to login as.
+   */
+  String user
+
+  /**
+   * The password.
+   */
+  String password
+
+  /**
+   * The current JWT cookie (e.g. 'JWT=...').
+   */
+  String cookie
+
+  /**
+   * Logs in to the server.
+   */
+  void login() {
+    def request = HttpRequest.newBuilder(URI.create("$server/login"))
+      .header('Content-Type', 'application/json')
+      .POST(HttpRequest.BodyPublishers.ofString(JsonOutput.toJson([username: user, password: password])))
+      .build()
+    def response = httpClient.send(request, HttpResponse.BodyHandlers.ofString())
+    cookie = response.headers().allValues('Set-Cookie').find { it.startsWith('JWT=') }?.tokenize(';')?.first()
+    if (!cookie) {
+      throw new IllegalStateException("Login failed for $user on $server.  Status ${response.statusCode()}.")
+    }
+  }
+
+  /**
+   * Sends a GET request.
+   * @param path The path (and query string).
+   * @return The response.
+   */
+  HttpResponse<String> get(String path) {
+    return send { HttpRequest.newBuilder(URI.create(server + path)).GET() }
+  }
+
+  /**
+   * Sends a POST request with a JSON body.
+   * @param path The path.
+   * @param body The body (converted to JSON).
+   * @return The response.
+   */
+  HttpResponse<String> post(String path, Map body) {
+    def json = JsonOutput.toJson(body)
+    return send {
+      HttpRequest.newBuilder(URI.create(server + path))
+        .header('Content-Type', 'application/json')
+        .POST(HttpRequest.BodyPublishers.ofString(json))
+    }
+  }
+
+  /**
+   * Sends the request with the JWT cookie.  Logs in again and re-sends the request if the login has expired.
+   * @param builder Returns the request builder.
+   * @return The response.
+   */
+  protected HttpResponse<String> send(Closure<HttpRequest.Builder> builder) {
+    if (!cookie) {
+      login()
+    }
+    def response = httpClient.send(builder.call().header('Cookie', cookie).build(), HttpResponse.BodyHandlers.ofString())
+    if (isLoginNeeded(response)) {
+      login()
+      response = httpClient.send(builder.call().header('Cookie', cookie).build(), HttpResponse.BodyHandlers.ofString())
+    }
+    return response
+  }
+
+  /**
+   * Determines if the server rejected the request because the login has expired.
+   * @param response The response.
+   * @return True if a login is needed.
+   */
+  protected boolean isLoginNeeded(HttpResponse response) {
+    if (response.statusCode() == 401) {
+      return true
+    }
+    def location = response.headers().firstValue('Location').orElse('')
+    return response.statusCode() in [302, 303] && location.contains('/login')
+  }
+
+}
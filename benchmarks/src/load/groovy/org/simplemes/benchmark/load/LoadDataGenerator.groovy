@@ -0,0 +1,452 @@
+/*
+ * Copyright (c) Michael Houston 2021. All rights reserved.
+ */
+
+package org.simplemes.benchmark.load
+
+import java.sql.Connection
+import java.sql.DriverManager
+
+/**
+ * Generates production volumes of MES data for capacity tests.  This uses set-based SQL inserts
+ * (<code>INSERT ... SELECT ... generate_series()</code>) directly into an existing (migrated) database,
+ * so millions of orders can be created in minutes.  The orders are created in batches, with a commit after each batch.
+ * <p>
+ * The data has these distributions:
+ * <ul>
+ *   <li><b>Products</b> - 60% with a product routing (2-8 operations), 30% with a master routing (3-10 operations)
+ *                         and 10% with no routing.  1 in 8 is LSN tracked.  1 in 3 is an assembly (1-5 components).</li>
+ *   <li><b>Orders</b> - The product is skewed (a few products have most of the orders).  The qty is exponential
+ *                       (mean of <b>meanQty</b>).  The release dates are spread over the last <b>days</b> in
+ *                       two shifts (06:00-22:00).  Orders released in the last <b>openDays</b> are still open
+ *                       (1 in 4 in work), the rest are done.</li>
+ *   <li><b>LSNs</b> - One LSN per piece for the LSN tracked orders.</li>
+ *   <li><b>Production Logs</b> - One complete per operation (or order) for the completed work.</li>
+ *   <li><b>Assembled Components</b> - All components for done orders, about half for open orders.
+ *                                     1 in 50 is removed.  Only created if the assembly module tables exist.</li>
+ * </ul>
+ * All keys start with the <b>prefix</b> (e.g. order 'LT000000001').  The options (system properties) are:
+ * <pre>
+ *   load.url          - The JDBC URL (Default: jdbc:postgresql://localhost:5432/mes_dev).
+ *   load.dbUser       - The database user (Default: mph).
+ *   load.dbPassword   - The database password (Default: mh1234).
+ *   load.prefix       - The key prefix (Default: LT).
+ *   load.orders       - The number of orders (Default: 1,000,000).
+ *   load.products     - The number of products (Default: 500).
+ *   load.routings     - The number of master routings (Default: 50).
+ *   load.components   - The number of component products (Default: 200).
+ *   load.workCenters  - The number of work centers (Default: 40).
+ *   load.meanQty      - The mean order qty (Default: 10).
+ *   load.days         - The days of history (Default: 365).
+ *   load.openDays     - The orders released in the last N days are open (Default: 2).
+ *   load.batchSize    - The orders per batch/commit (Default: 50,000).
+ *   load.clean        - If true, deletes the existing records with the prefix first (Default: false).
+ * </pre>
+ * The server should be stopped (or restarted afterwards), since it may cache some of the records.
+ */
+class LoadDataGenerator {
+
+  String url = LoadOptions.getString('url', 'jdbc:postgresql://localhost:5432/mes_dev')
+  String dbUser = LoadOptions.getString('dbUser', 'mph')
+  String dbPassword = LoadOptions.getString('dbPassword', 'mh1234')
+  String prefix = LoadOptions.getString('prefix', 'LT')
+  int orders = LoadOptions.getInt('orders', 1_000_000)
+  int products = LoadOptions.getInt('products', 500)
+  int routings = LoadOptions.getInt('routings', 50)
+  int components = LoadOptions.getInt('components', 200)
+  int workCenters = LoadOptions.getInt('workCenters', 40)
+  int meanQty = LoadOptions.getInt('meanQty', 10)
+  int days = LoadOptions.getInt('days', 365)
+  int openDays = LoadOptions.getInt('openDays', 2)
+  int batchSize = LoadOptions.getInt('batchSize', 50_000)
+  boolean clean = LoadOptions.getBoolean('clean', false)
+
+  /**
+   * The database connection.
+   */
+  Connection connection
+
+  /**
+   * True if the assembly module tables exist.
+   */
+  boolean assyTables
+
+  static void main(String[] args) {
+    new LoadDataGenerator().generate()
+  }
+
+  /**
+   * Generates the data.
+   */
+  void generate() {
+    if (!(prefix ==~ /[A-Z][A-Z0-9]{0,9}/)) {
+      throw new IllegalArgumentException("Invalid prefix '$prefix'.  Must be 1-10 upper case letters/digits.")
+    }
+    connection = DriverManager.getConnection(url, dbUser, dbPassword)
+    try {
+      connection.autoCommit = false
+      assyTables = queryLong("SELECT count(*) FROM pg_tables WHERE tablename = 'order_assembled_component'") > 0
+      if (clean) {
+        timed('Clean') { deleteAll() }
+      }
+      timed('Work Centers') { createWorkCenters() }
+      timed('Routings') { createRoutings() }
+      timed('Products') { createProducts() }
+      def start = System.currentTimeMillis()
+      for (int from = 1; from <= orders; from += batchSize) {
+        int to = Math.min(from + batchSize - 1, orders)
+        createOrders(from, to)
+        def elapsed = (System.currentTimeMillis() - start) / 1000.0d
+        println String.format('Orders %,d of %,d (%.0f orders/s)', to, orders, to / Math.max(elapsed, 0.001))
+      }
+      timed('Analyze') {
+        connection.autoCommit = true
+        for (table in ['ordr', 'order_operation', 'order_oper_state', 'lsn', 'lsn_oper_state', 'production_log']) {
+          execute("ANALYZE $table")
+        }
+        if (assyTables) {
+          execute('ANALYZE order_bom_component')
+          execute('ANALYZE order_assembled_component')
+        }
+      }
+      printCounts()
+    } finally {
+      connection.close()
+    }
+  }
+
+  /**
+   * Creates the work centers.
+   */
+  void createWorkCenters() {
+    execute("""
+      INSERT INTO work_center (uuid, work_center, title, overall_status, date_created, date_updated, version)
+      SELECT ${uuid('WC', 'g')}, ${key('WC', 'g', 3)}, 'Load Work Center ' || g, 'ENABLED', now(), now(), 1
+      FROM generate_series(1, $workCenters) g
+    """)
+  }
+
+  /**
+   * Creates the master routings with 3-10 operations each.
+   */
+  void createRoutings() {
+    execute("""
+      INSERT INTO master_routing (uuid, routing, title, date_created, date_updated, version)
+      SELECT ${uuid('R', 'r')}, ${key('R', 'r', 4)}, 'Load Routing ' || r, now(), now(), 1
+      FROM generate_series(1, $routings) r
+    """)
+    execute("""
+      INSERT INTO master_operation (uuid, master_routing_id, sequence, title)
+      SELECT md5('$prefix-R-' || r || '-' || s)::uuid, ${uuid('R', 'r')}, s * 10, 'Operation ' || s * 10
+      FROM generate_series(1, $routings) r
+      CROSS JOIN LATERAL generate_series(1, 3 + r % 8) s
+    """)
+  }
+
+  /**
+   * Creates the products (with product routings, master routings and components).
+   */
+  void createProducts() {
+    execute("""
+      INSERT INTO product (uuid, product, title, lsn_tracking_option, lot_size, date_created, date_updated, version)
+      SELECT ${uuid('C', 'c')}, ${key('C', 'c', 5)}, 'Load Component ' || c, 'ORDER_ONLY', 1, now(), now(), 1
+      FROM generate_series(1, $components) c
+    """)
+    execute("""
+      INSERT INTO product (uuid, product, title, lsn_tracking_option, lot_size, master_routing_id,
+                           date_created, date_updated, version)
+      SELECT ${uuid('P', 'p')}, ${key('P', 'p', 5)}, 'Load Product ' || p,
+             CASE WHEN p % 8 = 0 THEN 'LSN_ONLY' ELSE 'ORDER_ONLY' END, 1,
+             CASE WHEN p % 10 BETWEEN 6 AND 8 THEN md5('$prefix-R-' || (1 + p % $routings))::uuid END,
+             now(), now(), 1
+      FROM generate_series(1, $products) p
+    """)
+    execute("""
+      INSERT INTO product_operation (uuid, product_id, sequence, title)
+      SELECT md5('$prefix-P-' || p || '-' || s)::uuid, ${uuid('P', 'p')}, s * 10, 'Operation ' || s * 10
+      FROM generate_series(1, $products) p
+      CROSS JOIN LATERAL generate_series(1, 2 + p % 7) s
+      WHERE p % 10 < 6
+    """)
+    if (assyTables) {
+      execute("""
+        INSERT INTO product_component (uuid, product_id, sequence, component_id, qty)
+        SELECT md5('$prefix-P-' || p || '-C-' || s)::uuid, ${uuid('P', 'p')}, s * 10,
+               md5('$prefix-C-' || (1 + (p * 7 + s) % $components))::uuid, 1 + s % 2
+        FROM generate_series(1, $products) p
+        CROSS JOIN LATERAL generate_series(1, 1 + p % 5) s
+        WHERE p % 3 = 0
+      """)
+    }
+  }
+
+  /**
+   * Creates one batch of orders and the related records.  Commits at the end.
+   * @param from The first order number.
+   * @param to The last order number.
+   */
+  void createOrders(int from, int to) {
+    def batch = "o.ordr BETWEEN '${key(from, 9)}' AND '${key(to, 9)}'"
+
+    // The orders.  The product choice is skewed to the first products (power of 3).
+    execute("""
+      WITH base AS (
+        SELECT g, 1 + floor($products * power(random(), 3))::int AS p,
+               1 + floor(-ln(1.0 - random()) * ${meanQty - 1})::int AS qty,
+               least(date_trunc('day', now() - random() * interval '$days days')
+                     + (6 + random() * 16) * interval '1 hour', now()) AS released,
+               (10 + random() * 230) * interval '1 minute' AS cycle
+        FROM generate_series($from, $to) g
+      ), o AS (
+        SELECT *, released > now() - interval '$openDays days' AS open, p % 10 = 9 AS unrouted,
+               p % 8 = 0 AS lsns, g % 4 = 0 AS working
+        FROM base
+      )
+      INSERT INTO ordr (uuid, ordr, overall_status, qty_to_build, qty_released, product_id, lsn_tracking_option,
+                        date_released, date_completed, qty_in_queue, qty_in_work, qty_done,
+                        date_qty_queued, date_first_queued, date_qty_started, date_first_started,
+                        date_created, date_updated, version)
+      SELECT ${uuid('O', 'g')}, ${key('g', 9)}, CASE WHEN open THEN 'READY' ELSE 'DONE' END, qty, qty,
+             ${uuid('P', 'p')}, CASE WHEN lsns THEN 'LSN_ONLY' ELSE 'ORDER_ONLY' END,
+             released, CASE WHEN NOT open THEN released + cycle END,
+             CASE WHEN open AND unrouted AND NOT lsns AND NOT working THEN qty ELSE 0 END,
+             CASE WHEN open AND unrouted AND NOT lsns AND working THEN qty ELSE 0 END,
+             CASE WHEN open THEN 0 ELSE qty END,
+             released, released,
+             CASE WHEN NOT open OR working THEN released END, CASE WHEN NOT open OR working THEN released END,
+             released, CASE WHEN open THEN released ELSE released + cycle END, 1
+      FROM o
+    """)
+
+    // The order routings, copied from the product or master routing.
+    execute("""
+      INSERT INTO order_operation (uuid, order_id, sequence, title)
+      SELECT md5(o.uuid::text || '-' || op.sequence)::uuid, o.uuid, op.sequence, op.title
+      FROM ordr o
+      JOIN product p ON p.uuid = o.product_id
+      JOIN LATERAL (SELECT sequence, title FROM product_operation WHERE product_id = p.uuid
+                    UNION ALL
+                    SELECT sequence, title FROM master_operation WHERE master_routing_id = p.master_routing_id) op
+        ON true
+      WHERE $batch
+    """)
+
+    // The LSNs for LSN tracked orders.  The LSN qty is in queue/work only for open orders with no routing.
+    execute("""
+      INSERT INTO lsn (uuid, lsn, order_id, status, qty, qty_in_queue, qty_in_work, qty_done,
+                       date_qty_queued, date_first_queued, date_created, date_updated, version)
+      SELECT md5(o.uuid::text || '-L-' || s)::uuid, o.ordr || '-' || lpad(s::text, 4, '0'), o.uuid,
+             CASE WHEN o.overall_status = 'READY' THEN 'READY' ELSE 'DONE' END, 1,
+             CASE WHEN o.overall_status = 'READY' AND r.ops = 0 AND s % 4 <> 0 THEN 1 ELSE 0 END,
+             CASE WHEN o.overall_status = 'READY' AND r.ops = 0 AND s % 4 = 0 THEN 1 ELSE 0 END,
+             CASE WHEN o.overall_status = 'READY' THEN 0 ELSE 1 END,
+             o.date_released, o.date_released, o.date_released, o.date_updated, 1
+      FROM ordr o
+      CROSS JOIN LATERAL (SELECT count(*) AS ops FROM order_operation WHERE order_id = o.uuid) r
+      CROSS JOIN LATERAL generate_series(1, o.qty_to_build::int) s
+      WHERE $batch AND o.lsn_tracking_option = 'LSN_ONLY'
+    """)
+
+    // The operation states for routed orders: done before the current operation, queued/in work at it.
+    def stateColumns = """qty_in_queue, qty_in_work, qty_done, date_qty_queued, date_first_queued,
+                          date_created, date_updated"""
+    def stateValues = """CASE WHEN s.open AND s.pos = s.current_pos AND NOT s.working THEN s.qty ELSE 0 END,
+                         CASE WHEN s.open AND s.pos = s.current_pos AND s.working THEN s.qty ELSE 0 END,
+                         CASE WHEN NOT s.open OR s.pos < s.current_pos THEN s.qty ELSE 0 END,
+                         s.date_released, s.date_released, s.date_released, s.date_released"""
+    def stateSource = """SELECT oo.order_id, oo.sequence, o.overall_status = 'READY' AS open, o.date_released,
+                                o.qty_to_build AS qty, (hashtext(o.ordr) & 2147483647) % 4 = 0 AS working,
+                                row_number() OVER (PARTITION BY oo.order_id ORDER BY oo.sequence) AS pos,
+                                1 + (hashtext(o.ordr) & 2147483647) % count(*) OVER (PARTITION BY oo.order_id) AS current_pos
+                         FROM order_operation oo
+                         JOIN ordr o ON o.uuid = oo.order_id
+                         WHERE $batch"""
+    execute("""
+      INSERT INTO order_oper_state (uuid, sequence, order_id, $stateColumns)
+      SELECT md5(s.order_id::text || '-S-' || s.sequence)::uuid, s.sequence, s.order_id, $stateValues
+      FROM ($stateSource AND o.lsn_tracking_option <> 'LSN_ONLY') s
+    """)
+    execute("""
+      INSERT INTO lsn_oper_state (uuid, sequence, lsn_id, $stateColumns, version)
+      SELECT md5(l.uuid::text || '-S-' || s.sequence)::uuid, s.sequence, l.uuid,
+             ${stateValues.replace('s.qty', '1')}, 1
+      FROM ($stateSource AND o.lsn_tracking_option = 'LSN_ONLY') s
+      JOIN lsn l ON l.order_id = s.order_id
+    """)
+
+    // The production logs for the completed work.  One per operation (or order, if no routing).
+    execute("""
+      INSERT INTO production_log (uuid, action, date_time, start_date_time, elapsed_time, user_name, ordr,
+                                  product, master_routing, operation_sequence, work_center,
+                                  qty, qty_started, qty_completed, date_created)
+      SELECT md5(o.uuid::text || '-PL-' || coalesce(op.sequence, 0))::uuid, 'COMPLETE',
+             o.date_released + coalesce(op.pos, 1) * step.len,
+             o.date_released + (coalesce(op.pos, 1) - 0.6)::float8 * step.len,
+             (extract(epoch FROM step.len) * 600)::bigint,
+             'OPER' || (1 + (hashtext(o.ordr || coalesce(op.sequence, 0)) & 2147483647) % 200),
+             o.ordr, p.product, mr.routing, coalesce(op.sequence, 0),
+             '$prefix-WC' || lpad((1 + ((hashtext(p.product) & 2147483647) + coalesce(op.sequence, 0) / 10) % $workCenters)::text, 3, '0'),
+             o.qty_to_build, o.qty_to_build, o.qty_to_build, o.date_released + coalesce(op.pos, 1) * step.len
+      FROM ordr o
+      JOIN product p ON p.uuid = o.product_id
+      LEFT JOIN master_routing mr ON mr.uuid = p.master_routing_id
+      LEFT JOIN LATERAL (SELECT sequence, row_number() OVER (ORDER BY sequence) AS pos, count(*) OVER () AS n
+                         FROM order_operation WHERE order_id = o.uuid) op ON true
+      CROSS JOIN LATERAL (SELECT (o.date_updated - o.date_released) / coalesce(op.n, 1)::float8 AS len) step
+      WHERE $batch AND o.overall_status = 'DONE'
+    """)
+
+    if (assyTables) {
+      execute("""
+        INSERT INTO order_bom_component (uuid, order_id, sequence, component_id, qty)
+        SELECT md5(o.uuid::text || '-B-' || pc.sequence)::uuid, o.uuid, pc.sequence, pc.component_id, pc.qty
+        FROM ordr o
+        JOIN product_component pc ON pc.product_id = o.product_id
+        WHERE $batch
+      """)
+      execute("""
+        INSERT INTO order_assembled_component (uuid, order_id, sequence, bom_sequence, location, component_id, qty,
+                                               user_name, work_center_id, state, removed_by_user_name, removed_date,
+                                               date_created, date_updated)
+        SELECT md5(o.uuid::text || '-A-' || pc.sequence)::uuid, o.uuid, pc.sequence, pc.sequence,
+               'BIN' || pc.sequence, pc.component_id, pc.qty,
+               'OPER' || (1 + (hashtext(o.ordr) & 2147483647) % 200),
+               md5('$prefix-WC-' || (1 + (hashtext(o.ordr) & 2147483647) % $workCenters))::uuid,
+               CASE WHEN a.removed THEN 'REMOVED' ELSE 'ASSEMBLED' END,
+               CASE WHEN a.removed THEN 'OPER' || (1 + (hashtext(o.ordr) & 2147483647) % 200) END,
+               CASE WHEN a.removed THEN o.date_updated END,
+               o.date_released, o.date_updated
+        FROM ordr o
+        JOIN product_component pc ON pc.product_id = o.product_id
+        CROSS JOIN LATERAL (SELECT (hashtext(o.ordr || pc.sequence) & 2147483647) AS h) x
+        CROSS JOIN LATERAL (SELECT x.h % 50 = 0 AS removed) a
+        WHERE $batch AND (o.overall_status = 'DONE' OR x.h % 2 = 0)
+      """)
+    }
+    connection.commit()
+  }
+
+  /**
+   * Deletes all records with the prefix.  Commits at the end.
+   */
+  void deleteAll() {
+    def orders = "SELECT uuid FROM ordr WHERE ordr ~ '^${prefix}[0-9]{9}\$'"
+    if (assyTables) {
+      execute("DELETE FROM order_assembled_component WHERE order_id IN ($orders)")
+      execute("DELETE FROM order_bom_component WHERE order_id IN ($orders)")
+      execute("DELETE FROM product_component WHERE product_id IN (SELECT uuid FROM product WHERE product LIKE '$prefix-%')")
+    }
+    execute("DELETE FROM production_log WHERE ordr ~ '^${prefix}[0-9]{9}\$'")
+    execute("DELETE FROM lsn_oper_state WHERE lsn_id IN (SELECT uuid FROM lsn WHERE order_id IN ($orders))")
+    execute("DELETE FROM lsn WHERE order_id IN ($orders)")
+    execute("DELETE FROM order_oper_state WHERE order_id IN ($orders)")
+    execute("DELETE FROM order_operation WHERE order_id IN ($orders)")
+    execute("DELETE FROM action_log WHERE order_id IN ($orders)")
+    execute("DELETE FROM ordr WHERE ordr ~ '^${prefix}[0-9]{9}\$'")
+    execute("DELETE FROM product_operation WHERE product_id IN (SELECT uuid FROM product WHERE product LIKE '$prefix-%')")
+    execute("DELETE FROM product WHERE product LIKE '$prefix-%'")
+    execute("DELETE FROM master_operation WHERE master_routing_id IN (SELECT uuid FROM master_routing WHERE routing LIKE '$prefix-%')")
+    execute("DELETE FROM master_routing WHERE routing LIKE '$prefix-%'")
+    execute("DELETE FROM work_center WHERE work_center LIKE '$prefix-%'")
+    connection.commit()
+  }
+
+  /**
+   * Prints the row counts for the generated tables.
+   */
+  void printCounts() {
+    def tables = ['ordr', 'order_operation', 'order_oper_state', 'lsn', 'lsn_oper_state', 'production_log']
+    if (assyTables) {
+      tables << 'order_assembled_component'
+    }
+    for (table in tables) {
+      println String.format('%-26s %,15d rows', table, queryLong("SELECT count(*) FROM $table"))
+    }
+  }
+
+  /**
+   * Builds the SQL expression for a deterministic UUID for the given record type and number.
+   * @param type The record type (e.g. 'O' for orders).
+   * @param column The column/alias with the record number.
+   * @return The SQL expression.
+   */
+  String uuid(String type, String column) {
+    return "md5('$prefix-$type-' || $column)::uuid"
+  }
+
+  /**
+   * Builds the SQL expression for the key field for the given record type and number (e.g. 'LT-P00001').
+   * @param type The record type (e.g. 'P' for products).
+   * @param column The column/alias with the record number.
+   * @param digits The number of digits.
+   * @return The SQL expression.
+   */
+  String key(String type, String column, int digits) {
+    return "'$prefix-$type' || lpad($column::text, $digits, '0')"
+  }
+
+  /**
+   * Builds the SQL expression for the order key (e.g. 'LT000000001').
+   * @param column The column/alias with the order number.
+   * @param digits The number of digits.
+   * @return The SQL expression.
+   */
+  String key(String column, int digits) {
+    return "'$prefix' || lpad($column::text, $digits, '0')"
+  }
+
+  /**
+   * Builds the order key (e.g. 'LT000000001').
+   * @param number The order number.
+   * @param digits The number of digits.
+   * @return The key.
+   */
+  String key(int number, int digits) {
+    return prefix + number.toString().padLeft(digits, '0')
+  }
+
+  /**
+   * Executes the given SQL statement.
+   * @param sql The SQL.
+   * @return The number of rows updated.
+   */
+  int execute(String sql) {
+    def statement = connection.createStatement()
+    try {
+      return statement.executeUpdate(sql)
+    } finally {
+      statement.close()
+    }
+  }
+
+  /**
+   * Executes the given single value query.
+   * @param sql The SQL.
+   * @return The value.
+   */
+  long queryLong(String sql) {
+    def statement = connection.createStatement()
+    try {
+      def resultSet = statement.executeQuery(sql)
+      resultSet.next()
+      return resultSet.getLong(1)
+    } finally {
+      statement.close()
+    }
+  }
+
+  /**
+   * Executes the closure and prints the elapsed time.  Commits at the end.
+   * @param title The title for the step.
+   * @param closure The closure to execute.
+   */
+  void timed(String title, Closure closure) {
+    def start = System.currentTimeMillis()
+    closure.call()
+    if (!connection.autoCommit) {
+      connection.commit()
+    }
+    println "$title: ${System.currentTimeMillis() - start}ms"
+  }
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) Michael Houston 2021. All rights reserved.
+ */
+
+package org.simplemes.benchmark.load
+
+/**
+ * Reads the load harness options from the system properties (e.g. <code>-Dload.orders=1000000</code>).  The
+ * Gradle tasks pass any <code>-Pload.xyz=...</code> project properties as system properties.
+ */
+class LoadOptions {
+
+  /**
+   * The prefix for the option system properties.
+   */
+  static final String PREFIX = 'load.'
+
+  /**
+   * Returns the given option as a String.
+   * @param name The option name (without the 'load.' prefix).
+   * @param defaultValue The default value.
+   * @return The value.
+   */
+  static String getString(String name, String defaultValue) {
+    return System.getProperty(PREFIX + name, defaultValue)
+  }
+
+  /**
+   * Returns the given option as an int.
+   * @param name The option name (without the 'load.' prefix).
+   * @param defaultValue The default value.
+   * @return The value.
+   */
+  static int getInt(String name, int defaultValue) {
+    def s = System.getProperty(PREFIX + name)
+    return s ? Integer.parseInt(s.replace('_', '')) : defaultValue
+  }
+
+  /**
+   * Returns the given option as a boolean.
+   * @param name The option name (without the 'load.' prefix).
+   * @param defaultValue The default value.
+   * @return The value.
+   */
+  static boolean getBoolean(String name, boolean defaultValue) {
+    def s = System.getProperty(PREFIX + name)
+    return s ? Boolean.parseBoolean(s) : defaultValue
+  }
+
+  /**
+   * Parses a weighted list option (e.g. 'scan:30,start:20').
+   * @param name The option name (without the 'load.' prefix).
+   * @param defaultValue The default value.
+   * @return The weights, in the order given.
+   */
+  static Map<String, Integer> getWeights(String name, String defaultValue) {
+    Map<String, Integer> res = [:]
+    for (item in getString(name, defaultValue).tokenize(',')) {
+      def (key, weight) = item.tokenize(':')
+      res[key.trim()] = Integer.parseInt(weight.trim())
+    }
+    return res
+  }
+
+}
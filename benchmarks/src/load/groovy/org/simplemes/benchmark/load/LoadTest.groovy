@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) Michael Houston 2021. All rights reserved.
+ */
+
+package org.simplemes.benchmark.load
+
+import groovy.json.JsonOutput
+
+import java.time.OffsetDateTime
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * Drives a concurrent shop floor workload against a running server and reports the throughput and latency
+ * percentiles for each type of request.  Each simulated operator runs on its own thread and repeatedly picks
+ * a request from the weighted mix, with a random think time between requests.
+ * <p>
+ * The operators use the normal client endpoints:
+ * <ul>
+ *   <li><b>workList</b> - <code>GET /workList/findWork</code>.  Refreshes the operator's list of available work.</li>
+ *   <li><b>scan</b> - <code>POST /scan/scan</code> with an order/LSN from the work list.</li>
+ *   <li><b>start</b> - <code>POST /work/start</code> for one piece of an in queue order/LSN.</li>
+ *   <li><b>complete</b> - <code>POST /work/complete</code> for one piece started by the operator.</li>
+ *   <li><b>report</b> - <code>GET /report</code> for the given report.</li>
+ * </ul>
+ * The options (system properties) are:
+ * <pre>
+ *   load.server      - The server URL (Default: http://localhost:8080).
+ *   load.user        - The user for all operators (Default: admin).
+ *   load.password    - The password (Default: admin).
+ *   load.operators   - The number of concurrent operators (Default: 50).
+ *   load.warmup      - The warm-up time (seconds).  Not recorded (Default: 30).
+ *   load.duration    - The recorded test time (seconds) (Default: 300).
+ *   load.thinkTime   - The average think time between requests (ms) (Default: 200).
+ *   load.mix         - The request weights (Default: scan:30,start:20,complete:20,workList:25,report:5).
+ *   load.pageSize    - The work list page size (Default: 50).
+ *   load.pages       - The number of work list pages the operators pick from (Default: 10).
+ *   load.reportLoc   - The report for the report requests (Default: reports/core/ProductionChart.jrxml).
+ *   load.results     - The JSON results file (Default: build/reports/load/results.json).
+ * </pre>
+ */
+class LoadTest {
+
+  String server = LoadOptions.getString('server', 'http://localhost:8080')
+  String user = LoadOptions.getString('user', 'admin')
+  String password = LoadOptions.getString('password', 'admin')
+  int operators = LoadOptions.getInt('operators', 50)
+  int warmup = LoadOptions.getInt('warmup', 30)
+  int duration = LoadOptions.getInt('duration', 300)
+  int thinkTime = LoadOptions.getInt('thinkTime', 200)
+  Map<String, Integer> mix = LoadOptions.getWeights('mix', 'scan:30,start:20,complete:20,workList:25,report:5')
+  int pageSize = LoadOptions.getInt('pageSize', 50)
+  int pages = LoadOptions.getInt('pages', 10)
+  String reportLoc = LoadOptions.getString('reportLoc', 'reports/core/ProductionChart.jrxml')
+  String results = LoadOptions.getString('results', 'build/reports/load/results.json')
+
+  /**
+   * The recorded latencies.
+   */
+  LatencyRecorder recorder = new LatencyRecorder()
+
+  /**
+   * Set to true to stop the operators.
+   */
+  volatile boolean stopped
+
+  static void main(String[] args) {
+    new LoadTest().run()
+  }
+
+  /**
+   * Runs the load test and prints/writes the results.
+   */
+  void run() {
+    def unknown = mix.keySet() - Operator.WORKLOADS
+    if (unknown) {
+      throw new IllegalArgumentException("Unknown workload(s) $unknown in load.mix.  Must be one of ${Operator.WORKLOADS}.")
+    }
+    println "Load test: $operators operators, ${warmup}s warm-up, ${duration}s test on $server, mix $mix"
+    // A fixed pool with one platform thread per operator.  The operators spend most of their time blocked on
+    // the server or thinking, so the pool size is the concurrency.
+    ExecutorService executor = Executors.newFixedThreadPool(operators)
+    for (int i = 0; i < operators; i++) {
+      def operator = new Operator(test: this, id: i,
+                                  client: new LoadClient(server: server, user: user, password: password))
+      executor.submit(operator)
+    }
+
+    TimeUnit.SECONDS.sleep(warmup)
+    recorder.recording = true
+    def start = System.nanoTime()
+    TimeUnit.SECONDS.sleep(duration)
+    recorder.recording = false
+    def seconds = (System.nanoTime() - start) / 1_000_000_000.0d
+    stopped = true
+    executor.shutdown()
+    executor.awaitTermination(60, TimeUnit.SECONDS)
+
+    def summary = recorder.summarize(seconds)
+    printSummary(summary)
+    writeResults(summary, seconds)
+  }
+
+  /**
+   * Prints the summary as a table.
+   * @param summary The summary rows.
+   */
+  void printSummary(List<Map<String, Object>> summary) {
+    def format = '%-10s %10s %9s %8s %9s %9s %9s %9s %9s %9s%n'
+    printf(format, 'Workload', 'Count', 'Req/s', 'Errors', 'Mean', 'p50', 'p90', 'p95', 'p99', 'Max (ms)')
+    for (row in summary) {
+      List values = [row.workload, String.format('%,d', row.count), String.format('%.1f', row.throughput), row.errors]
+      values.addAll(['mean', 'p50', 'p90', 'p95', 'p99', 'max'].collect { String.format('%.1f', row[it]) })
+      printf(format, values as Object[])
+    }
+    for (row in summary) {
+      if (row.lastError) {
+        println "Last error for $row.workload: $row.lastError"
+      }
+    }
+  }
+
+  /**
+   * Writes the settings and summary to the JSON results file.
+   * @param summary The summary rows.
+   * @param seconds The recorded time (seconds).
+   */
+  void writeResults(List<Map<String, Object>> summary, double seconds) {
+    def file = new File(results)
+    file.parentFile?.mkdirs()
+    def settings = [server   : server, operators: operators, warmup: warmup, duration: duration,
+                    thinkTime: thinkTime, mix: mix, pageSize: pageSize, pages: pages, reportLoc: reportLoc]
+    def json = JsonOutput.toJson([date: OffsetDateTime.now().toString(), seconds: seconds,
+                                  settings: settings, results: summary])
+    file.text = JsonOutput.prettyPrint(json)
+    println "Results written to ${file.absolutePath}"
+  }
+
+}
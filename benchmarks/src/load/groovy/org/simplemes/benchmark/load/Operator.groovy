@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) Michael Houston 2021. All rights reserved.
+ */
+
+package org.simplemes.benchmark.load
+
+import groovy.json.JsonSlurper
+
+import java.net.http.HttpResponse
+
+/**
+ * A simulated shop floor operator for the {@link LoadTest}.  Repeatedly picks a request from the weighted mix until
+ * the test is stopped.  The operator keeps the work found by the last work list request and the pieces it has
+ * started, so the start and complete requests act on real work (like the dashboard does).
+ */
+class Operator implements Runnable {
+
+  /**
+   * The supported workloads.
+   */
+  static final List<String> WORKLOADS = ['scan', 'start', 'complete', 'workList', 'report']
+
+  /**
+   * The load test (options, recorder and stop flag).
+   */
+  LoadTest test
+
+  /**
+   * The operator number.
+   */
+  int id
+
+  /**
+   * The HTTP client for this operator.
+   */
+  LoadClient client
+
+  /**
+   * The random number source.
+   */
+  Random random = new Random()
+
+  /**
+   * The in queue work from the last work list request.
+   */
+  List<Map> queued = []
+
+  /**
+   * The requests for the pieces started by this operator, but not completed yet.
+   */
+  List<Map> started = []
+
+  @Override
+  void run() {
+    Thread.currentThread().name = "operator-$id"
+    while (!test.stopped) {
+      def workload = chooseWorkload()
+      def start = System.nanoTime()
+      String error
+      try {
+        error = perform(workload)
+      } catch (Exception e) {
+        error = e.toString()
+      }
+      test.recorder.record(workload, System.nanoTime() - start, error)
+      think()
+    }
+  }
+
+  /**
+   * Picks the next request from the weighted mix.  Falls back to a start or work list request when the operator
+   * has no work for the request picked.
+   * @return The workload.
+   */
+  String chooseWorkload() {
+    def mix = test.mix
+    int n = random.nextInt((int) mix.values().sum())
+    def workload = mix.keySet().find { n -= mix[it]; n < 0 }
+    if (workload == 'complete' && !started) {
+      workload = 'start'
+    }
+    if ((workload == 'start' || workload == 'scan') && !queued) {
+      workload = 'workList'
+    }
+    return workload
+  }
+
+  /**
+   * Performs a single request.
+   * @param workload The workload.
+   * @return The error message.  Null if the request succeeded.
+   */
+  String perform(String workload) {
+    switch (workload) {
+      case 'workList':
+        def response = client.get("/workList/findWork?size=${test.pageSize}&from=${random.nextInt(test.pages)}")
+        if (response.statusCode() == 200) {
+          def data = new JsonSlurper().parseText(response.body()).data as List<Map>
+          queued = data.findAll { it.qtyInQueue }
+        }
+        return checkResponse(response)
+      case 'scan':
+        def row = queued.remove(random.nextInt(queued.size()))
+        return checkResponse(client.post('/scan/scan', [barcode: row.lsn ?: row.order]))
+      case 'start':
+        def request = buildRequest(queued.remove(random.nextInt(queued.size())))
+        def response = client.post('/work/start', request)
+        if (response.statusCode() == 200) {
+          started << request
+        }
+        return checkResponse(response)
+      case 'complete':
+        return checkResponse(client.post('/work/complete', started.remove(0)))
+      case 'report':
+        return checkResponse(client.get("/report?loc=${URLEncoder.encode(test.reportLoc, 'UTF-8')}"))
+      default:
+        throw new IllegalArgumentException("Unknown workload '$workload'.  Must be one of $WORKLOADS.")
+    }
+  }
+
+  /**
+   * Builds the start/complete request for one piece of the given work list row.  Uses the barcode, like the dashboard.
+   * @param row The work list row.
+   * @return The request.
+   */
+  Map buildRequest(Map row) {
+    Map request = [barcode: row.lsn ?: row.order, qty: 1.0]
+    if (row.operationSequence) {
+      request.operationSequence = row.operationSequence
+    }
+    return request
+  }
+
+  /**
+   * Checks the response for errors.
+   * @param response The response.
+   * @return The error message.  Null if the request succeeded.
+   */
+  String checkResponse(HttpResponse<String> response) {
+    if (response.statusCode() == 200) {
+      return null
+    }
+    return "${response.statusCode()} ${response.body()?.take(200)}"
+  }
+
+  /**
+   * Waits a random think time (0.5 to 1.5 times the average think time).
+   */
+  void think() {
+    if (test.thinkTime > 0) {
+      Thread.sleep((long) (test.thinkTime * (0.5d + random.nextDouble())))
+    }
+  }
+
+}
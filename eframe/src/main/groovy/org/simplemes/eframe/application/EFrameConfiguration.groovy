@@ -63,6 +63,40 @@ class EFrameConfiguration {
    */
   Integer cacheStableResources = 24 * 3600
 
+  /**
+   * If true, then the records found by key or UUID with DomainUtils.findDomainRecord() are cached for the rest of
+   * the HTTP request.  Repeated lookups of the same record in one request will return the same object
+   * (<b>Default:</b> false).
+   */
+  boolean domainRequestCache = false
+
+  /**
+   * The maximum number of generated page fragments (e.g. list definitions) held in the marker fragment cache.
+   * Use 0 to disable the cache.  The cache is never used in the development environment
+   * (<b>Default:</b> 1000).
+   */
+  Integer markerCacheSize = 1000
+
+  /**
+   * The maximum number of records whose lazy child lists or references are loaded with one query.  When a lazy field
+   * is first used on a record read by a list query, the same field is loaded for the other records from that query.
+   * Use 0 to disable this automatic batch loading (<b>Default:</b> 100).
+   */
+  Integer batchFetchSize = 100
+
+  /**
+   * The maximum number of user/page preferences held in memory by the user preference store.  Use 0 to disable the
+   * cache (<b>Default:</b> 1000).
+   */
+  Integer preferenceCacheSize = 1000
+
+  /**
+   * The number of seconds the user preference changes (e.g. column resizes) are held before they are written to the
+   * database.  All changes for a user/page in this time are written once.  Use 0 to write the changes immediately
+   * (<b>Default:</b> 2).
+   */
+  Integer preferenceFlushDelay = 2
+
   /**
    * Archive-related configurations.
    */
@@ -116,6 +150,11 @@ class EFrameConfiguration {
      */
     boolean log = true
 
+    /**
+     * If true, then the archive files are compressed with gzip (extension '.arc.gz'). (<b>Default</b>: false)
+     */
+    boolean compress = false
+
     /**
      * The number days before 'old' objects are archived.  Each module decides which object(s) are archived with
      * this age horizon.
@@ -165,6 +204,29 @@ class EFrameConfiguration {
      */
     Integer bulkBatchSize = 50
 
+    /**
+     * The max number of asynchronous bulk index requests sent to the search engine at one time (<b>Default:</b> 4).
+     */
+    Integer maxInFlightRequests = 4
+
+    /**
+     * If true, then the index request content is compressed (gzip) (<b>Default:</b> true).
+     */
+    Boolean compressRequests = true
+
+    /**
+     * If true, then the trigram (pg_trgm) indexes are created on startup for the domain key fields and the
+     * <code>dbSearchFields</code>.  These indexes speed up the database searches used when no search engine
+     * is configured (<b>Default:</b> false).
+     */
+    Boolean dbSearchIndexes = false
+
+    /**
+     * The max number of matching records counted for a database search.  Larger totals are estimated.
+     * Use 0 to always count all matching records (<b>Default:</b> 10000).
+     */
+    Integer dbCountLimit = 10000
+
     /**
      * The search engine server (host) that will provide the search functions.
      */
@@ -184,6 +246,41 @@ class EFrameConfiguration {
      */
     Integer jwtRefreshUseMax = 100
 
+    /**
+     * The number of threads used to authenticate users on login.  Login requests are processed on
+     * this pool instead of the request thread (<b>Default:</b> 4).
+     */
+    Integer authThreadSize = 4
+
+    /**
+     * The maximum number of login requests waiting for an authentication thread.  Requests beyond this
+     * are rejected with a failed login (<b>Default:</b> 1000).
+     */
+    Integer authQueueSize = 1000
+
+    /**
+     * The maximum number of password hash checks that can run at once (<b>Default:</b> the number of processors).
+     */
+    Integer authHashMax = Runtime.runtime.availableProcessors()
+
+    /**
+     * The number of seconds the user and roles used for login are cached.  Use 0 to disable the cache
+     * (<b>Default:</b> 60).
+     */
+    Integer userCacheTTL = 60
+
+    /**
+     * The number of seconds an unchanged refresh token state is cached before it is re-read from the database.
+     * Use 0 to disable the cache (<b>Default:</b> 60).
+     */
+    Integer refreshCacheTTL = 60
+
+    /**
+     * The number of seconds between the background writes of the refresh token use counts.  Use 0 to disable
+     * the background writes (<b>Default:</b> 10).
+     */
+    Integer refreshFlushDelay = 10
+
   }
 
 }
@@ -35,7 +35,8 @@ class InitialDataLoader {
   List<Class> dataLoad() {
     def classesLoaded = []
     def start = System.currentTimeMillis()
-    def allDomains = DomainUtils.instance.allDomains
+    // Copy the list since the additions' loaders are added to it.
+    def allDomains = new ArrayList<Class>(DomainUtils.instance.allDomains ?: [])
     if (!allDomains) {
       // Skip if database is not started yet.
       return classesLoaded
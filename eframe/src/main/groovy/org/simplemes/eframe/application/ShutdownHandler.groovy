@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) Michael Houston 2020. All rights reserved.
+ */
+
+package org.simplemes.eframe.application
+
+import groovy.util.logging.Slf4j
+import io.micronaut.context.event.ShutdownEvent
+import io.micronaut.runtime.event.annotation.EventListener
+import org.simplemes.eframe.preference.UserPreferenceStore
+import org.simplemes.eframe.security.RefreshTokenCache
+
+import javax.inject.Singleton
+
+/**
+ * This bean is executed on a normal shutdown.  This is used to write the pending (write-behind) values held by the
+ * framework caches to the database, while the database is still available.
+ */
+@Slf4j
+@Singleton
+class ShutdownHandler {
+
+  /**
+   * Executed on shutdown.  Writes the pending cache values.  Failures are logged and do not stop the shutdown.
+   * @param event The event.
+   */
+  @EventListener
+  void onShutdown(ShutdownEvent event) {
+    try {
+      RefreshTokenCache.instance.shutdown()
+    } catch (Exception e) {
+      log.error('Unable to write the pending refresh token counts', e)
+    }
+    try {
+      UserPreferenceStore.instance.shutdown()
+    } catch (Exception e) {
+      log.error('Unable to write the pending user preferences', e)
+    }
+  }
+
+}
@@ -16,10 +16,15 @@ import io.micronaut.context.event.StartupEvent
 import io.micronaut.runtime.event.annotation.EventListener
 import io.micronaut.scheduling.annotation.Async
 import org.simplemes.eframe.application.issues.WorkArounds
+import org.simplemes.eframe.controller.ControllerUtils
+import org.simplemes.eframe.custom.ExtensibleFieldIndexHelper
 import org.simplemes.eframe.date.EFrameDateFormat
 import org.simplemes.eframe.misc.TypeUtils
 import org.simplemes.eframe.search.PassAllJacksonFilter
 import org.simplemes.eframe.search.SearchEnginePoolExecutor
+import org.simplemes.eframe.search.SearchHelper
+import org.simplemes.eframe.security.SecurityRuleTable
+import org.simplemes.eframe.web.asset.WebClientAssetCache
 
 import javax.inject.Singleton
 
@@ -68,11 +73,30 @@ class StartupHandler {
     if (!TypeUtils.isMock(Holders.applicationContext)) {
       def loader = Holders.applicationContext.getBean(InitialDataLoader)
       loader.dataLoad()
+      createCustomFieldIndexes()
+      WebClientAssetCache.instance.buildIndex()
+      SecurityRuleTable.instance.build(ControllerUtils.instance.allControllers)
     } else {
       log.debug("Disabled Initial Data Load for mock applicationContext")
     }
   }
 
+  /**
+   * Creates any DB indexes needed for the indexed custom fields and the database searches.  Failures are logged and do not stop the startup.
+   */
+  void createCustomFieldIndexes() {
+    try {
+      ExtensibleFieldIndexHelper.instance.createMissingIndexes()
+    } catch (Exception e) {
+      log.error('Unable to create custom field indexes', e)
+    }
+    try {
+      SearchHelper.instance.createDBSearchIndexes()
+    } catch (Exception e) {
+      log.error('Unable to create database search indexes', e)
+    }
+  }
+
   /**
    * Waits for the application context to be defined.
    */
@@ -35,6 +35,16 @@ interface ArchiverInterface {
    */
   Object[] unarchive(String ref, Boolean save)
 
+  /**
+   * Unarchive the given file, one domain object at a time.  Each object is passed to the callback
+   * and is not held by the archiver.  Used for large archives.
+   * @param ref The file reference provided by the archive process.
+   * @param save If true, then the unarchived records will be automatically saved by the unarchive logic.
+   * @param callback The closure called for each domain object unarchived.
+   * @return The number of domain objects unarchived.
+   */
+  int unarchiveEach(String ref, Boolean save, Closure callback)
+
 
   /**
    * Build the archive basic reference name.  This is a dynamic value that is intended to avoid
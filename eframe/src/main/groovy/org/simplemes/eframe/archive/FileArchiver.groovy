@@ -4,12 +4,17 @@
 
 package org.simplemes.eframe.archive
 
+import com.fasterxml.jackson.core.JsonGenerator
 import groovy.util.logging.Slf4j
 import org.simplemes.eframe.application.Holders
 import org.simplemes.eframe.archive.domain.ArchiveLog
+import org.simplemes.eframe.custom.ExtensibleFieldHelper
 import org.simplemes.eframe.data.format.ChildListFieldFormat
 import org.simplemes.eframe.data.format.CustomChildListFieldFormat
+import org.simplemes.eframe.domain.DomainCache
 import org.simplemes.eframe.domain.DomainUtils
+import org.simplemes.eframe.domain.SQLUtils
+import org.simplemes.eframe.domain.annotation.DomainEntityHelper
 import org.simplemes.eframe.domain.annotation.DomainEntityInterface
 import org.simplemes.eframe.exception.BusinessException
 import org.simplemes.eframe.exception.MessageBasedException
@@ -23,17 +28,49 @@ import org.simplemes.eframe.misc.LogUtils
 import org.simplemes.eframe.misc.NameUtils
 import org.simplemes.eframe.misc.TextUtils
 import org.simplemes.eframe.misc.TypeUtils
+import org.simplemes.eframe.search.SearchHelper
 
 import javax.inject.Singleton
+import javax.persistence.ManyToMany
+import javax.persistence.OneToMany
+import java.util.concurrent.ConcurrentHashMap
+import java.util.zip.GZIPInputStream
+import java.util.zip.GZIPOutputStream
 
 /**
  * Archives one or more domain objects to a file and removes them from the database.
+ * The objects are streamed directly to the archive file as they are archived.  The archive can optionally
+ * be compressed (gzip, '.arc.gz').  Compressed and un-compressed archives can both be unarchived.
+ * <p>
+ * Simple domain records (no child lists, no beforeDelete() method and not searchable) are deleted with
+ * a set-based SQL DELETE when the archive is closed.  All other records are deleted one at a time using the
+ * domain's delete() method.
  */
 @Slf4j
 @Singleton
 class FileArchiver implements ArchiverInterface {
   // TODO: Implement filename checker to prevent absolute paths and relative paths above current folder ( too many ..).
 
+  /**
+   * The file extension used for normal archive files.
+   */
+  static final String ARCHIVE_EXTENSION = '.arc'
+
+  /**
+   * The file extension used for compressed archive files.
+   */
+  static final String COMPRESSED_ARCHIVE_EXTENSION = '.arc.gz'
+
+  /**
+   * The max number of records deleted in a single set-based DELETE statement.
+   */
+  static final int DELETE_BATCH_SIZE = 1000
+
+  /**
+   * A cache of the domain classes that can be deleted with a set-based DELETE (value=true).
+   */
+  protected static Map<Class, Boolean> bulkDeleteAllowed = new ConcurrentHashMap<Class, Boolean>()
+
   /**
    * The JSON File the domain object is written to.
    */
@@ -44,6 +81,11 @@ class FileArchiver implements ArchiverInterface {
    */
   protected Writer writer
 
+  /**
+   * The streaming JSON generator that writes to the writer.
+   */
+  protected JsonGenerator generator
+
   /**
    * The relative path for the XML file.  Can be used to unarchive the records in the future.
    */
@@ -83,15 +125,17 @@ class FileArchiver implements ArchiverInterface {
     }
 
     // Write the object(s)
-    def first = (jsonFile == null)
     try {
       if (jsonFile == null) {
         keyName = DomainUtils.instance.getPrimaryKeyField(domainObject.class)
         setupFile(domainObject)
-        TypeableMapper.instance.start(writer)
+        generator = TypeableMapper.instance.createGenerator(writer)
+        TypeableMapper.instance.start(generator)
+        // Flush the start so that a file that can't be written fails right away.
+        generator.flush()
       }
-      TypeableMapper.instance.writeOne(writer, domainObject, first)
-      objectsToDelete += domainObject
+      TypeableMapper.instance.writeOne(generator, domainObject)
+      objectsToDelete << domainObject
       // Now, look for any related objects.
       //println "domainObject = ${domainObject.class.declaredMethods}"
       for (o in DomainUtils.instance.findRelatedRecords(domainObject)) {
@@ -128,13 +172,14 @@ class FileArchiver implements ArchiverInterface {
     FileUtils.createArchiveDirsIfNeeded("${top}/${baseRef}")
 
     // Now, create the real file name, looping as needed if it already exists.
+    def extension = Holders.configuration.archive.compress ? COMPRESSED_ARCHIVE_EXTENSION : ARCHIVE_EXTENSION
     def ref
     def count = 0
     while (true) {
       if (count > 0) {
-        ref = "${baseRef}-${count}.arc"
+        ref = "${baseRef}-${count}${extension}"
       } else {
-        ref = "${baseRef}.arc"
+        ref = "${baseRef}${extension}"
       }
       jsonFile = FileFactory.instance.newFile(FileUtils.convertToOSPath("${top}/${ref}"))
       if (!jsonFile.exists()) {
@@ -143,17 +188,51 @@ class FileArchiver implements ArchiverInterface {
       count++
     }
 
-    writer = jsonFile.newWriter()
+    writer = openWriter(jsonFile)
     fileReference = ref
   }
 
+  /**
+   * Opens the writer for the given archive file.  Uses gzip compression if the file is a compressed archive.
+   * @param file The archive file.
+   * @return The writer.
+   */
+  protected Writer openWriter(File file) {
+    if (isCompressed(file.path)) {
+      return new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(file.newOutputStream()), 'UTF-8'))
+    }
+    return file.newWriter()
+  }
+
+  /**
+   * Opens the reader for the given archive file.  Handles compressed archives.
+   * @param file The archive file.
+   * @return The reader.
+   */
+  protected Reader openReader(File file) {
+    if (isCompressed(file.path)) {
+      return new BufferedReader(new InputStreamReader(new GZIPInputStream(file.newInputStream()), 'UTF-8'))
+    }
+    return file.newReader()
+  }
+
+  /**
+   * Determines if the given archive file/reference is a compressed archive.
+   * @param path The file path or archive reference.
+   * @return True if compressed.
+   */
+  static boolean isCompressed(String path) {
+    return path?.endsWith(COMPRESSED_ARCHIVE_EXTENSION)
+  }
+
   /**
    * Closes the current archive and removes the archived records from the database.
    * @return The archive reference for the saved archive (e.g. a file for the FileArchiver).
    */
   @Override
   String close() {
-    TypeableMapper.instance.finish(writer)
+    TypeableMapper.instance.finish(generator)
+    generator.close()
     writer.close()
 
     // Verify the archive if desired.
@@ -163,13 +242,7 @@ class FileArchiver implements ArchiverInterface {
     }
 
     // Now, delete the objects since the .arc appears to be Ok.
-    //println "Parent.list()1 = ${Parent.list()}"
-    for (o in objectsToDelete) {
-      o.delete()
-      //noinspection GroovyAssignabilityCheck
-      log.trace("Deleting Archived Object {} {}", o.class.simpleName, TypeUtils.toShortString(o))
-    }
-    //println "Parent.list()2 = ${Parent.list()}"
+    deleteArchivedObjects(objectsToDelete)
     if (log.debugEnabled) {
       log.debug("Archived (file: $jsonFile.path) ${LogUtils.limitedLengthList(objectsToDelete)}")
     }
@@ -192,15 +265,84 @@ class FileArchiver implements ArchiverInterface {
     // Make sure any later calls won't affect the data from this call.
     objectsToDelete = []
     jsonFile = null
+    generator = null
     return fileReference
   }
 
+  /**
+   * Deletes the archived objects.  Uses a set-based delete (DELETE ... WHERE uuid IN (...)) for simple domains.
+   * Falls back to the domain's delete() method for complex domains.
+   * @param objects The objects to delete.
+   */
+  protected void deleteArchivedObjects(List objects) {
+    // Complex domains are deleted in the archive order.  Simple domains are collected by class for the bulk delete.
+    Map<Class, List<UUID>> bulkDeletes = [:]
+    for (o in objects) {
+      if (isBulkDeleteAllowed(o.getClass())) {
+        def list = bulkDeletes[o.getClass()]
+        if (list == null) {
+          list = []
+          bulkDeletes[o.getClass()] = list
+        }
+        list << (UUID) o.uuid
+      } else {
+        o.delete()
+      }
+      //noinspection GroovyAssignabilityCheck
+      log.trace("Deleting Archived Object {} {}", o.class.simpleName, TypeUtils.toShortString(o))
+    }
+
+    bulkDeletes.each { clazz, uuids ->
+      String tableName = DomainEntityHelper.instance.getTableName(clazz)
+      for (chunk in uuids.collate(DELETE_BATCH_SIZE)) {
+        def count = SQLUtils.instance.executeUpdate("DELETE FROM $tableName WHERE uuid IN(?)", chunk)
+        log.trace("Deleted {} archived {} records with set-based delete", count, clazz.simpleName)
+      }
+    }
+    if (bulkDeletes) {
+      // The set-based delete bypasses the domain delete(), so clear the request cache the same way.
+      DomainUtils.instance.clearRequestCache()
+    }
+  }
+
+  /**
+   * Determines if the given domain class can be deleted with a set-based SQL DELETE.  This is only allowed
+   * for simple domains with no child records, no beforeDelete() method, no search engine index and no
+   * {@link DomainCache} setting (the cached records would not be removed).
+   * @param clazz The domain class.
+   * @return True if a set-based DELETE can be used.
+   */
+  protected boolean isBulkDeleteAllowed(Class clazz) {
+    def allowed = bulkDeleteAllowed.get(clazz)
+    if (allowed == null) {
+      allowed = true
+      if (clazz.declaredMethods.find { it.name == 'beforeDelete' }) {
+        allowed = false
+      } else if (clazz.declaredFields.find { it.getAnnotation(OneToMany) || it.getAnnotation(ManyToMany) }) {
+        allowed = false
+      } else if (SearchHelper.instance.isSearchable(clazz)) {
+        allowed = false
+      } else if (DomainCache.instance.isCached(clazz)) {
+        allowed = false
+      } else if (ExtensibleFieldHelper.instance.hasExtensibleFields(clazz)) {
+        // Custom child lists can be added at run-time, so check the current definitions.
+        def fieldDefs = ExtensibleFieldHelper.instance.getEffectiveFieldDefinitions(clazz)
+        allowed = !fieldDefs.any { it.format == CustomChildListFieldFormat.instance }
+        // Don't cache the result since custom fields can change.
+        return allowed
+      }
+      bulkDeleteAllowed.put(clazz, allowed)
+    }
+    return allowed
+  }
+
   /**
    * Cancels the archive action.  Removes the archive (file) and does not delete the object archived.
    */
   @Override
   void cancel() {
     if (writer) {
+      generator?.close()
       writer.close()
     }
     if (jsonFile) {
@@ -210,7 +352,7 @@ class FileArchiver implements ArchiverInterface {
     // Make sure any later calls won't affect the data from this call.
     objectsToDelete = []
     jsonFile = null
-
+    generator = null
   }
 
   /**
@@ -220,8 +362,43 @@ class FileArchiver implements ArchiverInterface {
    * @return A list of domain objects that were created.
    */
   Object[] unarchive(String ref, Boolean save = true) {
-    ArgumentUtils.checkMissing(ref, 'ref')
     def res = []
+    unarchiveEachInternal(ref, save) { Object o ->
+      res << o
+    }
+
+    if (log.debugEnabled) {
+      log.debug("Archive: Unarchived (ref: $ref) ${LogUtils.limitedLengthList(res)}")
+    }
+
+    return res
+  }
+
+  /**
+   * Unarchive the given file, one domain object at a time.  Each object is passed to the callback
+   * and is not held by the archiver.  This allows very large archives to be processed in constant memory.
+   * @param ref The file reference provided by the archive process.
+   * @param save If true, then the unarchived records will be automatically saved by the unarchive logic.
+   * @param callback The closure called for each domain object unarchived (after it is saved).
+   * @return The number of domain objects unarchived.
+   */
+  @Override
+  int unarchiveEach(String ref, Boolean save, Closure callback) {
+    def count = unarchiveEachInternal(ref, save, callback)
+    log.debug("Archive: Unarchived (ref: {}) {} records", ref, count)
+    return count
+  }
+
+  /**
+   * Internal unarchive method that reads the archive one object at a time.
+   * @param ref The file reference provided by the archive process.
+   * @param save If true, then the unarchived records will be automatically saved by the unarchive logic.
+   * @param callback The closure called for each domain object unarchived (after it is saved).
+   * @return The number of domain objects unarchived.
+   */
+  protected int unarchiveEachInternal(String ref, Boolean save, Closure callback) {
+    ArgumentUtils.checkMissing(ref, 'ref')
+    def count = 0
 
     // Parse the JSON from the file.
     def reader = null
@@ -229,10 +406,9 @@ class FileArchiver implements ArchiverInterface {
     try {
       fName = makePathFromReference(ref)
       File file = FileFactory.instance.newFile(fName)
-      reader = file.newReader()
-      def list = TypeableMapper.instance.read(reader)
-      clearUUIDs(list)
-      for (o in list) {
+      reader = openReader(file)
+      TypeableMapper.instance.read(reader) { Class clazz, Object o ->
+        clearUUIDs([(DomainEntityInterface) o])
         if (save) {
           def errors = DomainUtils.instance.validate(o)
           if (errors) {
@@ -240,11 +416,8 @@ class FileArchiver implements ArchiverInterface {
           }
           o.save()
         }
-        res << o
-      }
-
-      if (log.debugEnabled) {
-        log.debug("Archive: Unarchived (ref: $ref) ${LogUtils.limitedLengthList(res)}")
+        callback.call(o)
+        count++
       }
     } catch (Exception e) {
       if (e.toString().contains(fName)) {
@@ -261,7 +434,7 @@ class FileArchiver implements ArchiverInterface {
       reader?.close()
     }
 
-    return res
+    return count
   }
 
   /**
@@ -372,9 +545,10 @@ class FileArchiver implements ArchiverInterface {
     def reader = null
     try {
       File file = FileFactory.instance.newFile(fName)
-      reader = file.newReader()
+      reader = openReader(file)
       //println "reader = $reader"
-      TypeableMapper.instance.read(reader)
+      // Read one object at a time, but don't keep the objects.
+      TypeableMapper.instance.read(reader) { Class clazz, Object o -> }
     } finally {
       reader?.close()
     }
@@ -10,6 +10,7 @@ import io.micronaut.http.annotation.Controller
 import io.micronaut.inject.BeanDefinition
 import io.micronaut.inject.qualifiers.Qualifiers
 import org.simplemes.eframe.application.Holders
+import org.simplemes.eframe.domain.DomainRegistry
 import org.simplemes.eframe.domain.DomainUtils
 import org.simplemes.eframe.misc.NameUtils
 import org.simplemes.eframe.misc.TypeUtils
@@ -51,15 +52,31 @@ class ControllerUtils {
    */
   public static final String PARAM_PAGE_SOURCE = '_pageSrc'
 
+  /**
+   * The controller classes found in the current application context.  Rebuilt when the application context changes.
+   */
+  protected volatile ControllerIndex allControllersIndex
+
+  /**
+   * The controller index for the last list searched by {@link #getControllerByName(java.lang.String)}.
+   */
+  protected volatile ControllerIndex nameIndex
+
   /**
    * Returns all of the controller classes defined in the system.
    * <p>
-   * This looks for classes that use the @Controller annotation.
-   * @return The list of controller classes.
+   * This looks for classes that use the @Controller annotation.  The list is found once for each application context.
+   * @return The list of controller classes (unmodifiable).
    */
   List<Class> getAllControllers() {
-    Collection<BeanDefinition> controllers = Holders.applicationContext?.getBeanDefinitions(Qualifiers.byStereotype(Controller))
-    return controllers*.beanType
+    def applicationContext = Holders.applicationContext
+    def index = allControllersIndex
+    if (index == null || !index.source.is(applicationContext)) {
+      Collection<BeanDefinition> controllers = applicationContext?.getBeanDefinitions(Qualifiers.byStereotype(Controller))
+      index = new ControllerIndex(applicationContext, controllers*.beanType)
+      allControllersIndex = index
+    }
+    return index.controllers
   }
 
 /**
@@ -87,7 +104,13 @@ class ControllerUtils {
    */
   Class getControllerByName(String controllerName) {
     // Uses the instance to allow MockControllerUtils to use this original method in a test of the method.
-    return instance.getAllControllers().find { it.simpleName == controllerName }
+    def controllers = instance.getAllControllers()
+    def index = nameIndex
+    if (index == null || !index.source.is(controllers)) {
+      index = new ControllerIndex(controllers, controllers)
+      nameIndex = index
+    }
+    return index.byName.get(controllerName)
   }
 
   /**
@@ -145,8 +168,7 @@ class ControllerUtils {
     controllerClass = TypeUtils.getRealClassFromBean(controllerClass)
     // Attempt to find it based on the controller name.
     def simpleName = controllerClass.simpleName - "Controller"
-    def allDomains = DomainUtils.instance.allDomains
-    return allDomains.find() { it.simpleName == simpleName }
+    return DomainRegistry.current.findBySimpleName(simpleName)
   }
 
 
@@ -339,4 +361,33 @@ class ControllerUtils {
     return clazz
   }
 
+  /**
+   * The controller classes found from a single source (e.g. application context), with a lookup by simple name.
+   */
+  protected static class ControllerIndex {
+    /**
+     * The source of the controller list.  Used to detect when the index must be rebuilt.
+     */
+    final Object source
+
+    /**
+     * The controller classes (unmodifiable).
+     */
+    final List<Class> controllers
+
+    /**
+     * The controller classes by simple name.
+     */
+    final Map<String, Class> byName
+
+    ControllerIndex(Object source, Collection<Class> controllers) {
+      this.source = source
+      this.controllers = Collections.unmodifiableList(new ArrayList<Class>(controllers ?: []))
+      Map<String, Class> names = [:]
+      for (clazz in this.controllers) {
+        names.putIfAbsent(clazz.simpleName, clazz)
+      }
+      byName = Collections.unmodifiableMap(names)
+    }
+  }
 }
@@ -18,6 +18,7 @@ import org.simplemes.eframe.data.annotation.ExtensibleFieldHolder
 import org.simplemes.eframe.data.format.ConfigurableTypeDomainFormat
 import org.simplemes.eframe.data.format.CustomChildListFieldFormat
 import org.simplemes.eframe.data.format.ListFieldLoaderInterface
+import org.simplemes.eframe.domain.DomainCache
 import org.simplemes.eframe.domain.DomainUtils
 import org.simplemes.eframe.domain.annotation.DomainEntityHelper
 import org.simplemes.eframe.domain.annotation.DomainEntityInterface
@@ -346,6 +347,9 @@ class ExtensibleFieldHelper {
       //error.131.message=The domain class {0} does not support extensible fields. Add @ExtensibleFieldHolder.
       throw new BusinessException(131, [clazz.name])
     }
+    if (object instanceof DomainEntityInterface && DomainCache.instance.isShared((DomainEntityInterface) object)) {
+      return getSharedExtensibleFieldMap(object, field, text)
+    }
     def map = field.get(object)
     if (text) {
       if (map == null) {
@@ -361,6 +365,27 @@ class ExtensibleFieldHelper {
     return map as FieldHolderMap
   }
 
+  /**
+   * Gets the field holder front-end Map for a record shared by the {@link DomainCache}.  The map is fully decoded
+   * and published to the record once, so the other threads never see a partially decoded map.
+   * @param object The shared record.
+   * @param field The field that holds the map.
+   * @param text The JSON text from the field holder.
+   * @return The map.  Never null.
+   */
+  @CompileStatic
+  protected FieldHolderMap getSharedExtensibleFieldMap(Object object, Field field, String text) {
+    synchronized (object) {
+      def map = field.get(object) as FieldHolderMap
+      if (map == null) {
+        map = text ? FieldHolderMap.fromJSON(text) as FieldHolderMap : new FieldHolderMap(parsingFromJSON: false)
+        map.prepareForSharing()
+        field.set(object, map)
+      }
+      return map
+    }
+  }
+
   /**
    * Sets the field holder front-end Map.  Will mark the map as dirty to force a new serialization to JSON for saving.
    * @param object The object to get the field holder Map from.
@@ -415,8 +440,8 @@ class ExtensibleFieldHelper {
 
     def map = getExtensibleFieldMapNoParse(object)
     if (map?.isDirty()) {
-      // Front-end map changed, so force a JSON creation.
-      def s = Holders.objectMapper.writeValueAsString(map)
+      // Front-end map changed, so force a JSON creation.  Any elements not used are copied from the original JSON.
+      def s = map.formatJSON()
       field.set(object, s)
       map.setDirty(false)
       return s
@@ -0,0 +1,556 @@
+/*
+ * Copyright (c) Michael Houston 2020. All rights reserved.
+ */
+
+package org.simplemes.eframe.custom
+
+import groovy.transform.ToString
+import groovy.util.logging.Slf4j
+import org.simplemes.eframe.application.Holders
+import org.simplemes.eframe.custom.domain.FieldExtension
+import org.simplemes.eframe.custom.domain.FlexField
+import org.simplemes.eframe.data.format.ChildListFieldFormat
+import org.simplemes.eframe.data.format.ConfigurableTypeDomainFormat
+import org.simplemes.eframe.data.format.CustomChildListFieldFormat
+import org.simplemes.eframe.domain.DomainUtils
+import org.simplemes.eframe.domain.SQLUtils
+import org.simplemes.eframe.domain.annotation.DomainEntityHelper
+import org.simplemes.eframe.exception.BusinessException
+import org.simplemes.eframe.misc.TypeUtils
+import org.simplemes.eframe.search.SearchHelper
+
+import java.sql.Connection
+import java.sql.Statement
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+
+/**
+ * Maintains the database indexes for the custom fields that are marked as <code>indexed</code>
+ * ({@link FieldExtension} and {@link FlexField}).  The custom field values are stored in a JSON column, so a query
+ * on a custom field is normally a full table scan.  This helper creates a Postgres expression index on the
+ * field's value (<code>fields->>'name'</code>) and builds the matching SQL filters for the DB-based searches.
+ * <p>
+ * Indexed {@link FieldExtension}s are indexed on the domain's table.  Indexed {@link FlexField}s are indexed on
+ * all domains that have a configurable type (FlexType) field.
+ * <p>
+ * The indexes are built with <code>CREATE INDEX CONCURRENTLY</code> on a separate auto-commit connection, so the
+ * table is not locked against writes while the index is built.  When a custom field definition is saved, the
+ * index change is only queued if the index does not match the definition.  The queued changes run on a background
+ * thread.  Postgres waits for the saving transaction to end before the concurrent build finishes.  A rolled back
+ * save can leave an unused index.  It does no harm and is dropped when the field is saved again as not indexed.
+ *
+ * <h3>Logging</h3>
+ * The logging for this class that can be enabled:
+ * <ul>
+ *   <li><b>info</b> - Logs each index created or dropped. </li>
+ *   <li><b>debug</b> - Logs the SQL filters built for the searches. </li>
+ * </ul>
+ */
+@Slf4j
+class ExtensibleFieldIndexHelper {
+
+  /**
+   * A singleton, used for simplified unit testing with a mocked class.
+   */
+  static ExtensibleFieldIndexHelper instance = new ExtensibleFieldIndexHelper()
+
+  /**
+   * The suffix used on all custom field index names.
+   */
+  static final String INDEX_SUFFIX = '_cf_idx'
+
+  /**
+   * The maximum length of a Postgres identifier.
+   */
+  protected static final int MAX_NAME_LENGTH = 63
+
+  /**
+   * The valid field names that can be used in an index expression.
+   */
+  protected static final String FIELD_NAME_PATTERN = /^[A-Za-z_][A-Za-z0-9_]*$/
+
+  /**
+   * The SQL used to find the usage statistics for the custom field indexes.
+   */
+  protected static final String USAGE_SQL = 'SELECT relname, indexrelname, idx_scan, idx_tup_read FROM pg_stat_user_indexes' +
+    ' WHERE indexrelname LIKE ? ORDER BY relname, indexrelname LIMIT ALL OFFSET 0'
+
+  /**
+   * The SQL used to determine if an index exists.
+   */
+  protected static final String INDEX_EXISTS_SQL = 'SELECT indexname FROM pg_indexes WHERE indexname = ? LIMIT ALL OFFSET 0'
+
+  /**
+   * The background thread that creates/drops the indexes queued by the custom field saves.  Started when needed.
+   */
+  protected volatile ExecutorService indexBuilder
+
+  /**
+   * The cached indexed field names for each domain class.
+   */
+  protected Map<Class, Set<String>> indexedFields = new ConcurrentHashMap<Class, Set<String>>()
+
+  /**
+   * Returns the names of the indexed custom fields for the given domain class.
+   * @param domainClass The domain class.
+   * @return The field names.  Never null.
+   */
+  Set<String> getIndexedFields(Class domainClass) {
+    def res = indexedFields.get(domainClass)
+    if (res == null) {
+      res = new HashSet<String>()
+      FieldExtension.withTransaction {
+        for (fieldExtension in FieldExtension.findAllByDomainClassName(domainClass.name)) {
+          if (fieldExtension.indexed) {
+            res << fieldExtension.fieldName
+          }
+        }
+        if (hasConfigurableTypeField(domainClass)) {
+          for (flexField in FlexField.list()) {
+            if (flexField.indexed) {
+              res << flexField.fieldName
+            }
+          }
+        }
+      }
+      res = res.findAll { isValidFieldName(it) } as Set<String>
+      indexedFields.put(domainClass, res)
+    }
+    return res
+  }
+
+  /**
+   * Clears the cached indexed field names.  Called when a custom field definition changes.
+   */
+  void clearCache() {
+    indexedFields.clear()
+  }
+
+  /**
+   * Queues the creation or drop of the index for the given FieldExtension, if the index does not match the field
+   * definition.  Called before the field is saved.
+   * @param fieldExtension The custom field.
+   * @param deleting True if the field is being deleted.
+   */
+  void updateIndex(FieldExtension fieldExtension, boolean deleting = false) {
+    clearCache()
+    def domainClass = findDomainClass(fieldExtension.domainClassName)
+    if (!domainClass) {
+      return
+    }
+    queueIndexChange(domainClass, fieldExtension.fieldName, fieldExtension.indexed && !deleting)
+  }
+
+  /**
+   * Queues the creation or drop of the indexes for the given FlexField, if the indexes do not match the field
+   * definition.  Called before the field is saved.
+   * The index is only dropped if no other indexed FlexField has the same name.
+   * @param flexField The flex field.
+   * @param deleting True if the field is being deleted.
+   */
+  void updateIndex(FlexField flexField, boolean deleting = false) {
+    clearCache()
+    def indexed = flexField.indexed && !deleting
+    if (!indexed) {
+      def others = FlexField.list().findAll { it.fieldName == flexField.fieldName && it.uuid != flexField.uuid && it.indexed }
+      if (others) {
+        return
+      }
+    }
+    for (domainClass in findConfigurableTypeDomains()) {
+      queueIndexChange(domainClass, flexField.fieldName, indexed)
+    }
+  }
+
+  /**
+   * Queues the creation or drop of the index for the given custom field, if the index does not match.
+   * The change is executed on a background thread, outside of the caller's transaction.
+   * @param domainClass The domain class.
+   * @param fieldName The custom field name.
+   * @param indexed True if the index should exist.
+   */
+  protected void queueIndexChange(Class domainClass, String fieldName, boolean indexed) {
+    if (!checkFieldName(fieldName)) {
+      return
+    }
+    def indexName = getIndexName(DomainEntityHelper.instance.getTableName(domainClass), fieldName)
+    if (indexExists(indexName) == indexed) {
+      // No change to the index is needed.
+      return
+    }
+    startIndexBuilder()
+    indexBuilder.submit({
+      try {
+        if (indexed) {
+          createIndex(domainClass, fieldName)
+        } else {
+          dropIndex(domainClass, fieldName)
+        }
+      } catch (Exception e) {
+        log.error("queueIndexChange(): Unable to ${indexed ? 'create' : 'drop'} index $indexName", e)
+      }
+    } as Runnable)
+  }
+
+  /**
+   * Determines if the given index exists in the database.
+   * @param indexName The index name.
+   * @return True if found.
+   */
+  protected boolean indexExists(String indexName) {
+    return SQLUtils.instance.executeQuery(INDEX_EXISTS_SQL, Map, indexName).size() > 0
+  }
+
+  /**
+   * Waits for the queued index changes to finish.  Used mainly by tests.
+   * @param timeout The maximum time to wait (seconds).
+   */
+  void waitForQueuedChanges(long timeout = 60) {
+    indexBuilder?.submit({} as Runnable)?.get(timeout, TimeUnit.SECONDS)
+  }
+
+  /**
+   * Starts the background index builder thread, if needed.
+   */
+  protected synchronized void startIndexBuilder() {
+    if (indexBuilder == null) {
+      indexBuilder = Executors.newSingleThreadExecutor(new IndexBuilderThreadFactory())
+    }
+  }
+
+  /**
+   * Creates any missing indexes for all of the indexed custom fields.  Called on startup.
+   * Must not be called inside of a transaction.
+   */
+  void createMissingIndexes() {
+    List<Tuple2<Class, String>> needed = []
+    FieldExtension.withTransaction {
+      for (fieldExtension in FieldExtension.list()) {
+        if (fieldExtension.indexed) {
+          def domainClass = findDomainClass(fieldExtension.domainClassName)
+          if (domainClass) {
+            needed << new Tuple2<Class, String>(domainClass, fieldExtension.fieldName)
+          }
+        }
+      }
+      def flexFieldNames = FlexField.list().findAll { it.indexed }*.fieldName.unique()
+      if (flexFieldNames) {
+        for (domainClass in findConfigurableTypeDomains()) {
+          for (fieldName in flexFieldNames) {
+            needed << new Tuple2<Class, String>(domainClass, fieldName)
+          }
+        }
+      }
+    }
+    // Build the indexes after the transaction is finished, since they are built concurrently.
+    for (index in needed) {
+      createIndex(index.v1, index.v2)
+    }
+  }
+
+  /**
+   * Creates the expression index for the given custom field, if it does not exist.  The index is built concurrently,
+   * so this must not be called inside of a transaction.
+   * The index uses the text_pattern_ops operator class so it can be used for equals and prefix (LIKE 'abc%') queries.
+   * @param domainClass The domain class.
+   * @param fieldName The custom field name.
+   */
+  void createIndex(Class domainClass, String fieldName) {
+    if (!checkFieldName(fieldName)) {
+      return
+    }
+    def tableName = DomainEntityHelper.instance.getTableName(domainClass)
+    def columnName = getHolderColumnName(domainClass)
+    def indexName = getIndexName(tableName, fieldName)
+    try {
+      executeDDL("CREATE INDEX CONCURRENTLY IF NOT EXISTS $indexName ON $tableName (($columnName->>'$fieldName') text_pattern_ops)")
+    } catch (Exception e) {
+      // A failed concurrent build leaves an invalid index behind.
+      executeDDL("DROP INDEX CONCURRENTLY IF EXISTS $indexName")
+      throw e
+    }
+    log.info('createIndex(): Created index {} on {}', indexName, tableName)
+  }
+
+  /**
+   * Drops the expression index for the given custom field, if it exists.  The index is dropped concurrently,
+   * so this must not be called inside of a transaction.
+   * @param domainClass The domain class.
+   * @param fieldName The custom field name.
+   */
+  void dropIndex(Class domainClass, String fieldName) {
+    if (!checkFieldName(fieldName)) {
+      return
+    }
+    def indexName = getIndexName(DomainEntityHelper.instance.getTableName(domainClass), fieldName)
+    executeDDL("DROP INDEX CONCURRENTLY IF EXISTS $indexName")
+    log.info('dropIndex(): Dropped index {}', indexName)
+  }
+
+  /**
+   * Executes the given DDL statement on its own auto-commit connection from the connection pool.
+   * The concurrent index statements can't run inside of a transaction.
+   * @param sql The SQL statement.
+   */
+  protected void executeDDL(String sql) {
+    def dataSource = Holders.dataSource
+    // Use the pool directly, not the transaction-aware wrapper.
+    def target = dataSource.hasProperty('targetDataSource') ? dataSource.targetDataSource : dataSource
+    Connection connection = target.connection
+    try {
+      connection.autoCommit = true
+      Statement statement = connection.createStatement()
+      try {
+        statement.execute(sql)
+      } finally {
+        statement.close()
+      }
+    } finally {
+      connection.close()
+    }
+  }
+
+  /**
+   * Builds the index name for the given table/field.  Shortened to the max identifier length, if needed.
+   * @param tableName The table name.
+   * @param fieldName The custom field name.
+   * @return The index name (lower case).
+   */
+  String getIndexName(String tableName, String fieldName) {
+    def name = "${tableName}_${fieldName}"
+    def maxLength = MAX_NAME_LENGTH - INDEX_SUFFIX.length()
+    if (name.length() > maxLength) {
+      // Keep the name unique by adding the hash of the full name.
+      def hash = Integer.toHexString(name.hashCode())
+      name = name[0..(maxLength - hash.length() - 2)] + '_' + hash
+    }
+    return (name + INDEX_SUFFIX).toLowerCase()
+  }
+
+  /**
+   * Builds the SQL filter for a custom field search such as 'serial:ABC'.  The field can be given with a path
+   * to the custom field holder or to a child list of the domain (e.g. 'fields.serial', 'assembledComponents.serial'
+   * or 'order.assembledComponents.fields.serial').  Only indexed custom fields are supported.
+   * A trailing '*' on the value is treated as a prefix search.
+   * @param domainClass The domain class being searched.
+   * @param search The search string.
+   * @return The filter.  Null if the search is not for an indexed custom field.
+   */
+  CustomFieldFilter buildFilter(Class domainClass, String search) {
+    if (!search || !SearchHelper.isSimpleQueryString(search)) {
+      return null
+    }
+    def loc = search.indexOf(':')
+    if (loc <= 0 || loc == search.length() - 1) {
+      return null
+    }
+    def path = search[0..(loc - 1)].trim().tokenize('.')
+    def value = search[(loc + 1)..-1].trim()
+    if (!path || !value) {
+      return null
+    }
+
+    // Ignore an optional domain name prefix (e.g. 'order.').
+    if (path.size() > 1 && path[0].equalsIgnoreCase(domainClass.simpleName)) {
+      path = path.subList(1, path.size())
+    }
+
+    // Check for a child list.
+    Class targetClass = domainClass
+    Class childClass = null
+    if (path.size() > 1) {
+      childClass = findChildClass(domainClass, path[0])
+      if (childClass) {
+        targetClass = childClass
+        path = path.subList(1, path.size())
+      }
+    }
+
+    // Check for the holder name (e.g. 'fields.').
+    def holderName = ExtensibleFieldHelper.instance.getCustomHolderFieldName(targetClass)
+    if (!holderName) {
+      return null
+    }
+    if (path.size() > 1 && path[0] == holderName) {
+      path = path.subList(1, path.size())
+    }
+    if (path.size() != 1) {
+      return null
+    }
+    def fieldName = getIndexedFields(targetClass).find { it.equalsIgnoreCase(path[0]) }
+    if (!fieldName) {
+      return null
+    }
+
+    def columnName = DomainEntityHelper.instance.getColumnName(targetClass, holderName)
+    def filter = new CustomFieldFilter()
+    def where
+    if (value.endsWith('*')) {
+      where = "$columnName->>'$fieldName' LIKE ?"
+      filter.value = escapeLike(value[0..-2]) + '%'
+    } else {
+      where = "$columnName->>'$fieldName' = ?"
+      filter.value = value
+    }
+    if (childClass) {
+      def parentColumn = findParentColumnName(childClass, domainClass)
+      if (!parentColumn) {
+        return null
+      }
+      def childTable = DomainEntityHelper.instance.getTableName(childClass)
+      where = "uuid IN (SELECT $parentColumn FROM $childTable WHERE $where)"
+    }
+    filter.where = where
+    log.debug('buildFilter(): {} for search {}', filter, search)
+    return filter
+  }
+
+  /**
+   * Returns the usage statistics for the custom field indexes from the database.
+   * @return The list of usage values (elements: relname, indexrelname, idx_scan, idx_tup_read).
+   */
+  List<Map> getIndexUsage() {
+    return SQLUtils.instance.executeQuery(USAGE_SQL, Map, '%' + INDEX_SUFFIX)
+  }
+
+  /**
+   * Finds all domains with an custom field holder and a configurable type (e.g. FlexType) field.
+   * @return The domain classes.
+   */
+  protected List<Class> findConfigurableTypeDomains() {
+    return DomainUtils.instance.allDomains.findAll { hasConfigurableTypeField(it) }
+  }
+
+  /**
+   * Determines if the domain has a custom field holder and a configurable type (e.g. FlexType) field.
+   * @param domainClass The domain class.
+   * @return True if the domain can hold FlexField values.
+   */
+  protected boolean hasConfigurableTypeField(Class domainClass) {
+    if (!ExtensibleFieldHelper.instance.getCustomHolderFieldName(domainClass)) {
+      return false
+    }
+    def fieldDefinitions = DomainUtils.instance.getFieldDefinitions(domainClass)
+    return fieldDefinitions.any { it.format == ConfigurableTypeDomainFormat.instance }
+  }
+
+  /**
+   * Finds the child domain class for the given child list field.
+   * @param domainClass The parent domain class.
+   * @param fieldName The child list field name (including custom child lists).
+   * @return The child domain class.  Null if not a child list.
+   */
+  protected Class findChildClass(Class domainClass, String fieldName) {
+    def fieldDefinitions = ExtensibleFieldHelper.instance.getEffectiveFieldDefinitions(domainClass)
+    def fieldDefinition = fieldDefinitions.find { it.name.equalsIgnoreCase(fieldName) }
+    def format = fieldDefinition?.format
+    if (format == ChildListFieldFormat.instance || format == CustomChildListFieldFormat.instance) {
+      return fieldDefinition.referenceType
+    }
+    return null
+  }
+
+  /**
+   * Finds the column in the child table that references the parent record.
+   * @param childClass The child domain class.
+   * @param parentClass The parent domain class.
+   * @return The column name.  Null if not found.
+   */
+  protected String findParentColumnName(Class childClass, Class parentClass) {
+    def field = childClass.declaredFields.find { it.type == parentClass }
+    if (field) {
+      return DomainEntityHelper.instance.getColumnName(childClass, field.name) + '_id'
+    }
+    return null
+  }
+
+  /**
+   * Finds the domain class for the given custom field definition's class name.
+   * @param className The domain class name.
+   * @return The class.  Null if not found.
+   */
+  protected Class findDomainClass(String className) {
+    try {
+      return TypeUtils.loadClass(className)
+    } catch (ClassNotFoundException ignored) {
+      log.warn('Custom field domain class {} not found.', className)
+      return null
+    }
+  }
+
+  /**
+   * Returns the DB column name for the custom field holder for the domain.
+   * @param domainClass The domain class.
+   * @return The column name.
+   */
+  protected String getHolderColumnName(Class domainClass) {
+    def holderName = ExtensibleFieldHelper.instance.getCustomHolderFieldName(domainClass)
+    if (!holderName) {
+      //error.131.message=The domain class {0} does not support extensible fields. Add @ExtensibleFieldHolder.
+      throw new BusinessException(131, [domainClass.name])
+    }
+    return DomainEntityHelper.instance.getColumnName(domainClass, holderName)
+  }
+
+  /**
+   * Determines if the field name can be used in an index expression.
+   * @param fieldName The field name.
+   * @return True if valid.
+   */
+  protected boolean isValidFieldName(String fieldName) {
+    return fieldName ==~ FIELD_NAME_PATTERN
+  }
+
+  /**
+   * Checks the field name and logs a warning if it can't be used in an index.
+   * @param fieldName The field name.
+   * @return True if valid.
+   */
+  protected boolean checkFieldName(String fieldName) {
+    if (!isValidFieldName(fieldName)) {
+      log.warn('Custom field {} can not be indexed.  The name is not a valid column name.', fieldName)
+      return false
+    }
+    return true
+  }
+
+  /**
+   * Escapes the LIKE wildcards in the given value.
+   * @param value The value.
+   * @return The escaped value.
+   */
+  protected String escapeLike(String value) {
+    return value.replace('\\', '\\\\').replace('%', '\\%').replace('_', '\\_')
+  }
+
+  /**
+   * The thread factory for the background index builder.  The thread name is 'custom-field-index'.
+   * This is a daemon thread.
+   */
+  static class IndexBuilderThreadFactory implements ThreadFactory {
+    Thread newThread(Runnable r) {
+      Thread t = new Thread(r, 'custom-field-index')
+      t.setDaemon(true)
+      return t
+    }
+  }
+
+  /**
+   * The SQL filter for a custom field search.
+   */
+  @ToString(includeNames = true, includePackage = false)
+  static class CustomFieldFilter {
+    /**
+     * The SQL WHERE clause (without the WHERE).  Has a single argument.
+     */
+    String where
+
+    /**
+     * The value for the argument.
+     */
+    Object value
+  }
+}
@@ -5,6 +5,8 @@
 package org.simplemes.eframe.custom
 
 
+import com.fasterxml.jackson.core.JsonParser
+import com.fasterxml.jackson.core.JsonToken
 import groovy.util.logging.Slf4j
 import org.simplemes.eframe.application.Holders
 import org.simplemes.eframe.data.EncodedTypeInterface
@@ -24,6 +26,11 @@ import org.simplemes.eframe.misc.NameUtils
 import org.simplemes.eframe.misc.TypeUtils
 import org.simplemes.eframe.security.SecurityUtils
 
+import java.util.concurrent.ConcurrentHashMap
+import java.util.function.BiConsumer
+import java.util.function.BiFunction
+import java.util.function.Function
+
 /**
  * Defines the Map used to hide the ExtensibleFieldHolder extensions to the Map logic.
  * This includes serializing/deserializing to/from JSON, retaining data type info and tracking history of
@@ -34,6 +41,17 @@ import org.simplemes.eframe.security.SecurityUtils
  * <p>
  * Extra elements are added to the map to retain the data type for values, the history and configuration data
  * in case the definitions change (e.g. FlexType changes).
+ * <p>
+ * <b>Lazy Parsing:</b> The map created by {@link #fromJSON(java.lang.String)} does not decode the values up front.
+ * It builds an index of the top-level elements in the JSON text and decodes each element on first use.
+ * Elements that are never used are written back to the JSON verbatim by {@link #toJSON()}.  Any operation that
+ * needs the whole map (e.g. iteration) will decode all of the remaining elements.
+ * <p>
+ * The typed values (e.g. Dates, Enums and domain references) are cached after the first conversion.
+ * <p>
+ * <b>Shared Maps:</b> The lazy decoding changes the map on reads, so a map used by several threads (e.g. on a record
+ * in the {@link org.simplemes.eframe.domain.DomainCache}) must be fully decoded by {@link #prepareForSharing()}
+ * before it is published.  After that, reads only change the (concurrent) typed value cache.
  */
 @Slf4j
 class FieldHolderMap extends HashMap implements FieldHolderMapInterface {
@@ -89,30 +107,226 @@ class FieldHolderMap extends HashMap implements FieldHolderMapInterface {
    */
   boolean useUnderscoresInJson = true
 
+  /**
+   * The original JSON text for the elements that have not been decoded yet.  Null if all elements are decoded.
+   */
+  protected String rawJSON
+
+  /**
+   * The location of the elements (start/end offsets of the values) in the rawJSON that have not been decoded yet.
+   * Null if all elements are decoded.
+   */
+  protected Map<String, int[]> rawIndex
+
+  /**
+   * The values converted to their original types by get(), by key.  Null if none are cached.
+   */
+  protected volatile Map<Object, Object> convertedValues
+
+  /**
+   * True if this map is shared between threads (see {@link #prepareForSharing()}).
+   */
+  protected boolean shared = false
+
   /**
    * Parses the given JSON text into this Map.  Removes any existing elements.
    * @param text The JSON text.
    */
   static FieldHolderMapInterface fromJSON(String text) {
     log.trace("fromJSON(): Parsing {}", text)
-    def map = Holders.objectMapper.readValue(text, FieldHolderMap)
-    map?.parsingFromJSON = false  // Finished mapping from JSON
-    map?.dirty = false
+    def map = new FieldHolderMap()
+    if (!map.indexJSON(text)) {
+      // Not a JSON object, so let the mapper handle it as before.
+      map = Holders.objectMapper.readValue(text, FieldHolderMap)
+    }
+    map?.setParsingFromJSON(false)  // Finished mapping from JSON
+    map?.setDirty(false)
     return map
   }
 
   /**
-   * Serializes this Map to JSON.
+   * Serializes this Map to JSON.  Any elements that have not been decoded are written verbatim from the original JSON.
    * @return The JSON.
    */
   @Override
   String toJSON() {
-    def text = Holders.objectMapper.writeValueAsString(this)
+    def text = formatJSON()
     log.trace("toJSON(): Created JSON {}", text)
     useUnderscoresInJson = true
     return text
   }
 
+  /**
+   * Formats this Map as JSON for storage in the custom field holder.  Does not change the useUnderscoresInJson flag.
+   * Any elements that have not been decoded are written verbatim from the original JSON.
+   * @return The JSON.
+   */
+  String formatJSON() {
+    return rawIndex ? writeJSONWithRawValues() : Holders.objectMapper.writeValueAsString(this)
+  }
+
+  /**
+   * Builds the index of the top-level elements in the given JSON text.  Uses the streaming parser, so only
+   * the structure is scanned.  No values are created.
+   * @param text The JSON text.
+   * @return True if indexed.  False if the text is not a JSON object.
+   */
+  protected boolean indexJSON(String text) {
+    JsonParser parser = Holders.objectMapper.factory.createParser(text)
+    try {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        return false
+      }
+      def index = new LinkedHashMap<String, int[]>()
+      def token = parser.nextToken()
+      while (token == JsonToken.FIELD_NAME) {
+        def name = parser.currentName
+        def valueToken = parser.nextToken()
+        int start = (int) parser.tokenLocation.charOffset
+        if (valueToken.isStructStart()) {
+          parser.skipChildren()
+        }
+        // The value ends before the next element (or the end of the object).
+        token = parser.nextToken()
+        int end = findValueEnd(text, start, (int) parser.tokenLocation.charOffset)
+        index.put(name, [start, end] as int[])
+      }
+      if (index) {
+        rawJSON = text
+        rawIndex = index
+      }
+      return true
+    } finally {
+      parser.close()
+    }
+  }
+
+  /**
+   * Finds the end of a value in the JSON text, given the start of the next token.  Skips the white space and the
+   * separator comma.
+   * @param text The JSON text.
+   * @param start The start of the value.
+   * @param next The start of the next token.
+   * @return The end of the value (exclusive).
+   */
+  protected static int findValueEnd(String text, int start, int next) {
+    int end = next
+    while (end > start && Character.isWhitespace(text.charAt(end - 1))) {
+      end--
+    }
+    if (end > start && text.charAt(end - 1) == (char) ',') {
+      end--
+      while (end > start && Character.isWhitespace(text.charAt(end - 1))) {
+        end--
+      }
+    }
+    return end
+  }
+
+  /**
+   * Prepares this map for use by several threads.  Decodes all of the elements, so the reads no longer change the
+   * map, and uses a concurrent cache for the typed values.  Must be called before the map is visible to
+   * other threads.
+   */
+  void prepareForSharing() {
+    materialize()
+    convertedValues = convertedValues ? new ConcurrentHashMap<Object, Object>(convertedValues) :
+      new ConcurrentHashMap<Object, Object>()
+    shared = true
+  }
+
+  /**
+   * Decodes the given element from the original JSON text, if it has not been decoded yet.
+   * @param key The element name.
+   */
+  protected void loadRawValue(Object key) {
+    if (rawIndex == null) {
+      return
+    }
+    def range = rawIndex.remove(key)
+    if (range != null) {
+      super.put(key, Holders.objectMapper.readValue(rawJSON.substring(range[0], range[1]), Object))
+    }
+    if (rawIndex.isEmpty()) {
+      rawJSON = null
+      rawIndex = null
+    }
+  }
+
+  /**
+   * Decodes all of the remaining elements from the original JSON text.  Used before any operation that needs the
+   * full map.
+   */
+  protected void materialize() {
+    if (rawIndex == null) {
+      return
+    }
+    for (key in new ArrayList<String>(rawIndex.keySet())) {
+      loadRawValue(key)
+    }
+  }
+
+  /**
+   * Discards any un-decoded value for the given element.  Used when the element is replaced or removed.
+   * @param key The element name.
+   */
+  protected void discardRawValue(Object key) {
+    if (rawIndex != null) {
+      rawIndex.remove(key)
+      if (rawIndex.isEmpty()) {
+        rawJSON = null
+        rawIndex = null
+      }
+    }
+  }
+
+  /**
+   * Clears the cached converted value for the given element.  A change to the config element clears all of them.
+   * @param key The element name.
+   */
+  protected void clearConvertedValue(Object key) {
+    if (convertedValues != null) {
+      if (key == CONFIG_ELEMENT_NAME) {
+        resetConvertedValues()
+      } else if (key != null) {
+        convertedValues.remove(key)
+      }
+    }
+  }
+
+  /**
+   * Clears all of the cached converted values.  A shared map keeps an empty concurrent cache.
+   */
+  protected void resetConvertedValues() {
+    convertedValues = shared ? new ConcurrentHashMap<Object, Object>() : null
+  }
+
+  /**
+   * Writes the JSON for this map, using the original JSON text for the elements that have not been decoded.
+   * @return The JSON.
+   */
+  protected String writeJSONWithRawValues() {
+    def mapper = Holders.objectMapper
+    def sb = new StringBuilder(rawJSON.length() + 64)
+    sb.append('{')
+    for (entry in rawIndex.entrySet()) {
+      if (sb.length() > 1) {
+        sb.append(',')
+      }
+      sb.append(mapper.writeValueAsString(entry.key)).append(':')
+      sb.append(rawJSON, entry.value[0], entry.value[1])
+    }
+    for (entry in super.entrySet()) {
+      if (sb.length() > 1) {
+        sb.append(',')
+      }
+      sb.append(mapper.writeValueAsString(entry.key as String)).append(':')
+      sb.append(mapper.writeValueAsString(entry.value))
+    }
+    sb.append('}')
+    return sb.toString()
+  }
+
   /**
    * Returns the value to which the specified key is mapped,
    * or {@code null} if this map contains no mapping for the key.
@@ -136,7 +350,38 @@ class FieldHolderMap extends HashMap implements FieldHolderMapInterface {
       // Flag probably error when trying to get the dirt/parsingFromJSON flags.
       log.warn("get(): You used a key '{}' to get the value from the Map.  Did you mean is{}()", key, NameUtils.uppercaseFirstLetter(key as String))
     }
-    return convertToOriginalType(key, super.get(key))
+    def cache = convertedValues
+    if (key != null && cache != null) {
+      def cached = cache.get(key)
+      if (cached != null) {
+        return copyConvertedValue(cached)
+      }
+    }
+    loadRawValue(key)
+    def value = super.get(key)
+    def res = convertToOriginalType(key, value)
+    if (key != null && res != null && !res.is(value) && !(res instanceof Collection)) {
+      // Cache the typed value.  Lists are not cached since the caller may change them.
+      if (cache == null) {
+        cache = [:]
+        convertedValues = cache
+      }
+      cache.put(key, res)
+      return copyConvertedValue(res)
+    }
+    return res
+  }
+
+  /**
+   * Returns the cached converted value.  Mutable values such as Dates are copied.
+   * @param value The cached value.
+   * @return The value for the caller.
+   */
+  protected Object copyConvertedValue(Object value) {
+    if (value instanceof Date) {
+      return ((Date) value).clone()
+    }
+    return value
   }
 
   /**
@@ -219,6 +464,8 @@ class FieldHolderMap extends HashMap implements FieldHolderMapInterface {
     if (fieldDefinition?.format == ChildListFieldFormat.instance) {
       throw new UnsupportedOperationException("This map does not support elements with the format ChildListFieldFormat.  See CustomChildListFieldFormat.")
     }
+    discardRawValue(key)
+    clearConvertedValue(key)
     def res = super.put(key, value)
     dirty = true
     if (!parsingFromJSON) {
@@ -348,6 +595,7 @@ class FieldHolderMap extends HashMap implements FieldHolderMapInterface {
    * @return The map.
    */
   protected Map getConfigMap() {
+    loadRawValue(CONFIG_ELEMENT_NAME)
     def configMap = super.get(CONFIG_ELEMENT_NAME) as Map
     if (configMap == null) {
       configMap = [:]
@@ -406,6 +654,7 @@ class FieldHolderMap extends HashMap implements FieldHolderMapInterface {
    * @param context The place that triggered this.  Usually a domain entity.  Used for errors.
    */
   protected void mergeConfig(Map srcConfig, Object context) {
+    clearConvertedValue(CONFIG_ELEMENT_NAME)
     def destConfig = this.get(CONFIG_ELEMENT_NAME) as Map
     // Merge any legal changes to existing elements
     for (fieldName in srcConfig.keySet()) {
@@ -460,6 +709,174 @@ class FieldHolderMap extends HashMap implements FieldHolderMapInterface {
     }
   }
 
+  @Override
+  boolean containsKey(Object key) {
+    return rawIndex?.containsKey(key) || super.containsKey(key)
+  }
+
+  @Override
+  Object getOrDefault(Object key, Object defaultValue) {
+    return containsKey(key) ? get(key) : defaultValue
+  }
+
+  @Override
+  int size() {
+    return super.size() + (rawIndex?.size() ?: 0)
+  }
+
+  @Override
+  boolean isEmpty() {
+    return size() == 0
+  }
+
+  @Override
+  Object remove(Object key) {
+    loadRawValue(key)
+    clearConvertedValue(key)
+    return super.remove(key)
+  }
+
+  @Override
+  void clear() {
+    rawJSON = null
+    rawIndex = null
+    resetConvertedValues()
+    super.clear()
+  }
+
+  // The remaining Map operations need the full map, so all elements are decoded first.
+  // The views can change the map directly, so the cached typed values are cleared too.
+
+  @Override
+  Set keySet() {
+    materialize()
+    resetConvertedValues()
+    return super.keySet()
+  }
+
+  @Override
+  Collection values() {
+    materialize()
+    resetConvertedValues()
+    return super.values()
+  }
+
+  @Override
+  Set<Map.Entry> entrySet() {
+    materialize()
+    resetConvertedValues()
+    return super.entrySet()
+  }
+
+  @Override
+  boolean containsValue(Object value) {
+    materialize()
+    return super.containsValue(value)
+  }
+
+  @Override
+  void putAll(Map m) {
+    materialize()
+    resetConvertedValues()
+    super.putAll(m)
+  }
+
+  @Override
+  Object putIfAbsent(Object key, Object value) {
+    materialize()
+    clearConvertedValue(key)
+    return super.putIfAbsent(key, value)
+  }
+
+  @Override
+  boolean remove(Object key, Object value) {
+    materialize()
+    clearConvertedValue(key)
+    return super.remove(key, value)
+  }
+
+  @Override
+  boolean replace(Object key, Object oldValue, Object newValue) {
+    materialize()
+    clearConvertedValue(key)
+    return super.replace(key, oldValue, newValue)
+  }
+
+  @Override
+  Object replace(Object key, Object value) {
+    materialize()
+    clearConvertedValue(key)
+    return super.replace(key, value)
+  }
+
+  @Override
+  Object computeIfAbsent(Object key, Function mappingFunction) {
+    materialize()
+    clearConvertedValue(key)
+    return super.computeIfAbsent(key, mappingFunction)
+  }
+
+  @Override
+  Object computeIfPresent(Object key, BiFunction remappingFunction) {
+    materialize()
+    clearConvertedValue(key)
+    return super.computeIfPresent(key, remappingFunction)
+  }
+
+  @Override
+  Object compute(Object key, BiFunction remappingFunction) {
+    materialize()
+    clearConvertedValue(key)
+    return super.compute(key, remappingFunction)
+  }
+
+  @Override
+  Object merge(Object key, Object value, BiFunction remappingFunction) {
+    materialize()
+    clearConvertedValue(key)
+    return super.merge(key, value, remappingFunction)
+  }
+
+  @Override
+  void forEach(BiConsumer action) {
+    materialize()
+    super.forEach(action)
+  }
+
+  @Override
+  void replaceAll(BiFunction function) {
+    materialize()
+    resetConvertedValues()
+    super.replaceAll(function)
+  }
+
+  @Override
+  Object clone() {
+    materialize()
+    def map = (FieldHolderMap) super.clone()
+    map.@convertedValues = null
+    map.@shared = false
+    return map
+  }
+
+  @Override
+  boolean equals(Object o) {
+    materialize()
+    return super.equals(o)
+  }
+
+  @Override
+  int hashCode() {
+    materialize()
+    return super.hashCode()
+  }
+
+  @Override
+  String toString() {
+    materialize()
+    return super.toString()
+  }
+
   boolean isDirty() {
     return dirty
   }
@@ -11,11 +11,13 @@ import io.micronaut.data.annotation.Id
 import io.micronaut.data.annotation.MappedEntity
 import io.micronaut.data.annotation.MappedProperty
 import io.micronaut.data.model.DataType
+import org.simplemes.eframe.custom.ExtensibleFieldIndexHelper
 import org.simplemes.eframe.custom.HistoryTracking
 import org.simplemes.eframe.data.format.BasicFieldFormat
 import org.simplemes.eframe.data.format.StringFieldFormat
 import org.simplemes.eframe.domain.annotation.DomainEntity
 import org.simplemes.eframe.misc.FieldSizes
+import org.simplemes.eframe.web.ui.webix.freemarker.MarkerFragmentCache
 
 import javax.persistence.Column
 
@@ -95,6 +97,13 @@ class FieldExtension implements FieldInterface, FieldTrait {
   @Column(nullable = true)
   Boolean required = false
 
+  /**
+   * If true, then a database index is created for this field's value.  This speeds up the searches on the field,
+   * but slows down the inserts/updates on the domain.  Use only for frequently queried fields.
+   */
+  @Column(nullable = true)
+  Boolean indexed = false
+
   Integer version = 0
 
   @Id @AutoPopulated
@@ -105,7 +114,7 @@ class FieldExtension implements FieldInterface, FieldTrait {
    * Defines the order the fields are shown in the edit/show/etc GUIs.
    */
   @SuppressWarnings("unused")
-  static fieldOrder = ['sequence', 'fieldName', 'fieldLabel', 'fieldFormat', 'maxLength', 'required', 'historyTracking', 'valueClassName', 'guiHints']
+  static fieldOrder = ['sequence', 'fieldName', 'fieldLabel', 'fieldFormat', 'maxLength', 'required', 'indexed', 'historyTracking', 'valueClassName', 'guiHints']
 
   /**
    * The primary keys for this object.
@@ -113,7 +122,13 @@ class FieldExtension implements FieldInterface, FieldTrait {
   @SuppressWarnings("unused")
   static keys = ['flexType', 'fieldName']
 
-
+  /**
+   * Save will create or drop the DB index for this field, as needed.
+   */
+  @SuppressWarnings("unused")
+  def beforeSave() {
+    ExtensibleFieldIndexHelper.instance.updateIndex(this)
+  }
 
   /**
    * Delete will remove any references to this field from any FieldGUIExtensions
@@ -121,6 +136,8 @@ class FieldExtension implements FieldInterface, FieldTrait {
   @SuppressWarnings("unused")
   def beforeDelete() {
     FieldGUIExtension.removeReferencesToField(domainClassName, fieldName)
+    ExtensibleFieldIndexHelper.instance.updateIndex(this, true)
+    MarkerFragmentCache.instance.clear()
   }
 
 }
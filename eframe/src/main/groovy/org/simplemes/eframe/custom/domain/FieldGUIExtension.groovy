@@ -17,6 +17,7 @@ import org.simplemes.eframe.custom.gui.FieldAdjustmentInterface
 import org.simplemes.eframe.domain.annotation.DomainEntity
 import org.simplemes.eframe.json.TypeableMapper
 import org.simplemes.eframe.misc.FieldSizes
+import org.simplemes.eframe.web.ui.webix.freemarker.MarkerFragmentCache
 
 import javax.annotation.Nullable
 import javax.persistence.Column
@@ -163,6 +164,14 @@ class FieldGUIExtension {
     }
   }
 
+  /**
+   * Clears the cached pages that may use these adjustments.
+   */
+  @SuppressWarnings("unused")
+  def beforeDelete() {
+    MarkerFragmentCache.instance.clear()
+  }
+
   /**
    *  Build a human-readable version of this object.
    * @return The human-readable string.
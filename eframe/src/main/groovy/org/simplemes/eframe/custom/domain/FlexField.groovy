@@ -11,11 +11,13 @@ import io.micronaut.data.annotation.Id
 import io.micronaut.data.annotation.MappedEntity
 import io.micronaut.data.annotation.MappedProperty
 import io.micronaut.data.model.DataType
+import org.simplemes.eframe.custom.ExtensibleFieldIndexHelper
 import org.simplemes.eframe.custom.HistoryTracking
 import org.simplemes.eframe.data.format.BasicFieldFormat
 import org.simplemes.eframe.data.format.StringFieldFormat
 import org.simplemes.eframe.domain.annotation.DomainEntity
 import org.simplemes.eframe.misc.FieldSizes
+import org.simplemes.eframe.web.ui.webix.freemarker.MarkerFragmentCache
 
 import javax.persistence.Column
 import javax.persistence.ManyToOne
@@ -100,6 +102,13 @@ class FlexField implements FieldInterface, FieldTrait {
   @Column(nullable = true)
   Boolean required = false
 
+  /**
+   * If true, then a database index is created for this field's value.  This speeds up the searches on the field,
+   * but slows down the inserts/updates on the domain.  Use only for frequently queried fields.
+   */
+  @Column(nullable = true)
+  Boolean indexed = false
+
   @Id @AutoPopulated
   @MappedProperty(type = DataType.UUID)
   UUID uuid
@@ -107,7 +116,7 @@ class FlexField implements FieldInterface, FieldTrait {
   /**
    * Defines the order the fields are shown in the edit/show/etc GUIs.
    */
-  static fieldOrder = ['sequence', 'fieldName', 'fieldLabel', 'fieldFormat', 'maxLength', 'required', 'historyTracking', 'valueClassName']
+  static fieldOrder = ['sequence', 'fieldName', 'fieldLabel', 'fieldFormat', 'maxLength', 'required', 'indexed', 'historyTracking', 'valueClassName']
 
   /**
    * Provides the default values for new rows inserted into the inline grid on the client.
@@ -119,5 +128,22 @@ class FlexField implements FieldInterface, FieldTrait {
    */
   static keys = ['flexType', 'fieldName']
 
+  /**
+   * Save will create or drop the DB indexes for this field, as needed.
+   */
+  def beforeSave() {
+    ExtensibleFieldIndexHelper.instance.updateIndex(this)
+  }
+
+  /**
+   * Delete will drop the DB indexes for this field, if no other flex field needs them.
+   */
+  def beforeDelete() {
+    if (fieldName) {
+      // Children removed from the FlexType are deleted with just the UUID.
+      ExtensibleFieldIndexHelper.instance.updateIndex(this, true)
+    }
+    MarkerFragmentCache.instance.clear()
+  }
 
 }
@@ -22,6 +22,7 @@ import org.simplemes.eframe.data.FieldDefinitionInterface
 import org.simplemes.eframe.domain.annotation.DomainEntity
 import org.simplemes.eframe.domain.validate.ValidationError
 import org.simplemes.eframe.misc.FieldSizes
+import org.simplemes.eframe.web.ui.webix.freemarker.MarkerFragmentCache
 
 import javax.annotation.Nullable
 import javax.persistence.Column
@@ -107,6 +108,11 @@ class FlexType implements ConfigurableTypeInterface, ChoiceListItemInterface {
   @SuppressWarnings("unused")
   static fieldOrder = ['flexType', 'category', 'title', 'defaultFlexType', 'fields']
 
+  /**
+   * The records are cached when read as a foreign reference (see DomainCache).
+   */
+  static cache = [ttl: 600, maxSize: 1000]
+
   def validate() {
     if (fields?.size() <= 0) {
       //error.200.message=The list value ({0}) must have at least one entry in it.
@@ -128,6 +134,14 @@ class FlexType implements ConfigurableTypeInterface, ChoiceListItemInterface {
     }
   }
 
+  /**
+   * Clears the cached pages that may use this type's fields.
+   */
+  @SuppressWarnings("unused")
+  def beforeDelete() {
+    MarkerFragmentCache.instance.clear()
+  }
+
   /**
    * Build human readable version of this object.
    * @return
@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) Michael Houston 2020. All rights reserved.
+ */
+
+package org.simplemes.eframe.dashboard
+
+import org.simplemes.eframe.dashboard.domain.DashboardButton
+import org.simplemes.eframe.dashboard.domain.DashboardConfig
+import org.simplemes.eframe.dashboard.domain.DashboardPanel
+import org.simplemes.eframe.dashboard.domain.DashboardPanelSplitter
+import org.simplemes.eframe.domain.BaseCacheEventListener
+import org.simplemes.eframe.domain.DomainSaveTransactionEvent
+
+import javax.inject.Singleton
+
+/**
+ * Clears the {@link DashboardDefinitionCache} when the dashboard records change.
+ */
+@Singleton
+class DashboardCacheEventListener extends BaseCacheEventListener {
+
+  /**
+   * Clears the cache if the event is for a dashboard record.
+   * @param event The event.
+   */
+  @Override
+  protected void invalidate(DomainSaveTransactionEvent event) {
+    def domainObject = event.domainObject
+    if (domainObject instanceof DashboardConfig || domainObject instanceof DashboardPanel ||
+      domainObject instanceof DashboardPanelSplitter || domainObject instanceof DashboardButton) {
+      DashboardDefinitionCache.instance.clear()
+    }
+  }
+
+}
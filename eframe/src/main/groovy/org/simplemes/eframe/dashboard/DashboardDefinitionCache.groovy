@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) Michael Houston 2020. All rights reserved.
+ */
+
+package org.simplemes.eframe.dashboard
+
+import groovy.transform.ToString
+import groovy.util.logging.Slf4j
+import org.simplemes.eframe.dashboard.domain.DashboardConfig
+import org.simplemes.eframe.domain.SQLUtils
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * A cache of the fully loaded dashboard definitions and the dashboard script fragments generated from them.
+ * Many clients typically display the same few dashboards, so this avoids the database reads and most of the
+ * script generation for each dashboard page load.  The user-specific values (e.g. splitter sizes) are not
+ * stored here.  Those are merged into the cached script fragments when the dashboard is displayed.
+ * <p>
+ * The whole cache is cleared when any dashboard record is saved or deleted on this server.  Changes made on other
+ * servers are detected by a single row lookup of the dashboard's UUID and version on each cache hit.  The child
+ * records have no version, so a cached definition is also re-loaded after {@link #maxAge} milliseconds.  This picks
+ * up child-only changes made on other servers.  The cached DashboardConfig records
+ * are shared by all threads and must not be changed by the callers.
+ *
+ * <h3>Logging</h3>
+ * The logging for this class that can be enabled:
+ * <ul>
+ *   <li><b>debug</b> - Logs when the cache is cleared. </li>
+ *   <li><b>trace</b> - Logs each cache miss and each stale definition. </li>
+ * </ul>
+ */
+@Slf4j
+class DashboardDefinitionCache {
+
+  /**
+   * The SQL used to check the current version of a cached dashboard.
+   */
+  protected static final String DASHBOARD_VERSION_SQL = 'SELECT uuid, version FROM dashboard_config WHERE dashboard = ?'
+
+  /**
+   * The SQL used to check the current default dashboard (and its version) for a category.
+   */
+  protected static final String DEFAULT_VERSION_SQL = 'SELECT uuid, version FROM dashboard_config ' +
+    'WHERE category = ? AND default_config = ?'
+
+  /**
+   * The maximum time (ms) a definition is used before it is re-loaded.  Needed for child-only changes made
+   * on other servers.
+   */
+  static long maxAge = 60000
+
+  /**
+   * A singleton, used for simplified unit testing with a mocked class.
+   */
+  static DashboardDefinitionCache instance = new DashboardDefinitionCache()
+
+  /**
+   * The cached definitions.  The key is the dashboard name.
+   */
+  protected Map<String, DashboardDefinition> definitions = new ConcurrentHashMap<String, DashboardDefinition>()
+
+  /**
+   * The dashboard name for the default dashboard in each category.  The key is the category.
+   */
+  protected Map<String, String> defaultDashboards = new ConcurrentHashMap<String, String>()
+
+  /**
+   * Incremented each time the cache is cleared.  Used to prevent a read that started before the clear from
+   * adding a stale entry after the clear.
+   */
+  protected AtomicLong generation = new AtomicLong()
+
+  /**
+   * Finds the given dashboard, from the cache if possible.
+   * @param dashboard The dashboard name.
+   * @return The definition.  Null if not found.
+   */
+  DashboardDefinition findByDashboard(String dashboard) {
+    def definition = definitions.get(dashboard)
+    if (definition != null && isCurrent(definition, DASHBOARD_VERSION_SQL, dashboard)) {
+      return definition
+    }
+
+    log.trace('findByDashboard: cache miss for {}', dashboard)
+    def startGeneration = generation.get()
+    definition = readDefinition(DashboardConfig.findByDashboard(dashboard))
+    if (definition && startGeneration == generation.get()) {
+      definitions.put(dashboard, definition)
+    }
+    return definition
+  }
+
+  /**
+   * Finds the default dashboard for the given category, from the cache if possible.
+   * @param category The category.
+   * @return The definition.  Null if not found.
+   */
+  DashboardDefinition findDefaultForCategory(String category) {
+    def dashboard = defaultDashboards.get(category)
+    if (dashboard != null) {
+      def definition = definitions.get(dashboard)
+      if (definition != null && isCurrent(definition, DEFAULT_VERSION_SQL, category, true)) {
+        return definition
+      }
+    }
+
+    log.trace('findDefaultForCategory: cache miss for {}', category)
+    def startGeneration = generation.get()
+    def definition = readDefinition(DashboardConfig.findByCategoryAndDefaultConfig(category, true))
+    if (definition && startGeneration == generation.get()) {
+      definitions.put(definition.dashboard, definition)
+      defaultDashboards.put(category, definition.dashboard)
+    }
+    return definition
+  }
+
+  /**
+   * Checks the cached definition against the database.  The definition is removed from the cache if it is
+   * too old, if the record changed or if the query finds a different dashboard (e.g. a new default).
+   * @param definition The cached definition.
+   * @param sql The SQL that returns the current UUID and version of the dashboard.
+   * @param args The SQL arguments.
+   * @return True if the definition is current.
+   */
+  protected boolean isCurrent(DashboardDefinition definition, String sql, Object... args) {
+    def current = false
+    if ((System.currentTimeMillis() - definition.loadedTime) < maxAge) {
+      List<Map> rows = null
+      DashboardConfig.withTransaction {
+        rows = SQLUtils.instance.executeQuery(sql, Map, args)
+      }
+      if (rows) {
+        current = rows[0].uuid == definition.uuid && (rows[0].version as Integer ?: 0) == (definition.version ?: 0)
+      }
+    }
+    if (!current) {
+      log.trace('isCurrent: stale definition {}', definition)
+      definitions.remove(definition.dashboard, definition)
+    }
+    return current
+  }
+
+  /**
+   * Builds the definition from the given dashboard record.  Loads all of the child records.
+   * @param dashboardConfig The dashboard.  Can be null.
+   * @return The definition.  Null if the dashboard is null.
+   */
+  protected DashboardDefinition readDefinition(DashboardConfig dashboardConfig) {
+    if (dashboardConfig == null) {
+      return null
+    }
+    return new DashboardDefinition(dashboardConfig)
+  }
+
+  /**
+   * Clears the cache.  Called when a dashboard is changed.
+   */
+  void clear() {
+    generation.incrementAndGet()
+    definitions.clear()
+    defaultDashboards.clear()
+    log.debug('clear: Cleared dashboard definition cache')
+  }
+
+  /**
+   * A single cached dashboard.  Holds the loaded dashboard and the script fragments generated from it.
+   */
+  @ToString(includePackage = false, includeNames = true, includes = ['dashboard', 'version'])
+  static class DashboardDefinition {
+
+    /**
+     * The dashboard name.
+     */
+    final String dashboard
+
+    /**
+     * The dashboard record's UUID.
+     */
+    final UUID uuid
+
+    /**
+     * The dashboard record's version when it was loaded.
+     */
+    final Integer version
+
+    /**
+     * The time (ms) the definition was loaded.
+     */
+    final long loadedTime = System.currentTimeMillis()
+
+    /**
+     * The fully-loaded dashboard record.  The buttons are sorted by sequence.  Must not be changed.
+     */
+    final DashboardConfig dashboardConfig
+
+    /**
+     * The script fragments generated from the dashboard.  The key is defined by the caller (e.g. 'panels').
+     */
+    protected final Map<String, String> fragments = new ConcurrentHashMap<String, String>()
+
+    /**
+     * Builds the definition from the given dashboard record.  Loads all of the child records.
+     * @param dashboardConfig The dashboard.
+     */
+    DashboardDefinition(DashboardConfig dashboardConfig) {
+      this.dashboardConfig = dashboardConfig
+      dashboard = dashboardConfig.dashboard
+      uuid = dashboardConfig.uuid
+      version = dashboardConfig.version
+      // Force the child lists to be loaded now, before the record is shared.
+      dashboardConfig.getDashboardPanels()
+      dashboardConfig.getSplitterPanels()
+      dashboardConfig.getButtons()?.sort { it.sequence }
+    }
+
+    /**
+     * Finds the given script fragment, building it if not already built.
+     * @param key The fragment key.
+     * @param builder The closure that builds the fragment (if needed).
+     * @return The fragment.
+     */
+    String getFragment(String key, Closure<String> builder) {
+      def fragment = fragments.get(key)
+      if (fragment == null) {
+        fragment = builder.call()
+        fragments.put(key, fragment)
+      }
+      return fragment
+    }
+  }
+}
@@ -14,6 +14,7 @@ import io.micronaut.data.annotation.Id
 import io.micronaut.data.annotation.MappedEntity
 import io.micronaut.data.annotation.MappedProperty
 import io.micronaut.data.model.DataType
+import org.simplemes.eframe.dashboard.DashboardDefinitionCache
 import org.simplemes.eframe.domain.annotation.DomainEntity
 import org.simplemes.eframe.domain.validate.ValidationError
 import org.simplemes.eframe.misc.FieldSizes
@@ -113,6 +114,11 @@ class DashboardConfig {
     clearOtherDefaultDashboardsIfNeeded()
   }
 
+  @SuppressWarnings("unused")
+  def beforeDelete() {
+    DashboardDefinitionCache.instance.clear()
+  }
+
   /**
    * Called before validate happens.
    */
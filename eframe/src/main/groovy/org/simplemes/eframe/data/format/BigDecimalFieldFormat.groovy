@@ -3,8 +3,8 @@ package org.simplemes.eframe.data.format
 import groovy.transform.CompileStatic
 import org.simplemes.eframe.data.FieldDefinitionInterface
 import org.simplemes.eframe.i18n.GlobalUtils
+import org.simplemes.eframe.misc.NumberFormatRegistry
 
-import java.text.DecimalFormat
 
 /*
  * Copyright Michael Houston 2018. All rights reserved.
@@ -48,9 +48,8 @@ class BigDecimalFieldFormat extends BasicFieldFormat {
     if (!value) {
       return null
     }
-    def nf = DecimalFormat.getInstance(GlobalUtils.getRequestLocale(locale)) as DecimalFormat
-    nf.setGroupingUsed(true)  // Always allow grouping (thousands) when parsing.
-    nf.setParseBigDecimal(true)
+    // Always allows grouping (thousands) when parsing.
+    def nf = NumberFormatRegistry.getParser(GlobalUtils.getRequestLocale(locale))
     return nf.parse(value)
   }
 
@@ -66,8 +65,7 @@ class BigDecimalFieldFormat extends BasicFieldFormat {
     if (value == null) {
       return ''
     }
-    def nf = DecimalFormat.getInstance(GlobalUtils.getRequestLocale(locale)) as DecimalFormat
-    nf.setGroupingUsed(false)
+    def nf = NumberFormatRegistry.getFormat(GlobalUtils.getRequestLocale(locale), false)
     return nf.format(value)
   }
 
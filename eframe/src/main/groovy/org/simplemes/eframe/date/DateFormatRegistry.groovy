@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) Michael Houston 2020. All rights reserved.
+ */
+
+package org.simplemes.eframe.date
+
+import groovy.transform.CompileStatic
+import groovy.util.logging.Slf4j
+
+import java.text.DateFormat
+import java.text.SimpleDateFormat
+import java.time.Instant
+import java.time.ZoneId
+import java.time.ZoneOffset
+import java.time.format.DateTimeFormatter
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * A registry of the date formatters used for display and parsing, by locale.  The locale-specific patterns are
+ * found once per locale.  The formatting uses immutable java.time formatters that are shared by all threads.
+ * The parsing uses a copy of a cached java.text format since the java.text parsing rules (e.g. lenient
+ * parsing) are expected by the clients.
+ * <p>
+ * This is used by {@link DateUtils}.  Most code should use DateUtils instead of this registry.
+ */
+@Slf4j
+@CompileStatic
+class DateFormatRegistry {
+
+  /**
+   * The locale-independent format used for form values.
+   */
+  public static final String FORM_PATTERN = 'yyyy-MM-dd HH:mm:ss'
+
+  /**
+   * The formatter used for form values.
+   */
+  static final DateTimeFormatter FORM_FORMATTER = DateTimeFormatter.ofPattern(FORM_PATTERN)
+
+  /**
+   * The formatter for the ISO date/time format, without the time zone (e.g. 2010-11-14T13:24:56.987).  Always UTC.
+   */
+  static final DateTimeFormatter ISO_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS").withZone(ZoneOffset.UTC)
+
+  /**
+   * The formatter for the ISO date only format (e.g. 2010-11-14).  Always UTC.
+   */
+  static final DateTimeFormatter ISO_DATE_FORMATTER = DateTimeFormatter.ISO_LOCAL_DATE.withZone(ZoneOffset.UTC)
+
+  /**
+   * A sample time used to verify that a java.time formatter produces the same text as the java.text format.
+   * A PM time with 2 digit month, day and hour values.
+   */
+  protected static final long SAMPLE_TIME = 1608068730456L  // 2020-12-15T21:45:30.456Z
+
+  /**
+   * The cached formats, by locale.
+   */
+  protected static final Map<Locale, LocaleFormats> formats = new ConcurrentHashMap<Locale, LocaleFormats>()
+
+  /**
+   * The cached form parse format.
+   */
+  protected static final SimpleDateFormat formParser = new SimpleDateFormat(FORM_PATTERN)
+
+  /**
+   * Gets the formats for the given locale.
+   * @param locale The locale.  Required.
+   * @return The formats.
+   */
+  static LocaleFormats getFormats(Locale locale) {
+    def res = formats.get(locale)
+    if (res == null) {
+      res = new LocaleFormats(locale)
+      formats.put(locale, res)
+    }
+    return res
+  }
+
+  /**
+   * Formats the date/time for display in the given locale and time zone.
+   * @param date The date.
+   * @param locale The locale.
+   * @param timeZone The time zone.
+   * @return The formatted date/time.
+   */
+  static String formatDateTime(Date date, Locale locale, TimeZone timeZone) {
+    def localeFormats = getFormats(locale)
+    if (localeFormats.dateTimeFormatter) {
+      return localeFormats.dateTimeFormatter.format(Instant.ofEpochMilli(date.time).atZone(toZoneId(timeZone)))
+    }
+    def dateFormat = localeFormats.getDateTimeFormat()
+    dateFormat.setTimeZone(timeZone)
+    return dateFormat.format(date)
+  }
+
+  /**
+   * Formats the date only for display in the given locale (in UTC).
+   * @param date The date only.
+   * @param locale The locale.
+   * @return The formatted date.
+   */
+  static String formatDateOnly(DateOnly date, Locale locale) {
+    def localeFormats = getFormats(locale)
+    if (localeFormats.dateOnlyFormatter) {
+      return localeFormats.dateOnlyFormatter.format(Instant.ofEpochMilli(date.time).atZone(ZoneOffset.UTC))
+    }
+    return localeFormats.getDateOnlyFormat().format(new Date(date.time))
+  }
+
+  /**
+   * Formats the date/time in the locale-independent form format.
+   * @param date The date.
+   * @param timeZone The time zone.
+   * @return The formatted date/time.
+   */
+  static String formatForm(Date date, TimeZone timeZone) {
+    return FORM_FORMATTER.format(Instant.ofEpochMilli(date.time).atZone(toZoneId(timeZone)))
+  }
+
+  /**
+   * Returns a parser for the locale-independent form format.
+   * @param timeZone The time zone.
+   * @return The parser.  A new copy that can be changed by the caller.
+   */
+  static DateFormat getFormParser(TimeZone timeZone) {
+    def dateFormat = (DateFormat) formParser.clone()
+    dateFormat.setTimeZone(timeZone)
+    return dateFormat
+  }
+
+  /**
+   * Finds the ZoneId for the time zone.  Uses UTC if not given.
+   * @param timeZone The time zone.
+   * @return The ZoneId.
+   */
+  protected static ZoneId toZoneId(TimeZone timeZone) {
+    return timeZone ? timeZone.toZoneId() : ZoneOffset.UTC
+  }
+
+  /**
+   * Clears the cached formats.  Mainly used for testing.
+   */
+  static void clearCache() {
+    formats.clear()
+  }
+
+  /**
+   * The formats for a single locale.
+   */
+  @CompileStatic
+  static class LocaleFormats {
+
+    /**
+     * The locale.
+     */
+    final Locale locale
+
+    /**
+     * The date/time display format (SHORT date/MEDIUM time with a 4 digit year).  Copied for each use.
+     */
+    protected final DateFormat dateTimeFormat
+
+    /**
+     * The date only display format (SHORT with a 4 digit year).  Copied for each use.
+     */
+    protected final DateFormat dateOnlyFormat
+
+    /**
+     * The date/time parse format (SHORT date/MEDIUM time).  Copied for each use.
+     */
+    protected final DateFormat dateTimeParser
+
+    /**
+     * The date only parse format (SHORT).  Copied for each use.
+     */
+    protected final DateFormat dateOnlyParser
+
+    /**
+     * The immutable date/time formatter.  Null if the java.time version does not match the java.text format.
+     */
+    final DateTimeFormatter dateTimeFormatter
+
+    /**
+     * The immutable date only formatter.  Null if the java.time version does not match the java.text format.
+     */
+    final DateTimeFormatter dateOnlyFormatter
+
+    /**
+     * Builds the formats for the given locale.
+     * @param locale The locale.
+     */
+    LocaleFormats(Locale locale) {
+      this.locale = locale
+      dateTimeParser = DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.MEDIUM, locale)
+      dateOnlyParser = DateFormat.getDateInstance(DateFormat.SHORT, locale)
+      dateTimeFormat = useFourDigitYear(dateTimeParser, locale)
+      dateOnlyFormat = useFourDigitYear(dateOnlyParser, locale)
+      dateTimeFormatter = buildFormatter(dateTimeFormat, locale)
+      dateOnlyFormatter = buildFormatter(dateOnlyFormat, locale)
+    }
+
+    /**
+     * Returns a copy of the display date/time format.
+     * @return The format.  A new copy that can be changed by the caller.
+     */
+    DateFormat getDateTimeFormat() {
+      return (DateFormat) dateTimeFormat.clone()
+    }
+
+    /**
+     * Returns a copy of the display date only format.  Uses UTC.
+     * @return The format.  A new copy that can be changed by the caller.
+     */
+    DateFormat getDateOnlyFormat() {
+      def dateFormat = (DateFormat) dateOnlyFormat.clone()
+      dateFormat.setTimeZone(DateUtils.TIMEZONE_UTC)
+      return dateFormat
+    }
+
+    /**
+     * Returns a copy of the date/time parse format.
+     * @return The format.  A new copy that can be changed by the caller.
+     */
+    DateFormat getDateTimeParser() {
+      return (DateFormat) dateTimeParser.clone()
+    }
+
+    /**
+     * Returns a copy of the date only parse format.
+     * @return The format.  A new copy that can be changed by the caller.
+     */
+    DateFormat getDateOnlyParser() {
+      return (DateFormat) dateOnlyParser.clone()
+    }
+
+    /**
+     * Builds the display version of the given format with a 4 digit year.
+     * Works around a jqWidgets bug with 2 year dates and keyboard input.
+     * @param dateFormat The localized format.
+     * @param locale The locale.
+     * @return The format.
+     */
+    protected static DateFormat useFourDigitYear(DateFormat dateFormat, Locale locale) {
+      if (dateFormat instanceof SimpleDateFormat) {
+        def s = ((SimpleDateFormat) dateFormat).toPattern()
+        s = (s =~ /yy/).replaceAll("yyyy")
+        return new SimpleDateFormat(s, locale)
+      }
+      return (DateFormat) dateFormat.clone()
+    }
+
+    /**
+     * Builds the immutable java.time formatter for the given format's pattern.  The formatter is only used
+     * if it creates the same text as the original format.
+     * @param dateFormat The format.
+     * @param locale The locale.
+     * @return The formatter.  Null if not compatible.
+     */
+    protected static DateTimeFormatter buildFormatter(DateFormat dateFormat, Locale locale) {
+      if (!(dateFormat instanceof SimpleDateFormat)) {
+        return null
+      }
+      def pattern = ((SimpleDateFormat) dateFormat).toPattern()
+      try {
+        def formatter = DateTimeFormatter.ofPattern(pattern, locale)
+        def sampleFormat = (DateFormat) dateFormat.clone()
+        sampleFormat.setTimeZone(DateUtils.TIMEZONE_UTC)
+        def expected = sampleFormat.format(new Date(SAMPLE_TIME))
+        def actual = formatter.format(Instant.ofEpochMilli(SAMPLE_TIME).atZone(ZoneOffset.UTC))
+        if (expected == actual) {
+          return formatter
+        }
+        log.debug('buildFormatter(): Pattern {} for {} formats differently ({} vs. {}).', pattern, locale, expected, actual)
+      } catch (IllegalArgumentException e) {
+        log.debug('buildFormatter(): Pattern {} for {} not supported: {}', pattern, locale, e.toString())
+      }
+      return null
+    }
+  }
+}
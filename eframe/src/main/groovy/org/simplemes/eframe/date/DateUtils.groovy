@@ -10,7 +10,6 @@ import org.simplemes.eframe.application.Holders
 import org.simplemes.eframe.i18n.GlobalUtils
 
 import java.text.DateFormat
-import java.text.SimpleDateFormat
 import java.time.Instant
 import java.time.ZonedDateTime
 import java.time.temporal.ChronoUnit
@@ -48,7 +47,7 @@ class DateUtils {
    */
   static Date parseDate(String s, Locale locale = null) {
     if (s) {
-      def dateFormatter = DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.MEDIUM, GlobalUtils.getRequestLocale(locale))
+      def dateFormatter = DateFormatRegistry.getFormats(GlobalUtils.getRequestLocale(locale)).getDateTimeParser()
       dateFormatter.setTimeZone(Holders.globals.timeZone)
       return dateFormatter.parse(s)
     }
@@ -63,7 +62,7 @@ class DateUtils {
    */
   static DateOnly parseDateOnly(String s, Locale locale = null) {
     if (s) {
-      def dateFormatter = DateFormat.getDateInstance(DateFormat.SHORT, GlobalUtils.getRequestLocale(locale))
+      def dateFormatter = DateFormatRegistry.getFormats(GlobalUtils.getRequestLocale(locale)).getDateOnlyParser()
       dateFormatter.setTimeZone(TIMEZONE_UTC)
       def dateOnly = dateFormatter.parse(s)
       return new DateOnly(dateOnly.time)
@@ -78,9 +77,7 @@ class DateUtils {
    * @return The date string.
    */
   static String formatDate(Date date, Locale locale = null) {
-    def dateFormatter = getDateFormat(GlobalUtils.getRequestLocale(GlobalUtils.getRequestLocale(locale)))
-    dateFormatter.setTimeZone(Holders.globals.timeZone)
-    return dateFormatter.format(date)
+    return DateFormatRegistry.formatDateTime(date, GlobalUtils.getRequestLocale(locale), Holders.globals.timeZone)
   }
 
   /**
@@ -90,8 +87,7 @@ class DateUtils {
    * @return The date string.
    */
   static String formatDate(DateOnly date, Locale locale = null) {
-    def dateFormatter = getDateOnlyFormat(GlobalUtils.getRequestLocale(GlobalUtils.getRequestLocale(locale)))
-    return dateFormatter.format(new Date(date.time))
+    return DateFormatRegistry.formatDateOnly(date, GlobalUtils.getRequestLocale(locale))
   }
 
   /**
@@ -101,9 +97,7 @@ class DateUtils {
    */
   static Date parseForm(String s) {
     if (s) {
-      def dateFormatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss")
-      dateFormatter.setTimeZone(Holders.globals.timeZone)
-      return dateFormatter.parse(s)
+      return DateFormatRegistry.getFormParser(Holders.globals.timeZone).parse(s)
     }
     return null
   }
@@ -115,41 +109,25 @@ class DateUtils {
    * @return The date string.
    */
   static String formatForm(Date date) {
-    def dateFormatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss")
-    dateFormatter.setTimeZone(Holders.globals.timeZone)
-    return dateFormatter.format(date)
+    return DateFormatRegistry.formatForm(date, Holders.globals.timeZone)
   }
 
   /**
    * Finds the right date formatter for the given locale.
    * @param locale The locale to use for formatting the date (default is the request locale). (<b>Optional</b>)
-   * @return The formatter
+   * @return The formatter.  A new copy that can be changed by the caller.
    */
   static DateFormat getDateFormat(Locale locale = null) {
-    def dateFormatter = DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.MEDIUM, GlobalUtils.getRequestLocale(locale))
-    if (dateFormatter instanceof SimpleDateFormat) {
-      // Work around a jqWidgets bug with 2 year dates and keyboard input.
-      def s = dateFormatter.toPattern()
-      s = (s =~ /yy/).replaceAll("yyyy")
-      dateFormatter = new SimpleDateFormat(s, GlobalUtils.getRequestLocale(locale))
-    }
-    return dateFormatter
+    return DateFormatRegistry.getFormats(GlobalUtils.getRequestLocale(locale)).getDateTimeFormat()
   }
 
   /**
    * Finds the right date formatter for the given locale.
    * @param locale The locale to use for formatting the date (default is the request locale). (<b>Optional</b>)
-   * @return The formatter
+   * @return The formatter.  A new copy that can be changed by the caller.
    */
   static DateFormat getDateOnlyFormat(Locale locale = null) {
-    def dateFormatter = DateFormat.getDateInstance(DateFormat.SHORT, GlobalUtils.getRequestLocale(locale))
-    if (dateFormatter instanceof SimpleDateFormat) {
-      def s = dateFormatter.toPattern()
-      s = (s =~ /yy/).replaceAll("yyyy")
-      dateFormatter = new SimpleDateFormat(s, GlobalUtils.getRequestLocale(locale))
-    }
-    dateFormatter.setTimeZone(TIMEZONE_UTC)
-    return dateFormatter
+    return DateFormatRegistry.getFormats(GlobalUtils.getRequestLocale(locale)).getDateOnlyFormat()
   }
 
   /**
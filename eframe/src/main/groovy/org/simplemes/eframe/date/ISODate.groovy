@@ -24,11 +24,8 @@ class ISODate {
 
   static String format(Date date) {
     ArgumentUtils.checkMissing(date, 'date')
-    SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS")
-    sdf.setLenient(false)
-    // Format and add the trailing colon in the TZ section for proper ISO format.
-    sdf.setTimeZone(TIMEZONE_UTC)
-    return sdf.format(date) + 'Z'
+    // Uses the shared, immutable formatter and adds the UTC zone designator.
+    return DateFormatRegistry.ISO_FORMATTER.format(Instant.ofEpochMilli(date.time)) + 'Z'
   }
 
   /**
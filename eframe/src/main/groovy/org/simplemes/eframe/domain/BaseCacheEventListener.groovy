@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) Michael Houston 2020. All rights reserved.
+ */
+
+package org.simplemes.eframe.domain
+
+import io.micronaut.runtime.event.annotation.EventListener
+import io.micronaut.transaction.annotation.TransactionalEventListener
+
+/**
+ * The common base class for the listeners that keep the framework's in-memory caches in sync with the database.
+ * Sub-classes just decide which saved records affect their cache and how to invalidate the cached values.
+ * <p>
+ * The cache is invalidated when the record is saved and again when the transaction is committed or rolled back.
+ * The second invalidation is needed because another thread may read and cache the old (committed) values between
+ * the save and the commit.  The rollback invalidation drops any values cached from the uncommitted changes.
+ * <p>
+ * <b>Note:</b> These caches are local to this server.  Changes made on other servers are only seen when the
+ * cache itself expires or validates its entries.
+ */
+abstract class BaseCacheEventListener {
+
+  @SuppressWarnings('unused')
+  @EventListener
+  void onSave(DomainSaveTransactionEvent event) {
+    invalidate(event)
+  }
+
+  @SuppressWarnings('unused')
+  @TransactionalEventListener
+  void onCommit(DomainSaveTransactionEvent event) {
+    invalidate(event)
+  }
+
+  @SuppressWarnings('unused')
+  @TransactionalEventListener(TransactionalEventListener.TransactionPhase.AFTER_ROLLBACK)
+  void onRollback(DomainSaveTransactionEvent event) {
+    invalidateOnRollback(event)
+  }
+
+  /**
+   * Invalidates the cached values affected by the saved record, if any.  Called on the save and on the commit.
+   * @param event The event.
+   */
+  protected abstract void invalidate(DomainSaveTransactionEvent event)
+
+  /**
+   * Invalidates the cached values affected by the record after a rollback.  Defaults to {@link #invalidate}.
+   * @param event The event.
+   */
+  protected void invalidateOnRollback(DomainSaveTransactionEvent event) {
+    invalidate(event)
+  }
+
+}
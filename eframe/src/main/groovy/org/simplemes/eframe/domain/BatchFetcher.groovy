@@ -0,0 +1,358 @@
+/*
+ * Copyright (c) Michael Houston 2020. All rights reserved.
+ */
+
+package org.simplemes.eframe.domain
+
+import groovy.util.logging.Slf4j
+import io.micronaut.data.annotation.MappedEntity
+import io.micronaut.data.model.naming.NamingStrategy
+import io.micronaut.transaction.TransactionCallback
+import org.simplemes.eframe.application.Holders
+import org.simplemes.eframe.domain.annotation.DomainEntityHelper
+import org.simplemes.eframe.domain.annotation.DomainEntityInterface
+import org.simplemes.eframe.metrics.MetricsHelper
+
+import java.lang.reflect.Field
+import java.sql.PreparedStatement
+import java.sql.ResultSet
+
+/**
+ * Loads the lazy child lists, reference lists and foreign references for a group of sibling records with
+ * one query.  The siblings are the records read by one query (e.g. a list() or findAllByXYZ() finder).
+ * When a lazy getter is first used on one record in the group, the same field is loaded for the other records
+ * in the group (up to the <code>eframe.batchFetchSize</code>) with a single <code>WHERE ... IN(...)</code> query.
+ * The records loaded this way are also a group, so their own lazy fields are loaded in batches too.
+ * <p>
+ * The lazy getters in {@link DomainEntityHelper} use this only when the record is part of a group.  This also
+ * supports explicit fetch plans (see {@link #fetch(java.util.Collection, java.lang.String [ ])}).
+ * <p>
+ * A sibling that was added to the {@link DomainCache} after the group was read is shared by all threads, so it is
+ * never part of a batch load.  The cache removes the group from a record when it is added.
+ *
+ * <h3>Logging</h3>
+ * The logging for this class that can be enabled:
+ * <ul>
+ *   <li><b>debug</b> - Logs each batch query. </li>
+ * </ul>
+ */
+@Slf4j
+class BatchFetcher {
+
+  /**
+   * A singleton, used for simplified unit testing with a mocked class.
+   */
+  static BatchFetcher instance = new BatchFetcher()
+
+  /**
+   * The max number of records loaded in one batch when the automatic batch loading is disabled.  Used by explicit
+   * fetch plans only.
+   */
+  static final int DEFAULT_BATCH_SIZE = 100
+
+  /**
+   * Marks the given records as siblings, if the automatic batch loading is enabled.  Called when a query returns
+   * a list of records.
+   * @param records The records.  Elements that are not domain entities are ignored.
+   */
+  void register(Collection records) {
+    if (enabled) {
+      registerGroup(records)
+    }
+  }
+
+  /**
+   * Marks the given records as siblings.  Any previous group for the records is replaced.
+   * @param records The records.  Elements that are not domain entities are ignored.
+   */
+  protected void registerGroup(Collection records) {
+    if (records == null || records.size() < 2) {
+      return
+    }
+    List<DomainEntityInterface> siblings = []
+    for (record in records) {
+      if (record instanceof DomainEntityInterface) {
+        siblings << (DomainEntityInterface) record
+      }
+    }
+    if (siblings.size() < 2) {
+      return
+    }
+    def group = Collections.unmodifiableList(siblings)
+    for (sibling in siblings) {
+      DomainEntityHelper.instance.setDomainSettingValue(sibling, DomainEntityHelper.SETTINGS_BATCH_GROUP, group)
+    }
+  }
+
+  /**
+   * Loads the given lazy fields for all of the given records.  This uses one query per field for each batch of records.
+   * Nested paths are supported (e.g. 'orderLines.product').
+   * @param records The records.
+   * @param paths The field paths to load.
+   */
+  void fetch(Collection records, String... paths) {
+    for (path in paths) {
+      Collection current = records
+      for (name in path.tokenize('.')) {
+        def list = current.findAll { it != null }
+        if (!list) {
+          break
+        }
+        registerGroup(list)
+        List next = []
+        for (record in list) {
+          // The first getter call loads the batch.  The rest just return the loaded value.
+          def value = record[name]
+          if (value instanceof Collection) {
+            next.addAll((Collection) value)
+          } else if (value != null) {
+            next << value
+          }
+        }
+        current = next
+      }
+    }
+  }
+
+  /**
+   * Loads the child list (@OneToMany) field for the given record and its siblings.
+   * @param object The record whose lazy getter was called.
+   * @param fieldName The child list field.
+   * @param mappedByFieldName The field in the child that references the parent.
+   * @param childClass The child domain class.
+   * @return The child lists, by parent record (includes the given record).  Null if no batch is possible.
+   */
+  Map<DomainEntityInterface, List> loadChildLists(DomainEntityInterface object, String fieldName,
+                                                  String mappedByFieldName, Class childClass) {
+    def field = getField(object, fieldName)
+    def siblings = findSiblings(object) { DomainEntityInterface sibling -> field.get(sibling) == null }
+    if (!siblings) {
+      return null
+    }
+
+    def column = getNamingStrategy(childClass).mappedName(mappedByFieldName) + '_id'
+    def sql = "SELECT * FROM ${DomainEntityHelper.instance.getTableName(childClass)} WHERE $column IN(?)"
+    def operations = repositoryOperations
+    Map<UUID, List> byParent = [:]
+    List children = []
+    query(sql, siblings*.uuid) { ResultSet rs ->
+      def child = operations.readEntity(rs, childClass)
+      byParent.get(toUUID(rs.getObject(column)), []) << child
+      children << child
+    }
+    registerGroup(children)
+
+    return buildResults(siblings, byParent)
+  }
+
+  /**
+   * Loads the reference list (@ManyToMany) field for the given record and its siblings.
+   * @param object The record whose lazy getter was called.
+   * @param fieldName The reference list field.
+   * @param mappedBy The mappedBy value from the @ManyToMany annotation (the join table).
+   * @param childClass The referenced domain class.
+   * @return The reference lists, by parent record (includes the given record).  Null if no batch is possible.
+   */
+  Map<DomainEntityInterface, List> loadRefLists(DomainEntityInterface object, String fieldName,
+                                                String mappedBy, Class childClass) {
+    def field = getField(object, fieldName)
+    def siblings = findSiblings(object) { DomainEntityInterface sibling -> field.get(sibling) == null }
+    if (!siblings) {
+      return null
+    }
+
+    // Same join as the single record load.
+    def namingStrategy = getNamingStrategy(object.getClass())
+    def fromIDName = namingStrategy.mappedName(object.getClass().simpleName) + "_id"
+    def toIDName = namingStrategy.mappedName(childClass.simpleName) + "_id"
+    def referenceTableName = namingStrategy.mappedName(childClass.simpleName)
+    def mappedByTableName = namingStrategy.mappedName(mappedBy)
+    def sql = "SELECT * FROM $mappedByTableName INNER JOIN $referenceTableName ON $mappedByTableName.$toIDName" +
+      " = ${referenceTableName}.uuid WHERE $fromIDName IN(?)"
+    Map<UUID, List> byParent = [:]
+    List refs = []
+    query(sql, siblings*.uuid) { ResultSet rs ->
+      def ref = DomainBinder.bindResultSet(rs, childClass)
+      byParent.get(toUUID(rs.getObject(fromIDName)), []) << ref
+      refs << ref
+    }
+    registerGroup(refs)
+
+    return buildResults(siblings, byParent)
+  }
+
+  /**
+   * Loads the foreign reference (@ManyToOne) field for the given record and its siblings.  The siblings' fields
+   * are updated here.
+   * @param object The record whose lazy getter was called.
+   * @param fieldName The reference field.
+   * @param referencedObject The un-loaded reference in the given record.
+   * @return The loaded reference for the given record.  Null if no batch is possible or the record was not found.
+   */
+  DomainEntityInterface loadReferences(DomainEntityInterface object, String fieldName,
+                                       DomainEntityInterface referencedObject) {
+    def field = getField(object, fieldName)
+    def loadedName = DomainEntityHelper.SETTINGS_LOADED_REFERENCE + fieldName
+    def siblings = findSiblings(object) { DomainEntityInterface sibling ->
+      def ref = field.get(sibling) as DomainEntityInterface
+      return ref?.uuid && !DomainEntityHelper.instance.getDomainSettingValue(sibling, loadedName) &&
+        !DomainEntityHelper.instance.wasLoadedByJoin(ref)
+    }
+    if (!siblings) {
+      return null
+    }
+
+    def referencedClass = referencedObject.getClass()
+    def uuids = (siblings.collect { (field.get(it) as DomainEntityInterface).uuid } + [referencedObject.uuid]).unique()
+    def sql = "SELECT * FROM ${DomainEntityHelper.instance.getTableName(referencedClass)} WHERE uuid IN(?)"
+    def operations = repositoryOperations
+    Map<UUID, DomainEntityInterface> found = [:]
+    query(sql, uuids) { ResultSet rs ->
+      def ref = operations.readEntity(rs, referencedClass) as DomainEntityInterface
+      found[ref.uuid] = ref
+    }
+    registerGroup(found.values())
+
+    for (sibling in siblings) {
+      if (!sibling.is(object)) {
+        def ref = found[(field.get(sibling) as DomainEntityInterface).uuid]
+        if (ref) {
+          // Not found records are left alone.  The normal lazy load will fail for them.
+          DomainEntityHelper.instance.setDomainSettingValue(sibling, loadedName, true)
+          sibling[fieldName] = ref
+        }
+      }
+    }
+
+    return found[referencedObject.uuid]
+  }
+
+  /**
+   * Finds the siblings of the given record that need the field loaded.  Shared (cached) siblings are skipped, since
+   * the loaded values would be stored in them.
+   * @param object The record.
+   * @param needsLoad The closure that returns true if the sibling needs the field loaded.
+   * @return The siblings to load (starts with the given record).  Null if no other siblings need the field.
+   */
+  protected List<DomainEntityInterface> findSiblings(DomainEntityInterface object, Closure<Boolean> needsLoad) {
+    def group = DomainEntityHelper.instance.getDomainSettingValue(object, DomainEntityHelper.SETTINGS_BATCH_GROUP) as List<DomainEntityInterface>
+    if (!group || !object.uuid) {
+      return null
+    }
+    def max = batchSize
+    def domainCache = DomainCache.instance
+    List<DomainEntityInterface> res = [object]
+    for (sibling in group) {
+      if (res.size() >= max) {
+        break
+      }
+      if (!sibling.is(object) && sibling.uuid && !domainCache.isShared(sibling) && needsLoad(sibling)) {
+        res << sibling
+      }
+    }
+    return res.size() > 1 ? res : null
+  }
+
+  /**
+   * Builds the results for the list loaders.
+   * @param siblings The siblings loaded.
+   * @param byParent The loaded lists, by parent UUID.
+   * @return The lists, by parent record.  Records with no values have an empty list.
+   */
+  protected Map<DomainEntityInterface, List> buildResults(List<DomainEntityInterface> siblings, Map<UUID, List> byParent) {
+    Map<DomainEntityInterface, List> res = new IdentityHashMap<DomainEntityInterface, List>()
+    for (sibling in siblings) {
+      res.put(sibling, byParent[sibling.uuid] ?: [])
+    }
+    return res
+  }
+
+  /**
+   * Executes the given query in a read-only transaction.
+   * @param sql The SQL, with one 'IN(?)' clause.
+   * @param uuids The values for the 'IN(?)' clause.
+   * @param rowHandler The closure called for each row.  Passed the result set.
+   */
+  protected void query(String sql, List<UUID> uuids, Closure rowHandler) {
+    def sqlUtils = SQLUtils.instance
+    def (String expandedSQL, Object[] args) = sqlUtils.fixInClauseArray(sql, [uuids] as Object[])
+    log.debug('query(): sql = {}, {} records', expandedSQL, uuids.size())
+    DomainEntityHelper.instance.transactionManager.executeRead({ status ->
+      PreparedStatement ps = sqlUtils.getPreparedStatement(expandedSQL)
+      try {
+        for (int i = 0; i < args.length; i++) {
+          ps.setObject(i + 1, args[i])
+        }
+        MetricsHelper.instance.countQuery()
+        ps.execute()
+        ResultSet rs = ps.getResultSet()
+        try {
+          while (rs.next()) {
+            rowHandler.call(rs)
+          }
+        } finally {
+          rs.close()
+        }
+      } finally {
+        ps.close()
+      }
+      return null
+    } as TransactionCallback)
+  }
+
+  /**
+   * Finds the given field for direct access, without triggering the lazy getter.
+   * @param object The domain object.
+   * @param fieldName The field.
+   * @return The field.
+   */
+  protected Field getField(DomainEntityInterface object, String fieldName) {
+    def field = object.getClass().getDeclaredField(fieldName)
+    field.setAccessible(true)
+    return field
+  }
+
+  /**
+   * Returns the naming strategy for the given domain class.
+   * @param domainClass The domain class.
+   * @return The naming strategy.
+   */
+  protected NamingStrategy getNamingStrategy(Class domainClass) {
+    MappedEntity annotation = domainClass.getAnnotation(MappedEntity) as MappedEntity
+    return annotation.namingStrategy().getDeclaredConstructor().newInstance()
+  }
+
+  /**
+   * Converts a UUID column value to a UUID.
+   * @param value The value from the result set.
+   * @return The UUID.
+   */
+  protected UUID toUUID(Object value) {
+    return (value == null || value instanceof UUID) ? (UUID) value : UUID.fromString(value.toString())
+  }
+
+  /**
+   * Returns the repository operations used to read the entities from a result set.
+   * @return The operations.
+   */
+  protected EFrameJdbcRepositoryOperations getRepositoryOperations() {
+    return Holders.applicationContext.getBean(EFrameJdbcRepositoryOperations)
+  }
+
+  /**
+   * Returns true if the records read by a query are loaded in batches automatically.
+   * @return True if enabled.
+   */
+  boolean isEnabled() {
+    return Holders.configuration.batchFetchSize > 0
+  }
+
+  /**
+   * Returns the max number of records loaded in one batch.
+   * @return The size.
+   */
+  protected int getBatchSize() {
+    return Holders.configuration.batchFetchSize ?: DEFAULT_BATCH_SIZE
+  }
+
+}
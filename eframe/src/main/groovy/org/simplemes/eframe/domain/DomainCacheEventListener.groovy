@@ -0,0 +1,24 @@
+/*
+ * Copyright (c) Michael Houston 2020. All rights reserved.
+ */
+
+package org.simplemes.eframe.domain
+
+import javax.inject.Singleton
+
+/**
+ * Removes the saved record from the {@link DomainCache}.
+ */
+@Singleton
+class DomainCacheEventListener extends BaseCacheEventListener {
+
+  /**
+   * Removes the saved record from the cache.
+   * @param event The event.
+   */
+  @Override
+  protected void invalidate(DomainSaveTransactionEvent event) {
+    DomainCache.instance.remove(event.domainObject)
+  }
+
+}
@@ -152,7 +152,7 @@ class DomainReference {
     assert l.size() == 2, "Does not support nesting more than one level.  '${fieldName}'"
     this.fieldName = l[1]
     def domainName = l[0]
-    domainClass = DomainUtils.instance.getAllDomains().find { it.simpleName == domainName }
+    domainClass = DomainRegistry.current.findBySimpleName(domainName)
     if (!domainClass) {
       throw new IllegalArgumentException("No domain '$domainName' found for field reference '$fieldName'")
     }
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) Michael Houston 2020. All rights reserved.
+ */
+
+package org.simplemes.eframe.domain
+
+import groovy.util.logging.Slf4j
+import io.micronaut.core.beans.BeanIntrospection
+import io.micronaut.core.beans.BeanIntrospector
+import io.micronaut.data.annotation.MappedEntity
+
+/**
+ * An immutable registry of the domain classes, with lookups by simple name.  The domain classes are fixed when the
+ * application is compiled, so the real registry is built once (see {@link DomainUtils#getDomainRegistry()}).
+ * This avoids the introspection scan and the linear name search on each lookup.
+ */
+@Slf4j
+class DomainRegistry {
+
+  /**
+   * All of the domain classes (unmodifiable).
+   */
+  final List<Class> domains
+
+  /**
+   * The domain classes by simple name.
+   */
+  protected final Map<String, Class> bySimpleName
+
+  /**
+   * The domain classes by simple name (lowercase).
+   */
+  protected final Map<String, Class> byLowerCaseName
+
+  /**
+   * Builds the registry for the given domain classes.
+   * @param domains The domain classes.
+   */
+  DomainRegistry(Collection<Class> domains) {
+    this.domains = Collections.unmodifiableList(new ArrayList<Class>(domains ?: []))
+    Map<String, Class> simpleNames = [:]
+    Map<String, Class> lowerCaseNames = [:]
+    for (clazz in this.domains) {
+      // Keep the first one found, like the linear search did.
+      simpleNames.putIfAbsent(clazz.simpleName, clazz)
+      lowerCaseNames.putIfAbsent(clazz.simpleName.toLowerCase(), clazz)
+    }
+    bySimpleName = Collections.unmodifiableMap(simpleNames)
+    byLowerCaseName = Collections.unmodifiableMap(lowerCaseNames)
+  }
+
+  /**
+   * Builds the registry from all of the domain classes (entities) defined in the system.
+   * @return The registry.
+   */
+  static DomainRegistry build() {
+    Collection<BeanIntrospection<Object>> introspections = BeanIntrospector.SHARED.findIntrospections(MappedEntity)
+    def registry = new DomainRegistry(introspections*.getBeanType())
+    log.debug('build: Found {} domain classes', registry.domains.size())
+    return registry
+  }
+
+  /**
+   * Returns the registry for the current {@link DomainUtils} instance.  If that instance is mocked, then this
+   * builds a registry from its domain list.
+   * @return The registry.
+   */
+  static DomainRegistry getCurrent() {
+    def domainUtils = DomainUtils.instance
+    return domainUtils.getDomainRegistry() ?: new DomainRegistry(domainUtils.getAllDomains())
+  }
+
+  /**
+   * Finds the domain class with the given simple name.
+   * @param simpleName The simple name (case sensitive).
+   * @return The class.  Null if not found.
+   */
+  Class findBySimpleName(String simpleName) {
+    return simpleName ? bySimpleName.get(simpleName) : null
+  }
+
+  /**
+   * Finds the domain class with the given simple name (case insensitive).
+   * @param simpleName The simple name.
+   * @return The class.  Null if not found.
+   */
+  Class findBySimpleNameIgnoreCase(String simpleName) {
+    return simpleName ? byLowerCaseName.get(simpleName.toLowerCase()) : null
+  }
+
+}
@@ -0,0 +1,24 @@
+/*
+ * Copyright (c) Michael Houston 2020. All rights reserved.
+ */
+
+package org.simplemes.eframe.domain
+
+import io.micronaut.runtime.event.annotation.EventListener
+
+import javax.inject.Singleton
+
+/**
+ * Listens for the domain save events.  Clears the request-scoped domain record cache used by
+ * {@link DomainUtils#findDomainRecord(java.lang.Class, java.lang.Object)}.
+ */
+@Singleton
+class DomainRequestCacheEventListener {
+
+  @SuppressWarnings('unused')
+  @EventListener
+  void onSave(DomainSaveTransactionEvent event) {
+    DomainUtils.instance.clearRequestCache()
+  }
+
+}
@@ -4,10 +4,8 @@
 
 package org.simplemes.eframe.domain
 
-import io.micronaut.core.beans.BeanIntrospection
-import io.micronaut.core.beans.BeanIntrospector
-import io.micronaut.data.annotation.MappedEntity
 import io.micronaut.data.annotation.Transient
+import org.simplemes.eframe.application.Holders
 import org.simplemes.eframe.custom.ExtensibleFieldHelper
 import org.simplemes.eframe.data.FieldDefinitionFactory
 import org.simplemes.eframe.data.FieldDefinitions
@@ -23,6 +21,7 @@ import org.simplemes.eframe.misc.UUIDUtils
 import javax.persistence.ManyToOne
 import java.lang.reflect.Field
 import java.lang.reflect.Modifier
+import java.util.concurrent.ConcurrentHashMap
 
 /**
  * Domain Object manipulation utilities.
@@ -38,11 +37,40 @@ class DomainUtils {
   static DomainUtils instance = new DomainUtils()
 
   /**
-   * Gets the persistent fields for the given Domain entity class.
+   * The registry of all domain classes.  Built on first use.
+   */
+  protected volatile DomainRegistry domainRegistry
+
+  /**
+   * The persistent fields for each class.  The class definitions do not change, so these are built once per class.
+   */
+  protected Map<Class, List<PersistentProperty>> persistentFieldCache = new ConcurrentHashMap<Class, List<PersistentProperty>>()
+
+  /**
+   * The core field definitions for each class.  Copies are returned to the callers.
+   */
+  protected Map<Class, FieldDefinitions> fieldDefinitionCache = new ConcurrentHashMap<Class, FieldDefinitions>()
+
+  /**
+   * Gets the persistent fields for the given Domain entity class.  The list is built once per class.
    * @param domainClass The class to find the fields in.
-   * @return A list of field, which includes a name and a type (class).
+   * @return A list of field, which includes a name and a type (class).  The caller can change the list.
    */
   List<PersistentProperty> getPersistentFields(Class domainClass) {
+    def fields = persistentFieldCache.get(domainClass)
+    if (fields == null) {
+      fields = Collections.unmodifiableList(buildPersistentFields(domainClass))
+      persistentFieldCache.put(domainClass, fields)
+    }
+    return new ArrayList<PersistentProperty>(fields)
+  }
+
+  /**
+   * Builds the persistent fields for the given Domain entity class, using reflection.
+   * @param domainClass The class to find the fields in.
+   * @return A list of field, which includes a name and a type (class).
+   */
+  protected List<PersistentProperty> buildPersistentFields(Class domainClass) {
     List<PersistentProperty> res = new ArrayList<>()
     for (field in domainClass.getDeclaredFields()) {
       if (!Modifier.isStatic(field.getModifiers()) && !Modifier.isTransient(field.getModifiers())) {
@@ -118,11 +146,27 @@ class DomainUtils {
   }
 
   /**
-   * Find the FieldDefinitions for the given domain/POGO class.
+   * Find the FieldDefinitions for the given domain/POGO class.  The definitions are built once per class.
    * @param c The class to find the field order in.
-   * @return A list of field names, in the display field order.
+   * @return A list of field names, in the display field order.  The caller can add or remove definitions.
    */
   FieldDefinitions getFieldDefinitions(Class c) {
+    def fieldDefinitions = fieldDefinitionCache.get(c)
+    if (fieldDefinitions == null) {
+      fieldDefinitions = buildFieldDefinitions(c)
+      fieldDefinitionCache.put(c, fieldDefinitions)
+    }
+    def res = new FieldDefinitions()
+    res.putAll(fieldDefinitions)
+    return res
+  }
+
+  /**
+   * Builds the FieldDefinitions for the given domain/POGO class, using reflection.
+   * @param c The class to find the field order in.
+   * @return The field definitions.
+   */
+  protected FieldDefinitions buildFieldDefinitions(Class c) {
     def res = new FieldDefinitions()
     if (isDomainEntity(c)) {
       def properties = getPersistentFields(c)
@@ -239,12 +283,10 @@ class DomainUtils {
   /**
    * Returns all of the domain classes defined in the system.
    * <p>
-   * @return
+   * @return The domain classes (unmodifiable).
    */
   List<Class> getAllDomains() {
-    //PerformanceUtils.elapsedPrint()
-    Collection<BeanIntrospection<Object>> introspections = BeanIntrospector.SHARED.findIntrospections(MappedEntity.class)
-    return introspections*.getBeanType()
+    return getDomainRegistry().domains
   }
 
   /**
@@ -252,9 +294,20 @@ class DomainUtils {
    * @return The class.
    */
   Class getDomain(String domainName) {
-    domainName = domainName.toLowerCase()
-    def allDomains = getAllDomains()
-    return allDomains.find { it.simpleName.toLowerCase() == domainName }
+    return getDomainRegistry().findBySimpleNameIgnoreCase(domainName)
+  }
+
+  /**
+   * Returns the registry of all domain classes.  Built on the first call.
+   * @return The registry.
+   */
+  DomainRegistry getDomainRegistry() {
+    def registry = domainRegistry
+    if (registry == null) {
+      registry = DomainRegistry.build()
+      domainRegistry = registry
+    }
+    return registry
   }
 
   /**
@@ -336,8 +389,34 @@ class DomainUtils {
     return res
   }
 
+  /**
+   * The request attribute that holds the optional request-scoped domain record cache.
+   */
+  static final String REQUEST_CACHE_ATTRIBUTE = 'eframe.domainRecordCache'
+
+  /**
+   * The pre-built finders for each domain class.
+   */
+  protected Map<Class, DomainFinder> finders = new ConcurrentHashMap<Class, DomainFinder>()
+
+  /**
+   * Returns the pre-built finders for the given domain class.  These are built once per domain class.
+   * @param domainClass The domain class.
+   * @return The finders.
+   */
+  DomainFinder getFinder(Class domainClass) {
+    def finder = finders.get(domainClass)
+    if (finder == null) {
+      finder = new DomainFinder(domainClass, getPrimaryKeyField(domainClass))
+      finders.put(domainClass, finder)
+    }
+    return finder
+  }
+
   /**
    * Returns the domain record that matches the given uuid or primary key.
+   * If the request cache is enabled (<code>eframe.domainRequestCache</code>), then repeated lookups in the same
+   * HTTP request will return the same record without a database read.
    * @param domainClass The domain to find the given record for.
    * @param keyOrUuid The UUID or primary key.  Supports UUID as a string input.
    * @return The record.
@@ -347,27 +426,59 @@ class DomainUtils {
       return null
     }
     keyOrUuid = UUIDUtils.convertToUUIDIfPossible(keyOrUuid)
+
+    def requestCache = getRequestCache()
+    String cacheKey = null
+    if (requestCache != null) {
+      cacheKey = "${domainClass.name}:$keyOrUuid"
+      def record = requestCache.get(cacheKey)
+      if (record != null) {
+        return record
+      }
+    }
+
+    def finder = getFinder(domainClass)
+    def res
     if (keyOrUuid instanceof UUID) {
-      return domainClass.findByUuid(keyOrUuid)
+      res = finder.findByUuid(keyOrUuid)
     } else {
-      def keys = DomainUtils.instance.getKeyFields(domainClass)
-      if (keys.size() < 0) {
-        throw new IllegalArgumentException("Domain class ${domainClass} no supported.  Needs a key field.")
-      }
-      def keyName = keys[0]
-
-      // Find the correct findBy method for the repository.
-      def repo = domainClass.repository
-      def method = repo.getClass().getDeclaredMethod("findBy${NameUtils.uppercaseFirstLetter(keyName)}", String)
-      // Force access to the method.  For some reason, this method is not accessible, even though it is public.
-      method.setAccessible(true)
-
-      def res = method.invoke(repo, keyOrUuid)
-      if (res instanceof Optional) {
-        // Strip the Optional wrapper for the findBy() case.
-        res = ((Optional<?>) res).orElse(null)
-      }
-      return res
+      res = finder.findByKey(keyOrUuid.toString())
+    }
+
+    if (res != null && requestCache != null) {
+      requestCache.put(cacheKey, res)
+      requestCache.put("${domainClass.name}:${res.uuid}".toString(), res)
+    }
+    return res
+  }
+
+  /**
+   * Returns the request-scoped domain record cache for the current request.  Creates it if needed.
+   * @return The cache.  Null if not enabled or there is no current request.
+   */
+  protected Map<String, Object> getRequestCache() {
+    if (!Holders.configuration.domainRequestCache) {
+      return null
+    }
+    def request = Holders.currentRequest
+    if (request == null) {
+      return null
+    }
+    def cache = request.getAttribute(REQUEST_CACHE_ATTRIBUTE, Map)?.orElse(null) as Map<String, Object>
+    if (cache == null) {
+      cache = new ConcurrentHashMap<String, Object>()
+      request.setAttribute(REQUEST_CACHE_ATTRIBUTE, cache)
+    }
+    return cache
+  }
+
+  /**
+   * Clears the request-scoped domain record cache for the current request (if any).  Called when a record is
+   * saved or deleted.
+   */
+  void clearRequestCache() {
+    if (Holders.configuration.domainRequestCache) {
+      Holders.currentRequest?.removeAttribute(REQUEST_CACHE_ATTRIBUTE)
     }
   }
 
@@ -379,10 +490,6 @@ class DomainUtils {
    * @return The list of related records.
    */
   List findRelatedRecords(Object record) {
-    def method = record.class.declaredMethods.find { it.name == 'findRelatedRecords' }
-    if (method) {
-      return (List) method.invoke(record)
-    }
-    return null
+    return getFinder(record.getClass()).findRelatedRecords(record)
   }
 }
@@ -26,6 +26,7 @@ import io.micronaut.http.codec.MediaTypeCodec
 import io.micronaut.transaction.TransactionOperations
 import io.micronaut.transaction.jdbc.exceptions.CannotGetJdbcConnectionException
 import org.simplemes.eframe.application.issues.WorkArounds
+import org.simplemes.eframe.metrics.MetricsHelper
 
 import javax.annotation.Nonnull
 import javax.inject.Named
@@ -38,8 +39,8 @@ import java.util.concurrent.ExecutorService
 
 /**
  * A substitute for the micronaut JdbcRepositoryOperations implementation to add features for the enterprise
- * framework.  Provides: Check for transactions on updates, support for optimistic locking and possible
- * work-arounds for issues.
+ * framework.  Provides: Check for transactions on updates, support for optimistic locking, counts of the
+ * statements executed (see {@link MetricsHelper}) and possible work-arounds for issues.
  *
  * <h3>Logging</h3>
  * The logging for this class that can be enabled:
@@ -108,6 +109,7 @@ class EFrameJdbcRepositoryOperations extends EFrameJdbcRepositoryOperationsJava
     //String query = annotationMetadata.stringValue(Query.class).orElse(null)
     //println "query = $query"
     checkForTransaction(operation)
+    MetricsHelper.instance.countQuery()
     return super.persist(operation)
   }
 
@@ -118,9 +120,24 @@ class EFrameJdbcRepositoryOperations extends EFrameJdbcRepositoryOperationsJava
     return executeUpdate(preparedQuery)
   }
 
+  @Override
+  @NonNull
+  Optional<Number> executeUpdate(@NonNull PreparedQuery<?, Number> preparedQuery) {
+    MetricsHelper.instance.countQuery()
+    return super.executeUpdate(preparedQuery)
+  }
+
+  @Override
+  @Nullable
+  <T, R> R findOne(@NonNull PreparedQuery<T, R> preparedQuery) {
+    MetricsHelper.instance.countQuery()
+    return super.findOne(preparedQuery)
+  }
+
   @Override
   <T> T update(@NonNull UpdateOperation<T> operation) {
     checkForTransaction(operation)
+    MetricsHelper.instance.countQuery()
     if (WorkArounds.workAroundOptimistic) {
       //AnnotationMetadata annotationMetadata = operation.getAnnotationMetadata()
       //String[] params = annotationMetadata.stringValues(DataMethod.class, DataMethod.META_MEMBER_PARAMETER_BINDING_PATHS)
@@ -140,6 +157,23 @@ class EFrameJdbcRepositoryOperations extends EFrameJdbcRepositoryOperationsJava
     }
   }
 
+  /**
+   * Finds all records for the given query.  The records are marked as siblings so their lazy fields can be loaded
+   * in batches (see {@link BatchFetcher}).
+   * @param preparedQuery The query.
+   * @return The records.
+   */
+  @Override
+  @NonNull
+  <T, R> Iterable<R> findAll(@NonNull PreparedQuery<T, R> preparedQuery) {
+    MetricsHelper.instance.countQuery()
+    def res = super.findAll(preparedQuery)
+    if (res instanceof Collection) {
+      BatchFetcher.instance.register((Collection) res)
+    }
+    return res
+  }
+
   /**
    * Ensure that the current SQL is being executed in a transaction.
    */
@@ -8,6 +8,7 @@ import groovy.util.logging.Slf4j
 import io.micronaut.data.model.Pageable
 import org.simplemes.eframe.date.DateOnly
 import org.simplemes.eframe.domain.annotation.DomainEntityHelper
+import org.simplemes.eframe.metrics.MetricsHelper
 
 import java.sql.PreparedStatement
 import java.sql.ResultSet
@@ -47,6 +48,36 @@ class SQLUtils {
    */
   @SuppressWarnings("GrUnnecessaryPublicModifier")
   public <T> List<T> executeQuery(String sql, Class<T> domainClass, Object... args) {
+    return doExecuteQuery(sql, domainClass, true, args)
+  }
+
+  /**
+   * Executes framework-generated SQL that needs literal constants, such as the text search configuration in
+   * <code>to_tsvector('simple', ...)</code>.  This works like {@link #executeQuery(java.lang.String, java.lang.Class, java.lang.Object [ ])},
+   * but skips the quote check in {@link #checkSQL(java.lang.String)}.
+   * <p>
+   * <b>Note:</b> The SQL must only be built from the framework's own metadata (table and column names).  All values
+   * (including user input) must be passed as arguments.
+   * @param sql The SQL.
+   * @param domainClass The domain class to bind the result set to or Map.
+   * @param args Optional arguments for the query.  The first element can be a Pageable for row limits.
+   * @return The list of records found.
+   */
+  @SuppressWarnings("GrUnnecessaryPublicModifier")
+  public <T> List<T> executeFrameworkQuery(String sql, Class<T> domainClass, Object... args) {
+    return doExecuteQuery(sql, domainClass, false, args)
+  }
+
+  /**
+   * Executes the given SQL query.
+   * @param sql The SQL.
+   * @param domainClass The domain class to bind the result set to or Map.
+   * @param checkQuotes If true, then the SQL is checked for quotes.
+   * @param args Optional arguments for the query.  The first element can be a Pageable for row limits.
+   * @return The list of records found.
+   */
+  @SuppressWarnings("GrUnnecessaryPublicModifier")
+  protected <T> List<T> doExecuteQuery(String sql, Class<T> domainClass, boolean checkQuotes, Object[] args) {
     def list = []
 
     // If first argument is a Pageable, use if for the row limits.
@@ -78,7 +109,7 @@ class SQLUtils {
     ResultSet rs = null
     try {
       log.debug("executeQuery(): sql = {}, args = {}", sql, args)
-      ps = getPreparedStatement(sql)
+      ps = getPreparedStatement(sql, checkQuotes)
       //ps.setString(1, order.getUuid().toString())
       def lastArgIndex = 1
 
@@ -95,6 +126,7 @@ class SQLUtils {
         setArg(ps, lastArgIndex, addedArg)
         lastArgIndex++
       }
+      MetricsHelper.instance.countQuery()
       ps.execute()
       rs = ps.getResultSet()
       while (rs.next()) {
@@ -116,9 +148,81 @@ class SQLUtils {
       }
       ps?.close()
     }
+    if (domainClass != Map) {
+      BatchFetcher.instance.register(list)
+    }
     return list
   }
 
+  /**
+   * Loads the given lazy fields (child lists, reference lists and foreign references) for all of the given records.
+   * This uses one query per field for each batch of records instead of one query per record.  Nested paths are
+   * supported.  For example:
+   * <pre>
+   *   def orders = SQLUtils.instance.executeQuery(sql, Order, args)
+   *   SQLUtils.instance.fetch(orders, 'orderLines', 'orderLines.product', 'customer')
+   * </pre>
+   * @param records The records.
+   * @param paths The field paths to load.
+   * @return The records.
+   */
+  @SuppressWarnings("GrUnnecessaryPublicModifier")
+  public <T> List<T> fetch(List<T> records, String... paths) {
+    BatchFetcher.instance.fetch(records, paths)
+    return records
+  }
+
+  /**
+   * Executes the given SQL update/delete statement as a prepared statement with the given arguments.
+   * Supports the same 'IN(?)' expansion for a collection argument as {@link #executeQuery}.
+   * @param sql The SQL (e.g. DELETE FROM ... WHERE uuid IN(?)).
+   * @param args Optional arguments for the statement.
+   * @return The number of rows affected.
+   */
+  int executeUpdate(String sql, Object... args) {
+    return doExecuteUpdate(sql, true, args)
+  }
+
+  /**
+   * Executes framework-generated SQL update/DDL statements that need literal constants (e.g. expression
+   * indexes).  Skips the quote check in {@link #checkSQL(java.lang.String)}.
+   * <p>
+   * <b>Note:</b> The SQL must only be built from the framework's own metadata (table and column names).  All values
+   * (including user input) must be passed as arguments.
+   * @param sql The SQL.
+   * @param args Optional arguments for the statement.
+   * @return The number of rows affected.
+   */
+  int executeFrameworkUpdate(String sql, Object... args) {
+    return doExecuteUpdate(sql, false, args)
+  }
+
+  /**
+   * Executes the given SQL update/delete statement.
+   * @param sql The SQL.
+   * @param checkQuotes If true, then the SQL is checked for quotes.
+   * @param args Optional arguments for the statement.
+   * @return The number of rows affected.
+   */
+  protected int doExecuteUpdate(String sql, boolean checkQuotes, Object[] args) {
+    (sql, args) = fixInClauseArray(sql, args)
+
+    PreparedStatement ps = null
+    try {
+      log.debug("executeUpdate(): sql = {}, args = {}", sql, args)
+      ps = getPreparedStatement(sql, checkQuotes)
+      def lastArgIndex = 1
+      for (arg in args) {
+        setArg(ps, lastArgIndex, arg)
+        lastArgIndex++
+      }
+      MetricsHelper.instance.countQuery()
+      return ps.executeUpdate()
+    } finally {
+      ps?.close()
+    }
+  }
+
   /**
    * Sets the argument in the given statement.
    * @param ps The statement.
@@ -139,10 +243,13 @@ class SQLUtils {
   /**
    * Creates a prepared statement for the given SQL.
    * @param sql The SQL.
+   * @param checkQuotes If true, then the SQL is checked for quotes (<b>Default:</b> true).
    * @return The statement.
    */
-  PreparedStatement getPreparedStatement(String sql) {
-    checkSQL(sql)
+  PreparedStatement getPreparedStatement(String sql, boolean checkQuotes = true) {
+    if (checkQuotes) {
+      checkSQL(sql)
+    }
     return DomainEntityHelper.instance.getPreparedStatement(sql)
   }
 
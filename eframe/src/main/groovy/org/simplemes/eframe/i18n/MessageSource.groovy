@@ -11,7 +11,6 @@ import org.simplemes.eframe.misc.ArgumentUtils
 import javax.inject.Singleton
 import java.nio.charset.StandardCharsets
 import java.nio.file.Paths
-import java.text.MessageFormat
 import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.ConcurrentLinkedQueue
 
@@ -20,8 +19,12 @@ import java.util.concurrent.ConcurrentLinkedQueue
  * Currently finds the localized text from the messages.properties and similar files, using the
  * UTF8 character encoding.
  * <p>
- * The message key/values are stored in a cache that can be cleared.  This avoids creation of MissingResourceExceptions
- * and reduces access to the raw ResourceBundles.
+ * The messages are stored in an immutable, pre-compiled {@link MessageTable} for each base name and locale.  This avoids
+ * creation of MissingResourceExceptions and reduces access to the raw ResourceBundles.  Keys that are not found are
+ * remembered, so repeated lookups of missing keys do not search all of the bundles again.  The formatting is
+ * thread-safe.
+ * <p>
+ * In dev mode, the caches are cleared when the i18n/messages.properties file changes.
  * <p>
  * This relies on the normal classpath searches to find all matching .properties files.
  * This works with .jar files too.
@@ -40,9 +43,19 @@ class MessageSource {
   protected Map<String, Map<Locale, List<ResourceBundle>>> cachedResourceBundles
 
   /**
-   * Cache to hold already generated lookup values from the .properties files.
+   * The maximum number of missing keys remembered for each locale.
+   */
+  protected static final int MAX_MISSING_KEYS = 10000
+
+  /**
+   * The pre-compiled message tables.  Stored by locale, then by base name.
+   */
+  protected Map<Locale, Map<String, MessageTable>> messageTables
+
+  /**
+   * The keys that were not found in any bundle, by locale.
    */
-  protected Map<String, Map<Locale, MessageFormat>> cachedMessageFormats
+  protected Map<Locale, Set<String>> missingKeys
 
   /**
    * Cache to hold the bundle for each unique URL.  This avoid re-reading the fallback bundles.
@@ -60,7 +73,7 @@ class MessageSource {
   protected ResourceBundle.Control bundleControl
 
   /**
-   * A dev/test mode option to clear the caches when the i18n/messages.properties changes.
+   * A dev mode option to clear the caches when the i18n/messages.properties changes.
    */
   protected boolean clearCacheOnFileChanged = false
 
@@ -69,14 +82,15 @@ class MessageSource {
    */
   MessageSource() {
     cachedResourceBundles = new ConcurrentHashMap<>()
-    cachedMessageFormats = new ConcurrentHashMap<>()
+    messageTables = new ConcurrentHashMap<>()
+    missingKeys = new ConcurrentHashMap<>()
     cachedBundles = new ConcurrentHashMap<>()
 
     baseNames = new ConcurrentLinkedQueue<>()
     baseNames.add("i18n/messages")
     baseNames.add("i18n/sample")
 
-    if (Holders.environmentDev || Holders.environmentTest) {
+    if (Holders.environmentDev) {
       clearCacheOnFileChanged = true
     }
   }
@@ -105,68 +119,59 @@ class MessageSource {
     if (locale == null) {
       locale = Locale.getDefault()
     }
-    MessageFormat format = getMessageFormat(key, locale)
+    def message = findMessage(key, locale)
 
-    if (format != null) {
-      return format.format(args)
+    if (message != null) {
+      return message.format(args)
     }
 
     return null
   }
 
   /**
-   * Checks gets the message format for the given key/locale.
-   * Also caches the MessageFormat if found.
+   * Finds the compiled message for the given key/locale from the message tables.  The base names are searched in
+   * order.  Keys that are not found are remembered for later lookups.
    *
    * @param key The look up key.
    * @param locale The locale.
-   * @return The looked up message with the arguments replaced.
+   * @return The compiled message.  Null if not found.
    */
-  protected MessageFormat getMessageFormat(String key, Locale locale) {
+  protected MessageTable.CompiledMessage findMessage(String key, Locale locale) {
     ArgumentUtils.checkMissing(key, 'key')
-    MessageFormat res = null
-    Map<Locale, MessageFormat> map = cachedMessageFormats.get(key)
-    if (map != null) {
-      res = map.get(locale)
+    def missing = missingKeys.computeIfAbsent(locale) { ConcurrentHashMap.newKeySet() }
+    if (missing.contains(key)) {
+      return null
     }
-    if (res == null) {
-      // Not in cache
-      map = cachedMessageFormats.get(key)
-      if (map == null) {
-        map = new ConcurrentHashMap<>()
-        cachedMessageFormats.putIfAbsent(key, map)
-      }
-
-      // Now, find the msg/pattern to store in the cache
-      String s = lookupKey(key, locale)
-      if (s != null) {
-        res = new MessageFormat(s)
-        cachedMessageFormats.get(key).putIfAbsent(locale, res)
+    for (String baseName : baseNames) {
+      def message = getMessageTable(baseName, locale).get(key)
+      if (message != null) {
+        return message
       }
     }
-
-    return res
+    if (missing.size() < MAX_MISSING_KEYS) {
+      missing.add(key)
+    }
+    return null
   }
 
   /**
-   * Looks up the given string from the supported resource bundle(s).
+   * Gets/builds the message table for the given base name and locale.
    *
-   * @param key The look up key.
-   * @param locale The locale.  Can be null.
-   * @return The localized, looked up text.
+   * @param baseName The bundle base name.
+   * @param locale The locale.
+   * @return The table.
    */
-  protected String lookupKey(String key, Locale locale) {
-    for (String baseName : baseNames) {
-      List<ResourceBundle> bundles = getResourceBundles(baseName, locale)
-      for (bundle in bundles) {
-        try {
-          return bundle.getString(key)
-        } catch (MissingResourceException ignored) {
-          // Try next bundle and baseName defined.
-        }
+  protected MessageTable getMessageTable(String baseName, Locale locale) {
+    def tables = messageTables.computeIfAbsent(locale) { new ConcurrentHashMap<String, MessageTable>() }
+    def table = tables.get(baseName)
+    if (table == null) {
+      table = new MessageTable(getResourceBundles(baseName, locale))
+      def existing = tables.putIfAbsent(baseName, table)
+      if (existing != null) {
+        table = existing
       }
     }
-    return null
+    return table
   }
 
 
@@ -318,6 +323,7 @@ class MessageSource {
           long current = messagesFile.lastModified()
           if (current != messagesFileLastChanged) {
             log.info("{} changed.  Clearing global resource bundle caches.", messagesFile)
+            messagesFileLastChanged = current
             clearCaches()
           }
         }
@@ -330,7 +336,8 @@ class MessageSource {
    */
   private void clearCaches() {
     cachedResourceBundles = new ConcurrentHashMap<>()
-    cachedMessageFormats = new ConcurrentHashMap<>()
+    messageTables = new ConcurrentHashMap<>()
+    missingKeys = new ConcurrentHashMap<>()
     cachedBundles = new ConcurrentHashMap<>()
     ResourceBundle.clearCache()
   }
@@ -338,7 +345,7 @@ class MessageSource {
 
   @Override
   String toString() {
-    return "MessageSource{baseNames=$baseNames, clear = $clearCacheOnFileChanged, cache = $cachedResourceBundles, $cachedMessageFormats }"
+    return "MessageSource{baseNames=$baseNames, clear = $clearCacheOnFileChanged, cache = $cachedResourceBundles, tables = ${messageTables.keySet()} }"
   }
 
 }
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) Michael Houston 2020. All rights reserved.
+ */
+
+package org.simplemes.eframe.i18n
+
+import groovy.transform.CompileStatic
+
+import java.text.Format
+import java.text.MessageFormat
+
+/**
+ * An immutable table of the pre-compiled messages for a single bundle base name and locale.  The messages from all
+ * of the bundles (most specific locale first) are merged into one table when it is created.  The table
+ * is safe to use from multiple threads.
+ */
+@CompileStatic
+class MessageTable {
+
+  /**
+   * The compiled messages, by key.
+   */
+  protected final Map<String, CompiledMessage> messages
+
+  /**
+   * Builds the table from the given bundles.  The first bundle with a given key wins.
+   * @param bundles The bundles, in order.  Most specific locale first.
+   */
+  MessageTable(List<ResourceBundle> bundles) {
+    def map = new HashMap<String, CompiledMessage>()
+    for (bundle in bundles) {
+      for (key in bundle.keySet()) {
+        if (!map.containsKey(key)) {
+          map.put(key, new CompiledMessage(bundle.getString(key)))
+        }
+      }
+    }
+    messages = Collections.unmodifiableMap(map)
+  }
+
+  /**
+   * Finds the compiled message for the given key.
+   * @param key The key.
+   * @return The message.  Null if not in this table.
+   */
+  CompiledMessage get(String key) {
+    return messages.get(key)
+  }
+
+  /**
+   * Returns the number of messages in this table.
+   * @return The size.
+   */
+  int size() {
+    return messages.size()
+  }
+
+  /**
+   * A single pre-compiled message.  Messages without arguments are formatted once when compiled.
+   * Messages with simple arguments (e.g. '{0}') share one MessageFormat since no sub-format state is used.
+   * Messages with sub-formats (e.g. '{0,number}') use a copy of the MessageFormat for each use, since the
+   * sub-formats are not thread-safe.
+   */
+  @CompileStatic
+  static class CompiledMessage {
+
+    /**
+     * The pre-formatted text for a message with no arguments.  Null if the message has arguments.
+     */
+    protected final String text
+
+    /**
+     * The compiled format.  Null if the message has no arguments.
+     */
+    protected final MessageFormat format
+
+    /**
+     * True if the format can be shared between threads (no sub-formats).
+     */
+    protected final boolean shared
+
+    /**
+     * The exception from compiling an invalid message pattern.  Thrown when the message is used.
+     */
+    protected final IllegalArgumentException error
+
+    /**
+     * Compiles the given message pattern.
+     * @param pattern The pattern.
+     */
+    CompiledMessage(String pattern) {
+      MessageFormat messageFormat = null
+      String s = null
+      boolean sharedFormat = false
+      IllegalArgumentException ex = null
+      try {
+        messageFormat = new MessageFormat(pattern)
+        Format[] formats = messageFormat.formats
+        if (formats.length == 0) {
+          s = messageFormat.format(new Object[0])
+          messageFormat = null
+        } else {
+          sharedFormat = formats.every { it == null }
+        }
+      } catch (IllegalArgumentException e) {
+        ex = e
+      }
+      text = s
+      format = messageFormat
+      shared = sharedFormat
+      error = ex
+    }
+
+    /**
+     * Formats the message with the given arguments.
+     * @param args The arguments.  Can be null.
+     * @return The formatted message.
+     */
+    String format(Object[] args) {
+      if (error) {
+        throw error
+      }
+      if (text != null) {
+        return text
+      }
+      def messageFormat = shared ? format : (MessageFormat) format.clone()
+      return messageFormat.format(args)
+    }
+  }
+}
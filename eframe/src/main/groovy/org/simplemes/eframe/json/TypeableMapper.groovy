@@ -4,10 +4,11 @@
 
 package org.simplemes.eframe.json
 
+import com.fasterxml.jackson.core.JsonGenerator
+import com.fasterxml.jackson.databind.SerializationFeature
 import io.micronaut.data.annotation.MappedEntity
 import org.simplemes.eframe.application.Holders
 import org.simplemes.eframe.misc.ArgumentUtils
-import org.simplemes.eframe.misc.TypeUtils
 
 /**
  * The JSON formatter/parser that handles arbitrary list or map of objects in a single JSON string.
@@ -38,6 +39,15 @@ import org.simplemes.eframe.misc.TypeUtils
  * <p> 1. start(writer)
  * <p> 2. writeOne(writer, object)  (repeated)
  * <p> 3. finish(writer)
+ * <p>
+ * For large outputs (e.g. archives), the streaming generator variation avoids any intermediate buffers:
+ * <p> 1. generator = createGenerator(writer)
+ * <p> 2. start(generator)
+ * <p> 3. writeOne(generator, object)  (repeated)
+ * <p> 4. finish(generator)
+ * <p>
+ * Large inputs can be read one element at a time with the read(reader, callback) method or the
+ * {@link TypeableReader} created by createReader(reader).
  */
 class TypeableMapper {
   /**
@@ -88,26 +98,70 @@ class TypeableMapper {
 
   /**
    * Writes a single element.  You must call start() before and finished() after the objects are written.
+   * The object is serialized directly to the writer.
    * @param writer The writer to write the JSON to.
    * @param object The object to write.  Null not allowed.
    * @param first If true, then this is the first element written. Used to make sure the right commas are used between elements.
    */
   void writeOne(Writer writer, Object object, boolean first) {
     ArgumentUtils.checkMissing(object, 'object')
-    def mapper = Holders.objectMapper
 
     if (!first) {
       // Need a comma between rows
       writer << ","
     }
     writer << "\"${object.getClass().name}\""
+    writer << ","
 
-    def stringWriter = new StringWriter()
-    mapper.writeValue(stringWriter, object)
+    // Serialize straight to the writer, but leave it open for the next element.
+    def generator = createGenerator(writer)
+    Holders.objectMapper.writeValue(generator, object)
+    generator.close()
+  }
 
-    writer << ","
-    writer << stringWriter.toString()
+  /**
+   * Creates a streaming JSON generator for the given writer.  The generator will not close the writer
+   * when the generator is closed.
+   * @param writer The writer to write the JSON to.
+   * @return The generator.
+   */
+  JsonGenerator createGenerator(Writer writer) {
+    def generator = Holders.objectMapper.factory.createGenerator(writer)
+    generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+    return generator
+  }
+
+  /**
+   * Starts the output of the JSON on a streaming generator.
+   * @param generator The generator to write the JSON to.
+   */
+  void start(JsonGenerator generator) {
+    generator.writeStartArray()
+  }
 
+  /**
+   * Finishes the output of the JSON on a streaming generator.  Flushes the generator, but does not close
+   * the underlying writer.
+   * @param generator The generator to write the JSON to.
+   */
+  void finish(JsonGenerator generator) {
+    generator.writeEndArray()
+    generator.flush()
+  }
+
+  /**
+   * Writes a single element to the streaming generator.  You must call start(generator) before and
+   * finish(generator) after the objects are written.  No intermediate buffers are used and the underlying
+   * writer is not flushed after each element.
+   * @param generator The generator to write the JSON to.
+   * @param object The object to write.  Null not allowed.
+   */
+  void writeOne(JsonGenerator generator, Object object) {
+    ArgumentUtils.checkMissing(object, 'object')
+    checkValidClass(object.getClass())
+
+    generator.writeString(object.getClass().name)
+    Holders.objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE).writeValue(generator, object)
   }
 
   /**
@@ -116,29 +170,46 @@ class TypeableMapper {
    * @param reader The reader for the JSON source.
    * @return The objects.
    */
-  @SuppressWarnings(["GroovyAssignabilityCheck"])
   List read(Reader reader) {
     def res = []
-    def mapper = Holders.objectMapper
-    def list = mapper.readValue(reader, List)
-    def count = list.size()
-    if (count == 0) {
-      return res
-    }
-    if ((count % 2) == 1) {
-      throw new IllegalArgumentException("Input JSON has odd number of elements ($count) in array.")
+    read(reader) { Class clazz, Object o ->
+      res << o
     }
-    for (int i = 0; i < count; i = i + 2) {
-      String className = list[i]
-      def clazz = TypeUtils.loadClass(className)
-      if (!isValidClass(clazz)) {
-        throw new IllegalArgumentException("Class ${clazz.name} is not allowed in a TypeableMapper.  Only @MappedEntity or TypeableJSONInterface class allowed.")
+    return res
+  }
+
+  /**
+   * Reads the elements from the input reader, one at a time.  Each object is passed to the callback as it is
+   * created, so the entire input is never held in memory.
+   * @param reader The reader for the JSON source.
+   * @param callback The closure called for each element.  Passed the class and the object.
+   * @return The number of objects read.
+   */
+  int read(Reader reader, Closure callback) {
+    def count = 0
+    def typeableReader = createReader(reader)
+    try {
+      while (typeableReader.hasNext()) {
+        def element = typeableReader.next()
+        callback.call(element.v1, element.v2)
+        count++
       }
-      def o = mapper.convertValue(list[i + 1], clazz)
-      res << o
+    } finally {
+      typeableReader.close()
     }
+    return count
+  }
 
-    return res
+  /**
+   * Creates an incremental reader (iterator) for the given JSON input.  The caller should close the returned
+   * reader when finished.
+   * @param reader The reader for the JSON source.
+   * @param classFilter The optional class filter.  If this returns false for a class, then the element is skipped
+   *                    without creating the object.
+   * @return The reader.
+   */
+  TypeableReader createReader(Reader reader, Closure<Boolean> classFilter = null) {
+    return new TypeableReader(reader, classFilter)
   }
 
   /**
@@ -150,4 +221,14 @@ class TypeableMapper {
     return (clazz.isAnnotationPresent(MappedEntity)) || (TypeableJSONInterface.isAssignableFrom(clazz))
   }
 
+  /**
+   * Verifies that the given class is valid for use with this mapper.
+   * @param clazz The class.
+   */
+  protected static void checkValidClass(Class clazz) {
+    if (!isValidClass(clazz)) {
+      throw new IllegalArgumentException("Class ${clazz} is not allowed in a TypeableMapper.  Only @MappedEntity or TypeableJSONInterface class allowed.")
+    }
+  }
+
 }
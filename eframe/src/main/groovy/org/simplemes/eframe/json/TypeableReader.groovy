@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) Michael Houston 2020. All rights reserved.
+ */
+
+package org.simplemes.eframe.json
+
+import com.fasterxml.jackson.core.JsonParser
+import com.fasterxml.jackson.core.JsonToken
+import com.fasterxml.jackson.databind.JsonMappingException
+import com.fasterxml.jackson.databind.ObjectMapper
+import org.simplemes.eframe.application.Holders
+import org.simplemes.eframe.misc.ArgumentUtils
+import org.simplemes.eframe.misc.TypeUtils
+
+/**
+ * An incremental reader for the JSON written by the {@link TypeableMapper}.  This reads one element (class, object)
+ * at a time from the input, so the whole JSON array is never held in memory.
+ * <p>
+ * This is normally created by the {@link TypeableMapper#createReader(java.io.Reader, groovy.lang.Closure)} method:
+ * <pre>
+ *   def typeableReader = TypeableMapper.instance.createReader(reader)
+ *   try {
+ *     for (element in typeableReader) {
+ *       Class clazz = element.v1
+ *       def object = element.v2
+ *       . . .
+ *     }
+ *   } finally {
+ *     typeableReader.close()
+ *   }
+ * </pre>
+ * The same class white-list rules as the TypeableMapper apply.
+ */
+class TypeableReader implements Iterator<Tuple2<Class, Object>>, Closeable {
+
+  /**
+   * The streaming JSON parser.
+   */
+  protected JsonParser parser
+
+  /**
+   * The object mapper used to create the objects.
+   */
+  protected ObjectMapper mapper
+
+  /**
+   * The optional class filter.  If this returns false for a class, then the element is skipped without
+   * creating the object.
+   */
+  protected Closure<Boolean> classFilter
+
+  /**
+   * The next element to return (read ahead by hasNext()).
+   */
+  protected Tuple2<Class, Object> nextElement
+
+  /**
+   * The number of JSON array elements read so far.
+   */
+  protected int count = 0
+
+  /**
+   * Set to true when the end of the JSON array is reached.
+   */
+  protected boolean finished = false
+
+  /**
+   * Creates a reader for the given input.  Reads the start of the JSON array.
+   * @param reader The reader for the JSON source.
+   * @param classFilter The optional class filter.  If this returns false for a class, then the element is skipped.
+   */
+  TypeableReader(Reader reader, Closure<Boolean> classFilter = null) {
+    ArgumentUtils.checkMissing(reader, 'reader')
+    mapper = Holders.objectMapper
+    parser = mapper.factory.createParser(reader)
+    this.classFilter = classFilter
+
+    def token = parser.nextToken()
+    if (token != JsonToken.START_ARRAY) {
+      throw JsonMappingException.from(parser, "Input JSON must be an array.  Found $token.")
+    }
+  }
+
+  /**
+   * Returns true if there is another element in the input.
+   * @return True if another element is available.
+   */
+  @Override
+  boolean hasNext() {
+    if (nextElement == null && !finished) {
+      nextElement = readNext()
+    }
+    return nextElement != null
+  }
+
+  /**
+   * Returns the next element from the input.
+   * @return The element.  The first value is the class, the second value is the object.
+   */
+  @Override
+  Tuple2<Class, Object> next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException()
+    }
+    def res = nextElement
+    nextElement = null
+    return res
+  }
+
+  /**
+   * Reads the next element (class name and object) from the parser.  Skips the elements rejected by the class filter.
+   * @return The element.  Null if the end of the array is reached.
+   */
+  protected Tuple2<Class, Object> readNext() {
+    while (true) {
+      def token = parser.nextToken()
+      if (token == JsonToken.END_ARRAY || token == null) {
+        finished = true
+        return null
+      }
+      if (token != JsonToken.VALUE_STRING) {
+        throw JsonMappingException.from(parser, "Expected class name for element ${count}.  Found $token.")
+      }
+      String className = parser.text
+      count++
+      def clazz = TypeUtils.loadClass(className)
+      TypeableMapper.checkValidClass(clazz)
+
+      token = parser.nextToken()
+      if (token == JsonToken.END_ARRAY || token == null) {
+        throw new IllegalArgumentException("Input JSON has odd number of elements ($count) in array.")
+      }
+      count++
+
+      if (classFilter != null && !classFilter.call(clazz)) {
+        // Not wanted, so skip the object without creating it.
+        parser.skipChildren()
+        continue
+      }
+      def object = mapper.readValue(parser, clazz)
+      return new Tuple2<Class, Object>(clazz, object)
+    }
+  }
+
+  /**
+   * Closes the parser and the underlying reader.
+   */
+  @Override
+  void close() {
+    parser.close()
+  }
+}
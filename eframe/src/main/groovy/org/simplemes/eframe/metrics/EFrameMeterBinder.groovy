@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) Michael Houston 2021. All rights reserved.
+ */
+
+package org.simplemes.eframe.metrics
+
+import io.micrometer.core.instrument.FunctionCounter
+import io.micrometer.core.instrument.Gauge
+import io.micrometer.core.instrument.MeterRegistry
+import io.micrometer.core.instrument.binder.MeterBinder
+import org.simplemes.eframe.domain.DomainCache
+import org.simplemes.eframe.search.SearchEnginePoolExecutor
+import org.simplemes.eframe.web.ui.webix.freemarker.MarkerFragmentCache
+
+import javax.inject.Singleton
+import java.util.function.ToDoubleFunction
+
+/**
+ * Adds the framework's gauges to the metrics registry.  These gauges read the current values from the framework's
+ * caches and queues when the metrics are requested.
+ * <ul>
+ *   <li><b>eframe.search.queue.size</b> - The number of search engine requests waiting in the queue. </li>
+ *   <li><b>eframe.cache.size</b> - The number of entries in the domain cache (tag cache=domain). </li>
+ *   <li><b>eframe.cache.hits</b> - The cache hits (tag cache=domain or marker). </li>
+ *   <li><b>eframe.cache.misses</b> - The cache misses (tag cache=domain or marker). </li>
+ * </ul>
+ */
+@Singleton
+class EFrameMeterBinder implements MeterBinder {
+
+  /**
+   * Adds the gauges to the given registry.
+   * @param registry The registry.
+   */
+  @Override
+  void bindTo(MeterRegistry registry) {
+    Gauge.builder('eframe.search.queue.size', this, { searchQueueSize() } as ToDoubleFunction)
+      .description('The number of search engine requests waiting in the queue.')
+      .register(registry)
+    Gauge.builder('eframe.cache.size', this, { sumDomainCache('size') } as ToDoubleFunction)
+      .tags('cache', 'domain').register(registry)
+    for (name in ['hits', 'misses']) {
+      def statistic = name
+      FunctionCounter.builder("eframe.cache.$statistic", this, { sumDomainCache(statistic) } as ToDoubleFunction)
+        .tags('cache', 'domain').register(registry)
+      FunctionCounter.builder("eframe.cache.$statistic", this, { sumMarkerCache(statistic) } as ToDoubleFunction)
+        .tags('cache', 'marker').register(registry)
+    }
+  }
+
+  /**
+   * Returns the number of requests waiting in the search engine queue.
+   * @return The size.
+   */
+  protected double searchQueueSize() {
+    return SearchEnginePoolExecutor.pool?.queue?.size() ?: 0
+  }
+
+  /**
+   * Sums the given statistic for all domains in the domain cache.
+   * @param statistic The statistic (e.g. 'hits').
+   * @return The total.
+   */
+  protected double sumDomainCache(String statistic) {
+    def total = DomainCache.instance.statistics.sum { it[statistic] as double }
+    return total ? total as double : 0
+  }
+
+  /**
+   * Sums the given statistic for all markers in the marker fragment cache.
+   * @param statistic The statistic (e.g. 'hits').
+   * @return The total.
+   */
+  protected double sumMarkerCache(String statistic) {
+    def total = MarkerFragmentCache.instance.renderStatistics.sum { it[statistic] as double }
+    return total ? total as double : 0
+  }
+
+}
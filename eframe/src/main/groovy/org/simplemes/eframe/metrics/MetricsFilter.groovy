@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) Michael Houston 2021. All rights reserved.
+ */
+
+package org.simplemes.eframe.metrics
+
+import groovy.util.logging.Slf4j
+import io.micronaut.core.async.publisher.Publishers
+import io.micronaut.http.HttpRequest
+import io.micronaut.http.MutableHttpResponse
+import io.micronaut.http.annotation.Filter
+import io.micronaut.http.filter.HttpServerFilter
+import io.micronaut.http.filter.ServerFilterChain
+import io.micronaut.http.filter.ServerFilterPhase
+import org.reactivestreams.Publisher
+
+/**
+ * Tracks the metrics for each request (e.g. the number of DB statements executed).  When tracing is enabled
+ * in the {@link MetricsHelper}, the request's spans are returned in the <code>Server-Timing</code> header
+ * and logged.
+ *
+ * <h3>Logging</h3>
+ * The logging for this class that can be enabled:
+ * <ul>
+ *   <li><b>info</b> - The request spans, when tracing is enabled. </li>
+ *   <li><b>debug</b> - The number of DB statements for each request. </li>
+ * </ul>
+ */
+@Slf4j
+@Filter("/**")
+class MetricsFilter implements HttpServerFilter {
+
+  /**
+   * The response header for the request spans.
+   */
+  static final String SERVER_TIMING_HEADER = 'Server-Timing'
+
+  /**
+   * @return The order of the object.  Runs first so the other filters are included.
+   */
+  @Override
+  int getOrder() {
+    return ServerFilterPhase.FIRST.order()
+  }
+
+  /**
+   * Starts the metrics for the request and records them when the response is ready.
+   *
+   * @param request The request
+   * @param chain The chain
+   * @return A{@link Publisher} that emits a {@link MutableHttpResponse}
+   */
+  @Override
+  Publisher<MutableHttpResponse<?>> doFilter(HttpRequest<?> request, ServerFilterChain chain) {
+    def metricsHelper = MetricsHelper.instance
+    def requestMetrics = metricsHelper.startRequest(request)
+    return Publishers.then(chain.proceed(request), (response) -> {
+      metricsHelper.finishRequest(requestMetrics)
+      log.debug('doFilter(): {} {} - {} DB statements', request.method, request.path, requestMetrics.queries.get())
+      if (requestMetrics.spans) {
+        def spans = buildServerTiming(requestMetrics)
+        response.header(SERVER_TIMING_HEADER, spans)
+        log.info('{} {} - {} DB statements, spans: {}', request.method, request.path, requestMetrics.queries.get(), spans)
+      }
+    })
+  }
+
+  /**
+   * Builds the Server-Timing header value for the request's spans.
+   * @param requestMetrics The request's metrics.
+   * @return The header value (e.g. 'eframe.report.fill;dur=12.3, db;desc="queries=4"').
+   */
+  protected String buildServerTiming(MetricsHelper.RequestMetrics requestMetrics) {
+    def list = []
+    synchronized (requestMetrics.spans) {
+      for (span in requestMetrics.spans) {
+        list << "${span.key};dur=${String.format(Locale.ROOT, '%.1f', span.value)}"
+      }
+    }
+    list << "db;desc=\"queries=${requestMetrics.queries.get()}\""
+    return list.join(', ')
+  }
+
+}
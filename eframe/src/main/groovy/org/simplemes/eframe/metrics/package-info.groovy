@@ -0,0 +1,6 @@
+/**
+ * Performance metrics support.  Provides the framework's timers, counters and request traces.
+ *
+ */
+package org.simplemes.eframe.metrics
+
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) Michael Houston 2020. All rights reserved.
+ */
+
+package org.simplemes.eframe.misc
+
+import groovy.transform.CompileStatic
+
+import java.text.DecimalFormat
+import java.text.NumberFormat
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * A registry of the number formats used for display and parsing, by locale.  The locale-specific formats are
+ * built once per locale.  Since the java.text formats are not thread-safe, each caller gets a copy of the
+ * cached format.  A copy is much cheaper than looking up the locale's format.
+ * <p>
+ * This is used by {@link NumberUtils} and the field formats.
+ */
+@CompileStatic
+class NumberFormatRegistry {
+
+  /**
+   * The cached formats, by locale.
+   */
+  protected static final Map<Locale, LocaleFormats> formats = new ConcurrentHashMap<Locale, LocaleFormats>()
+
+  /**
+   * Returns a format for display in the given locale.
+   * @param locale The locale.  Required.
+   * @param groupingUsed True if the grouping (thousands) separators are used.
+   * @return The format.  A new copy that can be changed by the caller.
+   */
+  static NumberFormat getFormat(Locale locale, boolean groupingUsed = true) {
+    def localeFormats = getFormats(locale)
+    return (NumberFormat) (groupingUsed ? localeFormats.groupingFormat : localeFormats.format).clone()
+  }
+
+  /**
+   * Returns a format for parsing in the given locale.  Allows grouping and parses to a BigDecimal (if a DecimalFormat).
+   * @param locale The locale.  Required.
+   * @return The format.  A new copy that can be changed by the caller.
+   */
+  static NumberFormat getParser(Locale locale) {
+    return (NumberFormat) getFormats(locale).parser.clone()
+  }
+
+  /**
+   * Gets the formats for the given locale.
+   * @param locale The locale.  Required.
+   * @return The formats.
+   */
+  protected static LocaleFormats getFormats(Locale locale) {
+    def res = formats.get(locale)
+    if (res == null) {
+      res = new LocaleFormats(locale)
+      formats.put(locale, res)
+    }
+    return res
+  }
+
+  /**
+   * Clears the cached formats.  Mainly used for testing.
+   */
+  static void clearCache() {
+    formats.clear()
+  }
+
+  /**
+   * The formats for a single locale.  These are never used directly, only copies are used.
+   */
+  @CompileStatic
+  protected static class LocaleFormats {
+    final NumberFormat groupingFormat
+    final NumberFormat format
+    final NumberFormat parser
+
+    LocaleFormats(Locale locale) {
+      groupingFormat = NumberFormat.getInstance(locale)
+      groupingFormat.setGroupingUsed(true)
+      format = (NumberFormat) groupingFormat.clone()
+      format.setGroupingUsed(false)
+      parser = (NumberFormat) groupingFormat.clone()
+      if (parser instanceof DecimalFormat) {
+        ((DecimalFormat) parser).setParseBigDecimal(true)
+      }
+    }
+  }
+}
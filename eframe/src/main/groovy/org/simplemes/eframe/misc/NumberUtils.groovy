@@ -6,7 +6,6 @@ package org.simplemes.eframe.misc
 
 import org.simplemes.eframe.i18n.GlobalUtils
 
-import java.text.DecimalFormat
 import java.text.DecimalFormatSymbols
 
 /**
@@ -69,8 +68,7 @@ class NumberUtils {
    * @return The string. (e.g. 3.1 in German is '3,1').
    */
   static String formatNumber(Number value, Locale locale = null, boolean groupingUsed = true) {
-    def nf = DecimalFormat.getInstance(GlobalUtils.getRequestLocale(locale))
-    nf.setGroupingUsed(groupingUsed)
+    def nf = NumberFormatRegistry.getFormat(GlobalUtils.getRequestLocale(locale), groupingUsed)
     return nf.format(value)
   }
 
@@ -81,9 +79,8 @@ class NumberUtils {
    * @return The string. (e.g. 3.1 in German is '3,1').
    */
   static Number parseNumber(String stringValue, Locale locale = null) {
-    def nf = DecimalFormat.getInstance(GlobalUtils.getRequestLocale(locale))
-    nf.setGroupingUsed(true)  // Always allow grouping (thousands)
-    nf.setParseBigDecimal(true)
+    // Always allows grouping (thousands) and parses to a BigDecimal.
+    def nf = NumberFormatRegistry.getParser(GlobalUtils.getRequestLocale(locale))
     return nf.parse(stringValue)
   }
 
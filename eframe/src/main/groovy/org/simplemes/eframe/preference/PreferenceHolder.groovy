@@ -73,6 +73,11 @@ class PreferenceHolder {
    */
   UserPreference userPreference
 
+  /**
+   * The preferences text (JSON) when the userPreference was loaded.  Used to merge concurrent changes on save.
+   */
+  String loadedText
+
   /**
    * The current preference we are processing.  This corresponds to the element passed in (or the first one in
    * the list).
@@ -140,19 +145,20 @@ class PreferenceHolder {
   }
 
   /**
-   * Load or create new UserPreference record.  Uses the cache, when possible.
+   * Load or create new UserPreference record.  Uses the {@link UserPreferenceStore}, when possible.
    */
   @SuppressWarnings(["GroovyAssignabilityCheck", "GroovyMissingReturnStatement"])
   void load() {
-    // Try to find the preference in the DB, with cache support.
+    // Try to find the preference in the store, with cache support.
     def basePage = ControllerUtils.instance.determineBaseURI(_page)
     if (_user && basePage) {
-      userPreference = UserPreference.findByUserNameAndPage((String) _user, basePage)
+      userPreference = UserPreferenceStore.instance.find((String) _user, basePage)
     }
     if (!userPreference) {
       // No record found, so create it.
       userPreference = new UserPreference(page: basePage, userName: _user)
     }
+    loadedText = userPreference.preferencesText
     if (_element) {
       currentPreference = userPreference.preferences?.find { it.element == _element }
       if (currentPreference == null) {
@@ -199,11 +205,18 @@ class PreferenceHolder {
   }
 
   /**
-   * Save current setting to database.
+   * Save current setting to database.  The {@link UserPreferenceStore} may delay the database write.
    * @return This holder.
    */
   PreferenceHolder save() {
-    userPreference.save()
+    if (_user) {
+      UserPreferenceStore.instance.save(userPreference, loadedText)
+      // The save may have merged in changes from other threads.
+      loadedText = userPreference.preferencesText
+      currentPreference = userPreference.preferences?.find { it.element == _element } ?: currentPreference
+    } else {
+      userPreference.save()
+    }
     return this
   }
 
@@ -0,0 +1,451 @@
+/*
+ * Copyright (c) Michael Houston 2020. All rights reserved.
+ */
+
+package org.simplemes.eframe.preference
+
+import groovy.transform.ToString
+import groovy.util.logging.Slf4j
+import org.simplemes.eframe.application.Holders
+import org.simplemes.eframe.preference.domain.UserPreference
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * An in-memory store of the user preferences, by user and page.  This avoids the database read for each page display
+ * that uses the preferences (e.g. list column sizes) and coalesces the many writes from the GUI events
+ * (e.g. column or splitter resize drags).
+ * <p>
+ * The preferences are stored as the JSON text, so each caller gets its own copy of the {@link UserPreference}.
+ * When a caller saves a copy that was changed by another thread after the copy was read, the elements changed by the
+ * caller are merged into the latest preferences.
+ * <p>
+ * The changes are written to the database later (write-behind) by a background thread, about
+ * <code>eframe.preferenceFlushDelay</code> seconds after the first change.  All changes made during that time are
+ * written as one update per user/page.  A delay of 0 writes the changes immediately.  A failed background write is
+ * retried with a longer delay each time (up to {@link #MAX_RETRY_DELAY} seconds).  The pending changes are also
+ * written on shutdown (see {@link org.simplemes.eframe.application.ShutdownHandler}).
+ * <p>
+ * Cached entries are removed when the UserPreference record is saved or deleted by other logic.
+ *
+ * <h3>Logging</h3>
+ * The logging for this class that can be enabled:
+ * <ul>
+ *   <li><b>debug</b> - Logs the number of preferences written by each flush and when the cache is cleared. </li>
+ *   <li><b>trace</b> - Logs each preference load. </li>
+ * </ul>
+ */
+@Slf4j
+class UserPreferenceStore {
+
+  /**
+   * The number of preference records written in one transaction.
+   */
+  protected static final int FLUSH_BATCH_SIZE = 100
+
+  /**
+   * The number of locks used to serialize the saves for a single user/page.
+   */
+  protected static final int LOCK_COUNT = 64
+
+  /**
+   * The maximum delay (seconds) before a failed background flush is retried.
+   */
+  protected static final int MAX_RETRY_DELAY = 300
+
+  /**
+   * A singleton, used for simplified unit testing with a mocked class.
+   */
+  static UserPreferenceStore instance = new UserPreferenceStore()
+
+  /**
+   * The cached preferences, in least recently used order.  The key is the user and page
+   * (see {@link #buildKey(java.lang.String, java.lang.String)}).
+   */
+  protected Map<String, PreferenceEntry> cache = buildCache()
+
+  /**
+   * The preferences not written to the database yet.  Uses the same key as the cache.
+   */
+  protected Map<String, PreferenceEntry> pending = new ConcurrentHashMap<String, PreferenceEntry>()
+
+  /**
+   * Incremented each time the cache is cleared.  Used to prevent a read that started before the clear from
+   * adding a stale entry after the clear.
+   */
+  protected AtomicLong generation = new AtomicLong()
+
+  /**
+   * The locks used to serialize the saves for a single user/page.
+   */
+  protected Object[] locks = (0..<LOCK_COUNT).collect { new Object() } as Object[]
+
+  /**
+   * True if a background flush is scheduled.
+   */
+  protected AtomicBoolean flushScheduled = new AtomicBoolean()
+
+  /**
+   * The background flush thread.  Started when the first change is saved.
+   */
+  protected ScheduledExecutorService flusher
+
+  /**
+   * The lock used to serialize the flushes and clears.
+   */
+  protected final Object flushLock = new Object()
+
+  /**
+   * The number of background flushes that failed in a row.  Used for the retry delay.
+   */
+  protected volatile int failedFlushes
+
+  /**
+   * Finds the preferences for the given user and page.  Reads the database if not cached.
+   * @param userName The user.
+   * @param page The page (URI).
+   * @return A copy of the preferences.  Never null.  The record is not saved if it does not exist in the database.
+   */
+  UserPreference find(String userName, String page) {
+    def key = buildKey(userName, page)
+    def entry = pending.get(key) ?: cache.get(key)
+    if (entry == null) {
+      log.trace('find: loading {}', key)
+      def startGeneration = generation.get()
+      def record = UserPreference.findByUserNameAndPage(userName, page)
+      entry = record ? new PreferenceEntry(record) : new PreferenceEntry(userName: userName, page: page)
+      putCache(key, entry, startGeneration)
+    }
+    return entry.buildUserPreference()
+  }
+
+  /**
+   * Saves the given preferences.  If the preferences were changed by another thread after the given copy was read,
+   * then the changed elements are merged into the latest preferences.
+   * The changes are written later, unless the flush delay is 0.
+   * @param userPreference The changed preferences (from {@link #find(java.lang.String, java.lang.String)}).
+   * @param baseText The original preference text (JSON) when the copy was read.
+   */
+  void save(UserPreference userPreference, String baseText) {
+    def key = buildKey(userPreference.userName, userPreference.page)
+    synchronized (locks[Math.abs(key.hashCode() % LOCK_COUNT)]) {
+      def latest = pending.get(key) ?: cache.get(key)
+      if (latest != null && latest.preferencesText != baseText) {
+        userPreference.preferences = merge(latest.preferencesText, baseText, userPreference.preferences as List)
+      }
+      if (userPreference.uuid == null && latest?.uuid != null) {
+        // Another thread created the record after this copy was read.
+        userPreference.uuid = latest.uuid
+        userPreference.dateCreated = latest.dateCreated
+      }
+      if (getFlushDelay() > 0) {
+        userPreference.persistPreferencesInText()
+        def entry = new PreferenceEntry(userPreference)
+        pending.put(key, entry)
+        putCache(key, entry, generation.get())
+        scheduleFlush()
+      } else {
+        userPreference.save()
+        putCache(key, new PreferenceEntry(userPreference), generation.get())
+      }
+    }
+  }
+
+  /**
+   * Merges the elements changed by the caller into the latest preferences.
+   * @param latestText The latest preferences (JSON).
+   * @param baseText The preferences (JSON) the caller's copy was read from.
+   * @param preferences The caller's preferences.
+   * @return The merged preferences.
+   */
+  protected List<Preference> merge(String latestText, String baseText, List<Preference> preferences) {
+    def mapper = Holders.objectMapper
+    def base = [:]
+    for (preference in parse(baseText)) {
+      base[preference.element] = mapper.writeValueAsString(preference)
+    }
+    def merged = parse(latestText)
+    for (preference in preferences) {
+      if (mapper.writeValueAsString(preference) != base[preference.element]) {
+        def index = merged.findIndexOf { it.element == preference.element }
+        if (index >= 0) {
+          merged[index] = preference
+        } else {
+          merged << preference
+        }
+      }
+    }
+    return merged
+  }
+
+  /**
+   * Parses the given preferences text.
+   * @param preferencesText The JSON.  Can be null.
+   * @return The preferences.
+   */
+  protected List<Preference> parse(String preferencesText) {
+    if (!preferencesText) {
+      return []
+    }
+    def userPreference = new UserPreference()
+    userPreference.preferencesText = preferencesText
+    return new ArrayList<Preference>(userPreference.preferences as List<Preference>)
+  }
+
+  /**
+   * Removes the given preferences from the cache, if the cached value is different.  Used when the
+   * record is saved by other logic.
+   * @param userName The user.
+   * @param page The page (URI).
+   * @param preferencesText The saved preferences (JSON).
+   */
+  void removeIfChanged(String userName, String page, String preferencesText) {
+    def key = buildKey(userName, page)
+    def entry = cache.get(key)
+    if (entry != null && entry.preferencesText != preferencesText) {
+      cache.remove(key, entry)
+    }
+  }
+
+  /**
+   * Removes the given preferences from the cache.  Any pending changes are still written.
+   * @param userName The user.
+   * @param page The page (URI).
+   */
+  void evict(String userName, String page) {
+    cache.remove(buildKey(userName, page))
+  }
+
+  /**
+   * Removes the given preferences from the cache and discards any pending changes.  Used when the record is deleted.
+   * @param userName The user.
+   * @param page The page (URI).
+   */
+  void remove(String userName, String page) {
+    def key = buildKey(userName, page)
+    pending.remove(key)
+    cache.remove(key)
+  }
+
+  /**
+   * Builds a synchronized cache map that removes the least recently used entry when the cache is full.
+   * @return The map.
+   */
+  protected Map<String, PreferenceEntry> buildCache() {
+    def store = this
+    return Collections.synchronizedMap(new LinkedHashMap<String, PreferenceEntry>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, PreferenceEntry> eldest) {
+        return size() > store.cacheSize
+      }
+    })
+  }
+
+  /**
+   * Stores the entry in the cache, if the cache was not cleared during the read.  The least recently used entry is
+   * removed when the cache is full.
+   * @param key The key.
+   * @param entry The entry.
+   * @param startGeneration The generation when the read started.
+   */
+  protected void putCache(String key, PreferenceEntry entry, long startGeneration) {
+    if (getCacheSize() <= 0 || startGeneration != generation.get()) {
+      return
+    }
+    cache.put(key, entry)
+  }
+
+  /**
+   * Writes all pending preferences to the database, in batches.
+   */
+  void flush() {
+    synchronized (flushLock) {
+      def list = pending.values() as List<PreferenceEntry>
+      for (int i = 0; i < list.size(); i += FLUSH_BATCH_SIZE) {
+        def batch = list.subList(i, Math.min(i + FLUSH_BATCH_SIZE, list.size()))
+        List<UserPreference> records = []
+        UserPreference.withTransaction {
+          for (entry in batch) {
+            records << flushEntry(entry)
+          }
+        }
+        for (int j = 0; j < batch.size(); j++) {
+          // Keep any newer changes made during the write.
+          def entry = batch[j]
+          def key = buildKey(entry.userName, entry.page)
+          pending.remove(key, entry)
+          cache.replace(key, entry, new PreferenceEntry(records[j]))
+        }
+        log.debug('flush: wrote {} user preferences', batch.size())
+      }
+    }
+  }
+
+  /**
+   * Writes a single pending entry to the database.
+   * @param entry The entry.
+   * @return The saved record.
+   */
+  protected UserPreference flushEntry(PreferenceEntry entry) {
+    def record = UserPreference.findByUserNameAndPage(entry.userName, entry.page)
+    record = record ?: new UserPreference(userName: entry.userName, page: entry.page)
+    record.preferencesText = entry.preferencesText
+    record.save()
+    return record
+  }
+
+  /**
+   * Clears the cache, after writing any pending preferences.
+   */
+  void clear() {
+    synchronized (flushLock) {
+      flush()
+      generation.incrementAndGet()
+      cache.clear()
+    }
+    log.debug('clear: Cleared user preference cache')
+  }
+
+  /**
+   * Schedules the background flush, if not already scheduled.
+   * @param delay The delay (seconds).  Defaults to the flush delay.
+   */
+  protected void scheduleFlush(long delay = getFlushDelay()) {
+    if (flushScheduled.compareAndSet(false, true)) {
+      startFlusher().schedule({ flushInBackground() } as Runnable, delay, TimeUnit.SECONDS)
+    }
+  }
+
+  /**
+   * Starts the background flush thread, if needed.
+   * @return The flush thread's executor.
+   */
+  protected synchronized ScheduledExecutorService startFlusher() {
+    if (flusher == null) {
+      flusher = Executors.newSingleThreadScheduledExecutor(new FlushThreadFactory())
+    }
+    return flusher
+  }
+
+  /**
+   * Flushes the pending preferences and logs any exceptions so the background thread keeps running.
+   * A failed flush is scheduled again with a longer delay.
+   */
+  protected void flushInBackground() {
+    flushScheduled.set(false)
+    try {
+      flush()
+      failedFlushes = 0
+    } catch (Throwable e) {
+      failedFlushes++
+      def delay = getRetryDelay()
+      log.error("flushInBackground: Could not write user preferences.  Retrying in ${delay}s.", e)
+      scheduleFlush(delay)
+    }
+  }
+
+  /**
+   * Returns the delay before the next retry of a failed flush.  Doubles for each failure in a row.
+   * @return The delay (seconds).
+   */
+  protected long getRetryDelay() {
+    long delay = Math.max(getFlushDelay(), 1) * (1L << Math.min(failedFlushes, 16))
+    return Math.min(delay, MAX_RETRY_DELAY)
+  }
+
+  /**
+   * Stops the background flush thread.  Writes any pending preferences first.
+   */
+  synchronized void shutdown() {
+    flusher?.shutdown()
+    flusher = null
+    flushScheduled.set(false)
+    flush()
+  }
+
+  /**
+   * Builds the cache key for the given user and page.
+   * @param userName The user.
+   * @param page The page.
+   * @return The key.
+   */
+  protected String buildKey(String userName, String page) {
+    return "$userName|$page"
+  }
+
+  /**
+   * Returns the max number of entries in the cache.
+   * @return The size.  0 means no caching.
+   */
+  protected int getCacheSize() {
+    return Holders.configuration.preferenceCacheSize ?: 0
+  }
+
+  /**
+   * Returns the number of seconds the changes are held before they are written.
+   * @return The delay (seconds).  0 means the changes are written immediately.
+   */
+  protected int getFlushDelay() {
+    return Holders.configuration.preferenceFlushDelay ?: 0
+  }
+
+  /**
+   * The stored preferences for a single user/page.  The values are copied to a new UserPreference for each caller.
+   */
+  @ToString(includePackage = false, includeNames = true, excludes = ['preferencesText'])
+  static class PreferenceEntry {
+    String userName
+    String page
+    String preferencesText
+    UUID uuid
+    Date dateCreated
+    Integer version
+
+    /**
+     * Empty constructor.
+     */
+    PreferenceEntry() {
+    }
+
+    /**
+     * Copies the values from the given record.
+     * @param record The record.
+     */
+    PreferenceEntry(UserPreference record) {
+      userName = record.userName
+      page = record.page
+      preferencesText = record.preferencesText
+      uuid = record.uuid
+      dateCreated = record.dateCreated
+      version = record.version
+    }
+
+    /**
+     * Builds a new UserPreference from the stored values.
+     * @return The record.
+     */
+    UserPreference buildUserPreference() {
+      def record = new UserPreference(userName: userName, page: page, uuid: uuid, dateCreated: dateCreated,
+                                      version: version ?: 0)
+      record.preferencesText = preferencesText
+      return record
+    }
+  }
+
+  /**
+   * The thread factory for the background flush.  The thread name is 'user-preference-flush'.  This is a daemon thread.
+   */
+  static class FlushThreadFactory implements ThreadFactory {
+    Thread newThread(Runnable r) {
+      Thread t = new Thread(r, 'user-preference-flush')
+      t.setDaemon(true)
+      return t
+    }
+  }
+}
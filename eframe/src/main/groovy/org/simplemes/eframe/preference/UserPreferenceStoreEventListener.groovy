@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) Michael Houston 2020. All rights reserved.
+ */
+
+package org.simplemes.eframe.preference
+
+import org.simplemes.eframe.domain.BaseCacheEventListener
+import org.simplemes.eframe.domain.DomainSaveTransactionEvent
+import org.simplemes.eframe.preference.domain.UserPreference
+
+import javax.inject.Singleton
+
+/**
+ * Removes the preferences from the {@link UserPreferenceStore} cache when they are saved by other logic.
+ * The cached preferences are always removed on a rollback.
+ */
+@Singleton
+class UserPreferenceStoreEventListener extends BaseCacheEventListener {
+
+  /**
+   * Removes the cached preferences if the event is for a changed user preference.
+   * @param event The event.
+   */
+  @Override
+  protected void invalidate(DomainSaveTransactionEvent event) {
+    def domainObject = event.domainObject
+    if (domainObject instanceof UserPreference) {
+      UserPreferenceStore.instance.removeIfChanged(domainObject.userName, domainObject.page,
+                                                   domainObject.preferencesText)
+    }
+  }
+
+  /**
+   * Removes the cached preferences if the event is for a user preference.
+   * @param event The event.
+   */
+  @Override
+  protected void invalidateOnRollback(DomainSaveTransactionEvent event) {
+    def domainObject = event.domainObject
+    if (domainObject instanceof UserPreference) {
+      UserPreferenceStore.instance.evict(domainObject.userName, domainObject.page)
+    }
+  }
+
+}
@@ -18,6 +18,7 @@ import org.simplemes.eframe.domain.annotation.DomainEntity
 import org.simplemes.eframe.misc.FieldSizes
 import org.simplemes.eframe.misc.LogUtils
 import org.simplemes.eframe.preference.Preference
+import org.simplemes.eframe.preference.UserPreferenceStore
 
 import javax.annotation.Nullable
 import javax.persistence.Column
@@ -91,6 +92,10 @@ class UserPreference {
    * Persist the transient preferences Map into the JSON for storage in the DB.
    */
   protected void persistPreferencesInText() {
+    if (preferencesText && !textHasBeenParsed) {
+      // Never parsed, so the text is still current.
+      return
+    }
     if (preferences) {
       // Filter out any empty elements in the preference list.
       def preferencesToSave = preferences.findAll { it.settings }
@@ -114,6 +119,14 @@ class UserPreference {
     persistPreferencesInText()
   }
 
+  /**
+   * Called before a delete() happens.  Removes the preferences from the store's cache.
+   */
+  @SuppressWarnings("unused")
+  def beforeDelete() {
+    UserPreferenceStore.instance.remove(userName, page)
+  }
+
   /**
    * Get the Preferences.  Converts from the persisted XML format if this is the first call to getPreferences() after a load.
    * This is done here instead of afterLoad() because of issues with caching and unit testing.
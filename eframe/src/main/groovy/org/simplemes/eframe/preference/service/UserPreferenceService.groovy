@@ -10,12 +10,13 @@ import org.simplemes.eframe.misc.TypeUtils
 import org.simplemes.eframe.preference.PreferenceHolder
 import org.simplemes.eframe.preference.SimplePreferenceFactory
 import org.simplemes.eframe.preference.SimpleStringPreference
-import org.simplemes.eframe.preference.domain.UserPreference
+import org.simplemes.eframe.preference.UserPreferenceStore
 import org.simplemes.eframe.preference.event.GUIEventInterface
 import org.simplemes.eframe.security.SecurityUtils
 
 import javax.inject.Singleton
 import javax.transaction.Transactional
+import java.util.concurrent.ConcurrentHashMap
 
 /**
  * Provides access to the user preferences that are used to save GUI settings and related objects.
@@ -26,6 +27,11 @@ import javax.transaction.Transactional
 @Singleton
 class UserPreferenceService {
 
+  /**
+   * The GUI event handler classes, by event name.
+   */
+  protected Map<String, Class> handlerClasses = new ConcurrentHashMap<String, Class>()
+
   /**
    * Handles the gui state change event.  This processes the event and delegates to an event handler to
    * store the preferences for the state change.
@@ -41,8 +47,12 @@ class UserPreferenceService {
   void guiStateChanged(Map params) {
     ArgumentUtils.checkMissing(params, 'params')
     ArgumentUtils.checkMissing(params.get('event'), 'params.event')
-    def className = "org.simplemes.eframe.preference.event.${params.get('event')}"
-    def c = TypeUtils.loadClass(className)
+    def event = params.get('event').toString()
+    def c = handlerClasses.get(event)
+    if (c == null) {
+      c = TypeUtils.loadClass("org.simplemes.eframe.preference.event.${event}")
+      handlerClasses.put(event, c)
+    }
     GUIEventInterface handler = (GUIEventInterface) c.newInstance()
     handler.handleEvent(params)
   }
@@ -50,7 +60,7 @@ class UserPreferenceService {
   /**
    * Finds the given preference(s).  This is designed for use in the browser for dynamic preferences such as dialog
    * sizes.<p>
-   * <b>Note:</b> Reads via the second level cache.
+   * <b>Note:</b> Reads via the {@link UserPreferenceStore}.
    * @param pageURI The URI for the page these settings are to be found for (<b>Required</b>).
    * @param desiredElement The ID of the element for the preference (<b>Optional</b>).
    * @param preferenceType The preference type to return.  For example, 'DialogPreference' (<b>Optional</b>).
@@ -65,7 +75,7 @@ class UserPreferenceService {
     log.debug('findPreferences(): uri {}, element {}, type {}, user {}', pageURI, desiredElement, preferenceType, user)
     def userPreference = null
     if (user && pageURI) {
-      userPreference = UserPreference.findByUserNameAndPage(user, pageURI)
+      userPreference = UserPreferenceStore.instance.find(user, pageURI)
     }
     for (preference in userPreference?.preferences) {
       for (detail in preference.settings) {
@@ -124,7 +134,7 @@ class UserPreferenceService {
   /**
    * Saves the given preference value into the user's preferences for the give element.
    * This is a simplified view of preferences that just supports a simple name/value setting.<p>
-   * <b>Note:</b> Reads via the second level cache.
+   * <b>Note:</b> Reads via the {@link UserPreferenceStore}.
    * @param pageParam The page (URI) the preference applies to.
    * @param elementParam The page element (or preference name).
    * @return value The value.  Can be a POGO or a simple element.
@@ -28,6 +28,7 @@ import org.simplemes.eframe.date.ISODate
 import org.simplemes.eframe.domain.annotation.DomainEntityHelper
 import org.simplemes.eframe.exception.BusinessException
 import org.simplemes.eframe.i18n.GlobalUtils
+import org.simplemes.eframe.metrics.MetricsHelper
 import org.simplemes.eframe.misc.ArgumentUtils
 import org.simplemes.eframe.misc.HTMLUtils
 import org.simplemes.eframe.security.SecurityUtils
@@ -104,7 +105,7 @@ class ReportEngine {
   Report compile(Report reportDetails) {
     log.debug('compile (top): reportDetails: {}', reportDetails)
     ArgumentUtils.checkMissing(reportDetails.params.loc, 'params.loc')
-    def start = System.currentTimeMillis()
+    def start = System.nanoTime()
     def resourcePath = "$reportDetails.reportFolder/$reportDetails.reportName"
     def inputStream = ReportHelper.instance.getInputStream(reportDetails)
     if (!inputStream) {
@@ -119,7 +120,7 @@ class ReportEngine {
     } finally {
       inputStream?.close()
     }
-    log.info("Compile Elapsed: {}ms for {}", (System.currentTimeMillis() - start), resourcePath)
+    log.info("Compile Elapsed: {}ms for {}", MetricsHelper.instance.record(MetricsHelper.REPORT_COMPILE, start), resourcePath)
     reportDetails.compiledReport = jasperReport
     log.debug("compile (done): reportDetails = {}", reportDetails)
     return reportDetails
@@ -150,7 +151,7 @@ class ReportEngine {
   @SuppressWarnings("GroovyAssignabilityCheck")
   Report fill(Report report) {
     log.debug('fill: reportDetails: {}', report)
-    def start = System.currentTimeMillis()
+    def start = System.nanoTime()
 
     Map<String, Object> parameters = report.buildBaseParametersForReport()
 
@@ -187,7 +188,7 @@ class ReportEngine {
     JasperPrint jasperPrint = JasperFillManager.fillReport(report.compiledReport, parameters, dataOrConn)
     report.filledReport = jasperPrint
 
-    log.info("Fill Elapsed: {}ms", (System.currentTimeMillis() - start))
+    log.info("Fill Elapsed: {}ms", MetricsHelper.instance.record(MetricsHelper.REPORT_FILL, start))
     return report
   }
 
@@ -13,6 +13,8 @@ import org.simplemes.eframe.application.Holders
 import org.simplemes.eframe.misc.NameUtils
 import org.simplemes.eframe.misc.UUIDUtils
 
+import java.util.zip.GZIPInputStream
+
 /**
  * This is a mock client that can simulate the external search engine's response to various requests.
  * This is not suitable for production.
@@ -103,6 +105,28 @@ class MockRestClient {
     return null
   }
 
+  /**
+   * The simulated asynchronous request method.  Calls the listener before returning.
+   * @param request The request.
+   * @param listener The listener (a SearchEngineClient.BulkResponseListener).
+   */
+  @SuppressWarnings(["GroovyUnusedDeclaration"])
+  void performRequestAsync(Request request, Object listener) {
+    listener.onResponse(performRequest(request))
+  }
+
+  /**
+   * Reads the request content, un-compressing it if needed.
+   * @param entity The request content.
+   * @return The content.
+   */
+  protected String readContent(HttpEntity entity) {
+    if (entity.contentEncoding?.value == 'gzip') {
+      return new GZIPInputStream(entity.content).getText('UTF-8')
+    }
+    return EntityUtils.toString(entity)
+  }
+
   /**
    * Simulates a PUT action (e.g. document index).
    * The document indexObject action supports the response value 'id', 'result'.
@@ -114,7 +138,7 @@ class MockRestClient {
     if (content) {
       // Get the content object as JSON and make sure it matches the value passed to the mocked method.
       def expectedContent = SearchEngineClient.formatForIndex(content)
-      def usedContent = EntityUtils.toString(entity)
+      def usedContent = readContent(entity)
       assert usedContent == expectedContent
     }
 
@@ -144,6 +144,21 @@ class MockSearchEngineClient implements SearchEngineClientInterface {
     return indexObjectResults ?: [took: 30, errors: false, items: items, archiveReferenceList: archiveReferenceList]
   }
 
+  /**
+   * Indexes a list of objects.  This mock calls the callback before returning.
+   *
+   * <p/>
+   * This mock method will store an action: [action: 'bulkIndex', objects: objects]
+   *
+   * @param object The domain objects to index.  Must be saved.
+   * @param archiveReferenceList The list of archive references associated with the list of objects.  (Optional).
+   * @param callback The closure called when finished.  Passed the response Map and the exception (always null).
+   */
+  @Override
+  void bulkIndexAsync(List objects, List<String> archiveReferenceList, Closure callback) {
+    callback.call(bulkIndex(objects, archiveReferenceList), null)
+  }
+
   /**
    * Deletes all Indices in the search engine.  This will lose all data there.
    * Can log performance as level INFO log messages.
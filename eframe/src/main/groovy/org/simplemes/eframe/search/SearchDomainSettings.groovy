@@ -30,6 +30,12 @@ class SearchDomainSettings {
    */
   Class parent
 
+  /**
+   * The text fields searched (with the key field) by the database search when no search engine is configured.
+   * These fields are searched as words with a full text (tsvector) match and the results are ranked.
+   */
+  List<String> dbSearchFields
+
   /**
    * Empty constructor.
    */
@@ -5,29 +5,46 @@
 package org.simplemes.eframe.search
 
 
+import com.fasterxml.jackson.core.JsonEncoding
+import com.fasterxml.jackson.core.JsonGenerator
+import com.fasterxml.jackson.core.JsonToken
 import com.fasterxml.jackson.databind.ser.FilterProvider
 import com.fasterxml.jackson.databind.ser.PropertyFilter
 import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider
+import com.fasterxml.jackson.databind.util.TokenBuffer
 import groovy.util.logging.Slf4j
 import org.apache.http.HttpEntity
 import org.apache.http.HttpHost
 import org.apache.http.entity.ContentType
+import org.apache.http.nio.entity.NByteArrayEntity
 import org.apache.http.nio.entity.NStringEntity
 import org.apache.http.util.EntityUtils
 import org.elasticsearch.client.Request
+import org.elasticsearch.client.Response
+import org.elasticsearch.client.ResponseListener
 import org.elasticsearch.client.RestClient
 import org.simplemes.eframe.application.Holders
 import org.simplemes.eframe.custom.ExtensibleFieldHelper
 import org.simplemes.eframe.data.format.CustomChildListFieldFormat
+import org.simplemes.eframe.domain.annotation.DomainEntityHelper
+import org.simplemes.eframe.metrics.MetricsHelper
 import org.simplemes.eframe.misc.ArgumentUtils
 import org.simplemes.eframe.misc.LogUtils
 import org.simplemes.eframe.misc.URLUtils
 
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.Semaphore
+import java.util.zip.GZIPOutputStream
+
 /**
  * This helper encapsulates the search interface to the external search engine (Elastic Search in this case).
  * This allows for easier use of the search engine and
  * supports unit testing with an interface that can be easily mocked.
  * This helper provides synchronous access to the search engine actions such as indexObject, indexObjects and search.
+ * The bulk index action can also be performed asynchronously (see {@link #bulkIndexAsync}).
+ * <p>
+ * The index request bodies are written by Jackson directly into re-usable buffers and are compressed (gzip) if
+ * <code>eframe.search.compressRequests</code> is true.
  * <p>
  * This helper class can be created once when the application starts up and should never need refreshing.
  * <p>
@@ -64,6 +81,26 @@ class SearchEngineClient implements SearchEngineClientInterface {
    */
   private boolean alreadyWarnedNoHosts = false
 
+  /**
+   * The max number of request buffers kept for re-use.
+   */
+  protected static final int MAX_POOLED_BUFFERS = 16
+
+  /**
+   * The largest request buffer (bytes) kept for re-use.  Larger buffers are left for the garbage collector.
+   */
+  protected static final int MAX_POOLED_BUFFER_SIZE = 4 * 1024 * 1024
+
+  /**
+   * The request buffers available for re-use.
+   */
+  protected Queue<RequestBuffer> bufferPool = new ConcurrentLinkedQueue<RequestBuffer>()
+
+  /**
+   * Limits the number of asynchronous requests sent to the search engine at one time.  Created on first use.
+   */
+  protected Semaphore inFlightWindow
+
   /**
    * Returns the client used to talk to the search engine.  Will create a shared client and re-use it for
    * all requests.
@@ -92,7 +129,7 @@ class SearchEngineClient implements SearchEngineClientInterface {
    */
   SearchStatus getStatus() {
     try {
-      def start = System.currentTimeMillis()
+      def start = System.nanoTime()
       log.debug('getStatus: GET {}', "/_cluster/health?pretty=true")
       def response = getRestClient()?.performRequest(new Request("GET", "/_cluster/health"))
       def content = EntityUtils.toString((HttpEntity) response.entity)
@@ -100,7 +137,7 @@ class SearchEngineClient implements SearchEngineClientInterface {
       //println "JSON = ${groovy.json.JsonOutput.prettyPrint(s)}"
       def json = Holders.objectMapper.readValue(content, Map)
       //println "json = ${json}"
-      log.info('getStatus: Elapsed time {}ms', System.currentTimeMillis() - start)
+      log.info('getStatus: Elapsed time {}ms', MetricsHelper.instance.record(MetricsHelper.SEARCH_REQUESTS, start, 'action', 'getStatus'))
       log.debug('getStatus: result = {}', json)
 
       def searchStatus = new SearchStatus(json)
@@ -129,13 +166,20 @@ class SearchEngineClient implements SearchEngineClientInterface {
    * @return Status of the index creation.  A Map.
    */
   Map indexObject(Object object) {
-    def start = System.currentTimeMillis()
+    def start = System.nanoTime()
     def uri = buildURIForIndexRequest(object)
-    def jsonString = formatForIndex(object)
-    log.debug('indexObject: PUT {}, content = {}', uri, jsonString)
+    if (log.debugEnabled) {
+      log.debug('indexObject: PUT {}, content = {}', uri, formatForIndex(object))
+    }
     def request = new Request("PUT", uri)
-    request.entity = new NStringEntity(jsonString, ContentType.APPLICATION_JSON)
-    def response = getRestClient()?.performRequest(request)
+    def buffer = writeContent { OutputStream out -> writeForIndex(out, object) }
+    def response = null
+    try {
+      request.entity = buffer.toEntity(isCompressRequests())
+      response = getRestClient()?.performRequest(request)
+    } finally {
+      releaseBuffer(buffer)
+    }
 
     def content = EntityUtils.toString((HttpEntity) response.entity)
     //println "content = $content"
@@ -144,7 +188,7 @@ class SearchEngineClient implements SearchEngineClientInterface {
     //println "json = ${json}"
 
     log.debug('indexObject: result = {}', json)
-    def elapsed = System.currentTimeMillis() - start
+    def elapsed = MetricsHelper.instance.record(MetricsHelper.SEARCH_REQUESTS, start, 'action', 'indexObject')
     log.info('indexObject: Elapsed time {}ms', elapsed)
     return json
   }
@@ -156,7 +200,7 @@ class SearchEngineClient implements SearchEngineClientInterface {
    * @return Status of the index creation.  A Map.
    */
   Map removeObjectFromIndex(Object object) {
-    def start = System.currentTimeMillis()
+    def start = System.nanoTime()
     def uri = buildURIForIndexRequest(object)
     log.debug('removeObjectFromIndex: DELETE {}', uri)
     def response = getRestClient()?.performRequest(new Request("DELETE", uri))
@@ -168,7 +212,7 @@ class SearchEngineClient implements SearchEngineClientInterface {
     //println "json = ${json}"
 
     log.debug('removeObjectFromIndex: result = {}', json)
-    def elapsed = System.currentTimeMillis() - start
+    def elapsed = MetricsHelper.instance.record(MetricsHelper.SEARCH_REQUESTS, start, 'action', 'removeObjectFromIndex')
     log.info('removeObjectFromIndex: Elapsed time {}ms', elapsed)
     return json
   }
@@ -185,26 +229,108 @@ class SearchEngineClient implements SearchEngineClientInterface {
    * @return Status of the index creation.  A Map with the response from the engine.
    */
   Map bulkIndex(List objects, List<String> archiveReferenceList = null) {
-    def start = System.currentTimeMillis()
-    def uri = '/_bulk'
-    //Map<String, String> params = Collections.emptyMap()
-    def jsonString = buildBulkIndexContent(objects, archiveReferenceList)
-    log.debug('bulkIndex: POST {}, content = {}', uri, LogUtils.limitedLengthString(jsonString, 2000))
-    def request = new Request("POST", uri)
-    request.entity = new NStringEntity(jsonString, ContentType.APPLICATION_JSON)
-    def response = getRestClient()?.performRequest(request)
+    def start = System.nanoTime()
+    def request = buildBulkIndexRequest(objects, archiveReferenceList)
+    def response = null
+    try {
+      response = getRestClient()?.performRequest(request.request)
+    } finally {
+      releaseBuffer(request.buffer)
+    }
 
-    def content = EntityUtils.toString((HttpEntity) response.entity)
-    //println "response = $content"
-    //println "JSON = ${groovy.json.JsonOutput.prettyPrint(content)}"
-    def json = Holders.objectMapper.readValue(content, Map)
-    //println "json = ${json}"
+    def json = parseBulkResponse(response)
 
     log.debug('bulkIndex: result = {}', LogUtils.limitedLengthString(json.toString(), 200))
-    log.info('bulkIndex: Elapsed time {}ms', System.currentTimeMillis() - start)
+    log.info('bulkIndex: Elapsed time {}ms', MetricsHelper.instance.record(MetricsHelper.SEARCH_REQUESTS, start, 'action', 'bulkIndex'))
     return json
   }
 
+  /**
+   * Indexes a list of objects without waiting for the search engine to respond.  The callback is called when the
+   * response is received (on the client's I/O thread).  The number of requests sent at once is limited by the
+   * <code>eframe.search.maxInFlightRequests</code> setting.  This method waits for an open slot if needed, so
+   * the caller is slowed down when the search engine can't keep up.
+   * <p>
+   * The request content is built in a read-only transaction (joins the caller's transaction, if any).  The caller
+   * should not hold a transaction while calling this method, so no DB connection is held during the wait.
+   *
+   * @param objects The domain objects to index.  Must be saved.
+   * @param archiveReferenceList The list of archive references associated with the list of objects.  (Optional).
+   * @param callback The closure called when finished.  Passed the response Map (or null) and the exception (or null).
+   */
+  void bulkIndexAsync(List objects, List<String> archiveReferenceList, Closure callback) {
+    def start = System.nanoTime()
+    BulkRequest request = null
+    DomainEntityHelper.instance.transactionManager.executeRead({ status ->
+      request = buildBulkIndexRequest(objects, archiveReferenceList)
+    })
+    def window = getInFlightWindow()
+    try {
+      window.acquire()
+    } catch (InterruptedException e) {
+      releaseBuffer(request.buffer)
+      throw e
+    }
+    try {
+      getRestClient().performRequestAsync(request.request,
+                                          new BulkResponseListener(this, request.buffer, start, callback))
+    } catch (Throwable t) {
+      window.release()
+      releaseBuffer(request.buffer)
+      throw t
+    }
+  }
+
+  /**
+   * Builds the bulk index request, with the content written to a pooled buffer.  The caller must release the buffer
+   * when the request is finished.
+   * @param objects The domain objects to index.
+   * @param archiveReferenceList The list of archive references associated with the list of objects.  (Optional).
+   * @return The request and buffer.
+   */
+  protected BulkRequest buildBulkIndexRequest(List objects, List<String> archiveReferenceList) {
+    def uri = '/_bulk'
+    if (log.debugEnabled) {
+      def jsonString = buildBulkIndexContent(objects, archiveReferenceList)
+      log.debug('bulkIndex: POST {}, content = {}', uri, LogUtils.limitedLengthString(jsonString, 2000))
+    }
+    def request = new Request("POST", uri)
+    def buffer = writeContent { OutputStream out -> writeBulkIndexContent(out, objects, archiveReferenceList) }
+    request.entity = buffer.toEntity(isCompressRequests())
+    return new BulkRequest(request: request, buffer: buffer)
+  }
+
+  /**
+   * Parses the response from a bulk request.  Only the top-level values and the <code>items</code> list are read.
+   * Any other structures in the response are skipped.
+   * @param response The response.
+   * @return The parsed response (e.g. took, errors and items).
+   */
+  protected static Map parseBulkResponse(Object response) {
+    def res = [:]
+    def entity = (HttpEntity) response.entity
+    def parser = Holders.objectMapper.factory.createParser(entity.content)
+    try {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new IllegalArgumentException("Invalid bulk response.  Expected a JSON object.")
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        def name = parser.currentName
+        def token = parser.nextToken()
+        if (name == 'items') {
+          res.items = Holders.objectMapper.readValue(parser, List)
+        } else if (token.isScalarValue()) {
+          res[name] = Holders.objectMapper.readValue(parser, Object)
+        } else {
+          parser.skipChildren()
+        }
+      }
+    } finally {
+      parser.close()
+    }
+    return res
+  }
+
   /**
    * Performs a global search using the given query string.
    * @param query The query string.  If it starts with &#123; then the string is used as the body for the GET request.
@@ -257,7 +383,7 @@ class SearchEngineClient implements SearchEngineClientInterface {
     try {
       ArgumentUtils.checkMissing(query, 'query')
       ArgumentUtils.checkMissing(uri, 'uri')
-      def start = System.currentTimeMillis()
+      def start = System.nanoTime()
       HttpEntity entity = null
       if (query.startsWith('{')) {
         entity = new NStringEntity(query, ContentType.APPLICATION_JSON)
@@ -289,7 +415,7 @@ class SearchEngineClient implements SearchEngineClientInterface {
       if (log.debugEnabled) {
         log.debug('search: result = {}', LogUtils.limitedLengthString(json.toString(), 2000))
       }
-      log.info('search: Elapsed time {}ms', System.currentTimeMillis() - start)
+      log.info('search: Elapsed time {}ms', MetricsHelper.instance.record(MetricsHelper.SEARCH_REQUESTS, start, 'action', 'search'))
 
       def searchResult = new SearchResult(json)
       searchResult.query = query
@@ -313,7 +439,7 @@ class SearchEngineClient implements SearchEngineClientInterface {
    */
   @Override
   Map deleteAllIndices() {
-    def start = System.currentTimeMillis()
+    def start = System.nanoTime()
     def uri = '/_all'
     log.debug('deleteAllIndices: DELETE {}', uri)
     def response = getRestClient()?.performRequest(new Request("DELETE", uri))
@@ -325,7 +451,7 @@ class SearchEngineClient implements SearchEngineClientInterface {
     //println "json = ${json}"
 
     log.debug('deleteAllIndices: result = {}', content)
-    log.info('deleteAllIndices: Elapsed time {}ms', System.currentTimeMillis() - start)
+    log.info('deleteAllIndices: Elapsed time {}ms', MetricsHelper.instance.record(MetricsHelper.SEARCH_REQUESTS, start, 'action', 'deleteAllIndices'))
     return json
   }
 
@@ -343,31 +469,56 @@ class SearchEngineClient implements SearchEngineClientInterface {
    * @return The JSON content in the correct format for a bulk index request.
    */
   static String buildBulkIndexContent(List list, List<String> archiveReferenceList = null) {
+    def out = new ByteArrayOutputStream()
+    writeBulkIndexContent(out, list, archiveReferenceList)
+    return out.toString('UTF-8')
+  }
+
+  /**
+   * Writes the bulk index request content for a list of domain objects to the given stream.
+   * @param out The stream to write to.  Not closed.
+   * @param list The list.
+   * @param archiveReferenceList The list of archive references associated with the list of objects.  (Optional).
+   *        This will modify the index used to be the archive index and add the element '_archiveReference' to the
+   *        document indexed.  The list size must match this reference list (if given).
+   */
+  static void writeBulkIndexContent(OutputStream out, List list, List<String> archiveReferenceList = null) {
     ArgumentUtils.checkMissing(list, 'list')
     def indexSuffix = ''
     if (archiveReferenceList) {
       assert archiveReferenceList.size() == list.size()
       indexSuffix = SearchHelper.ARCHIVE_INDEX_SUFFIX
     }
-    def sb = new StringBuilder()
 
+    def generator = createGenerator(out)
     def i = 0
     for (object in list) {
       def clazz = object.getClass()
       def indexName = SearchHelper.instance.getIndexNameForDomain(clazz)
-      sb.append("""{"index":{"_index":"$indexName$indexSuffix","_id":"${object.uuid}"}}""")
-      sb.append(BULK_REQUEST_DELIMITER)
-      sb.append(formatForIndex(object)).append(BULK_REQUEST_DELIMITER)
-      if (archiveReferenceList) {
-        // If we are trying to index an archived object, add _archiveReference to the content at the end, just before the last
-        // bracket.
-        def offset = sb.length() - 1 - BULK_REQUEST_DELIMITER.length()
-        sb.insert(offset, """ ,"_archiveReference":"${archiveReferenceList[i]}" """)
-      }
+      generator.writeStartObject()
+      generator.writeObjectFieldStart('index')
+      generator.writeStringField('_index', "$indexName$indexSuffix".toString())
+      generator.writeStringField('_id', object.uuid.toString())
+      generator.writeEndObject()
+      generator.writeEndObject()
+      generator.writeRaw(BULK_REQUEST_DELIMITER)
+      writeForIndex(generator, object, archiveReferenceList ? archiveReferenceList[i] : null)
+      generator.writeRaw(BULK_REQUEST_DELIMITER)
       i++
     }
+    generator.close()
+  }
 
-    return sb.toString()
+  /**
+   * Creates a JSON generator that writes to the given stream, without closing it.
+   * @param out The stream.
+   * @return The generator.
+   */
+  protected static JsonGenerator createGenerator(OutputStream out) {
+    def generator = Holders.objectMapper.factory.createGenerator(out, JsonEncoding.UTF8)
+    generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+    generator.setRootValueSeparator(null)
+    return generator
   }
 
   /**
@@ -376,17 +527,112 @@ class SearchEngineClient implements SearchEngineClientInterface {
    * @return The JSON.
    */
   static String formatForIndex(Object object) {
+    def out = new ByteArrayOutputStream()
+    writeForIndex(out, object)
+    return out.toString('UTF-8')
+  }
+
+  /**
+   * Writes the given object as JSON for the search engine index requests.
+   * @param out The stream to write to.  Not closed.
+   * @param object The object to format.
+   */
+  static void writeForIndex(OutputStream out, Object object) {
+    def generator = createGenerator(out)
+    writeForIndex(generator, object, null)
+    generator.close()
+  }
+
+  /**
+   * Writes the given object as JSON for the search engine index requests.
+   * @param generator The JSON generator to write to.
+   * @param object The object to format.
+   * @param archiveReference The archive reference to add as the '_archiveReference' element.  Optional.
+   */
+  protected static void writeForIndex(JsonGenerator generator, Object object, String archiveReference) {
     def settings = SearchHelper.instance.getSearchDomainSettings(object.getClass())
     def filter = new SearchableJacksonFilter(settings?.exclude, object.getClass())
 
     setUnderscoreOnCustomFields(object, false)
 
-    FilterProvider filters = new SimpleFilterProvider().addFilter("searchableFilter", (PropertyFilter) filter)
-    def writer = Holders.objectMapper.writer(filters)
-    def res = writer.writeValueAsString(object)
+    try {
+      FilterProvider filters = new SimpleFilterProvider().addFilter("searchableFilter", (PropertyFilter) filter)
+      def writer = Holders.objectMapper.writer(filters)
+      if (archiveReference == null) {
+        writer.writeValue(generator, object)
+      } else {
+        // Write to a token buffer, so the reference can be added to the end of the object.
+        def tokens = new TokenBuffer(Holders.objectMapper, false)
+        writer.writeValue(tokens, object)
+        def parser = tokens.asParser()
+        def depth = 0
+        JsonToken token
+        while ((token = parser.nextToken()) != null) {
+          if (token == JsonToken.END_OBJECT && depth == 1) {
+            generator.writeStringField('_archiveReference', archiveReference)
+          }
+          if (token.isStructStart()) {
+            depth++
+          } else if (token.isStructEnd()) {
+            depth--
+          }
+          generator.copyCurrentEvent(parser)
+        }
+        parser.close()
+      }
+    } finally {
+      setUnderscoreOnCustomFields(object, true)
+    }
+  }
 
-    setUnderscoreOnCustomFields(object, true)
-    return res
+  /**
+   * Writes request content into a re-usable buffer.  The content is compressed, if configured.
+   * The buffer must be released with {@link #releaseBuffer} when the request is finished.
+   * @param writer The closure that writes the content.  Passed the OutputStream.
+   * @return The buffer.
+   */
+  protected RequestBuffer writeContent(Closure writer) {
+    def buffer = bufferPool.poll() ?: new RequestBuffer()
+    try {
+      OutputStream out = isCompressRequests() ? new GZIPOutputStream(buffer, 8192) : buffer
+      writer.call(out)
+      out.close()
+    } catch (Throwable t) {
+      releaseBuffer(buffer)
+      throw t
+    }
+    return buffer
+  }
+
+  /**
+   * Returns the buffer to the pool for re-use, if it is not too large.
+   * @param buffer The buffer.
+   */
+  protected void releaseBuffer(RequestBuffer buffer) {
+    if (buffer.capacity() <= MAX_POOLED_BUFFER_SIZE && bufferPool.size() < MAX_POOLED_BUFFERS) {
+      buffer.reset()
+      bufferPool.offer(buffer)
+    }
+  }
+
+  /**
+   * Returns true if the request content should be compressed.
+   * @return True if compressed.
+   */
+  protected boolean isCompressRequests() {
+    return Holders.configuration.search.compressRequests
+  }
+
+  /**
+   * Returns the semaphore that limits the number of asynchronous requests sent to the search engine at one time.
+   * @return The semaphore.
+   */
+  protected synchronized Semaphore getInFlightWindow() {
+    if (inFlightWindow == null) {
+      int size = Holders.configuration.search.maxInFlightRequests ?: 1
+      inFlightWindow = new Semaphore(Math.max(size, 1))
+    }
+    return inFlightWindow
   }
 
   /**
@@ -441,4 +687,100 @@ class SearchEngineClient implements SearchEngineClientInterface {
     return "/$indexName/_search"
   }
 
+  /**
+   * A re-usable buffer for the request content.
+   */
+  protected static class RequestBuffer extends ByteArrayOutputStream {
+    RequestBuffer() {
+      super(8192)
+    }
+
+    /**
+     * Returns the current capacity of the buffer.
+     * @return The capacity (bytes).
+     */
+    int capacity() {
+      return buf.length
+    }
+
+    /**
+     * Builds the request entity that uses the content in this buffer (no copy).
+     * @param compressed True if the content is compressed (gzip).
+     * @return The entity.
+     */
+    HttpEntity toEntity(boolean compressed) {
+      def entity = new NByteArrayEntity(buf, 0, count, ContentType.APPLICATION_JSON)
+      if (compressed) {
+        entity.setContentEncoding('gzip')
+      }
+      return entity
+    }
+  }
+
+  /**
+   * A bulk request and the buffer that holds its content.
+   */
+  protected static class BulkRequest {
+    Request request
+    RequestBuffer buffer
+  }
+
+  /**
+   * Handles the response for an asynchronous bulk request.
+   */
+  protected static class BulkResponseListener implements ResponseListener {
+    final SearchEngineClient client
+    final RequestBuffer buffer
+    final long start
+    final Closure callback
+
+    BulkResponseListener(SearchEngineClient client, RequestBuffer buffer, long start, Closure callback) {
+      this.client = client
+      this.buffer = buffer
+      this.start = start
+      this.callback = callback
+    }
+
+    @Override
+    void onSuccess(Response response) {
+      onResponse(response)
+    }
+
+    /**
+     * Handles the response.  Loosely typed to support the mock client.
+     * @param response The response.
+     */
+    void onResponse(Object response) {
+      Map json = null
+      Throwable failure = null
+      try {
+        json = SearchEngineClient.parseBulkResponse(response)
+      } catch (Throwable t) {
+        failure = t
+      }
+      finish(json, failure)
+    }
+
+    @Override
+    void onFailure(Exception exception) {
+      finish(null, exception)
+    }
+
+    /**
+     * Releases the request resources and calls the callback.
+     * @param json The parsed response.  Null on failure.
+     * @param failure The exception.  Null on success.
+     */
+    protected void finish(Map json, Throwable failure) {
+      client.getInFlightWindow().release()
+      client.releaseBuffer(buffer)
+      if (json != null) {
+        log.debug('bulkIndexAsync: result = {}', LogUtils.limitedLengthString(json.toString(), 200))
+      }
+      log.info('bulkIndexAsync: Elapsed time {}ms',
+               MetricsHelper.instance.record(MetricsHelper.SEARCH_REQUESTS, start, 'action', 'bulkIndexAsync'))
+      callback.call(json, failure)
+    }
+  }
+
 }
@@ -55,6 +55,16 @@ interface SearchEngineClientInterface {
    */
   Map bulkIndex(List objects, List<String> archiveReferenceList)
 
+  /**
+   * Indexes a list of objects without waiting for completion.  The callback is called when the search engine
+   * responds.
+   *
+   * @param objects The domain objects to index.  Must be saved.
+   * @param archiveReferenceList The list of archive references associated with the list of objects.  (Optional).
+   * @param callback The closure called when finished.  Passed the response Map (or null) and the exception (or null).
+   */
+  void bulkIndexAsync(List objects, List<String> archiveReferenceList, Closure callback)
+
   /**
    * Deletes all Indices in the search engine.  This will lose all data there.
    * Can log performance as level INFO log messages.
@@ -46,55 +46,65 @@ class SearchEngineRequestBulkArchiveIndex implements SearchEngineRequestInterfac
   }
 
   /**
-   * Returns the domain objects using their IDs stored in domainIDs.
-   * @return The list of domain objects.  Logs an info if not found or other error.
+   * The maximum number of objects sent to the search engine in one bulk index request.  The archives are indexed
+   * in chunks of this size, so the memory used does not depend on the size of the archives.
+   */
+  static int chunkSize = 100
+
+  /**
+   * Returns the domain objects from the archives.
+   * @return The list of domain objects.
    */
   List getDomains() {
     def list = []
+    eachDomain { Object object, String ref -> list << object }
+    return list
+  }
+
+  /**
+   * Reads the searchable domain objects from the archives and passes them to the callback, one at a time.
+   * Nothing is held in memory by this method.
+   * @param callback The closure called for each searchable object.  Passed the object and its archive reference.
+   */
+  protected void eachDomain(Closure callback) {
+    def archiver = ArchiverFactory.instance.archiver
     for (ref in archiveRefs) {
-      def archiver = ArchiverFactory.instance.archiver
-      def objects = archiver.unarchive(ref, false)
-      for (object in objects) {
+      archiver.unarchiveEach((String) ref, false) { Object object ->
         if (SearchHelper.instance.isSearchable(object.getClass())) {
-          list << object
+          callback.call(object, (String) ref)
         }
       }
     }
-    return list
   }
 
   /**
-   * This executes the bulk index action on the external search server.
+   * This executes the bulk index action on the external search server.  The objects are streamed from the archives
+   * and sent in chunks (see {@link #chunkSize}).
    */
-  @SuppressWarnings("UnnecessaryGetter")
   @Override
   void run() {
+    def list = []
+    def references = []
     try {
-      def list = getDomains()
-      def res = SearchHelper.instance.bulkIndex(list, archiveRefs)
-      // Make sure all objects were indexed
-      def items = res.items
-
-      if (items.size() != list.size()) {
-        log.error('Index not created or updated for at least one entry. Found {} results codes.  Expected {}.',
-                  items.size(), list.size())
-      }
-
       def errorsFound = 0
-      for (item in items) {
-        def result = item.index.result
-        if (!(result == 'created' || result == 'updated')) {
-          // Some sort of error, so log it
-          log.error('Index on {} not created or updated.  Response = {}', list, item)
-          errorsFound++
+      eachDomain { Object object, String ref ->
+        list << object
+        references << ref
+        if (list.size() >= chunkSize) {
+          errorsFound += indexChunk(list, references)
+          list.clear()
+          references.clear()
         }
       }
+      if (list) {
+        errorsFound += indexChunk(list, references)
+      }
       // Notify the SearchHelper that we finished.
       SearchHelper.instance.finishedBulkRequest(errorsFound)
     } catch (Throwable t) {
       if (log.traceEnabled) {
-        // Log the content if desired
-        def s = SearchEngineClient.buildBulkIndexContent(getDomains())
+        // Log the content of the chunk that failed, if desired
+        def s = SearchEngineClient.buildBulkIndexContent(list)
         log.trace('run: Exception {}.  Content = {}', t.toString(), LogUtils.limitedLengthString(s, 20000))
       }
       // Notify the SearchHelper that we finished with an exception.
@@ -103,4 +113,32 @@ class SearchEngineRequestBulkArchiveIndex implements SearchEngineRequestInterfac
     }
   }
 
+  /**
+   * Sends one chunk of objects to the search engine and checks the results.
+   * @param list The objects to index.
+   * @param references The archive reference for each object (parallel to the list).
+   * @return The number of errors found.
+   */
+  protected int indexChunk(List list, List<String> references) {
+    def res = SearchHelper.instance.bulkIndex(list, references)
+    // Make sure all objects were indexed
+    def items = res.items
+
+    if (items.size() != list.size()) {
+      log.error('Index not created or updated for at least one entry. Found {} results codes.  Expected {}.',
+                items.size(), list.size())
+    }
+
+    def errorsFound = 0
+    for (item in items) {
+      def result = item.index.result
+      if (!(result == 'created' || result == 'updated')) {
+        // Some sort of error, so log it
+        log.error('Index on {} not created or updated.  Response = {}', list, item)
+        errorsFound++
+      }
+    }
+    return errorsFound
+  }
+
 }
@@ -116,30 +116,15 @@ class SearchEngineRequestBulkIndex implements SearchEngineRequestInterface {
         sleep(ms)
       }
 */
+      List list = null
       domainClass.withTransaction {
-        def list = findRecords()
-        log.info('run: [{}] Starting call to bulkIndex()', bulkID)
-        def res = SearchHelper.instance.bulkIndex(list)
-        log.info('run: [{}] Done call to bulkIndex()', bulkID)
-        // Make sure all objects were indexed
-        def items = res.items
-
-        if (items.size() != list.size()) {
-          log.error('[{}] Index not created or updated for at least one entry. Found {} results.  Expected {}',
-                    bulkID, items.size(), list.size())
-        }
-
-        def errorsFound = 0
-        for (item in items) {
-          def result = item.index.result
-          if (!(result == 'created' || result == 'updated')) {
-            // Some sort of error, so log it
-            log.error('[{}] Index on {} not created or updated.  Response = {}', bulkID, domainClass.simpleName, item)
-            errorsFound++
-          }
-        }
-        // Notify the SearchHelper that we finished.
-        SearchHelper.instance.finishedBulkRequest(errorsFound)
+        list = findRecords()
+      }
+      log.info('run: [{}] Starting call to bulkIndexAsync()', bulkID)
+      // The response is handled when the search engine responds, so this thread can work on the next request.
+      // The call may wait for an open request slot, so it is made outside of the transaction.
+      SearchHelper.instance.bulkIndexAsync(list) { Map res, Throwable failure ->
+        handleResponse(list, res, failure)
       }
     } catch (Throwable t) {
       if (log.traceEnabled) {
@@ -153,4 +138,46 @@ class SearchEngineRequestBulkIndex implements SearchEngineRequestInterface {
     }
   }
 
+  /**
+   * Handles the response from the bulk index request.  Logs any errors and notifies the SearchHelper that this
+   * request finished.  This is called on the search engine client's I/O thread, so no exceptions are thrown.
+   * The SearchHelper is always notified (with 1 error if the response can't be processed).
+   * @param list The records indexed.
+   * @param res The response from the search engine.  Null if the request failed.
+   * @param failure The exception.  Null if the request succeeded.
+   */
+  protected void handleResponse(List list, Map res, Throwable failure) {
+    def errorsFound = 1
+    try {
+      if (failure) {
+        log.error("[${bulkID}] Index request failed.", failure)
+        return
+      }
+      log.info('run: [{}] Done call to bulkIndexAsync()', bulkID)
+      // Make sure all objects were indexed
+      def items = res.items
+
+      if (items.size() != list.size()) {
+        log.error('[{}] Index not created or updated for at least one entry. Found {} results.  Expected {}',
+                  bulkID, items.size(), list.size())
+      }
+
+      def errors = 0
+      for (item in items) {
+        def result = item.index.result
+        if (!(result == 'created' || result == 'updated')) {
+          // Some sort of error, so log it
+          log.error('[{}] Index on {} not created or updated.  Response = {}', bulkID, domainClass.simpleName, item)
+          errors++
+        }
+      }
+      errorsFound = errors
+    } catch (Throwable t) {
+      log.error("[${bulkID}] Could not process the index response ${res}.", t)
+    } finally {
+      // Notify the SearchHelper that we finished.
+      SearchHelper.instance.finishedBulkRequest(errorsFound)
+    }
+  }
+
 }
@@ -12,10 +12,13 @@ import org.apache.http.HttpHost
 import org.simplemes.eframe.application.Holders
 import org.simplemes.eframe.archive.ArchiverFactory
 import org.simplemes.eframe.controller.ControllerUtils
+import org.simplemes.eframe.custom.ExtensibleFieldIndexHelper
+import org.simplemes.eframe.domain.DomainRegistry
 import org.simplemes.eframe.domain.DomainUtils
 import org.simplemes.eframe.domain.SQLUtils
 import org.simplemes.eframe.domain.annotation.DomainEntityHelper
 import org.simplemes.eframe.domain.annotation.DomainEntityInterface
+import org.simplemes.eframe.metrics.MetricsHelper
 import org.simplemes.eframe.misc.ArgumentUtils
 import org.simplemes.eframe.misc.NameUtils
 import org.simplemes.eframe.misc.NumberUtils
@@ -100,27 +103,27 @@ class SearchHelper {
   /**
    * The time the current/last bulk index request was finished.
    */
-  long bulkIndexEnd
+  volatile long bulkIndexEnd
 
   /**
    * The current status of the current/last bulk index request.
    */
-  String bulkIndexStatus = ''
+  volatile String bulkIndexStatus = ''
 
   /**
    * The number of bulk requests in the current/last bulk index request.
    */
-  int bulkIndexRequestCount = 0
+  volatile int bulkIndexRequestCount = 0
 
   /**
    * The number of bulk requests completed in the current/last bulk index request.
    */
-  int bulkIndexFinishedCount = 0
+  volatile int bulkIndexFinishedCount = 0
 
   /**
    * The number of bulk requests that failed during the current/last bulk index request.
    */
-  int bulkIndexErrorCount = 0
+  volatile int bulkIndexErrorCount = 0
 
   /**
    * The suffix to add to all indices created for archived elements.
@@ -251,6 +254,8 @@ class SearchHelper {
 
   /**
    * Performs a domain search via SQL with the query string.  This uses a key-based SQL search.
+   * A search on an indexed custom field (e.g. 'serial:ABC' or 'serial:AB*') uses the field's DB index instead.
+   * See {@link ExtensibleFieldIndexHelper#buildFilter(java.lang.Class, java.lang.String)}.
    *
    * <h3>params</h3>
    * The <code>params</code> parameter can contain these options:
@@ -274,14 +279,17 @@ class SearchHelper {
    */
   @CompileDynamic
   SearchResult domainSearchInDB(Class domainClass, String search, Map params = null) {
-    def start = System.currentTimeMillis()
+    def start = System.nanoTime()
     def searchResult = new SearchResult()
     searchResult.query = search
     def options = params?.options
 
+    // Check for a search on an indexed custom field (e.g. 'serial:ABC').
+    def customFieldFilter = ExtensibleFieldIndexHelper.instance.buildFilter(domainClass, search)
+
     // Figure out the primary key field for the search (if needed)
     def searchKey = ''
-    if (search) {
+    if (search && !customFieldFilter) {
       def keys = DomainUtils.instance.getKeyFields(domainClass)
       if (keys.size() > 0) {
         searchKey = DomainEntityHelper.instance.getColumnName(domainClass, keys[0])
@@ -293,56 +301,181 @@ class SearchHelper {
     // Figure out the criteria for paging/sorting
     def (int from, int max) = ControllerUtils.instance.calculateFromAndSizeForList(params)
     def (String sortField, String sortDir) = ControllerUtils.instance.calculateSortingForList(params)
+    def sortRequested = sortField as boolean
     sortField = sortField ?: DomainUtils.instance.getPrimaryKeyField(domainClass)
-    sortDir = sortDir ?: 'asc'
+    // The direction is added to the SQL as-is, so only the valid values are allowed.
+    sortDir = sortDir?.equalsIgnoreCase('desc') ? 'desc' : 'asc'
 
     String tableName = DomainEntityHelper.instance.getTableName(domainClass)
-    String where = search ? " WHERE $searchKey ILIKE ? " : ''
+    String where = ''
+    def whereArgs = []
+    def orderArgs = []
+    String rank = ''
+    // The full text search uses literal constants, which need the framework SQL path.
+    def frameworkSQL = false
+    if (customFieldFilter) {
+      where = " WHERE $customFieldFilter.where "
+      whereArgs << customFieldFilter.value
+    } else if (search) {
+      // The key search is already a partial match, so ignore the wildcard added by SearchService.adjustQuery().
+      search = search.endsWith('*') ? search.substring(0, search.length() - 1) : search
+      def searchDocument = buildDBSearchDocument(domainClass)
+      if (searchDocument) {
+        frameworkSQL = true
+        // Search the key with a partial match and the other fields as words.  Best matches first, if not sorted.
+        where = " WHERE ($searchKey ILIKE ? OR $searchDocument @@ plainto_tsquery('simple', ?)) "
+        whereArgs << "%${search}%".toString() << search
+        if (!sortRequested) {
+          rank = "ts_rank($searchDocument, plainto_tsquery('simple', ?)) DESC, "
+          orderArgs << search
+        }
+      } else {
+        where = " WHERE $searchKey ILIKE ? "
+        whereArgs << "%${search}%".toString()
+      }
+    }
 
     String orderBy = ''
     if (sortField) {
-      sortDir = sortDir ?: 'asc'
       sortField = DomainEntityHelper.instance.getColumnName(domainClass, sortField)
-      orderBy = "ORDER BY $sortField $sortDir"
+      orderBy = "ORDER BY $rank$sortField $sortDir"
     }
     String sql = "SELECT * FROM $tableName $where $orderBy"
 
-    int nArgs = 1 + (search ? 1 : 0)
-    Object[] args = new Object[nArgs]
-    args[0] = Pageable.from(from, max)
-    if (search) {
-      args[1] = "%${search}%".toString()
-    }
+    def args = ([Pageable.from(from, max)] + whereArgs + orderArgs) as Object[]
 
     log.debug("domainSearchInDB(): sql: {}, args: {}", sql, args)
-    def list = SQLUtils.instance.executeQuery(sql, domainClass, args)
+    def sqlUtils = SQLUtils.instance
+    def list = frameworkSQL ? sqlUtils.executeFrameworkQuery(sql, domainClass, args) : sqlUtils.executeQuery(sql, domainClass, args)
 
     if (params?.options?.postProcessor) {
       list.each { options?.postProcessor(it) }
     }
 
     // Find the total row count (depends on search criteria).
-    def total
-    if (search) {
-      // Build a count() query to find how many match.
-      def countList
-      String countSql = "SELECT COUNT(*) as count FROM $tableName $where "
-      countList = SQLUtils.instance.executeQuery(countSql, Map, "%${search}%".toString())
-      total = countList[0].count
-    } else {
-      total = domainClass.count()
-    }
+    def (long total, boolean estimated) = countInDB(tableName, where, whereArgs, frameworkSQL)
+    searchResult.totalHitsEstimated = estimated
     searchResult.totalHits = total as int
     for (hit in list) {
       searchResult.hits << new SearchHit(hit)
     }
 
-    def elapsed = System.currentTimeMillis() - start
+    def elapsed = MetricsHelper.instance.record(MetricsHelper.SEARCH_REQUESTS, start, 'action', 'domainSearchInDB')
     log.info('domainSearchInDB(): Elapsed time {}ms, found {} records of {}.  Domain = {}', elapsed, list.size(), total, domainClass)
 
     return searchResult
   }
 
+  /**
+   * Counts the records that match the database search.  Stops counting at the configured <code>dbCountLimit</code>,
+   * so a search that matches most of a large table does not scan the whole table just for the total.  Without a
+   * filter, the planner's row estimate is used for large tables.
+   * @param tableName The table searched.
+   * @param where The where clause (may be empty).
+   * @param whereArgs The arguments for the where clause.
+   * @param frameworkSQL If true, then the where clause has framework-generated literal constants
+   *                     (see {@link SQLUtils#executeFrameworkQuery(java.lang.String, java.lang.Class, java.lang.Object [ ])}).
+   * @return A tuple with the total and a flag that is true if the total is an estimate.
+   */
+  @CompileDynamic
+  protected Tuple2<Long, Boolean> countInDB(String tableName, String where, List whereArgs, boolean frameworkSQL = false) {
+    Integer limit = Holders.configuration.search.dbCountLimit
+    def sqlUtils = SQLUtils.instance
+    if (!limit) {
+      String countSql = "SELECT COUNT(*) as count FROM $tableName $where "
+      def countArgs = whereArgs as Object[]
+      def countList = frameworkSQL ? sqlUtils.executeFrameworkQuery(countSql, Map, countArgs) : sqlUtils.executeQuery(countSql, Map, countArgs)
+      return [countList[0].count as Long, false]
+    }
+
+    if (!where) {
+      // The row estimate is updated by the DB's analyze process.
+      String estimateSql = "SELECT reltuples::bigint as estimate FROM pg_class WHERE oid = to_regclass(?)"
+      def estimateList = sqlUtils.executeQuery(estimateSql, Map, tableName)
+      def estimate = estimateList ? estimateList[0].estimate as Long : 0L
+      if (estimate > limit) {
+        return [estimate, true]
+      }
+    }
+
+    // Count one more than the limit to tell if there are more matches.
+    String countSql = "SELECT COUNT(*) as count FROM (SELECT 1 FROM $tableName $where LIMIT ?) as matches"
+    def countArgs = (whereArgs + [limit + 1]) as Object[]
+    def countList = frameworkSQL ? sqlUtils.executeFrameworkQuery(countSql, Map, countArgs) : sqlUtils.executeQuery(countSql, Map, countArgs)
+    def count = countList[0].count as Long
+    if (count > limit) {
+      return [limit as Long, true]
+    }
+    return [count, false]
+  }
+
+  /**
+   * Builds the SQL full text document (tsvector) for the domain's <code>dbSearchFields</code>
+   * (see {@link SearchDomainSettings}).  The same expression is used by the search and the index.
+   * @param domainClass The domain class.
+   * @return The tsvector expression.  Null if the domain has no dbSearchFields.
+   */
+  @CompileDynamic
+  String buildDBSearchDocument(Class domainClass) {
+    def fields = getSearchDomainSettings(domainClass).dbSearchFields
+    if (!fields) {
+      return null
+    }
+    def columns = fields.collect { "coalesce(${DomainEntityHelper.instance.getColumnName(domainClass, it)}, '')" }
+    return "to_tsvector('simple', ${columns.join(" || ' ' || ")})"
+  }
+
+  /**
+   * Creates the database search indexes (if enabled).  This creates a trigram (pg_trgm) index on the key field
+   * for the partial match searches and a full text index for the domain's <code>dbSearchFields</code>.
+   * Called on startup.  Failures are logged and do not stop the startup.
+   */
+  @CompileDynamic
+  void createDBSearchIndexes() {
+    if (!Holders.configuration.search.dbSearchIndexes) {
+      return
+    }
+    def domains = DomainUtils.instance.allDomains
+    if (!domains) {
+      return
+    }
+    // Any domain can provide the transaction.
+    def trigramAvailable = executeIndexSQL(domains[0], 'CREATE EXTENSION IF NOT EXISTS pg_trgm')
+    for (domainClass in domains) {
+      def tableName = DomainEntityHelper.instance.getTableName(domainClass)
+      def key = DomainUtils.instance.getPrimaryKeyField(domainClass)
+      if (trigramAvailable && key && DomainUtils.instance.getFieldType(domainClass, key) == String) {
+        def columnName = DomainEntityHelper.instance.getColumnName(domainClass, key)
+        executeIndexSQL(domainClass, "CREATE INDEX IF NOT EXISTS ${tableName}_${columnName}_trgm_idx ON $tableName USING gin ($columnName gin_trgm_ops)")
+      }
+      def searchDocument = buildDBSearchDocument(domainClass)
+      if (searchDocument) {
+        executeIndexSQL(domainClass, "CREATE INDEX IF NOT EXISTS ${tableName}_search_idx ON $tableName USING gin ($searchDocument)")
+      }
+    }
+  }
+
+  /**
+   * Executes a single DB search index SQL statement in its own transaction.  The DDL is built from the domain
+   * metadata and has literal constants (e.g. the text search configuration), so it uses the framework SQL path.
+   * @param domainClass The domain used for the transaction.
+   * @param sql The SQL.
+   * @return True if it worked.
+   */
+  @CompileDynamic
+  protected boolean executeIndexSQL(Class domainClass, String sql) {
+    try {
+      domainClass.withTransaction {
+        SQLUtils.instance.executeFrameworkUpdate(sql)
+      }
+      log.info('executeIndexSQL(): {}', sql)
+      return true
+    } catch (Exception e) {
+      log.warn('executeIndexSQL(): Unable to execute {}. {}', sql, e.toString())
+      return false
+    }
+  }
+
   /**
    * Indexes a single object, waiting for completion.  This can be used directly, but is typically called by the request
    * queue logic.
@@ -379,6 +512,16 @@ class SearchHelper {
     return getSearchEngineClient().bulkIndex(objects, archiveReferenceList)
   }
 
+  /**
+   * Indexes the given objects without waiting for the search engine to finish.
+   * See {@link SearchEngineClient#bulkIndexAsync(java.util.List, java.util.List, groovy.lang.Closure)}.
+   * @param objects The domain objects to index.  Must be saved.
+   * @param callback The closure called when finished.  Passed the response Map (or null) and the exception (or null).
+   */
+  void bulkIndexAsync(List objects, Closure callback) {
+    getSearchEngineClient().bulkIndexAsync(objects, null, callback)
+  }
+
   /**
    * Starts the bulk index request.  This queues up the index requests needed.
    * The index delete is run synchronously, then the index request are queued after that.
@@ -511,10 +654,11 @@ class SearchHelper {
   }
 
   /**
-   * This is called when a bulk request is finished.
+   * This is called when a bulk request is finished.  Synchronized since the requests finish on the search engine
+   * client's I/O threads.
    * @param errorsFound The number of errors or exceptions found.
    */
-  void finishedBulkRequest(int errorsFound) {
+  synchronized void finishedBulkRequest(int errorsFound) {
     bulkIndexErrorCount += errorsFound
     bulkIndexFinishedCount++
     if (bulkIndexFinishedCount >= bulkIndexRequestCount) {
@@ -650,7 +794,7 @@ class SearchHelper {
     }
     def domainSimpleName = NameUtils.convertFromHyphenatedName(indexName)
 
-    return DomainUtils.instance.getAllDomains().find { it.simpleName.toLowerCase() == domainSimpleName.toLowerCase() }
+    return DomainRegistry.current.findBySimpleNameIgnoreCase(domainSimpleName)
 
   }
 
@@ -17,6 +17,11 @@ class SearchResult {
    */
   int totalHits
 
+  /**
+   * True if the totalHits is an estimate (or lower limit) from the database search.
+   */
+  boolean totalHitsEstimated = false
+
   /**
    * The time to process the search.
    */
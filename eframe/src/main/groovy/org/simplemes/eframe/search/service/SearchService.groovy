@@ -61,10 +61,12 @@ class SearchService {
    * @return The search result, containing the list of values found.
    */
   SearchResult domainSearch(Class domainClass, String query, Map params = null) {
+    // The adjusted query is also used by the DB search, so indexed custom field searches (e.g. 'serial:ABC') work.
+    def adjustedQuery = query ? adjustQuery(query, domainClass) : query
     if (query && SearchHelper.instance.isDomainSearchable(domainClass)) {
-      return SearchHelper.instance.domainSearch(domainClass, adjustQuery(query, domainClass), params)
+      return SearchHelper.instance.domainSearch(domainClass, adjustedQuery, params)
     }
-    return SearchHelper.instance.domainSearchInDB(domainClass, query, params)
+    return SearchHelper.instance.domainSearchInDB(domainClass, adjustedQuery, params)
   }
 
   /**
@@ -5,6 +5,7 @@
 package org.simplemes.eframe.security
 
 import edu.umd.cs.findbugs.annotations.Nullable
+import groovy.util.logging.Slf4j
 import io.micronaut.http.HttpRequest
 import io.micronaut.security.authentication.AuthenticationFailed
 import io.micronaut.security.authentication.AuthenticationFailureReason
@@ -12,17 +13,51 @@ import io.micronaut.security.authentication.AuthenticationProvider
 import io.micronaut.security.authentication.AuthenticationRequest
 import io.micronaut.security.authentication.AuthenticationResponse
 import io.micronaut.security.authentication.UserDetails
+import io.reactivex.BackpressureStrategy
 import io.reactivex.Flowable
+import io.reactivex.FlowableEmitter
+import io.reactivex.FlowableOnSubscribe
 import org.reactivestreams.Publisher
+import org.simplemes.eframe.application.Holders
 import org.simplemes.eframe.security.domain.User
 
 import javax.inject.Singleton
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.Semaphore
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
 
 /**
  * Defines the basic DB-based user authentication.
+ * <p>
+ * The authentication is performed on a dedicated, bounded thread pool so the slow password hash check and the
+ * database access do not block the HTTP request threads.  The users are read from the {@link UserAuthenticationCache}
+ * and the number of concurrent password hash checks is limited.  The limits are set in the
+ * <code>eframe.security</code> configuration.
+ *
+ * <h3>Logging</h3>
+ * The logging for this class that can be enabled:
+ * <ul>
+ *   <li><b>warn</b> - Logs when a login is rejected because the authentication queue is full. </li>
+ * </ul>
  */
+@Slf4j
 @Singleton
 class DBAuthenticationProvider implements AuthenticationProvider {
+
+  /**
+   * The thread pool used for the authentication requests.  Created when first needed.
+   */
+  protected static ThreadPoolExecutor executor
+
+  /**
+   * Limits the number of concurrent password hash checks.  Created when first needed.
+   */
+  protected static Semaphore hashPermits
+
   /**
    * Authenticates a user with the given request. If a successful authentication is
    * returned, the object must be an instance of {@link UserDetails}.
@@ -37,26 +72,113 @@ class DBAuthenticationProvider implements AuthenticationProvider {
    */
   @Override
   Publisher<AuthenticationResponse> authenticate(@Nullable HttpRequest<?> httpRequest, AuthenticationRequest<?, ?> authenticationRequest) {
-    def user = null
-    def roles = null
-    User.withTransaction {
-      user = User.findByUserNameAndEnabled(authenticationRequest.getIdentity() as String, true)
-      roles = user?.userRoles*.authority
-    }
+    def userName = authenticationRequest.getIdentity() as String
+    def secret = authenticationRequest.getSecret() as String
+    return Flowable.create({ FlowableEmitter<AuthenticationResponse> emitter ->
+      try {
+        getExecutor().execute {
+          try {
+            emitter.onNext(authenticate(userName, secret))
+            emitter.onComplete()
+          } catch (Throwable e) {
+            emitter.onError(e)
+          }
+        }
+      } catch (RejectedExecutionException ignored) {
+        log.warn('authenticate: Authentication queue is full.  Login rejected for {}', userName)
+        emitter.onNext(new AuthenticationFailed())
+        emitter.onComplete()
+      }
+    } as FlowableOnSubscribe<AuthenticationResponse>, BackpressureStrategy.BUFFER)
+  }
 
-    if (user?.passwordMatches(authenticationRequest.getSecret() as String)) {
+  /**
+   * Authenticates the given user synchronously.
+   * @param userName The user name.
+   * @param secret The password.
+   * @return The response (UserDetails or AuthenticationFailed).
+   */
+  protected AuthenticationResponse authenticate(String userName, String secret) {
+    def user = UserAuthenticationCache.instance.findEnabledUser(userName)
+    if (user && passwordMatches(secret, user.encodedPassword)) {
       if (user.accountExpired) {
-        return Flowable.just(new AuthenticationFailed(AuthenticationFailureReason.ACCOUNT_EXPIRED))
+        return new AuthenticationFailed(AuthenticationFailureReason.ACCOUNT_EXPIRED)
       }
       if (user.accountLocked) {
-        return Flowable.just(new AuthenticationFailed(AuthenticationFailureReason.ACCOUNT_LOCKED))
+        return new AuthenticationFailed(AuthenticationFailureReason.ACCOUNT_LOCKED)
       }
       if (user.passwordExpired) {
-        return Flowable.just(new AuthenticationFailed(AuthenticationFailureReason.PASSWORD_EXPIRED))
+        return new AuthenticationFailed(AuthenticationFailureReason.PASSWORD_EXPIRED)
       }
-      UserDetails userDetails = new UserDetails((String) authenticationRequest.getIdentity(), roles)
-      return Flowable.just(userDetails)
+      return new UserDetails(userName, user.roles)
+    }
+    return new AuthenticationFailed()
+  }
+
+  /**
+   * Checks the password, limiting the number of concurrent (expensive) hash checks.
+   * @param secret The password to check.
+   * @param encodedPassword The user's encoded password.
+   * @return True if it matches.
+   */
+  protected boolean passwordMatches(String secret, String encodedPassword) {
+    def permits = getHashPermits()
+    permits.acquire()
+    try {
+      return User.getPasswordEncoder().matches(secret, encodedPassword)
+    } finally {
+      permits.release()
+    }
+  }
+
+  /**
+   * Returns the authentication thread pool, creating it if needed.
+   * @return The executor.
+   */
+  protected static synchronized ThreadPoolExecutor getExecutor() {
+    if (executor == null) {
+      def security = Holders.configuration.security
+      def threads = Math.max(security.authThreadSize ?: 1, 1)
+      def queueSize = Math.max(security.authQueueSize ?: 1, 1)
+      executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                                        new ArrayBlockingQueue<Runnable>(queueSize), new AuthThreadFactory())
+      executor.allowCoreThreadTimeOut(true)
+    }
+    return executor
+  }
+
+  /**
+   * Returns the semaphore that limits the concurrent hash checks, creating it if needed.
+   * @return The semaphore.
+   */
+  protected static synchronized Semaphore getHashPermits() {
+    if (hashPermits == null) {
+      def max = Holders.configuration.security.authHashMax ?: Runtime.runtime.availableProcessors()
+      hashPermits = new Semaphore(Math.max(max, 1))
+    }
+    return hashPermits
+  }
+
+  /**
+   * Shuts down the thread pool and resets the limits.  They will be re-created from the current configuration
+   * when needed.  <b>Use only in tests.</b>
+   */
+  static synchronized void resetPool() {
+    executor?.shutdown()
+    executor = null
+    hashPermits = null
+  }
+
+  /**
+   * The thread factory for the pool.  The thread names start with 'auth-'.  These are daemon threads.
+   */
+  static class AuthThreadFactory implements ThreadFactory {
+    private final AtomicInteger threadNumber = new AtomicInteger(1)
+
+    Thread newThread(Runnable r) {
+      Thread t = new Thread(r, "auth-" + threadNumber.getAndIncrement())
+      t.setDaemon(true)
+      return t
     }
-    return Flowable.just(new AuthenticationFailed())
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,417 @@
+/*
+ * Copyright (c) Michael Houston 2020. All rights reserved.
+ */
+
+package org.simplemes.eframe.security
+
+import groovy.transform.ToString
+import groovy.util.logging.Slf4j
+import org.simplemes.eframe.application.Holders
+import org.simplemes.eframe.domain.SQLUtils
+import org.simplemes.eframe.security.domain.RefreshToken
+
+import java.sql.PreparedStatement
+import java.sql.ResultSet
+import java.sql.Timestamp
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+
+/**
+ * An in-memory cache of the refresh token states used by the JWT refresh logic.  This avoids a database read and
+ * write on every refresh of the access token.
+ * <p>
+ * The re-use counts are kept in the cached state and are written to the database later (write-behind) in batches
+ * by a background thread every <code>eframe.security.refreshFlushDelay</code> seconds.  The flush adds the pending
+ * counts to the database value and reads back the current count and enabled flag.  The pending counts are also
+ * written on shutdown (see {@link org.simplemes.eframe.application.ShutdownHandler}).  A flush delay of 0 writes
+ * each use immediately.
+ * <p>
+ * A cached token's enabled flag and count are re-read with a single key lookup (no write) when the token is used
+ * after 1/10 of the TTL since the last read.  This limits how long a token revoked or used up on another server can
+ * still be used, without a database read on every refresh.  Entries are fully re-loaded after
+ * <code>eframe.security.refreshCacheTTL</code> seconds.
+ * <p>
+ * State changes (replacement and revocation) are written immediately by the callers and the entry is removed from the
+ * cache.
+ *
+ * <h3>Logging</h3>
+ * The logging for this class that can be enabled:
+ * <ul>
+ *   <li><b>debug</b> - Logs the number of tokens written by each flush. </li>
+ *   <li><b>trace</b> - Logs each token load. </li>
+ * </ul>
+ */
+@Slf4j
+class RefreshTokenCache {
+
+  /**
+   * The number of token updates written in one transaction.
+   */
+  protected static final int FLUSH_BATCH_SIZE = 100
+
+  /**
+   * The SQL used to add the pending use count to the DB record and read back the current state.
+   */
+  protected static final String FLUSH_SQL = 'UPDATE refresh_token SET use_attempt_count = use_attempt_count + ?, ' +
+    'date_updated = ? WHERE uuid = ? RETURNING enabled, use_attempt_count'
+
+  /**
+   * The SQL used to read the current state of a cached token.
+   */
+  protected static final String STATE_SQL = 'SELECT enabled, use_attempt_count FROM refresh_token WHERE uuid = ?'
+
+  /**
+   * A singleton, used for simplified unit testing with a mocked class.
+   */
+  static RefreshTokenCache instance = new RefreshTokenCache()
+
+  /**
+   * The cached token states.  The key is the refresh token (UUID string).
+   */
+  protected Map<String, TokenState> cache = new ConcurrentHashMap<String, TokenState>()
+
+  /**
+   * The background flush thread.  Started when the first use count is added.
+   */
+  protected ScheduledExecutorService flusher
+
+  /**
+   * Finds the state for the given refresh token.  Reads the database if not cached or the cached value is old.
+   * A cached state is re-validated against the current database values after the re-validate interval.
+   * @param refreshToken The refresh token (UUID string).
+   * @return The state.  Null if not found.
+   */
+  TokenState find(String refreshToken) {
+    def ttl = getTTL()
+    def state = cache.get(refreshToken)
+    def now = System.currentTimeMillis()
+    if (state != null && (now - state.loadedTime) < ttl * 1000L) {
+      if ((now - state.validatedTime) < getValidateInterval()) {
+        return state
+      }
+      return validate(state) ? state : null
+    }
+    if (state != null) {
+      // Too old, so write any counts and re-read it.
+      remove(refreshToken)
+    }
+
+    log.trace('find: loading {}', refreshToken)
+    state = null
+    RefreshToken.withTransaction {
+      def record = RefreshToken.findByRefreshToken(refreshToken)
+      if (record) {
+        state = new TokenState(record)
+      }
+    }
+    if (state != null && ttl > 0) {
+      cache.put(refreshToken, state)
+    }
+    return state
+  }
+
+  /**
+   * Re-reads the enabled flag and use count for a cached token from the database.  This picks up the revocations
+   * and uses from other servers without waiting for the flush or TTL.
+   * @param state The cached token state.
+   * @return True if the record still exists.  The token is removed from the cache if it does not exist.
+   */
+  protected boolean validate(TokenState state) {
+    List<Map> rows = null
+    RefreshToken.withTransaction {
+      rows = SQLUtils.instance.executeQuery(STATE_SQL, Map, state.uuid)
+    }
+    def found = rows as boolean
+    if (found) {
+      state.refresh(rows[0].enabled as boolean, rows[0].use_attempt_count as int)
+    }
+    if (!found) {
+      cache.remove(state.refreshToken)
+    }
+    return found
+  }
+
+  /**
+   * Adds one to the token's use count, if the count is below the given limit.  The check and the increment are one
+   * atomic step, so concurrent refreshes can't go past the limit.  Written to the database later, unless caching or
+   * the background writes are disabled.
+   * @param state The token state.
+   * @param limit The use count limit.  No use is added if the count is already at (or above) this limit.
+   * @return True if the use was added.
+   */
+  boolean addUse(TokenState state, int limit) {
+    if (!state.addUse(limit)) {
+      return false
+    }
+    if (getTTL() > 0 && getFlushDelay() > 0 && cache.get(state.refreshToken).is(state)) {
+      startFlusher()
+    } else {
+      // Not cached or no background writes, so write it now.
+      flush([state])
+    }
+    return true
+  }
+
+  /**
+   * Removes the given token from the cache, after writing any pending use counts.  Used before the token record
+   * is changed by other logic.
+   * @param refreshToken The refresh token (UUID string).
+   */
+  void remove(String refreshToken) {
+    def state = cache.remove(refreshToken)
+    if (state?.pendingCount) {
+      flush([state])
+    }
+  }
+
+  /**
+   * Marks all of the cached tokens for the user as disabled.  The database records should be revoked by the caller.
+   * @param userName The user.
+   */
+  void disableUser(String userName) {
+    for (state in cache.values()) {
+      if (state.userName == userName) {
+        state.enabled = false
+      }
+    }
+  }
+
+  /**
+   * Writes all pending use counts to the database.  Normally called from the background thread.
+   */
+  void flush() {
+    flush(cache.values().findAll { it.pendingCount > 0 })
+  }
+
+  /**
+   * Writes the pending use counts for the given tokens to the database, in batches.
+   * Updates the cached state with the current DB values.
+   * @param states The token states to flush.
+   */
+  protected void flush(Collection<TokenState> states) {
+    def list = states as List<TokenState>
+    for (int i = 0; i < list.size(); i += FLUSH_BATCH_SIZE) {
+      def batch = list.subList(i, Math.min(i + FLUSH_BATCH_SIZE, list.size()))
+      RefreshToken.withTransaction {
+        def now = new Timestamp(System.currentTimeMillis())
+        for (state in batch) {
+          flushState(state, now)
+        }
+      }
+      log.debug('flush: wrote {} refresh token counts', batch.size())
+    }
+  }
+
+  /**
+   * Writes the pending use count for a single token and reads back the current DB values.
+   * Removes the token from the cache if the record no longer exists.
+   * @param state The token state.
+   * @param now The update time.
+   */
+  protected void flushState(TokenState state, Timestamp now) {
+    def delta = state.drain()
+    if (delta == 0) {
+      return
+    }
+    PreparedStatement ps = null
+    ResultSet rs = null
+    try {
+      ps = SQLUtils.instance.getPreparedStatement(FLUSH_SQL)
+      ps.setInt(1, delta)
+      ps.setTimestamp(2, now)
+      ps.setObject(3, state.uuid)
+      ps.execute()
+      rs = ps.getResultSet()
+      if (rs.next()) {
+        state.refresh(rs.getBoolean(1), rs.getInt(2))
+      } else {
+        // Record is gone.
+        cache.remove(state.refreshToken)
+      }
+    } finally {
+      try {
+        rs?.close()
+      } catch (Exception ignored) {
+      }
+      ps?.close()
+    }
+  }
+
+  /**
+   * Clears the cache, after writing any pending use counts.
+   */
+  void clear() {
+    flush()
+    cache.clear()
+  }
+
+  /**
+   * Starts the background flush thread, if needed.
+   */
+  protected synchronized void startFlusher() {
+    def delay = getFlushDelay()
+    if (flusher == null && delay > 0) {
+      flusher = Executors.newSingleThreadScheduledExecutor(new FlushThreadFactory())
+      flusher.scheduleWithFixedDelay({ flushInBackground() } as Runnable, delay, delay, TimeUnit.SECONDS)
+    }
+  }
+
+  /**
+   * Flushes the pending counts and logs any exceptions so the background thread keeps running.
+   */
+  protected void flushInBackground() {
+    try {
+      flush()
+    } catch (Throwable e) {
+      log.error('flushInBackground: Could not write refresh token counts.', e)
+    }
+  }
+
+  /**
+   * Stops the background flush thread and writes any pending counts.  Called on shutdown.
+   */
+  synchronized void shutdown() {
+    flusher?.shutdown()
+    flusher = null
+    flush()
+  }
+
+  /**
+   * Returns the number of seconds an unchanged token state is cached.
+   * @return The TTL (seconds).  0 means no caching.
+   */
+  protected int getTTL() {
+    return Holders.configuration.security.refreshCacheTTL ?: 0
+  }
+
+  /**
+   * Returns the time between the re-reads of a cached token's state.  This is 1/10 of the TTL.
+   * @return The interval (ms).
+   */
+  protected long getValidateInterval() {
+    return getTTL() * 100L
+  }
+
+  /**
+   * Returns the number of seconds between background writes.
+   * @return The delay (seconds).  0 means no background writes.
+   */
+  protected int getFlushDelay() {
+    return Holders.configuration.security.refreshFlushDelay ?: 0
+  }
+
+  /**
+   * The cached state of a single refresh token.
+   */
+  @ToString(includePackage = false, includeNames = true, excludes = ['refreshToken'])
+  static class TokenState {
+    final String refreshToken
+    final UUID uuid
+    final String userName
+    final Date expirationDate
+
+    /**
+     * The time (ms) the state was read from the database.
+     */
+    final long loadedTime = System.currentTimeMillis()
+
+    /**
+     * The time (ms) the state was last read from (or written to) the database.
+     */
+    volatile long validatedTime = loadedTime
+
+    /**
+     * True if the token can be used.
+     */
+    volatile boolean enabled
+
+    /**
+     * The use count stored in the database (including any count being written now).  Guarded by this state.
+     */
+    protected int base
+
+    /**
+     * The uses not written to the database yet.  Guarded by this state.
+     */
+    protected int pending
+
+    /**
+     * Copies the values from the given record.
+     * @param record The record.
+     */
+    TokenState(RefreshToken record) {
+      refreshToken = record.refreshToken
+      uuid = record.uuid
+      userName = record.userName
+      expirationDate = record.expirationDate
+      enabled = record.enabled
+      base = record.useAttemptCount ?: 0
+    }
+
+    /**
+     * Returns the total use count (DB and pending).
+     * @return The count.
+     */
+    synchronized int getUseAttemptCount() {
+      return base + pending
+    }
+
+    /**
+     * Returns the uses not written to the database yet.
+     * @return The count.
+     */
+    synchronized int getPendingCount() {
+      return pending
+    }
+
+    /**
+     * Adds one use, if the total use count is below the given limit.
+     * @param limit The use count limit.
+     * @return True if the use was added.
+     */
+    protected synchronized boolean addUse(int limit) {
+      if (base + pending >= limit) {
+        return false
+      }
+      pending++
+      return true
+    }
+
+    /**
+     * Moves the pending count to the base count.
+     * @return The pending count to write.
+     */
+    protected synchronized int drain() {
+      def delta = pending
+      pending = 0
+      base += delta
+      return delta
+    }
+
+    /**
+     * Sets the state from the current DB values.  The count is never lowered, since a concurrent flush may have
+     * moved the pending count to the base count before the DB was updated.
+     * @param enabled The DB enabled flag.
+     * @param useAttemptCount The DB use count.
+     */
+    protected synchronized void refresh(boolean enabled, int useAttemptCount) {
+      this.enabled = this.enabled && enabled
+      base = Math.max(base, useAttemptCount)
+      validatedTime = System.currentTimeMillis()
+    }
+  }
+
+  /**
+   * The thread factory for the background flush.  The thread name is 'refresh-token-flush'.  This is a daemon thread.
+   */
+  static class FlushThreadFactory implements ThreadFactory {
+    Thread newThread(Runnable r) {
+      Thread t = new Thread(r, 'refresh-token-flush')
+      t.setDaemon(true)
+      return t
+    }
+  }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) Michael Houston 2020. All rights reserved.
+ */
+
+package org.simplemes.eframe.security
+
+import groovy.util.logging.Slf4j
+import io.micronaut.security.annotation.Secured
+import io.micronaut.security.rules.SecurityRule
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * A pre-computed table of the controller-level security rules used by
+ * {@link SecurityUtils#checkRoleFromSubClass(java.lang.Object, java.security.Principal)}.
+ * Each controller's @Secured annotation is reduced once to a {@link ControllerRule}
+ * (anonymous, authenticated or a set of role bits).  The user's roles are converted to the same role bits once for
+ * each distinct set of roles.  This makes the normal role check a single bitwise AND.
+ * <p>
+ * The role names are assigned a bit as they are found in the @Secured annotations.  Only the first 64 roles use bits.
+ * Any others are checked by name.
+ *
+ * <h3>Logging</h3>
+ * The logging for this class that can be enabled:
+ * <ul>
+ *   <li><b>debug</b> - Logs the rules built on startup. </li>
+ * </ul>
+ */
+@Slf4j
+class SecurityRuleTable {
+
+  /**
+   * A singleton, used for simplified unit testing with a mocked class.
+   */
+  static SecurityRuleTable instance = new SecurityRuleTable()
+
+  /**
+   * The max number of bits in a role mask.
+   */
+  static final int MAX_ROLE_BITS = 64
+
+  /**
+   * The max number of distinct user role sets cached.  The cache is cleared when full.
+   */
+  static final int MAX_ROLE_SETS = 1000
+
+  /**
+   * The bit number assigned to each role name used in a @Secured annotation.
+   */
+  protected Map<String, Integer> roleBits = new ConcurrentHashMap<String, Integer>()
+
+  /**
+   * The rules, by controller class.
+   */
+  protected Map<Class, ControllerRule> rules = new ConcurrentHashMap<Class, ControllerRule>()
+
+  /**
+   * The role masks for each distinct set of user roles.
+   */
+  protected Map<List<String>, Long> roleMasks = new ConcurrentHashMap<List<String>, Long>()
+
+  /**
+   * Incremented each time a role is assigned a bit or the table is cleared.  Used to prevent a mask that was built
+   * before the change from staying in the cache after the change.
+   */
+  protected AtomicLong generation = new AtomicLong()
+
+  /**
+   * Builds the rules for the given controllers.  Called on startup so the requests do not need to build them.
+   * @param controllers The controller classes.
+   */
+  void build(Collection<Class> controllers) {
+    for (clazz in controllers) {
+      getRule(clazz)
+    }
+    log.debug('build: Built rules for {} controllers using {} roles', rules.size(), roleBits.size())
+  }
+
+  /**
+   * Finds the rule for the given controller class, building it if needed.
+   * @param clazz The controller class.
+   * @return The rule.
+   */
+  ControllerRule getRule(Class clazz) {
+    def rule = rules.get(clazz)
+    if (rule == null) {
+      rule = buildRule(clazz)
+      rules.put(clazz, rule)
+    }
+    return rule
+  }
+
+  /**
+   * Builds the rule for the given controller class from its @Secured annotation.
+   * @param clazz The controller class.
+   * @return The rule.
+   */
+  protected ControllerRule buildRule(Class clazz) {
+    def rule = new ControllerRule()
+    def annotation = clazz.getAnnotation(Secured) as Secured
+    if (!annotation) {
+      rule.secured = false
+      return rule
+    }
+
+    for (requiredRole in annotation.value()) {
+      if (requiredRole == SecurityRule.IS_ANONYMOUS) {
+        rule.anonymous = true
+      } else if (requiredRole == SecurityRule.IS_AUTHENTICATED) {
+        rule.authenticated = true
+      } else {
+        def bit = getRoleBit(requiredRole)
+        if (bit < MAX_ROLE_BITS) {
+          rule.roleMask |= (1L << bit)
+        } else {
+          rule.otherRoles << requiredRole
+        }
+      }
+    }
+    return rule
+  }
+
+  /**
+   * Returns the bit number for the given role, assigning the next one if needed.
+   * @param role The role name.
+   * @return The bit number.  Can be larger than the max bits in a mask.
+   */
+  protected synchronized int getRoleBit(String role) {
+    def bit = roleBits.get(role)
+    if (bit == null) {
+      bit = roleBits.size()
+      roleBits.put(role, bit)
+      // Any existing user masks were built without this role.
+      generation.incrementAndGet()
+      roleMasks.clear()
+    }
+    return bit
+  }
+
+  /**
+   * Returns the role mask for the given user roles.  Roles not used in any @Secured annotation are ignored.
+   * @param roles The user's roles.
+   * @return The mask.
+   */
+  long getRoleMask(List<String> roles) {
+    if (!roles) {
+      return 0L
+    }
+    def mask = roleMasks.get(roles)
+    if (mask == null) {
+      def startGeneration = generation.get()
+      mask = 0L
+      for (role in roles) {
+        def bit = roleBits.get(role)
+        if (bit != null && bit < MAX_ROLE_BITS) {
+          mask |= (1L << bit)
+        }
+      }
+      if (roleMasks.size() >= MAX_ROLE_SETS) {
+        roleMasks.clear()
+      }
+      // Copy the key since the caller's list might change.
+      def key = Collections.unmodifiableList(new ArrayList<String>(roles))
+      roleMasks.put(key, mask)
+      if (startGeneration != generation.get()) {
+        // A role was assigned a bit while the mask was built, so the mask might be missing the new bit.
+        roleMasks.remove(key, mask)
+      }
+    }
+    return mask
+  }
+
+  /**
+   * Clears the table.
+   */
+  void clear() {
+    generation.incrementAndGet()
+    rules.clear()
+    roleMasks.clear()
+  }
+
+  /**
+   * The security rule for a single controller class.
+   */
+  static class ControllerRule {
+    /**
+     * False if the controller has no @Secured annotation.
+     */
+    boolean secured = true
+
+    /**
+     * True if anonymous users are allowed.
+     */
+    boolean anonymous = false
+
+    /**
+     * True if any logged in user is allowed.
+     */
+    boolean authenticated = false
+
+    /**
+     * The role bits.  The user must have one of these roles.
+     */
+    long roleMask = 0L
+
+    /**
+     * The roles that have no bit in the mask.
+     */
+    List<String> otherRoles = []
+
+    /**
+     * Returns true if the given user roles match any of the roles in this rule.
+     * @param userMask The user's role mask (see {@link SecurityRuleTable#getRoleMask(java.util.List)}).
+     * @param roles The user's roles.
+     * @return True if a role matches.
+     */
+    boolean hasRole(long userMask, List<String> roles) {
+      if ((roleMask & userMask) != 0L) {
+        return true
+      }
+      for (role in otherRoles) {
+        if (roles.contains(role)) {
+          return true
+        }
+      }
+      return false
+    }
+  }
+
+}
@@ -3,8 +3,6 @@ package org.simplemes.eframe.security
 import groovy.util.logging.Slf4j
 import io.micronaut.http.HttpResponse
 import io.micronaut.http.HttpStatus
-import io.micronaut.security.annotation.Secured
-import io.micronaut.security.rules.SecurityRule
 import org.simplemes.eframe.application.Holders
 
 import java.security.Principal
@@ -84,42 +82,40 @@ class SecurityUtils {
    * <b>Note:</b> This should only be used by controller super-classes.
    * <p>
    * This works around an issue with the core Micronaut security not checking the sub-class's @Secured annotation
-   * for methods provided by the parent class.
+   * for methods provided by the parent class.  The rules are pre-computed by {@link SecurityRuleTable}.
    * @param controller The controller class.
    * @param principal The user principal.
    * @returns The forbidden response if the user does not have the correct role.
    */
   @SuppressWarnings("GroovyAssignabilityCheck")
   HttpResponse checkRoleFromSubClass(Object controller, Principal principal) {
-    def roles
-    if (principal?.hasProperty('attributes')) {
-      roles = principal?.attributes?.roles ?: []
-    } else {
-      // Some unit tests don't have the attributes that the AuthenticationJWTClaimsSetAdapter does.
-      roles = []
-    }
     def clazz = controller.class
-    def annotation = clazz.getAnnotation(Secured)
-    if (!annotation) {
+    def rule = SecurityRuleTable.instance.getRule(clazz)
+    if (!rule.secured) {
       log.error('checkRoleFromSubClass() No @Secured annotation on controller {}.  You must define security on all controllers.',
                 clazz)
       return HttpResponse.status(HttpStatus.FORBIDDEN)
     }
+    if (rule.anonymous) {
+      log.trace('checkRoleFromSubClass() Is Anonymous() found for controller {}', clazz)
+      return null
+    }
+    if (rule.authenticated && principal) {
+      log.trace('checkRoleFromSubClass() Is Authenticated() found for controller {}', clazz)
+      return null
+    }
 
-    for (requiredRole in annotation.value()) {
-      if (roles.contains(requiredRole)) {
-        // User has at least one role.
-        log.trace('checkRoleFromSubClass() Found role {} for controller {}', requiredRole, clazz)
-        return null
-      } else if (requiredRole == SecurityRule.IS_ANONYMOUS) {
-        log.trace('checkRoleFromSubClass() Is Anonymous() found for controller {}', clazz)
-        return null
-      } else if (requiredRole == SecurityRule.IS_AUTHENTICATED) {
-        if (principal) {
-          log.trace('checkRoleFromSubClass() Is Authenticated() found for controller {}', clazz)
-          return null
-        }
-      }
+    List<String> roles
+    if (principal?.hasProperty('attributes')) {
+      roles = principal?.attributes?.roles ?: []
+    } else {
+      // Some unit tests don't have the attributes that the AuthenticationJWTClaimsSetAdapter does.
+      roles = []
+    }
+    if (rule.hasRole(SecurityRuleTable.instance.getRoleMask(roles), roles)) {
+      // User has at least one role.
+      log.trace('checkRoleFromSubClass() Found role from {} for controller {}', roles, clazz)
+      return null
     }
 
     log.trace('checkRoleFromSubClass() No role found matching {} for controller {}', roles, clazz)
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) Michael Houston 2020. All rights reserved.
+ */
+
+package org.simplemes.eframe.security
+
+import groovy.transform.ToString
+import groovy.util.logging.Slf4j
+import org.simplemes.eframe.application.Holders
+import org.simplemes.eframe.security.domain.User
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * A short-lived cache of the enabled users and their roles, used by the login process.  This avoids the database
+ * reads when many users log in at the same time (e.g. shift changes).
+ * <p>
+ * The entries expire after the configured <code>eframe.security.userCacheTTL</code> seconds.  The whole cache is
+ * cleared when any User or Role is saved or a User is deleted.  Only enabled users are cached.
+ *
+ * <h3>Logging</h3>
+ * The logging for this class that can be enabled:
+ * <ul>
+ *   <li><b>debug</b> - Logs when the cache is cleared. </li>
+ *   <li><b>trace</b> - Logs each cache miss. </li>
+ * </ul>
+ */
+@Slf4j
+class UserAuthenticationCache {
+
+  /**
+   * The max number of users held in the cache.  When exceeded, the expired entries are removed.
+   */
+  protected static final int MAX_SIZE = 10000
+
+  /**
+   * A singleton, used for simplified unit testing with a mocked class.
+   */
+  static UserAuthenticationCache instance = new UserAuthenticationCache()
+
+  /**
+   * The cached users.  The key is the user name.
+   */
+  protected Map<String, CachedUser> cache = new ConcurrentHashMap<String, CachedUser>()
+
+  /**
+   * Incremented each time the cache is cleared.  Used to prevent a lookup that started before the clear from
+   * adding a stale entry after the clear.
+   */
+  protected AtomicLong generation = new AtomicLong()
+
+  /**
+   * Finds the given enabled user, from the cache if possible.  Reads the database if not cached or expired.
+   * @param userName The user name.
+   * @return The user details.  Null if the user is not found or not enabled.
+   */
+  CachedUser findEnabledUser(String userName) {
+    def now = System.currentTimeMillis()
+    def cachedUser = cache.get(userName)
+    if (cachedUser != null && cachedUser.expires > now) {
+      return cachedUser
+    }
+
+    log.trace('findEnabledUser: cache miss for {}', userName)
+    def startGeneration = generation.get()
+    cachedUser = readUser(userName, now)
+    def ttl = getTTL()
+    if (cachedUser != null && ttl > 0 && startGeneration == generation.get()) {
+      if (cache.size() >= MAX_SIZE) {
+        removeExpired(now)
+      }
+      cache.put(userName, cachedUser)
+    }
+
+    return cachedUser
+  }
+
+  /**
+   * Reads the user and roles from the database.
+   * @param userName The user name.
+   * @param now The current time (ms).
+   * @return The user details.  Null if not found or not enabled.
+   */
+  protected CachedUser readUser(String userName, long now) {
+    CachedUser res = null
+    User.withTransaction {
+      def user = User.findByUserNameAndEnabled(userName, true)
+      if (user) {
+        res = new CachedUser(user, now + getTTL() * 1000L)
+      }
+    }
+    return res
+  }
+
+  /**
+   * Removes any expired entries.  If the cache is still too big, then it is cleared.
+   * @param now The current time (ms).
+   */
+  protected void removeExpired(long now) {
+    cache.values().removeIf { it.expires <= now }
+    if (cache.size() >= MAX_SIZE) {
+      cache.clear()
+    }
+  }
+
+  /**
+   * Clears the cache.  Called when a User or Role is changed.
+   */
+  void clear() {
+    generation.incrementAndGet()
+    cache.clear()
+    log.debug('clear: Cleared user authentication cache')
+  }
+
+  /**
+   * Returns the number of seconds the users are cached.
+   * @return The TTL (seconds).  0 means no caching.
+   */
+  protected int getTTL() {
+    return Holders.configuration.security.userCacheTTL ?: 0
+  }
+
+  /**
+   * The immutable values needed to authenticate a user.
+   */
+  @ToString(includePackage = false, includeNames = true, excludes = ['encodedPassword'])
+  static class CachedUser {
+    final String userName
+    final String encodedPassword
+    final boolean accountExpired
+    final boolean accountLocked
+    final boolean passwordExpired
+    final List<String> roles
+
+    /**
+     * The time (ms) this entry expires.
+     */
+    final long expires
+
+    /**
+     * Copies the values from the given User.
+     * @param user The user.
+     * @param expires The time (ms) this entry expires.
+     */
+    CachedUser(User user, long expires) {
+      userName = user.userName
+      encodedPassword = user.encodedPassword
+      accountExpired = user.accountExpired
+      accountLocked = user.accountLocked
+      passwordExpired = user.passwordExpired
+      roles = Collections.unmodifiableList((user.userRoles*.authority ?: []) as List<String>)
+      this.expires = expires
+    }
+  }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) Michael Houston 2020. All rights reserved.
+ */
+
+package org.simplemes.eframe.security
+
+import org.simplemes.eframe.domain.BaseCacheEventListener
+import org.simplemes.eframe.domain.DomainSaveTransactionEvent
+import org.simplemes.eframe.security.domain.Role
+import org.simplemes.eframe.security.domain.User
+
+import javax.inject.Singleton
+
+/**
+ * Clears the {@link UserAuthenticationCache} when User and Role records change.
+ */
+@Singleton
+class UserCacheEventListener extends BaseCacheEventListener {
+
+  /**
+   * Clears the cache if the event is for a User or Role.
+   * @param event The event.
+   */
+  @Override
+  protected void invalidate(DomainSaveTransactionEvent event) {
+    def domainObject = event.domainObject
+    if (domainObject instanceof User || domainObject instanceof Role) {
+      UserAuthenticationCache.instance.clear()
+    }
+  }
+
+}
@@ -21,6 +21,7 @@ import org.simplemes.eframe.application.Holders
 import org.simplemes.eframe.domain.annotation.DomainEntity
 import org.simplemes.eframe.misc.FieldSizes
 import org.simplemes.eframe.security.PasswordEncoderService
+import org.simplemes.eframe.security.UserAuthenticationCache
 
 import javax.annotation.Nullable
 import javax.persistence.Column
@@ -132,6 +133,14 @@ class User {
     encodePassword()
   }
 
+  /**
+   * Called before the record is deleted.  Makes sure the deleted user can't login from the cached values.
+   */
+  @SuppressWarnings("unused")
+  def beforeDelete() {
+    UserAuthenticationCache.instance.clear()
+  }
+
   /**
    * A list of the records created by the initial data load.
    * Used only for test cleanup by {@link org.simplemes.eframe.test.BaseSpecification}.
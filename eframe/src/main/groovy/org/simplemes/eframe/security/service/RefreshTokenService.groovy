@@ -19,10 +19,11 @@ import io.reactivex.Flowable
 import org.reactivestreams.Publisher
 import org.simplemes.eframe.application.Holders
 import org.simplemes.eframe.date.DateUtils
+import org.simplemes.eframe.security.RefreshTokenCache
 import org.simplemes.eframe.security.ReplacementTokenResponse
 import org.simplemes.eframe.security.SecurityUtils
+import org.simplemes.eframe.security.UserAuthenticationCache
 import org.simplemes.eframe.security.domain.RefreshToken
-import org.simplemes.eframe.security.domain.User
 
 import javax.inject.Singleton
 import javax.transaction.Transactional
@@ -117,12 +118,14 @@ class RefreshTokenService implements RefreshTokenPersistence {
   /**
    * Replaces the given refresh token with a new single use token.
    * Will log an ERROR if a token is used 2+ times and revoke all of the user's current tokens.
+   * <p>
+   * The token state is read from the {@link RefreshTokenCache}.  A simple re-use of the refresh token only
+   * increments the cached use count (if below the limit).  The count is written to the database later.
    * @param currentEncodedToken The current token (encoded).
    * @param request The request.
    * @param forceReplace If true, then force the replacement,.
    * @return The token and user details.  Null if token is not valid or has already been used.
    */
-  @Transactional
   ReplacementTokenResponse replaceRefreshToken(String currentEncodedToken, HttpRequest<?> request, Boolean forceReplace) {
     def requestSource = getRequestSource(request)
     def opt = refreshTokenValidator.validate(currentEncodedToken)
@@ -132,38 +135,52 @@ class RefreshTokenService implements RefreshTokenPersistence {
       return null
     }
     def currentToken = opt.get()
-    def currentRefreshToken = RefreshToken.findByRefreshToken(currentToken)
-    if (currentRefreshToken) {
+    def tokenState = RefreshTokenCache.instance.find(currentToken)
+    if (tokenState) {
       def maxUsages = Holders.configuration.security.jwtRefreshUseMax ?: 100
+      def useAttemptCount = tokenState.useAttemptCount
       def failureReason = null
-      if (!currentRefreshToken.enabled) {
+      if (!tokenState.enabled) {
         failureReason = 'disabled token'
-      } else if (currentRefreshToken.useAttemptCount > maxUsages) {
-        failureReason = "useCount(${currentRefreshToken.useAttemptCount}) > $maxUsages"
+      } else if (useAttemptCount > maxUsages) {
+        failureReason = "useCount(${useAttemptCount}) > $maxUsages"
       }
-      if (currentRefreshToken.expirationDate < new Date()) {
+      if (tokenState.expirationDate < new Date()) {
         log.debug("replaceRefreshToken(): Refresh token {} expired for user '{}' from '{}'.",
-                  currentRefreshToken.uuid, currentRefreshToken.userName, requestSource)
+                  tokenState.uuid, tokenState.userName, requestSource)
         return null
       }
 
       if (failureReason) {
         // Not Ok to use, so fail with an error logged
-        currentRefreshToken.useAttemptCount++
-        currentRefreshToken.save()
-        revokeAllUserTokens(currentRefreshToken.userName)
+        RefreshToken.withTransaction {
+          def currentRefreshToken = findForUpdate(currentToken)
+          if (currentRefreshToken) {
+            currentRefreshToken.useAttemptCount++
+            currentRefreshToken.save()
+          }
+          revokeAllUserTokens(tokenState.userName)
+        }
         log.error("replaceRefreshToken(): Attempt to use refresh token on {} failed for user '{}' from '{}'. Reason: {}.  All refresh tokens revoked.",
-                  request.path, currentRefreshToken.userName, requestSource, failureReason)
+                  request.path, tokenState.userName, requestSource, failureReason)
 
         return null
       } else {
-        // Refresh token can be used or replaced.
-        if (currentRefreshToken.useAttemptCount >= (maxUsages - 1) || forceReplace) {
-          // Time to replace token with a new token.
-          return replaceBothToken(currentRefreshToken, requestSource)
-        } else {
+        // Refresh token can be used or replaced.  The re-use is counted only if the count is still below the
+        // limit, in one atomic step, so concurrent refreshes can't go past the limit.
+        if (!forceReplace && RefreshTokenCache.instance.addUse(tokenState, maxUsages - 1)) {
           // Re-use it again.
-          return replaceJwtToken(currentRefreshToken, requestSource)
+          return replaceJwtToken(tokenState, requestSource)
+        } else {
+          // Time to replace token with a new token.
+          ReplacementTokenResponse res = null
+          RefreshToken.withTransaction {
+            def currentRefreshToken = findForUpdate(currentToken)
+            if (currentRefreshToken) {
+              res = replaceBothToken(currentRefreshToken, requestSource)
+            }
+          }
+          return res
         }
       }
     }
@@ -171,6 +188,17 @@ class RefreshTokenService implements RefreshTokenPersistence {
     return null
   }
 
+  /**
+   * Finds the refresh token record for an update.  Writes any pending use counts and removes the token from the cache
+   * first.
+   * @param refreshToken The refresh token (UUID string).
+   * @return The record.  Can be null.
+   */
+  protected RefreshToken findForUpdate(String refreshToken) {
+    RefreshTokenCache.instance.remove(refreshToken)
+    return RefreshToken.findByRefreshToken(refreshToken)
+  }
+
   /**
    * Replaces the current token with a new one and return the correct cookies for the client.
    * @param currentRefreshToken Current token record.
@@ -209,20 +237,18 @@ class RefreshTokenService implements RefreshTokenPersistence {
 
   /**
    * Replaces the current JWT token (only) with a new one and return the correct cookie for the client.
-   * @param currentRefreshToken Current token record.
+   * The caller must add the use to the refresh token's use count (see {@link RefreshTokenCache#addUse}).
+   * @param tokenState Current token state.
    * @param requestSource The source of the request.
    * @return The replacement token.
    */
-  protected ReplacementTokenResponse replaceJwtToken(RefreshToken currentRefreshToken, String requestSource) {
-    currentRefreshToken.useAttemptCount++
-    currentRefreshToken.save()
-
-    def userDetails = getUserDetailsForUserName(currentRefreshToken.userName)
+  protected ReplacementTokenResponse replaceJwtToken(RefreshTokenCache.TokenState tokenState, String requestSource) {
+    def userDetails = getUserDetailsForUserName(tokenState.userName)
     if (!userDetails) {
-      log.debug("replaceRefreshToken(): No user details for user '{}' from '{}'.", currentRefreshToken.userName, requestSource)
+      log.debug("replaceRefreshToken(): No user details for user '{}' from '{}'.", tokenState.userName, requestSource)
       return null
     }
-    log.trace("replaceRefreshToken(): Issued new JWT token only for user '{}' from '{}'.", currentRefreshToken.userName, requestSource)
+    log.trace("replaceRefreshToken(): Issued new JWT token only for user '{}' from '{}'.", tokenState.userName, requestSource)
     return new ReplacementTokenResponse(userDetails: userDetails)
   }
 
@@ -232,8 +258,10 @@ class RefreshTokenService implements RefreshTokenPersistence {
    */
   @Transactional
   protected void revokeAllUserTokens(String userName) {
+    RefreshTokenCache.instance.disableUser(userName)
     def list = RefreshToken.findAllByUserName(userName)
     for (token in list) {
+      RefreshTokenCache.instance.remove(token.refreshToken)
       token.enabled = false
       token.save()
     }
@@ -276,18 +304,17 @@ class RefreshTokenService implements RefreshTokenPersistence {
   }
 
   /**
-   * Returns the user details for the given user name.
+   * Returns the user details for the given user name.  Uses the {@link UserAuthenticationCache}.
    * @param userName
    * @return The details.  Null if not found or not enabled.
    */
   protected UserDetails getUserDetailsForUserName(String userName) {
-    def user = User.findByUserName(userName)
-    if (user?.enabled) {
+    def user = UserAuthenticationCache.instance.findEnabledUser(userName)
+    if (user) {
       if (user.accountExpired || user.accountLocked) {
         return null
       }
-      def roles = user.userRoles*.authority
-      return new UserDetails(userName, roles)
+      return new UserDetails(userName, user.roles)
     }
     return null
   }
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) Michael Houston 2021. All rights reserved.
+ */
+
+package org.simplemes.eframe.system.controller
+
+import groovy.util.logging.Slf4j
+import io.micrometer.prometheus.PrometheusMeterRegistry
+import io.micronaut.http.HttpResponse
+import io.micronaut.http.HttpStatus
+import io.micronaut.http.MediaType
+import io.micronaut.http.annotation.Body
+import io.micronaut.http.annotation.Controller
+import io.micronaut.http.annotation.Get
+import io.micronaut.http.annotation.Post
+import io.micronaut.http.annotation.Produces
+import io.micronaut.security.annotation.Secured
+import org.simplemes.eframe.application.Holders
+import org.simplemes.eframe.controller.BaseController
+import org.simplemes.eframe.custom.ExtensibleFieldIndexHelper
+import org.simplemes.eframe.custom.domain.FieldExtension
+import org.simplemes.eframe.domain.DomainCache
+import org.simplemes.eframe.metrics.MetricsHelper
+import org.simplemes.eframe.web.ui.webix.freemarker.MarkerFragmentCache
+
+/**
+ * This controller provides access to the framework's performance metrics (timers, counters and cache statistics).
+ * Also allows the per-request trace spans to be enabled at runtime and shows the usage of the custom field indexes.
+ */
+@Slf4j
+@Secured("ADMIN")
+@Controller("/systemMetrics")
+class MetricsController extends BaseController {
+
+  /**
+   * Returns the current metrics summary as JSON.
+   * <h3>Results Map</h3>
+   * The elements in the JSON object include:
+   * <ul>
+   *   <li><b>metrics</b> - The timers, counters and gauges (see {@link MetricsHelper#getSummary()}). </li>
+   *   <li><b>domainCache</b> - The domain cache statistics. </li>
+   *   <li><b>markerCache</b> - The marker fragment cache statistics. </li>
+   *   <li><b>tracing</b> - True if the request trace spans are enabled. </li>
+   * </ul>
+   * @return The metrics.
+   */
+  @Get("/")
+  @Produces(MediaType.APPLICATION_JSON)
+  Map index() {
+    def metricsHelper = MetricsHelper.instance
+    return [metrics    : metricsHelper.summary,
+            domainCache: DomainCache.instance.statistics,
+            markerCache: MarkerFragmentCache.instance.renderStatistics,
+            tracing    : metricsHelper.tracing]
+  }
+
+  /**
+   * Returns all of the metrics in the Prometheus text format.
+   * @return The response.  Not found if the Prometheus registry is not enabled.
+   */
+  @Get("/prometheus")
+  @Produces(MediaType.TEXT_PLAIN)
+  HttpResponse prometheus() {
+    def registry = Holders.applicationContext.findBean(PrometheusMeterRegistry).orElse(null)
+    if (!registry) {
+      return HttpResponse.status(HttpStatus.NOT_FOUND)
+    }
+    return HttpResponse.ok(registry.scrape())
+  }
+
+  /**
+   * Returns the usage statistics for the DB indexes on the indexed custom fields.  Unused indexes still slow down
+   * the writes, so the field definition can be changed to not indexed.
+   * @return The usage (see {@link ExtensibleFieldIndexHelper#getIndexUsage()}).
+   */
+  @Get("/customFieldIndexes")
+  @Produces(MediaType.APPLICATION_JSON)
+  Map customFieldIndexes() {
+    List<Map> list = null
+    FieldExtension.withTransaction {
+      list = ExtensibleFieldIndexHelper.instance.indexUsage
+    }
+    return [indexes: list]
+  }
+
+  /**
+   * Enables/disables the per-request trace spans.  When enabled, the spans are returned in the
+   * <code>Server-Timing</code> response header and logged.
+   * @param body The body.  This contains a JSON object with one element: enabled (true/false).
+   * @return The new tracing state.
+   */
+  @Post("/trace")
+  Map trace(@Body String body) {
+    def params = Holders.objectMapper.readValue(body, Map)
+    def enabled = Boolean.valueOf(params?.enabled?.toString())
+    MetricsHelper.instance.tracing = enabled
+    log.info('trace(): Request tracing enabled = {}', enabled)
+    return [tracing: enabled]
+  }
+
+}
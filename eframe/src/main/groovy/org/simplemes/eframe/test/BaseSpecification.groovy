@@ -25,17 +25,21 @@ import org.simplemes.eframe.controller.ControllerUtils
 import org.simplemes.eframe.custom.annotation.ExtensionPointHelper
 import org.simplemes.eframe.custom.domain.FieldExtension
 import org.simplemes.eframe.custom.domain.FieldGUIExtension
+import org.simplemes.eframe.domain.DomainCache
 import org.simplemes.eframe.domain.DomainUtils
 import org.simplemes.eframe.domain.annotation.DomainEntityHelper
 import org.simplemes.eframe.i18n.GlobalUtils
 import org.simplemes.eframe.json.EFrameJacksonModule
+import org.simplemes.eframe.metrics.MetricsHelper
 import org.simplemes.eframe.misc.ArgumentUtils
 import org.simplemes.eframe.misc.LogUtils
 import org.simplemes.eframe.misc.TypeUtils
+import org.simplemes.eframe.preference.UserPreferenceStore
 import org.simplemes.eframe.preference.domain.UserPreference
 import org.simplemes.eframe.search.SearchHelper
 import org.simplemes.eframe.security.SecurityUtils
 import org.simplemes.eframe.security.domain.RefreshToken
+import org.simplemes.eframe.web.ui.webix.freemarker.MarkerFragmentCache
 
 import javax.sql.DataSource
 import java.sql.Connection
@@ -205,6 +209,10 @@ class BaseSpecification extends GebSpec {
     doAutoCleanups()
     // Make sure any cached applicationContext is re-read from the real Holder, if needed.
     DomainEntityHelper.instance.clearCaches()
+    MarkerFragmentCache.instance.clear()
+    DomainCache.instance.clear()
+    UserPreferenceStore.instance.clear()
+    MetricsHelper.instance.clear()
     if (embeddedServer) {
       FieldExtension.withTransaction {
         cleanupDomainRecords()
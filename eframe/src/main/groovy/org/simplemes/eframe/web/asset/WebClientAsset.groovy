@@ -5,20 +5,59 @@
 package org.simplemes.eframe.web.asset
 
 import groovy.transform.ToString
+import io.micronaut.http.MediaType
+import io.netty.buffer.ByteBuf
 
 /**
  * Defines a single asset for the client.
  * Provides fields to get the URL for the asset and create the input stream to read it.
+ * Small assets also hold the content (see {@link WebClientAssetCache}).
  */
-@ToString(includeNames = true, includePackage = false)
+@ToString(includeNames = true, includePackage = false, excludes = ['content', 'gzipContent', 'brotliContent'])
 class WebClientAsset {
   boolean gzipExists = false
   boolean exists = false
   URL resource
   URL gzipResource
+  URL brotliResource
   boolean isDirectory = false
   Long fileSize
   Long gzipFileSize
   Date lastModified
 
+  /**
+   * The resolved file name (may have .html added).
+   */
+  String path
+
+  /**
+   * True if this is an HTML page.  These pages are never cached by the client.
+   */
+  boolean html = false
+
+  /**
+   * The content type.  Null if not known.
+   */
+  MediaType contentType
+
+  /**
+   * The ETag (quoted), based on the content hash.
+   */
+  String etag
+
+  /**
+   * The cached content.  Null if the asset is too large to cache.
+   */
+  ByteBuf content
+
+  /**
+   * The cached gzip content.  Null if not available.
+   */
+  ByteBuf gzipContent
+
+  /**
+   * The cached brotli content.  Null if not available.
+   */
+  ByteBuf brotliContent
+
 }
@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) Michael Houston 2021. All rights reserved.
+ */
+
+package org.simplemes.eframe.web.asset
+
+import groovy.util.logging.Slf4j
+import io.micronaut.core.naming.NameUtils
+import io.micronaut.http.MediaType
+import io.netty.buffer.ByteBuf
+import io.netty.buffer.Unpooled
+import org.simplemes.eframe.application.Holders
+
+import java.nio.ByteBuffer
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.security.MessageDigest
+import java.util.concurrent.ConcurrentHashMap
+import java.util.jar.JarFile
+import java.util.zip.GZIPOutputStream
+
+/**
+ * Caches the client (vue-based) assets served by the {@link WebClientAssetService}.  The names of all client assets
+ * on the classpath are indexed on startup, so requests for unknown files never search the classpath.
+ * Each asset is read once on first use.  Assets up to {@link #MAX_CACHED_SIZE} are kept in memory (direct buffers),
+ * along with the compressed variants.  A gzip variant is created once for text assets that were not shipped with
+ * one.  Shipped brotli (.br) variants are used when the client accepts them.  The ETag is built from the content hash.
+ * <p>
+ * The cache is disabled in development mode since the client assets can be rebuilt while the server is running.
+ *
+ * <h3>Logging</h3>
+ * The logging for this class that can be enabled:
+ * <ul>
+ *   <li><b>debug</b> - Logs the index size and each asset loaded. </li>
+ * </ul>
+ */
+@Slf4j
+class WebClientAssetCache {
+
+  /**
+   * A singleton, used for simplified unit testing with a mocked class.
+   */
+  static WebClientAssetCache instance = new WebClientAssetCache()
+
+  /**
+   * The classpath folder that holds the client assets.
+   */
+  static final String ROOT_FOLDER = 'client'
+
+  /**
+   * The largest asset (bytes) kept in memory.  Larger assets are streamed from the classpath.
+   */
+  static final int MAX_CACHED_SIZE = 4 * 1024 * 1024
+
+  /**
+   * The smallest text asset (bytes) that is compressed.
+   */
+  static final int MIN_COMPRESS_SIZE = 500
+
+  /**
+   * The extensions of the assets that benefit from compression.
+   */
+  static final List<String> COMPRESSIBLE_EXTENSIONS = ['js', 'css', 'html', 'json', 'map', 'svg', 'txt', 'xml']
+
+  /**
+   * The class loader used to find the assets.
+   */
+  ClassLoader classLoader = WebClientAssetCache.classLoader
+
+  /**
+   * The names of all client assets on the classpath.  Null if not built or the index is not complete.
+   */
+  protected volatile Set<String> index
+
+  /**
+   * The assets read so far, by the requested file name.
+   */
+  protected final Map<String, WebClientAsset> assets = new ConcurrentHashMap<>()
+
+  /**
+   * Finds the given asset.  Uses the cached asset if possible.
+   * @param filename The file name (e.g. 'client/eframe/js/app.js').  Also checks for the file with '.html' added.
+   * @return The asset.  Null if not found.
+   */
+  WebClientAsset find(String filename) {
+    if (!filename || filename.contains('..')) {
+      return null
+    }
+    if (!isCacheEnabled()) {
+      return loadAsset(filename)
+    }
+
+    def asset = assets.get(filename)
+    if (asset) {
+      return asset
+    }
+    def names = getIndex()
+    if (names != null && !names.contains(filename) && !names.contains(filename + '.html')) {
+      return null
+    }
+    asset = loadAsset(filename)
+    if (asset) {
+      assets.put(filename, asset)
+    }
+    return asset
+  }
+
+  /**
+   * Returns true if the assets are cached.  The cache is not used in development mode.
+   * @return True if cached.
+   */
+  boolean isCacheEnabled() {
+    return !Holders.environmentDev
+  }
+
+  /**
+   * Returns the index of the asset names, building it if needed.
+   * @return The names.  Null if the index could not be built for all of the classpath entries.
+   */
+  Set<String> getIndex() {
+    if (index == null) {
+      buildIndex()
+    }
+    return index
+  }
+
+  /**
+   * Builds the index of all client asset names in the classpath.  Called on startup.
+   */
+  synchronized void buildIndex() {
+    def names = new HashSet<String>()
+    def complete = true
+    for (url in classLoader.getResources(ROOT_FOLDER)) {
+      try {
+        if (url.protocol == 'file') {
+          def root = Paths.get(url.toURI()).parent
+          Files.walk(Paths.get(url.toURI())).withCloseable { stream ->
+            stream.filter { Path path -> Files.isRegularFile(path) }.forEach { Path path ->
+              names << root.relativize(path).toString().replace(File.separatorChar, '/' as char)
+            }
+          }
+        } else if (url.protocol == 'jar') {
+          def connection = (JarURLConnection) url.openConnection()
+          connection.useCaches = false
+          new JarFile(new File(connection.jarFileURL.toURI())).withCloseable { jarFile ->
+            for (entry in jarFile.entries()) {
+              if (!entry.directory && entry.name.startsWith(ROOT_FOLDER + '/')) {
+                names << entry.name
+              }
+            }
+          }
+        } else {
+          complete = false
+        }
+      } catch (Exception e) {
+        log.warn('buildIndex(): Unable to index {}. {}', url, e.toString())
+        complete = false
+      }
+    }
+    index = complete ? names : null
+    log.debug('buildIndex(): Indexed {} client assets. Complete = {}', names.size(), complete)
+  }
+
+  /**
+   * Clears the cached assets and the index.
+   */
+  void clear() {
+    assets.clear()
+    index = null
+  }
+
+  /**
+   * Reads the asset and its compressed variants from the classpath.
+   * @param filename The file name.  Also checks for the file with '.html' added.
+   * @return The asset.  Null if not found.
+   */
+  protected WebClientAsset loadAsset(String filename) {
+    def resource = classLoader.getResource(filename)
+    def html = false
+    if (!resource) {
+      // Try as a .html case.
+      resource = classLoader.getResource(filename + '.html')
+      if (!resource) {
+        return null
+      }
+      filename += '.html'
+      html = true
+    }
+
+    def asset = new WebClientAsset(exists: true, resource: resource, path: filename, html: html)
+    asset.contentType = MediaType.forExtension(NameUtils.extension(filename)).orElse(null)
+    asset.gzipResource = classLoader.getResource(filename + '.gz')
+    asset.gzipExists = asset.gzipResource != null
+    asset.brotliResource = classLoader.getResource(filename + '.br')
+
+    def urlCon = resource.openConnection()
+    asset.lastModified = new Date(urlCon.lastModified)
+    asset.fileSize = urlCon.contentLengthLong
+    if (asset.fileSize < 0 || asset.fileSize > MAX_CACHED_SIZE) {
+      // Too big to keep in memory, so just hash the content.
+      def digest = MessageDigest.getInstance('SHA-256')
+      urlCon.inputStream.withCloseable { input ->
+        def buffer = new byte[8192]
+        int n
+        while ((n = input.read(buffer)) > 0) {
+          digest.update(buffer, 0, n)
+        }
+      }
+      asset.etag = buildETag(digest.digest())
+      log.debug('loadAsset(): Streamed asset {}', asset)
+      return asset
+    }
+
+    byte[] content = urlCon.inputStream.withCloseable { it.bytes }
+    asset.etag = buildETag(MessageDigest.getInstance('SHA-256').digest(content))
+    asset.content = toBuffer(content)
+    byte[] gzipContent = asset.gzipResource?.bytes
+    if (gzipContent == null && isCompressible(filename, content.length)) {
+      gzipContent = gzip(content)
+      if (gzipContent.length >= content.length) {
+        gzipContent = null
+      }
+    }
+    if (gzipContent != null) {
+      asset.gzipExists = true
+      asset.gzipFileSize = gzipContent.length
+      asset.gzipContent = toBuffer(gzipContent)
+    }
+    if (asset.brotliResource) {
+      asset.brotliContent = toBuffer(asset.brotliResource.bytes)
+    }
+    log.debug('loadAsset(): Cached asset {}', asset)
+    return asset
+  }
+
+  /**
+   * Determines if the given asset should be compressed.
+   * @param filename The file name.
+   * @param size The content size.
+   * @return True if compressible.
+   */
+  protected boolean isCompressible(String filename, int size) {
+    return size >= MIN_COMPRESS_SIZE && COMPRESSIBLE_EXTENSIONS.contains(NameUtils.extension(filename))
+  }
+
+  /**
+   * Compresses the given content.
+   * @param content The content.
+   * @return The gzip content.
+   */
+  protected byte[] gzip(byte[] content) {
+    def out = new ByteArrayOutputStream(content.length)
+    new GZIPOutputStream(out).withCloseable { it.write(content) }
+    return out.toByteArray()
+  }
+
+  /**
+   * Builds the ETag header value from the content hash.
+   * @param hash The hash.
+   * @return The ETag (quoted).
+   */
+  protected String buildETag(byte[] hash) {
+    return '"' + hash[0..15].collect { String.format('%02x', it) }.join() + '"'
+  }
+
+  /**
+   * Copies the content into a direct buffer that can be shared by all responses.  Each response uses a
+   * duplicate of this buffer, so the content is not copied per request.
+   * @param content The content.
+   * @return The buffer.  Never released.
+   */
+  protected ByteBuf toBuffer(byte[] content) {
+    def buffer = ByteBuffer.allocateDirect(content.length)
+    buffer.put(content)
+    buffer.flip()
+    return Unpooled.unreleasableBuffer(Unpooled.wrappedBuffer(buffer))
+  }
+
+}
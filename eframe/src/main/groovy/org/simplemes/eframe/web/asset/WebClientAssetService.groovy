@@ -5,7 +5,6 @@
 package org.simplemes.eframe.web.asset
 
 import groovy.util.logging.Slf4j
-import io.micronaut.core.naming.NameUtils
 import io.micronaut.http.HttpRequest
 import io.micronaut.http.HttpResponse
 import io.micronaut.http.MediaType
@@ -29,81 +28,83 @@ import javax.inject.Singleton
 class WebClientAssetService {
 
   /**
-   * Handles the request from the client for web assets.
-   * @param filename
-   * @param request
-   * @param chain
-   * @return
+   * Handles the request from the client for web assets.  The assets are found with the {@link WebClientAssetCache}.
+   * @param filename The asset file name (e.g. 'client/eframe/js/app.js').
+   * @param request The request.
+   * @param chain The filter chain.  Used when the asset is not found.
+   * @return The response.
    */
   Flowable<MutableHttpResponse<?>> handleAsset(String filename, HttpRequest<?> request, ServerFilterChain chain) {
-    // TODO: Add Tests.  Also add check on relative paths (/client/eframe/../../src
     log.trace("Looking for asset {}", filename)
-    def resource = WebClientAssetService.classLoader.getResource(filename)
-    def allowCache = true
-    if (!resource) {
-      // Try as a .html case.
-      resource = WebClientAssetService.classLoader.getResource(filename + '.html')
-      if (resource) {
-        // Never cache the HTML pages.  This forces a permission check each time.
-        filename += ".html"
-        allowCache = false
-      }
-    }
-    def gzipResource = WebClientAssetService.classLoader.getResource(filename + ".gz")
-    def webClientAsset = new WebClientAsset(exists: resource != null, resource: resource)
-    if (gzipResource) {
-      webClientAsset.gzipExists = true
-      webClientAsset.gzipResource = gzipResource
-    }
-    def assetFlowable = Flowable.fromCallable(() -> webClientAsset)
-    def etagHeader = filename
-    MediaType contentType = MediaType.forExtension(NameUtils.extension(filename)).orElseGet(() -> null)
-    MediaType requestContentType = contentType != null ? contentType : MediaType.forExtension("html").get()
-
-    String acceptEncoding = request.getHeaders().get("Accept-Encoding")
-    String encoding = request.getParameters().getFirst("encoding").orElseGet(() -> request.getCharacterEncoding().toString())
+    def assetFlowable = Flowable.fromCallable(() -> WebClientAssetCache.instance.find(filename) ?: new WebClientAsset())
 
     return assetFlowable.switchMap(asset -> {
       if (asset.exists) {
         String ifNoneMatch = request.getHeaders().get("If-None-Match")
-        if (ifNoneMatch != null && ifNoneMatch == etagHeader) {
+        if (!asset.html && ifNoneMatch != null && ifNoneMatch == asset.etag) {
           log.debug("{} not modified.  Details: {}", filename, asset)
-          return Flowable.fromCallable(() -> HttpResponse.notModified())
+          return Flowable.fromCallable(() -> HttpResponse.notModified().header("ETag", asset.etag))
         } else {
           log.debug("{} found.  Returning: {}", filename, asset)
-          return Flowable.fromCallable(() -> {
-            URLConnection urlCon
-            def gzipped = false
-            def gzipAllowed = acceptEncoding != null && acceptEncoding.contains("gzip") && asset.gzipExists
-            if (asset.gzipExists && gzipAllowed) {
-              urlCon = asset.getGzipResource().openConnection()
-              gzipped = true
-            } else {
-              urlCon = asset.getResource().openConnection()
-            }
-            StreamedFile streamedFile = new StreamedFile(urlCon.getInputStream(), contentType, urlCon.getLastModified(), urlCon.getContentLength())
-            MutableHttpResponse<StreamedFile> response = HttpResponse.ok(streamedFile)
-            if (gzipped) {
-              response.header("Content-Encoding", "gzip")
-            }
-            if (encoding) {
-              response.characterEncoding(encoding)
-            }
-            response.contentType(requestContentType)
-            //response.header("ETag", etagHeader)
-            response.header("Vary", "Accept-Encoding")
-            if (allowCache) {
-              response.header("Cache-Control", "public, max-age=31536000")
-            }
-            return response
-          })
+          return Flowable.fromCallable(() -> buildResponse(asset, request))
         }
-
       } else {
         return chain?.proceed(request)
       }
     })
   }
 
+  /**
+   * Builds the response for the given asset.  Uses the compressed content when the client accepts it.
+   * @param asset The asset.
+   * @param request The request.
+   * @return The response.
+   */
+  protected MutableHttpResponse<?> buildResponse(WebClientAsset asset, HttpRequest<?> request) {
+    String acceptEncoding = request.getHeaders().get("Accept-Encoding") ?: ''
+    String encoding = request.getParameters().getFirst("encoding").orElseGet(() -> request.getCharacterEncoding().toString())
+
+    MutableHttpResponse<?> response
+    String contentEncoding = null
+    if (asset.content != null) {
+      def content = asset.content
+      if (asset.brotliContent != null && acceptEncoding.contains("br")) {
+        content = asset.brotliContent
+        contentEncoding = "br"
+      } else if (asset.gzipContent != null && acceptEncoding.contains("gzip")) {
+        content = asset.gzipContent
+        contentEncoding = "gzip"
+      }
+      // The duplicate shares the cached memory, so the content is not copied for each request.
+      response = HttpResponse.ok(content.duplicate())
+      response.contentLength(content.readableBytes())
+    } else {
+      // Too big to cache, so stream it.
+      URLConnection urlCon
+      if (asset.gzipResource && acceptEncoding.contains("gzip")) {
+        urlCon = asset.gzipResource.openConnection()
+        contentEncoding = "gzip"
+      } else {
+        urlCon = asset.resource.openConnection()
+      }
+      response = HttpResponse.ok(new StreamedFile(urlCon.getInputStream(), asset.contentType, urlCon.getLastModified(), urlCon.getContentLength()))
+    }
+
+    if (contentEncoding) {
+      response.header("Content-Encoding", contentEncoding)
+    }
+    if (encoding) {
+      response.characterEncoding(encoding)
+    }
+    response.contentType(asset.contentType ?: MediaType.forExtension("html").get())
+    response.header("Vary", "Accept-Encoding")
+    if (!asset.html) {
+      // Never cache the HTML pages.  This forces a permission check each time.
+      response.header("ETag", asset.etag)
+      response.header("Cache-Control", "public, max-age=31536000")
+    }
+    return response
+  }
+
 
 }
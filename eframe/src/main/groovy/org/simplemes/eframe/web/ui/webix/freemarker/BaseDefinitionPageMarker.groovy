@@ -285,16 +285,21 @@ abstract class BaseDefinitionPageMarker extends BaseMarker {
   /**
    * Determines the effective fields to display.
    * Uses the fieldOrder and marker parameter override to calculate this.
+   * The field order is cached in the {@link MarkerFragmentCache} until the custom fields are changed.
    * @param clazz The object to get the fieldOrder from.
    * @param parameterName The name of the marker parameter to use for the field list override (<b>Default</b>: 'fields').
-   * @return The list of fields.
+   * @return The list of fields.  A new list that can be changed by the caller.
    */
   protected List<String> getFieldsToDisplay(Class clazz, String parameterName = 'fields') {
     def originalList = null
     if (parameters[parameterName]) {
       originalList = unwrap(parameters[parameterName]).tokenize(', ')
     }
-    return ExtensibleFieldHelper.instance.getEffectiveFieldOrder(clazz, originalList)
+    def key = "fieldOrder|${MarkerFragmentCache.instance.classKey(clazz)}|${originalList}"
+    def fieldOrder = (List<String>) MarkerFragmentCache.instance.findValue(key) {
+      return Collections.unmodifiableList(ExtensibleFieldHelper.instance.getEffectiveFieldOrder(clazz, originalList))
+    }
+    return new ArrayList<String>(fieldOrder)
   }
 
   /**
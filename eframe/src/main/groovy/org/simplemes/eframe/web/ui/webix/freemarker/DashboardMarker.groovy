@@ -6,18 +6,24 @@ package org.simplemes.eframe.web.ui.webix.freemarker
 
 import groovy.util.logging.Slf4j
 import org.simplemes.eframe.controller.ControllerUtils
+import org.simplemes.eframe.dashboard.DashboardDefinitionCache
 import org.simplemes.eframe.dashboard.domain.DashboardConfig
 import org.simplemes.eframe.dashboard.domain.DashboardPanel
 import org.simplemes.eframe.dashboard.domain.DashboardPanelSplitter
 import org.simplemes.eframe.exception.BusinessException
+import org.simplemes.eframe.i18n.GlobalUtils
 import org.simplemes.eframe.misc.JavascriptUtils
 import org.simplemes.eframe.misc.NameUtils
 import org.simplemes.eframe.preference.PreferenceHolder
 import org.simplemes.eframe.security.SecurityUtils
 
+import java.util.regex.Pattern
+
 /**
  * Provides the implementation of the &lt;ef:dashboard/&gt; tag.
  * This tag is used to display configurable dashboard with application and user-defined elements on a page.
+ * The dashboard definition and most of the generated script is cached in the {@link DashboardDefinitionCache}.
+ * Only the user's splitter sizes are added for each display.
  *
  * <pre>
  *
@@ -35,10 +41,15 @@ import org.simplemes.eframe.security.SecurityUtils
 class DashboardMarker extends BaseMarker {
   // TODO: DashboardE2EGUISpec
   /**
-   * The dashboard config being worked.
+   * The dashboard config being worked.  This is shared with other threads and must not be changed.
    */
   DashboardConfig dashboardConfig
 
+  /**
+   * The cached dashboard definition being worked.
+   */
+  DashboardDefinitionCache.DashboardDefinition definition
+
   /**
    * The basic HTML ID for the dashboard.  All splitters and panels use this prefix.
    */
@@ -59,6 +70,12 @@ class DashboardMarker extends BaseMarker {
    */
   public static final String ACTIVITY_PARAMETERS_NAME = '_DashboardActParams'
 
+  /**
+   * The pattern for the splitter size placeholders in the cached panel script.  The groups are the resizer ID,
+   * the vertical flag and the panel's default size.  The user's sizes replace these placeholders for each display.
+   */
+  protected static final Pattern SIZE_PLACEHOLDER = ~/@@size:(\w+):(\w+):([^@]*)@@/
+
   /**
    * The category needed for the dashboard editor.
    */
@@ -105,20 +122,22 @@ class DashboardMarker extends BaseMarker {
 
     if (dashboardName) {
       // Caller wants a specific dashboard
-      dashboardConfig = DashboardConfig.findByDashboard(dashboardName)
-      if (dashboardConfig == null) {
+      definition = DashboardDefinitionCache.instance.findByDashboard(dashboardName)
+      if (definition == null) {
         //error.121.message=No dashboard {0} found.
         throw new BusinessException(121, [dashboardName])
       } else {
+        dashboardConfig = definition.dashboardConfig
         categoryForEditor = dashboardConfig.category
       }
     } else {
       // Use the category
-      dashboardConfig = DashboardConfig.findByCategoryAndDefaultConfig(category, true)
-      if (dashboardConfig == null) {
+      definition = DashboardDefinitionCache.instance.findDefaultForCategory(category)
+      if (definition == null) {
         //error.112.message=No default dashboard for category {0} found.
         throw new BusinessException(112, [category])
       }
+      dashboardConfig = definition.dashboardConfig
       categoryForEditor = category
     }
     loadSplitterSizes()
@@ -132,7 +151,7 @@ class DashboardMarker extends BaseMarker {
 
 
   /**
-   * Writes the dashboard itself.
+   * Writes the dashboard itself.  Uses the cached script fragments and adds the user's splitter sizes.
    */
   void writeDashboard() {
     def rowsOrCols = 'rows'
@@ -142,12 +161,17 @@ class DashboardMarker extends BaseMarker {
       }
     }
 
+    def communicationVariables = getFragment('communicationVariables') { buildCommunicationVariables() }
+    def buttonDefinitions = getFragment("buttons_${GlobalUtils.getRequestLocale()}") { buildButtonDefinitions() }
+    def panelDefinitions = getFragment('panelDefinitions') { buildPanelDefinitions() }
+    def panels = resolvePanelSizes(getFragment('panels') { buildPanels() })
+
     def s = """
     <div id="$baseHTMLID"></div>
     <script>
-      ${buildCommunicationVariables()}
-      ${buildButtonDefinitions()}
-      ${buildPanelDefinitions()}
+      ${communicationVariables}
+      ${buttonDefinitions}
+      ${panelDefinitions}
       ${buildAdditionalActivityParameters()}
       eframe.loadDialogPreferences();
       dashboard.currentDashboard="${dashboardConfig.dashboard}";
@@ -156,7 +180,7 @@ class DashboardMarker extends BaseMarker {
       webix.ui({
         container: '$baseHTMLID',
         type: "space", margin: 4, id: "_$baseHTMLID", width: tk.pw("100%"), height: tk.ph("93%"), $rowsOrCols: [
-          ${buildPanels()}
+          ${panels}
         ]
       });
     </script>
@@ -164,6 +188,35 @@ class DashboardMarker extends BaseMarker {
     write(s)
   }
 
+  /**
+   * Finds the given script fragment from the cached definition, building it if needed.
+   * @param key The fragment key.
+   * @param builder The closure that builds the fragment.
+   * @return The fragment.
+   */
+  protected String getFragment(String key, Closure<String> builder) {
+    if (definition) {
+      return definition.getFragment(key, builder)
+    }
+    return builder.call()
+  }
+
+  /**
+   * Replaces the splitter size placeholders in the panel script with the user's sizes (or the panel's default size).
+   * @param panels The panel script with the placeholders.
+   * @return The panel script.
+   */
+  String resolvePanelSizes(String panels) {
+    return panels.replaceAll(SIZE_PLACEHOLDER) { String all, String resizeId, String vertical, String defaultSize ->
+      def panelSize = getReSizerPreference(resizeId) ?: defaultSize
+      if (!panelSize) {
+        return ''
+      }
+      def size = vertical == 'true' ? "width: tk.pw(" : "height: tk.ph("
+      return """,${size}"${panelSize}%")"""
+    }
+  }
+
   /**
    * Builds the Javascript variables used to communicate with activities (e.g. _A, _B, etc).
    * @return The script to create the variables.
@@ -212,12 +265,12 @@ class DashboardMarker extends BaseMarker {
     def sb = new StringBuilder()
     sb << """dashboard._defineButtons(["""
 
-    // Sort the buttons in the right order (by lowest sequence)
-    dashboardConfig.buttons.sort { it.sequence }
+    // Sort the buttons in the right order (by lowest sequence).  Uses a copy since the config may be shared.
+    def sortedButtons = dashboardConfig.buttons.sort(false) { it.sequence }
 
     // Group the buttons with the same labels together.
     List<Map> buttons = []
-    for (button in dashboardConfig.buttons) {
+    for (button in sortedButtons) {
       def buttonIndex = buttons.findIndexOf { b -> b.label == button.label }
       if (buttonIndex < 0) {
         // Need a new button entry.
@@ -282,7 +335,8 @@ class DashboardMarker extends BaseMarker {
   }
 
   /**
-   * Builds the panels needed for the dashboard.
+   * Builds the panels needed for the dashboard.  The splitter sizes are placeholders that are replaced by
+   * {@link #resolvePanelSizes(java.lang.String)}.
    */
   String buildPanels() {
     if (dashboardConfig?.dashboardPanels?.size() == 1) {
@@ -345,15 +399,8 @@ class DashboardMarker extends BaseMarker {
     def resizeHandlerText = ''
     if (topElement) {
       def resizeId = "resizer${panel.parentPanelIndex}"
-      def panelSize = getReSizerPreference(resizeId)
-      if (panelSize) {
-        def size = vertical ? "width: tk.pw(" : "height: tk.ph("
-        sizeText = """,${size}"${panelSize}%")"""
-      } else if (panel.defaultSize) {
-        // Try the default size for the panel
-        def size = vertical ? "width: tk.pw(" : "height: tk.ph("
-        sizeText = """,${size}"${panel.defaultSize}%")"""
-      }
+      // The user's size or the panel's default size is added later.
+      sizeText = "@@size:${resizeId}:${vertical ? 'true' : 'false'}:${panel.defaultSize ?: ''}@@"
       resizeHandlerText = """
             on: {
               onViewResize: function () {
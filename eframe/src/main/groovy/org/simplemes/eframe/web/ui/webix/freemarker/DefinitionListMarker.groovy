@@ -30,13 +30,19 @@ class DefinitionListMarker extends BaseMarker {
     def height = widgetContext?.parameters?.height ?: '74%'
     widgetContext?.parameters?.height = height
 
+    // The widget's text and script are cached for the user's list preferences.
+    def prescript = markerContext?.markerCoordinator?.prescript
+    def widget = new DefinitionListWidget(widgetContext)
+    def key = MarkerFragmentCache.instance.buildKey(this, widget.buildCacheKey())
+    def widgetText = MarkerFragmentCache.instance.render(this, key) { widget.build() }
+
     def src = """
     <div id="$id"></div>
     <script>
-      ${markerContext?.markerCoordinator?.prescript}
+      ${prescript}
       webix.ui({
         container: "$id", type: "space", margin: 4, id: "${id}Layout", rows: [
-        ${new DefinitionListWidget(widgetContext).build()}
+        ${widgetText}
       ]}) ;
       ${markerContext?.markerCoordinator?.postscript}
     </script>
@@ -14,7 +14,8 @@ import freemarker.template.TemplateModel
 
 /**
  * The main entry point for freemarker directives.  This is a thread-safe entry-point for the marker directives.
- * It will create a new marker instance for the given marker class and execute it.
+ * It will create a new marker instance for the given marker class and execute it.  The execution time is recorded
+ * in the {@link MarkerFragmentCache} statistics.
  */
 class FreemarkerDirective implements TemplateDirectiveModel {
 
@@ -38,8 +39,10 @@ class FreemarkerDirective implements TemplateDirectiveModel {
    */
   @Override
   void execute(Environment env, Map params, TemplateModel[] loopVars, TemplateDirectiveBody body) throws TemplateException, IOException {
+    def start = System.nanoTime()
     def o = markerClass.newInstance()
     o.setValues(env, params, loopVars, body)
     o.execute()
+    MarkerFragmentCache.instance.recordRender(markerClass, System.nanoTime() - start)
   }
 }
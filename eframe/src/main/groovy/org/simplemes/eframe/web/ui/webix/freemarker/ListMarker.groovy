@@ -22,7 +22,10 @@ class ListMarker extends BaseMarker {
     if (!(markerContext?.markerCoordinator?.formID)) {
       throw new MarkerException("efList must be enclosed in an efForm marker.", this)
     }
-    write(new ListWidget(buildWidgetContext()).build() + ",")
+    // The widget's text and script are cached for the user's list preferences.
+    def widget = new ListWidget(buildWidgetContext())
+    def key = MarkerFragmentCache.instance.buildKey(this, widget.buildCacheKey())
+    write(MarkerFragmentCache.instance.render(this, key) { widget.build() } + ",")
   }
 
 }
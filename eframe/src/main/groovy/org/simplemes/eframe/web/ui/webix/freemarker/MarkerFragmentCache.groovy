@@ -0,0 +1,336 @@
+/*
+ * Copyright (c) Michael Houston 2020. All rights reserved.
+ */
+
+package org.simplemes.eframe.web.ui.webix.freemarker
+
+import groovy.util.logging.Slf4j
+import org.simplemes.eframe.application.Holders
+import org.simplemes.eframe.i18n.GlobalUtils
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * A server-side cache of the page fragments generated by the markers and widgets.  The generated fragments
+ * (e.g. the list column definitions) only depend on the domain class, marker parameters, locale, the custom field
+ * definitions and the user's preferences.  This cache stores the generated text and any script added to the
+ * {@link MarkerCoordinator} while it was generated.  The script is added to the coordinator again on a cache hit.
+ * <p>
+ * The cache keys are built with {@link #buildKey(org.simplemes.eframe.web.ui.webix.freemarker.BaseMarker, java.lang.Object [ ])}.
+ * The caller must add any other values that change the generated text (e.g. the user's preferences) to the key.
+ * The whole cache is cleared when any custom field definition is changed on this server.  The listener is local to
+ * each server, so the whole cache is also cleared {@link #maxAge} milliseconds after the last clear.  This limits how
+ * long fragments built before a custom field change on another server are used.
+ * <p>
+ * When the cache is full, the least recently used entry is removed.
+ * <p>
+ * This also holds the render statistics (hits, misses and render time) for all markers.
+ *
+ * <h3>Logging</h3>
+ * The logging for this class that can be enabled:
+ * <ul>
+ *   <li><b>debug</b> - Logs when the cache is cleared. </li>
+ *   <li><b>trace</b> - Logs each cache miss. </li>
+ * </ul>
+ */
+@Slf4j
+class MarkerFragmentCache {
+
+  /**
+   * The maximum time (ms) the cached entries are used before the whole cache is cleared.
+   */
+  static long maxAge = 300000
+
+  /**
+   * A singleton, used for simplified unit testing with a mocked class.
+   */
+  static MarkerFragmentCache instance = new MarkerFragmentCache()
+
+  /**
+   * The cached fragments, in least recently used order.
+   */
+  protected Map<String, CachedFragment> fragments = buildCache()
+
+  /**
+   * The cached non-text values (e.g. field layouts), in least recently used order.
+   */
+  protected Map<String, Object> values = buildCache()
+
+  /**
+   * The render statistics, by marker name.
+   */
+  protected Map<String, MarkerStatistics> statistics = new ConcurrentHashMap<String, MarkerStatistics>()
+
+  /**
+   * Incremented each time the cache is cleared.  Used to prevent a render that started before the clear from
+   * adding a stale entry after the clear.
+   */
+  protected AtomicLong generation = new AtomicLong()
+
+  /**
+   * The time (ms) the cache was last cleared.
+   */
+  protected volatile long clearedTime = System.currentTimeMillis()
+
+  /**
+   * Builds a synchronized cache map that removes the least recently used entry when the cache is full.
+   * @return The map.
+   */
+  protected <V> Map<String, V> buildCache() {
+    def cache = this
+    return Collections.synchronizedMap(new LinkedHashMap<String, V>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+        return size() > cache.maxSize
+      }
+    })
+  }
+
+  /**
+   * Builds the basic cache key for the given marker.  This includes the marker class, the controller/domain class,
+   * the locale, the marker parameters and the page URI.
+   * @param marker The marker.
+   * @param others Any other values needed in the key.
+   * @return The key.
+   */
+  String buildKey(BaseMarker marker, Object... others) {
+    def sb = new StringBuilder()
+    sb << marker.getClass().name
+    sb << '|' << classKey(marker.controllerClass)
+    sb << '|' << classKey(marker.domainClass)
+    sb << '|' << GlobalUtils.getRequestLocale()
+    sb << '|' << marker.markerContext?.uri
+    sb << '|' << new TreeMap(marker.parameters ?: [:])
+    for (other in others) {
+      sb << '|' << other
+    }
+    return sb.toString()
+  }
+
+  /**
+   * Builds a key element for the given class.  Includes the identity since test classes can have the same name.
+   * @param clazz The class.
+   * @return The key element.
+   */
+  String classKey(Class clazz) {
+    if (clazz == null) {
+      return ''
+    }
+    return "${clazz.name}@${System.identityHashCode(clazz)}"
+  }
+
+  /**
+   * Finds the given fragment from the cache, rendering it if needed.  Any script added to the marker coordinator
+   * during the render is stored with the fragment and is added again on each cache hit.
+   * @param marker The marker the fragment is rendered for.
+   * @param key The cache key (see {@link #buildKey(org.simplemes.eframe.web.ui.webix.freemarker.BaseMarker, java.lang.Object [ ])}).
+   * @param renderer The closure that renders the fragment.
+   * @return The fragment.
+   */
+  String render(BaseMarker marker, String key, Closure renderer) {
+    def coordinator = marker.markerContext?.markerCoordinator
+    def markerStatistics = getStatistics(marker.getClass())
+    if (!enabled) {
+      return renderer.call()?.toString()
+    }
+    checkAge()
+
+    def fragment = fragments.get(key)
+    if (fragment != null) {
+      markerStatistics.hits.incrementAndGet()
+      fragment.addScripts(coordinator)
+      return fragment.text
+    }
+
+    log.trace('render: cache miss for {}', key)
+    markerStatistics.misses.incrementAndGet()
+    def startGeneration = generation.get()
+    def preLength = coordinator?.prescript?.length() ?: 0
+    def postLength = coordinator?.postscript?.length() ?: 0
+    def globalLength = coordinator?.globalPostscript?.length() ?: 0
+    def text = renderer.call()?.toString()
+
+    fragment = new CachedFragment(text: text,
+                                  prescript: coordinator?.prescript?.substring(preLength),
+                                  postscript: coordinator?.postscript?.substring(postLength),
+                                  globalPostscript: coordinator?.globalPostscript?.substring(globalLength))
+    put(fragments, key, fragment, startGeneration)
+    return text
+  }
+
+  /**
+   * Finds the given non-text value (e.g. a field layout) from the cache, building it if needed.  The value should
+   * be immutable since it is shared by all threads.
+   * @param key The cache key.
+   * @param builder The closure that builds the value.
+   * @return The value.
+   */
+  Object findValue(String key, Closure builder) {
+    if (!enabled) {
+      return builder.call()
+    }
+    checkAge()
+    def value = values.get(key)
+    if (value == null) {
+      def startGeneration = generation.get()
+      value = builder.call()
+      if (value != null) {
+        put(values, key, value, startGeneration)
+      }
+    }
+    return value
+  }
+
+  /**
+   * Clears the whole cache if it is older than the {@link #maxAge}.
+   */
+  protected void checkAge() {
+    if ((System.currentTimeMillis() - clearedTime) >= maxAge) {
+      clear()
+    }
+  }
+
+  /**
+   * Stores the value in the given cache, if the cache was not cleared during the build.  The least recently used
+   * entry is removed when the cache is full.
+   * @param cache The cache.
+   * @param key The key.
+   * @param value The value.
+   * @param startGeneration The generation when the build started.
+   */
+  protected void put(Map cache, String key, Object value, long startGeneration) {
+    if (startGeneration != generation.get()) {
+      return
+    }
+    cache.put(key, value)
+  }
+
+  /**
+   * Records the render time for a marker.  Called for each marker execution.
+   * @param markerClass The marker class.
+   * @param nanos The elapsed time (nanoseconds).
+   */
+  void recordRender(Class markerClass, long nanos) {
+    def markerStatistics = getStatistics(markerClass)
+    markerStatistics.renderCount.incrementAndGet()
+    markerStatistics.renderNanos.addAndGet(nanos)
+  }
+
+  /**
+   * Gets the statistics holder for the given marker class.
+   * @param markerClass The marker class.
+   * @return The statistics.
+   */
+  protected MarkerStatistics getStatistics(Class markerClass) {
+    def name = markerClass.simpleName
+    def res = statistics.get(name)
+    if (res == null) {
+      res = new MarkerStatistics()
+      def existing = statistics.putIfAbsent(name, res)
+      res = existing ?: res
+    }
+    return res
+  }
+
+  /**
+   * Returns the current render statistics for all markers.
+   * <h3>Results Map</h3>
+   * The elements in the list of Maps includes:
+   * <ul>
+   *   <li><b>marker</b> - The marker class (simple name). </li>
+   *   <li><b>hits</b> - The number of fragment cache hits. </li>
+   *   <li><b>misses</b> - The number of fragment cache misses. </li>
+   *   <li><b>hitRate</b> - The hit rate (percent). </li>
+   *   <li><b>renderCount</b> - The number of times the marker was executed. </li>
+   *   <li><b>averageRenderTime</b> - The average marker execution time (ms). </li>
+   * </ul>
+   * @return The statistics, sorted by marker.
+   */
+  List<Map<String, Object>> getRenderStatistics() {
+    List<Map<String, Object>> res = []
+    for (name in statistics.keySet().sort()) {
+      def markerStatistics = statistics.get(name)
+      long hits = markerStatistics.hits.get()
+      long misses = markerStatistics.misses.get()
+      long count = markerStatistics.renderCount.get()
+      def hitRate = (hits + misses) ? (hits * 100.0 / (hits + misses)) : 0.0
+      def average = count ? (markerStatistics.renderNanos.get() / count / 1000000.0) : 0.0
+      res << [marker           : name, hits: hits, misses: misses, hitRate: hitRate, renderCount: count,
+              averageRenderTime: average] as Map<String, Object>
+    }
+    return res
+  }
+
+  /**
+   * Clears the cache.  Called when a custom field definition is changed.
+   */
+  void clear() {
+    generation.incrementAndGet()
+    clearedTime = System.currentTimeMillis()
+    fragments.clear()
+    values.clear()
+    log.debug('clear: Cleared marker fragment cache')
+  }
+
+  /**
+   * Clears the render statistics.
+   */
+  void clearStatistics() {
+    statistics.clear()
+  }
+
+  /**
+   * Returns true if the cache is enabled.  Never enabled in the development environment.
+   * @return True if enabled.
+   */
+  boolean isEnabled() {
+    return maxSize > 0 && !Holders.environmentDev
+  }
+
+  /**
+   * Returns the max number of entries in the cache.
+   * @return The size.
+   */
+  protected int getMaxSize() {
+    return Holders.configuration.markerCacheSize ?: 0
+  }
+
+  /**
+   * A single cached fragment with the script it added to the marker coordinator.
+   */
+  static class CachedFragment {
+    String text
+    String prescript
+    String postscript
+    String globalPostscript
+
+    /**
+     * Adds the cached script to the given coordinator.
+     * @param coordinator The coordinator.  Can be null.
+     */
+    void addScripts(MarkerCoordinator coordinator) {
+      if (coordinator) {
+        if (prescript) {
+          coordinator.addPrescript(prescript)
+        }
+        if (postscript) {
+          coordinator.addPostscript(postscript)
+        }
+        if (globalPostscript) {
+          coordinator.addGlobalPostscript(globalPostscript)
+        }
+      }
+    }
+  }
+
+  /**
+   * The render statistics for a single marker class.
+   */
+  static class MarkerStatistics {
+    final AtomicLong hits = new AtomicLong()
+    final AtomicLong misses = new AtomicLong()
+    final AtomicLong renderCount = new AtomicLong()
+    final AtomicLong renderNanos = new AtomicLong()
+  }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) Michael Houston 2020. All rights reserved.
+ */
+
+package org.simplemes.eframe.web.ui.webix.freemarker
+
+import org.simplemes.eframe.custom.domain.FieldExtension
+import org.simplemes.eframe.custom.domain.FieldGUIExtension
+import org.simplemes.eframe.custom.domain.FlexField
+import org.simplemes.eframe.custom.domain.FlexType
+import org.simplemes.eframe.domain.BaseCacheEventListener
+import org.simplemes.eframe.domain.DomainSaveTransactionEvent
+
+import javax.inject.Singleton
+
+/**
+ * Clears the {@link MarkerFragmentCache} when the custom field definition records change.
+ */
+@Singleton
+class MarkerFragmentCacheEventListener extends BaseCacheEventListener {
+
+  /**
+   * Clears the cache if the event is for a custom field definition.
+   * @param event The event.
+   */
+  @Override
+  protected void invalidate(DomainSaveTransactionEvent event) {
+    def domainObject = event.domainObject
+    if (domainObject instanceof FieldExtension || domainObject instanceof FieldGUIExtension ||
+      domainObject instanceof FlexType || domainObject instanceof FlexField) {
+      MarkerFragmentCache.instance.clear()
+    }
+  }
+
+}
@@ -74,6 +74,15 @@ class ListWidget extends BaseWidget {
     actionButtons = findActionButtons()
   }
 
+  /**
+   * Builds the part of the fragment cache key that depends on this widget's state.  This includes the ID,
+   * the user's list preferences and the HTTP request parameters.
+   * @return The key.
+   */
+  String buildCacheKey() {
+    return "$id|${preference?.settings}|${requestParameters ? new TreeMap(requestParameters) : ''}"
+  }
+
   /**
    * Builds the string for the UI elements.
    * @return The UI page text.
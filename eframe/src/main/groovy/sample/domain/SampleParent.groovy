@@ -105,9 +105,9 @@ class SampleParent implements SampleParentInterface {
   static allowInitialDataLoad = false
 
   /**
-   * Searchable domain.
+   * Searchable domain.  The title and notes are also searched by the database search.
    */
-  static searchable = true
+  static searchable = [dbSearchFields: ['title', 'notes']]
 
 
   /**
@@ -0,0 +1,414 @@
+/*
+ * Copyright (c) Michael Houston 2020. All rights reserved.
+ */
+
+package org.simplemes.eframe.domain;
+
+import org.simplemes.eframe.domain.annotation.DomainEntityHelper;
+import org.simplemes.eframe.domain.annotation.DomainEntityInterface;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An opt-in, second-level cache for read-mostly domain records (e.g. master data such as Products).
+ * Only the foreign references loaded by {@link DomainEntityHelper#lazyReferenceLoad} use this cache.
+ * A domain enables this with a static field:
+ * <pre>
+ *   static cache = [ttl: 600, maxSize: 1000]
+ * </pre>
+ * The <code>ttl</code> is the time (seconds) a record stays in the cache (0 means no expiration).
+ * The <code>maxSize</code> is the max number of records cached for the domain.  The least recently used record
+ * is removed when this size is exceeded.  <code>static cache = true</code> uses the default values.
+ * <p>
+ * The cached records are shared between threads and must be treated as read-only.  A record is removed from
+ * the cache when it is saved or deleted (see {@link DomainCacheEventListener}).  The child lists and reference lists
+ * are loaded when the record is added to the cache and are stored as immutable lists.  The foreign references in
+ * a cached record are not stored in the record when loaded.  This means the referenced records (e.g. a sequence that is
+ * updated often) are read each time, or found in their own domain's cache.
+ *
+ * <h3>Logging</h3>
+ * The logging for this class that can be enabled:
+ * <ul>
+ *   <li><b>debug</b> - Logs the cache settings for each domain. </li>
+ *   <li><b>trace</b> - Logs each cache miss. </li>
+ * </ul>
+ */
+public class DomainCache {
+
+  /**
+   * The logger.
+   */
+  private static final Logger log = LoggerFactory.getLogger(DomainCache.class);
+
+  /**
+   * A singleton, used for simplified unit testing with a mocked class.
+   */
+  protected static DomainCache instance = new DomainCache();
+
+  /**
+   * The name of the static field in the domain class that enables the cache.
+   */
+  public static final String CACHE_FIELD_NAME = "cache";
+
+  /**
+   * The name of the element in the domain settings holder that flags the record as shared in the cache.
+   */
+  public static final String SETTINGS_SHARED = "sharedInCache";
+
+  /**
+   * The default time (seconds) a record stays in the cache.
+   */
+  public static final int DEFAULT_TTL = 600;
+
+  /**
+   * The default max number of records cached for a single domain.
+   */
+  public static final int DEFAULT_MAX_SIZE = 1000;
+
+  /**
+   * The cache regions, by domain class.  Empty if the domain is not cached.
+   */
+  private final Map<Class<?>, Optional<Region>> regions = new ConcurrentHashMap<>();
+
+  /**
+   * Finds the given record in the cache.
+   *
+   * @param domainClass The domain class.
+   * @param uuid        The record's UUID.
+   * @return The cached record.  Null if not cached or the domain is not cached.
+   */
+  public Object get(Class<?> domainClass, UUID uuid) {
+    Region region = getRegion(domainClass);
+    if (region == null || uuid == null) {
+      return null;
+    }
+    Object record = region.get(uuid, System.currentTimeMillis());
+    if (record == null) {
+      log.trace("get: cache miss for {} {}", domainClass.getSimpleName(), uuid);
+    }
+    return record;
+  }
+
+  /**
+   * Returns the current generation for the domain's cache.  The caller must get this before reading the record,
+   * so a record read before a save can't be added to the cache after the save.
+   *
+   * @param domainClass The domain class.
+   * @return The generation.  Changes when any record in the domain is removed from the cache.
+   */
+  public long getGeneration(Class<?> domainClass) {
+    Region region = getRegion(domainClass);
+    return region != null ? region.generation.get() : 0;
+  }
+
+  /**
+   * Adds the given record to the cache, if the domain is cached.
+   *
+   * The record's child lists and reference lists are loaded first.
+   *
+   * @param record     The record.  Ignored if null.
+   * @param generation The generation from {@link #getGeneration(Class)} before the record was read.
+   */
+  public void put(DomainEntityInterface record, long generation) throws Throwable {
+    if (record == null || record.getUuid() == null) {
+      return;
+    }
+    Region region = getRegion(record.getClass());
+    if (region != null) {
+      DomainEntityHelper.getInstance().loadListsForCache(record);
+      shareSettings(record);
+      region.put(record.getUuid(), record, generation, System.currentTimeMillis());
+    }
+  }
+
+  /**
+   * Removes the given record from the cache.  Called when the record is saved or deleted.
+   *
+   * @param record The record.
+   */
+  public void remove(DomainEntityInterface record) {
+    if (record == null) {
+      return;
+    }
+    Region region = getRegion(record.getClass());
+    if (region != null) {
+      region.remove(record.getUuid());
+    }
+  }
+
+  /**
+   * Determines if the given record is a shared record from the cache.
+   *
+   * @param record The record.
+   * @return True if the record is shared.
+   */
+  public boolean isShared(DomainEntityInterface record) {
+    Map<String, Object> settings = getSettings(record);
+    return settings != null && Boolean.TRUE.equals(settings.get(SETTINGS_SHARED));
+  }
+
+  /**
+   * Returns the statistics for each cached domain.
+   *
+   * @return The statistics (domain, size, hits, misses, hitRate and evictions), sorted by domain name.
+   */
+  public List<Map<String, Object>> getStatistics() {
+    List<Map<String, Object>> res = new ArrayList<>();
+    for (Map.Entry<Class<?>, Optional<Region>> entry : regions.entrySet()) {
+      if (entry.getValue().isPresent()) {
+        Region region = entry.getValue().get();
+        long hits = region.hits.get();
+        long misses = region.misses.get();
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("domain", entry.getKey().getSimpleName());
+        map.put("size", region.size());
+        map.put("hits", hits);
+        map.put("misses", misses);
+        map.put("hitRate", (hits + misses) > 0 ? (hits * 100.0 / (hits + misses)) : 0.0);
+        map.put("evictions", region.evictions.get());
+        res.add(map);
+      }
+    }
+    res.sort(Comparator.comparing(m -> (String) m.get("domain")));
+    return res;
+  }
+
+  /**
+   * Clears all cached records and the cache settings.
+   */
+  public void clear() {
+    for (Optional<Region> region : regions.values()) {
+      region.ifPresent(Region::clear);
+    }
+    regions.clear();
+  }
+
+  /**
+   * Determines if the given domain's records are cached.
+   *
+   * @param domainClass The domain class.
+   * @return True if cached.
+   */
+  public boolean isCached(Class<?> domainClass) {
+    return getRegion(domainClass) != null;
+  }
+
+  /**
+   * Finds the cache region for the given domain.  The settings are read from the domain once.
+   *
+   * @param domainClass The domain class.
+   * @return The region.  Null if the domain is not cached.
+   */
+  protected Region getRegion(Class<?> domainClass) {
+    Optional<Region> region = regions.get(domainClass);
+    if (region == null) {
+      region = Optional.ofNullable(buildRegion(domainClass));
+      regions.put(domainClass, region);
+    }
+    return region.orElse(null);
+  }
+
+  /**
+   * Builds the cache region from the domain's static cache field.
+   *
+   * @param domainClass The domain class.
+   * @return The region.  Null if the domain is not cached.
+   */
+  protected Region buildRegion(Class<?> domainClass) {
+    Object settings;
+    try {
+      Field field = domainClass.getDeclaredField(CACHE_FIELD_NAME);
+      if (!Modifier.isStatic(field.getModifiers())) {
+        return null;
+      }
+      field.setAccessible(true);
+      settings = field.get(null);
+    } catch (NoSuchFieldException | IllegalAccessException | SecurityException ignored) {
+      return null;
+    }
+
+    int ttl = DEFAULT_TTL;
+    int maxSize = DEFAULT_MAX_SIZE;
+    if (settings instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) settings;
+      ttl = getInt(map, "ttl", ttl);
+      maxSize = getInt(map, "maxSize", maxSize);
+    } else if (!Boolean.TRUE.equals(settings)) {
+      return null;
+    }
+    if (maxSize <= 0) {
+      return null;
+    }
+    log.debug("buildRegion: Caching {} with ttl={}, maxSize={}", domainClass.getSimpleName(), ttl, maxSize);
+    return new Region(ttl * 1000L, maxSize);
+  }
+
+  /**
+   * Gets an integer setting from the domain's cache settings.
+   *
+   * @param map          The settings.
+   * @param name         The setting name.
+   * @param defaultValue The default value.
+   * @return The value.
+   */
+  private int getInt(Map<?, ?> map, String name, int defaultValue) {
+    Object value = map.get(name);
+    if (value instanceof Number) {
+      return ((Number) value).intValue();
+    } else if (value != null) {
+      throw new IllegalArgumentException("Domain cache setting " + name + " must be a number.  Found " + value);
+    }
+    return defaultValue;
+  }
+
+  /**
+   * Makes the given record's internal settings safe to share between threads.  Also drops the list of records
+   * read with the record, so the cache does not hold those records in memory.
+   *
+   * @param record The record.
+   */
+  private void shareSettings(DomainEntityInterface record) {
+    Map<String, Object> settings = getSettings(record);
+    Map<String, Object> shared = Collections.synchronizedMap(new HashMap<>());
+    if (settings != null) {
+      shared.putAll(settings);
+    }
+    shared.remove(DomainEntityHelper.SETTINGS_BATCH_GROUP);
+    shared.put(SETTINGS_SHARED, true);
+    try {
+      record.getClass().getField(DomainEntityHelper.DOMAIN_SETTINGS_FIELD_NAME).set(record, shared);
+    } catch (NoSuchFieldException | IllegalAccessException ignored) {
+      // Not a normal domain, so nothing to share.
+    }
+  }
+
+  /**
+   * Finds the internal settings holder for the given record.
+   *
+   * @param record The record.
+   * @return The settings.  Null if not a normal domain.
+   */
+  @SuppressWarnings("unchecked")
+  private Map<String, Object> getSettings(DomainEntityInterface record) {
+    try {
+      Object settings = record.getClass().getField(DomainEntityHelper.DOMAIN_SETTINGS_FIELD_NAME).get(record);
+      return settings instanceof Map ? (Map<String, Object>) settings : null;
+    } catch (NoSuchFieldException | IllegalAccessException ignored) {
+      return null;
+    }
+  }
+
+  public static DomainCache getInstance() {
+    return instance;
+  }
+
+  public static void setInstance(DomainCache instance) {
+    DomainCache.instance = instance;
+  }
+
+  /**
+   * The cached records for a single domain.  Uses a LRU map, limited to the max size.
+   */
+  protected static class Region {
+
+    /**
+     * The time (ms) a record stays in the cache.  0 means no expiration.
+     */
+    final long ttlMillis;
+
+    /**
+     * The max number of records.
+     */
+    final int maxSize;
+
+    final AtomicLong hits = new AtomicLong();
+    final AtomicLong misses = new AtomicLong();
+    final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Incremented each time a record is removed.  Used to prevent a read that started before a save from
+     * adding a stale record after the save.
+     */
+    final AtomicLong generation = new AtomicLong();
+
+    /**
+     * The records, in least recently used order.
+     */
+    private final LinkedHashMap<UUID, CachedRecord> records;
+
+    Region(long ttlMillis, int maxSize) {
+      this.ttlMillis = ttlMillis;
+      this.maxSize = maxSize;
+      records = new LinkedHashMap<UUID, CachedRecord>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<UUID, CachedRecord> eldest) {
+          if (size() > Region.this.maxSize) {
+            evictions.incrementAndGet();
+            return true;
+          }
+          return false;
+        }
+      };
+    }
+
+    synchronized Object get(UUID uuid, long now) {
+      CachedRecord cachedRecord = records.get(uuid);
+      if (cachedRecord != null && ttlMillis > 0 && cachedRecord.expires <= now) {
+        records.remove(uuid);
+        cachedRecord = null;
+      }
+      if (cachedRecord == null) {
+        misses.incrementAndGet();
+        return null;
+      }
+      hits.incrementAndGet();
+      return cachedRecord.record;
+    }
+
+    synchronized void put(UUID uuid, Object record, long startGeneration, long now) {
+      if (startGeneration == generation.get()) {
+        records.put(uuid, new CachedRecord(record, ttlMillis > 0 ? now + ttlMillis : Long.MAX_VALUE));
+      }
+    }
+
+    synchronized void remove(UUID uuid) {
+      generation.incrementAndGet();
+      if (uuid != null) {
+        records.remove(uuid);
+      }
+    }
+
+    synchronized void clear() {
+      generation.incrementAndGet();
+      records.clear();
+    }
+
+    synchronized int size() {
+      return records.size();
+    }
+  }
+
+  /**
+   * A single cached record.
+   */
+  protected static class CachedRecord {
+    final Object record;
+
+    /**
+     * The time (ms) this entry expires.
+     */
+    final long expires;
+
+    CachedRecord(Object record, long expires) {
+      this.record = record;
+      this.expires = expires;
+    }
+  }
+
+}
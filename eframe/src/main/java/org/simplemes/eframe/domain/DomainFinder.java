@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) Michael Houston 2020. All rights reserved.
+ */
+
+package org.simplemes.eframe.domain;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * The pre-built finders for a single domain class.  This holds the method handles for the uuid, key field and
+ * related record finders, so the reflection lookups are done once per domain class.
+ * These are normally created and cached by {@link DomainUtils#getFinder(Class)}.
+ */
+public class DomainFinder {
+
+  /**
+   * The generic method type used for the repository finders: (repository, value)Object.
+   */
+  private static final MethodType FINDER_TYPE = MethodType.methodType(Object.class, Object.class, Object.class);
+
+  /**
+   * The domain class.
+   */
+  private final Class<?> domainClass;
+
+  /**
+   * The key field name.  Can be null.
+   */
+  private final String keyName;
+
+  /**
+   * The handle for the domain's static getRepository() method: ()Object.
+   */
+  private final MethodHandle repositoryGetter;
+
+  /**
+   * The handle for the domain's findRelatedRecords() method: (Object)Object.  Null if not defined.
+   */
+  private final MethodHandle relatedRecordsFinder;
+
+  /**
+   * The handles that depend on the repository class.  Re-built if the repository class changes.
+   */
+  private volatile RepositoryFinders repositoryFinders;
+
+  /**
+   * Builds the finders for the given domain class.
+   *
+   * @param domainClass The domain class.
+   * @param keyName     The primary key field name.  Can be null.
+   */
+  public DomainFinder(Class<?> domainClass, String keyName) {
+    this.domainClass = domainClass;
+    this.keyName = keyName;
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+    MethodHandle getter = null;
+    try {
+      Method method = domainClass.getMethod("getRepository");
+      getter = lookup.unreflect(method).asType(MethodType.methodType(Object.class));
+    } catch (NoSuchMethodException | IllegalAccessException ignored) {
+      // Intentionally ignored.  No repository for this class.
+    }
+    repositoryGetter = getter;
+
+    MethodHandle related = null;
+    try {
+      Method method = domainClass.getDeclaredMethod("findRelatedRecords");
+      method.setAccessible(true);
+      related = lookup.unreflect(method).asType(MethodType.methodType(Object.class, Object.class));
+    } catch (NoSuchMethodException | IllegalAccessException ignored) {
+      // Intentionally ignored.  The method is optional.
+    }
+    relatedRecordsFinder = related;
+  }
+
+  /**
+   * Finds the record by its UUID.
+   *
+   * @param uuid The UUID.
+   * @return The record.  Null if not found.
+   */
+  public Object findByUuid(UUID uuid) throws Throwable {
+    Object repository = getRepository();
+    RepositoryFinders finders = getRepositoryFinders(repository);
+    if (finders.uuidFinder == null) {
+      throw new NoSuchMethodException(repository.getClass().getName() + ".findByUuid(UUID)");
+    }
+    return stripOptional(finders.uuidFinder.invokeExact(repository, (Object) uuid));
+  }
+
+  /**
+   * Finds the record by its primary key field.
+   *
+   * @param key The key value.
+   * @return The record.  Null if not found.
+   */
+  public Object findByKey(String key) throws Throwable {
+    Object repository = getRepository();
+    RepositoryFinders finders = getRepositoryFinders(repository);
+    if (finders.keyFinder == null) {
+      if (keyName == null) {
+        throw new IllegalArgumentException("Domain class " + domainClass + " no supported.  Needs a key field.");
+      }
+      throw new NoSuchMethodException(repository.getClass().getName() + "." + finders.keyFinderName + "(String)");
+    }
+    return stripOptional(finders.keyFinder.invokeExact(repository, (Object) key));
+  }
+
+  /**
+   * Calls the domain's findRelatedRecords() method, if defined.
+   *
+   * @param record The record.
+   * @return The related records.  Null if the domain has no findRelatedRecords() method.
+   */
+  @SuppressWarnings("unchecked")
+  public List<Object> findRelatedRecords(Object record) throws Throwable {
+    if (relatedRecordsFinder == null) {
+      return null;
+    }
+    Object res = relatedRecordsFinder.invokeExact(record);
+    return (List<Object>) res;
+  }
+
+  /**
+   * Returns true if the domain has a findRelatedRecords() method.
+   *
+   * @return True if defined.
+   */
+  public boolean hasRelatedRecordsFinder() {
+    return relatedRecordsFinder != null;
+  }
+
+  /**
+   * Gets the repository for the domain.
+   *
+   * @return The repository.
+   */
+  protected Object getRepository() throws Throwable {
+    Object repository = null;
+    if (repositoryGetter != null) {
+      repository = repositoryGetter.invokeExact();
+    }
+    if (repository == null) {
+      throw new UnsupportedOperationException("No Repository for " + domainClass.getName() + ". Is server running?");
+    }
+    return repository;
+  }
+
+  /**
+   * Gets the finders for the given repository.  Builds them if the repository class changed.
+   *
+   * @param repository The repository.
+   * @return The finders.
+   */
+  protected RepositoryFinders getRepositoryFinders(Object repository) throws IllegalAccessException {
+    RepositoryFinders finders = repositoryFinders;
+    if (finders == null || finders.repositoryClass != repository.getClass()) {
+      finders = new RepositoryFinders(repository.getClass(), keyName);
+      repositoryFinders = finders;
+    }
+    return finders;
+  }
+
+  /**
+   * Strip the Optional wrapper for the findBy() case.
+   *
+   * @param res The result.
+   * @return The result, without the Optional wrapper.
+   */
+  private Object stripOptional(Object res) {
+    if (res instanceof Optional) {
+      return ((Optional<?>) res).orElse(null);
+    }
+    return res;
+  }
+
+  /**
+   * The finder handles for a specific repository class.
+   */
+  protected static class RepositoryFinders {
+    final Class<?> repositoryClass;
+    final MethodHandle uuidFinder;
+    final MethodHandle keyFinder;
+    final String keyFinderName;
+
+    RepositoryFinders(Class<?> repositoryClass, String keyName) throws IllegalAccessException {
+      this.repositoryClass = repositoryClass;
+      uuidFinder = findFinder(repositoryClass, "findByUuid", UUID.class);
+      String finderName = null;
+      if (keyName != null) {
+        finderName = "findBy" + Character.toUpperCase(keyName.charAt(0)) + keyName.substring(1);
+      }
+      keyFinder = finderName != null ? findFinder(repositoryClass, finderName, String.class) : null;
+      keyFinderName = finderName;
+    }
+
+    /**
+     * Finds the given finder method in the repository.
+     *
+     * @param repositoryClass The repository class.
+     * @param methodName      The finder method name.
+     * @param paramType       The finder's parameter type.
+     * @return The handle.  Null if not found.
+     */
+    private static MethodHandle findFinder(Class<?> repositoryClass, String methodName, Class<?> paramType)
+        throws IllegalAccessException {
+      try {
+        // For some reason, the class generated by Micronaut-data creates the class with protected packaging.
+        // We need to make these methods accessible.
+        Method method = repositoryClass.getDeclaredMethod(methodName, paramType);
+        method.setAccessible(true);
+        return MethodHandles.lookup().unreflect(method).asType(FINDER_TYPE);
+      } catch (NoSuchMethodException ignored) {
+        // Reported when used.
+        return null;
+      }
+    }
+  }
+
+}
@@ -20,10 +20,12 @@ import io.micronaut.transaction.TransactionStatus;
 import io.micronaut.transaction.jdbc.DataSourceUtils;
 import org.simplemes.eframe.ast.ASTUtils;
 import org.simplemes.eframe.data.annotation.ExtensibleFieldHolder;
+import org.simplemes.eframe.domain.DomainCache;
 import org.simplemes.eframe.domain.DomainSaveTransactionEvent;
 import org.simplemes.eframe.domain.PersistentProperty;
 import org.simplemes.eframe.domain.validate.ValidationError;
 import org.simplemes.eframe.domain.validate.ValidationErrorInterface;
+import org.simplemes.eframe.metrics.MetricsHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -32,12 +34,16 @@ import javax.persistence.ManyToMany;
 import javax.persistence.OneToMany;
 import javax.sql.DataSource;
 import javax.validation.constraints.NotNull;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.*;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Support methods for the @DomainEntity annotation.  Provides much of the logic injected into the domain
@@ -74,6 +80,12 @@ public class DomainEntityHelper {
    */
   public static final String SETTINGS_LOADED_REFERENCE = "loadedRef";
 
+  /**
+   * The name of the element in the domain settings holder that will contain the sibling records read by the same
+   * query.  Used to load the lazy fields for all siblings with one query (see BatchFetcher).
+   */
+  public static final String SETTINGS_BATCH_GROUP = "batchGroup";
+
   /**
    * Determine the repository associated with the given domain class. This is not for public access.
    * This is used only in the code inserted into the domain by the @DomainEntity annotation.
@@ -151,13 +163,7 @@ public class DomainEntityHelper {
    */
   protected void executeDomainMethod(DomainEntityInterface object, String methodName)
       throws Throwable {
-    Method method = null;
-    try {
-      method = object.getClass().getDeclaredMethod(methodName);
-    } catch (NoSuchMethodException | SecurityException ignored) {
-      //System.out.println("ignored1:" + ignored);
-      //ignored.printStackTrace();
-    }
+    Method method = findDomainMethod(object.getClass(), methodName);
     if (method != null) {
       try {
         method.invoke(object);
@@ -168,6 +174,32 @@ public class DomainEntityHelper {
     }
   }
 
+  /**
+   * The cached optional domain methods (e.g. beforeSave), by domain class and method name.
+   */
+  private final Map<Class, Map<String, Optional<Method>>> domainMethods = new ConcurrentHashMap<>();
+
+  /**
+   * Finds the given optional no-argument method declared in the domain class.  The result is cached.
+   *
+   * @param domainClass The domain class.
+   * @param methodName  The method name.
+   * @return The method.  Null if not declared.
+   */
+  private Method findDomainMethod(Class<?> domainClass, String methodName) {
+    Map<String, Optional<Method>> methods = domainMethods.computeIfAbsent(domainClass, k -> new ConcurrentHashMap<>());
+    Optional<Method> method = methods.get(methodName);
+    if (method == null) {
+      try {
+        method = Optional.of(domainClass.getDeclaredMethod(methodName));
+      } catch (NoSuchMethodException | SecurityException ignored) {
+        method = Optional.empty();
+      }
+      methods.put(methodName, method);
+    }
+    return method.orElse(null);
+  }
+
   /**
    * Validates the domain object before a save.
    *
@@ -204,6 +236,8 @@ public class DomainEntityHelper {
     }
     ASTUtils.invokeGroovyMethod("org.simplemes.eframe.search.SearchHelper.instance", "handlePersistenceDelete", object);
     //SearchHelper.getInstance().handlePersistenceDelete(object);
+    ASTUtils.invokeGroovyMethod("org.simplemes.eframe.domain.DomainUtils.instance", "clearRequestCache");
+    DomainCache.getInstance().remove(object);
 
     return object;
   }
@@ -219,7 +253,11 @@ public class DomainEntityHelper {
     if (clazz != null) {
       try {
         //Class[] args = {};
-        Method method = ((Class<?>) clazz).getMethod("getRepository");
+        Method method = repositoryGetters.get(clazz);
+        if (method == null) {
+          method = ((Class<?>) clazz).getMethod("getRepository");
+          repositoryGetters.put(clazz, method);
+        }
         Object res = method.invoke(null);
         if (res instanceof GenericRepository) {
           return (GenericRepository<DomainEntityInterface, UUID>) res;
@@ -234,6 +272,16 @@ public class DomainEntityHelper {
   }
 
 
+  /**
+   * The cached static getRepository() methods, by domain class.
+   */
+  private final Map<Class, Method> repositoryGetters = new ConcurrentHashMap<>();
+
+  /**
+   * The cached repository method handles used by the staticMethodMissingHandler().
+   */
+  private final Map<FinderKey, MethodHandle> finderHandles = new ConcurrentHashMap<>();
+
   /**
    * Executes the list() method on the domain object's repository.
    *
@@ -277,12 +325,15 @@ public class DomainEntityHelper {
     if (repo == null) {
       throw new UnsupportedOperationException("No Repository for " + domainClazz.getName() + ". Is server running?");
     }
-    Method method = repo.getClass().getDeclaredMethod(methodName, paramTypes);
-    // For some reason, the class generated by Micronaut-data creates the class with protected packaging.
-    // We need to make this method accessible for this invocation.
-    method.setAccessible(true);
+    MethodHandle handle = getFinderHandle(repo.getClass(), methodName, paramTypes);
 
-    Object res = method.invoke(repo, args);
+    Object res;
+    try {
+      res = (Object) handle.invokeExact((Object) repo, args);
+    } catch (Throwable e) {
+      // Keep the same exception as the reflection call.
+      throw new InvocationTargetException(e);
+    }
     if (methodName.startsWith("findBy") && res instanceof Optional) {
       // Strip the Optional wrapper for the findBy() case.
       res = ((Optional<?>) res).orElse(null);
@@ -290,6 +341,33 @@ public class DomainEntityHelper {
     return res;
   }
 
+  /**
+   * Finds the method handle for the given repository method.  The handle is created once for each repository class,
+   * method name and parameter types.  The handle takes the repository and an Object[] of arguments.
+   *
+   * @param repoClass  The repository class.
+   * @param methodName The method name.
+   * @param paramTypes The parameter types.  Null for no parameters.
+   * @return The handle.
+   */
+  private MethodHandle getFinderHandle(Class<?> repoClass, String methodName, Class<?>[] paramTypes)
+      throws NoSuchMethodException, IllegalAccessException {
+    FinderKey key = new FinderKey(repoClass, methodName, paramTypes);
+    MethodHandle handle = finderHandles.get(key);
+    if (handle == null) {
+      Method method = repoClass.getDeclaredMethod(methodName, paramTypes);
+      // For some reason, the class generated by Micronaut-data creates the class with protected packaging.
+      // We need to make this method accessible for this invocation.
+      method.setAccessible(true);
+      int argCount = method.getParameterCount();
+      handle = MethodHandles.lookup().unreflect(method)
+          .asType(MethodType.genericMethodType(argCount + 1))
+          .asSpreader(Object[].class, argCount);
+      finderHandles.put(key, handle);
+    }
+    return handle;
+  }
+
   /**
    * Fixes some well-know special cases for parameter types.  This typically replaces a concrete class
    * with an interface to match the method declaration.  For example, the Pageable.from() methods return
@@ -334,6 +412,11 @@ public class DomainEntityHelper {
     isEnvironmentDev = null;
     isEnvironmentTest = null;
     simplifiedSQLExceptionConstructor = null;
+    repositoryGetters.clear();
+    finderHandles.clear();
+    domainMethods.clear();
+    validationProperties.clear();
+    validateCustomFieldsMethod = null;
   }
 
   /**
@@ -565,6 +648,7 @@ public class DomainEntityHelper {
                 ps.setObject(2, ((DomainEntityInterface) child).getUuid());
                 log.trace("saveManyToMany(): Binding parameter {} value = {}", 1, object.getUuid());
                 log.trace("saveManyToMany(): Binding parameter {} value = {}", 2, ((DomainEntityInterface) child).getUuid());
+                MetricsHelper.getInstance().countQuery();
                 ps.execute();
               }
 
@@ -606,6 +690,7 @@ public class DomainEntityHelper {
     String sql = "DELETE FROM " + tableName + " WHERE " + fromIDName + "=?";
     try (PreparedStatement ps = getPreparedStatement(sql)) {
       ps.setObject(1, uuid);
+      MetricsHelper.getInstance().countQuery();
       ps.execute();
     }
 
@@ -708,6 +793,8 @@ public class DomainEntityHelper {
    * Performs the lazy load of the given field from the child domain class using the given mapped by
    * field name.  Calls the findAllByXYZ() method on the child repository.
    * After the list is first read, it will be saved in the field and re-used on later calls to the loader.
+   * A shared (cached) parent's lists are loaded when it is added to the cache (see {@link #loadListsForCache}).
+   * If not loaded then, the list is read on each call and is not saved in the shared parent.
    *
    * @param object            The parent domain object to load the child from.
    * @param fieldName         The field to store the list in.  Used by later calls.
@@ -722,48 +809,159 @@ public class DomainEntityHelper {
     Field field = object.getClass().getDeclaredField(fieldName);
     field.setAccessible(true);  // Allow direct access.
     List list = (List) field.get(object);
+    if (list == null && DomainCache.getInstance().isShared(object)) {
+      // A cached parent is shared between threads, so the list is not stored in the parent.
+      MetricsHelper.getInstance().countLazyLoad("child");
+      list = loadChildRecords(object, childDomainClazz, mappedByFieldName);
+      prepareChildList(object, mappedByFieldName, childDomainClazz, list);
+      return list;
+    }
     if (list == null) {
       // Set the list to empty to avoid stack overflow in case of exception calling the getter over and over.
       // This happens when the parent object is not saved yet.
       list = new ArrayList();
       field.set(object, list);
-      Map domainSettings = getDomainSettings(object);
-      List loadedUuidList = new ArrayList();
-      if (domainSettings != null) {
-        domainSettings.put(SETTINGS_LOADED_CHILDREN_PREFIX + fieldName, loadedUuidList);
+      MetricsHelper.getInstance().countLazyLoad("child");
+      Map<DomainEntityInterface, List> batch = null;
+      if (isInBatchGroup(object)) {
+        batch = (Map<DomainEntityInterface, List>) invokeBatchFetcher("loadChildLists", object, fieldName,
+            mappedByFieldName, childDomainClazz);
+      }
+      if (batch != null) {
+        // Store the lists for the siblings too.
+        for (Map.Entry<DomainEntityInterface, List> entry : batch.entrySet()) {
+          if (entry.getKey() != object) {
+            storeChildList(entry.getKey(), field, fieldName, mappedByFieldName, childDomainClazz, entry.getValue());
+          }
+        }
+        list = batch.get(object);
+      } else {
+        list = loadChildRecords(object, childDomainClazz, mappedByFieldName);
       }
-      list = loadChildRecords(object, childDomainClazz, mappedByFieldName);
-      field.set(object, list);
       if (isEnvironmentTest()) {
         // Record the last uuid read, so we can test the lazy loading behavior.
         lastLazyChildParentLoaded = object.getUuid();
       }
+      storeChildList(object, field, fieldName, mappedByFieldName, childDomainClazz, list);
+    }
 
-      // Sort the list, if possible
-      if (Comparable.class.isAssignableFrom(childDomainClazz)) {
-        log.trace("Sorting {} list {}", childDomainClazz, list);
-        Collections.sort(list);
+    return list;
+  }
+
+  /**
+   * Stores the loaded child list in the parent object's field.
+   *
+   * @param object            The parent domain object.
+   * @param field             The field to store the list in.
+   * @param fieldName         The field's name.
+   * @param mappedByFieldName The field in the child that references the parent element.
+   * @param childDomainClazz  The child domain class.
+   * @param list              The loaded list.
+   */
+  @SuppressWarnings("unchecked")
+  private void storeChildList(DomainEntityInterface object, Field field, String fieldName, String mappedByFieldName,
+                              Class childDomainClazz, List list) throws Throwable {
+    field.set(object, list);
+    Map domainSettings = getDomainSettings(object);
+    List loadedUuidList = new ArrayList();
+    if (domainSettings != null) {
+      domainSettings.put(SETTINGS_LOADED_CHILDREN_PREFIX + fieldName, loadedUuidList);
+    }
+    prepareChildList(object, mappedByFieldName, childDomainClazz, list);
+
+    // Remember the UUID's read for the load.
+    for (Object child : list) {
+      if (child instanceof DomainEntityInterface) {
+        loadedUuidList.add(((DomainEntityInterface) child).getUuid());
       }
+    }
+  }
 
-      // Remember the UUID's read for the load.
-      for (Object child : list) {
-        if (child instanceof DomainEntityInterface) {
-          loadedUuidList.add(((DomainEntityInterface) child).getUuid());
-          // Force the parent reference to work around issue with children and grand children.
-          Method m1 = child.getClass().getDeclaredMethod("set" + StringUtils.capitalize(mappedByFieldName), object.getClass());
-          m1.invoke(child, object);
-          //System.out.println("  parent:" + object);
-          // And mark that it was loaded already
-          Map<String, Object> domainSettingsChild = getDomainSettings((DomainEntityInterface) child);
-          if (domainSettingsChild != null) {
-            String alreadyLoadedName = SETTINGS_LOADED_REFERENCE + mappedByFieldName;
-            domainSettingsChild.put(alreadyLoadedName, true);
-          }
+  /**
+   * Sorts the loaded child list (if possible) and sets the parent reference in each child.
+   *
+   * @param object            The parent domain object.
+   * @param mappedByFieldName The field in the child that references the parent element.
+   * @param childDomainClazz  The child domain class.
+   * @param list              The loaded list.
+   */
+  @SuppressWarnings("unchecked")
+  private void prepareChildList(DomainEntityInterface object, String mappedByFieldName, Class childDomainClazz,
+                                List list) throws Throwable {
+    // Sort the list, if possible
+    if (Comparable.class.isAssignableFrom(childDomainClazz)) {
+      log.trace("Sorting {} list {}", childDomainClazz, list);
+      Collections.sort(list);
+    }
+
+    for (Object child : list) {
+      if (child instanceof DomainEntityInterface) {
+        // Force the parent reference to work around issue with children and grand children.
+        Method m1 = child.getClass().getDeclaredMethod("set" + StringUtils.capitalize(mappedByFieldName), object.getClass());
+        m1.invoke(child, object);
+        //System.out.println("  parent:" + object);
+        // And mark that it was loaded already
+        Map<String, Object> domainSettingsChild = getDomainSettings((DomainEntityInterface) child);
+        if (domainSettingsChild != null) {
+          String alreadyLoadedName = SETTINGS_LOADED_REFERENCE + mappedByFieldName;
+          domainSettingsChild.put(alreadyLoadedName, true);
         }
       }
     }
+  }
 
-    return list;
+  /**
+   * Determines if the given object was read with other sibling records (e.g. by a list() or findAllBy() finder).
+   * The lazy fields for these records are loaded for all siblings at once.
+   *
+   * @param object The domain object.
+   * @return True if the object has siblings.
+   */
+  private boolean isInBatchGroup(DomainEntityInterface object) throws IllegalAccessException, NoSuchFieldException {
+    Map<String, Object> domainSettings = getDomainSettings(object);
+    return domainSettings != null && domainSettings.get(SETTINGS_BATCH_GROUP) != null;
+  }
+
+  /**
+   * Calls the given batch load method on the BatchFetcher.
+   *
+   * @param methodName The method.
+   * @param args       The arguments.
+   * @return The results.  Null if no batch load was possible.
+   */
+  private Object invokeBatchFetcher(String methodName, Object... args) {
+    return ASTUtils.invokeGroovyMethod("org.simplemes.eframe.domain.BatchFetcher.instance", methodName, args);
+  }
+
+  /**
+   * Loads the child lists and reference lists for a record that is about to be shared in the {@link DomainCache}.
+   * The lists are stored as immutable lists, so the shared record's getters can be used by many threads without
+   * re-reading the lists.  The children's own lists are loaded the same way.
+   *
+   * @param object The record.
+   */
+  @SuppressWarnings("unchecked")
+  public void loadListsForCache(DomainEntityInterface object) throws Throwable {
+    for (Field field : object.getClass().getDeclaredFields()) {
+      boolean childList = field.getAnnotation(OneToMany.class) != null;
+      if ((childList || field.getAnnotation(ManyToMany.class) != null) && List.class.isAssignableFrom(field.getType())) {
+        // Use the getter to trigger the normal lazy load.
+        Method getterMethod = object.getClass().getMethod("get" + StringUtils.capitalize(field.getName()));
+        List list = (List) getterMethod.invoke(object);
+        if (list == null) {
+          continue;
+        }
+        if (childList) {
+          for (Object child : list) {
+            if (child instanceof DomainEntityInterface) {
+              loadListsForCache((DomainEntityInterface) child);
+            }
+          }
+        }
+        field.setAccessible(true);  // Need to bypass the setter.
+        field.set(object, Collections.unmodifiableList(list));
+      }
+    }
   }
 
   /**
@@ -775,6 +973,8 @@ public class DomainEntityHelper {
   /**
    * Performs the lazy load of the given field from the mapping table.
    * After the list is first read, it will be saved in the field and re-used on later calls to the loader.
+   * A shared (cached) parent's lists are loaded when it is added to the cache (see {@link #loadListsForCache}).
+   * If not loaded then, the list is read on each call and is not saved in the shared parent.
    * <p>
    * <b>Note:</b> This method starts a read-only transaction, if none exists on this thread.
    * This helps avoid a DB connection leak.
@@ -799,6 +999,11 @@ public class DomainEntityHelper {
       field.set(object, list);
       return list;
     }
+    if (list == null && DomainCache.getInstance().isShared(object)) {
+      // A cached parent is shared between threads, so the list is not stored in the parent.
+      MetricsHelper.getInstance().countLazyLoad("referenceList");
+      return loadRefListRecords(object, mappedBy, childDomainClazz);
+    }
     if (list == null) {
       list = new ArrayList();
       field.set(object, list);
@@ -811,31 +1016,29 @@ public class DomainEntityHelper {
         domainSettings.put(SETTINGS_LOADED_CHILDREN_PREFIX + fieldName, loadedUuidList);
       }
 
-      // Do a direct SQL query on the join table, and bring in the top-level fields of the foreign reference with a JOIN.
-      NamingStrategy namingStrategy = getNamingStrategy(object);
-      String fromIDName = namingStrategy.mappedName(object.getClass().getSimpleName()) + "_id";
-      String toIDName = namingStrategy.mappedName(childDomainClazz.getSimpleName()) + "_id";
-      String referenceTableName = namingStrategy.mappedName(childDomainClazz.getSimpleName());
-      String mappedByTableName = namingStrategy.mappedName(mappedBy);
-      String sql = "SELECT * " + " from " + mappedByTableName +
-          " INNER JOIN " + referenceTableName + " ON " + mappedByTableName + "." + toIDName +
-          " = " + referenceTableName + ".uuid" + "  WHERE " + fromIDName + "=?";
-      // Force a read-only transaction to avoid DB connection leaks when done.
-      list = getTransactionManager().executeRead(status -> {
-        final List listInner = new ArrayList();
-        try (PreparedStatement ps = getPreparedStatement(sql)) {
-          ps.setObject(1, object.getUuid());
-          ps.execute();
-          try (ResultSet rs = ps.getResultSet()) {
-            while (rs.next()) {
-              DomainEntityInterface o = (DomainEntityInterface) ASTUtils.invokeGroovyMethod("org.simplemes.eframe.domain.DomainBinder",
-                  "bindResultSet", rs, childDomainClazz);
-              listInner.add(o);
-            }
+      MetricsHelper.getInstance().countLazyLoad("referenceList");
+      Map<DomainEntityInterface, List> batch = null;
+      if (isInBatchGroup(object)) {
+        batch = (Map<DomainEntityInterface, List>) invokeBatchFetcher("loadRefLists", object, fieldName, mappedBy,
+            childDomainClazz);
+      }
+      if (batch != null) {
+        // Store the lists for the siblings too.
+        for (Map.Entry<DomainEntityInterface, List> entry : batch.entrySet()) {
+          if (entry.getKey() != object) {
+            storeRefList(entry.getKey(), field, fieldName, entry.getValue());
           }
         }
-        return listInner;
-      });
+        if (isEnvironmentTest()) {
+          // Record the last uuid read, so we can test the lazy loading behavior.
+          lastLazyRefParentLoaded = object.getUuid();
+        }
+        list = batch.get(object);
+        storeRefList(object, field, fieldName, list);
+        return list;
+      }
+
+      list = loadRefListRecords(object, mappedBy, childDomainClazz);
 
       field.set(object, list);
       if (isEnvironmentTest()) {
@@ -853,6 +1056,71 @@ public class DomainEntityHelper {
     return list;
   }
 
+  /**
+   * Reads the reference list for the given parent from the mapping table.
+   * <p>
+   * <b>Note:</b> This method starts a read-only transaction, if none exists on this thread.
+   *
+   * @param object           The parent domain object.
+   * @param mappedBy         The mappedBy value from the @ManyToMany annotation.  Used to determine table name.
+   * @param childDomainClazz The child domain class.
+   * @return The list.
+   */
+  @SuppressWarnings("unchecked")
+  private List loadRefListRecords(DomainEntityInterface object, String mappedBy, Class childDomainClazz)
+      throws Throwable {
+    // Do a direct SQL query on the join table, and bring in the top-level fields of the foreign reference with a JOIN.
+    NamingStrategy namingStrategy = getNamingStrategy(object);
+    String fromIDName = namingStrategy.mappedName(object.getClass().getSimpleName()) + "_id";
+    String toIDName = namingStrategy.mappedName(childDomainClazz.getSimpleName()) + "_id";
+    String referenceTableName = namingStrategy.mappedName(childDomainClazz.getSimpleName());
+    String mappedByTableName = namingStrategy.mappedName(mappedBy);
+    String sql = "SELECT * " + " from " + mappedByTableName +
+        " INNER JOIN " + referenceTableName + " ON " + mappedByTableName + "." + toIDName +
+        " = " + referenceTableName + ".uuid" + "  WHERE " + fromIDName + "=?";
+    // Force a read-only transaction to avoid DB connection leaks when done.
+    return getTransactionManager().executeRead(status -> {
+      final List listInner = new ArrayList();
+      try (PreparedStatement ps = getPreparedStatement(sql)) {
+        ps.setObject(1, object.getUuid());
+        MetricsHelper.getInstance().countQuery();
+        ps.execute();
+        try (ResultSet rs = ps.getResultSet()) {
+          while (rs.next()) {
+            DomainEntityInterface o = (DomainEntityInterface) ASTUtils.invokeGroovyMethod("org.simplemes.eframe.domain.DomainBinder",
+                "bindResultSet", rs, childDomainClazz);
+            listInner.add(o);
+          }
+        }
+      }
+      return listInner;
+    });
+  }
+
+  /**
+   * Stores the loaded reference list in the parent object's field.
+   *
+   * @param object    The parent domain object.
+   * @param field     The field to store the list in.
+   * @param fieldName The field's name.
+   * @param list      The loaded list.
+   */
+  @SuppressWarnings("unchecked")
+  private void storeRefList(DomainEntityInterface object, Field field, String fieldName, List list)
+      throws Throwable {
+    field.set(object, list);
+    List loadedUuidList = new ArrayList();
+    Map domainSettings = getDomainSettings(object);
+    if (domainSettings != null) {
+      domainSettings.put(SETTINGS_LOADED_CHILDREN_PREFIX + fieldName, loadedUuidList);
+    }
+    for (Object ref : list) {
+      if (ref instanceof DomainEntityInterface) {
+        loadedUuidList.add(((DomainEntityInterface) ref).getUuid());
+      }
+    }
+  }
+
   /**
    * Loads a list of child records for the given parent domain object.
    *
@@ -919,13 +1187,25 @@ public class DomainEntityHelper {
 
     if (referencedObject != null && !wasLoadedByJoin(referencedObject)) {
       UUID uuid = referencedObject.getUuid();
-      if (uuid != null) {
-        // Need to read a value.
-        referencedObject = findByUuid(referencedObject.getClass(), uuid);
+      Class<?> referencedDomainClass = referencedObject.getClass();
+      DomainCache domainCache = DomainCache.getInstance();
+      DomainEntityInterface cachedRecord = uuid != null ? (DomainEntityInterface) domainCache.get(referencedDomainClass, uuid) : null;
+      if (cachedRecord != null) {
+        referencedObject = cachedRecord;
+      } else if (uuid != null) {
+        // Need to read a value.  Read it with the siblings' values, if possible.
+        MetricsHelper.getInstance().countLazyLoad("reference");
+        long cacheGeneration = domainCache.getGeneration(referencedDomainClass);
+        DomainEntityInterface batchRecord = null;
+        if (isInBatchGroup(parentObject)) {
+          batchRecord = (DomainEntityInterface) invokeBatchFetcher("loadReferences", parentObject, fieldName, referencedObject);
+        }
+        referencedObject = batchRecord != null ? batchRecord : findByUuid(referencedDomainClass, uuid);
         if (referencedObject == null) {
           String s = parentObject.getClass().getName() + "(uuid: " + parentObject.getUuid() + ") foreign reference (" + fieldName + ", uuid: " + uuid + ") not found in DB. ";
           throw new IllegalArgumentException(s);
         }
+        domainCache.put(referencedObject, cacheGeneration);
         if (isEnvironmentTest()) {
           // Record the last uuid read, so we can test the lazy loading behavior.
           lastLazyRefLoaded = uuid;
@@ -934,6 +1214,10 @@ public class DomainEntityHelper {
         // A null UUID, so we need to clear the value in the parent object.
         referencedObject = null;
       }
+      if (domainCache.isShared(parentObject)) {
+        // A cached parent is shared between threads, so the reference is not stored in the parent.
+        return referencedObject;
+      }
       domainSettings.put(alreadyLoadedName, true);
 
       // Make sure the property is set in parent domain so we can avoid this lookup later.
@@ -954,7 +1238,7 @@ public class DomainEntityHelper {
    * @param referencedObject The object to check.
    * @return True if the object was loaded already.
    */
-  private boolean wasLoadedByJoin(DomainEntityInterface referencedObject) {
+  public boolean wasLoadedByJoin(DomainEntityInterface referencedObject) {
     try {
       Method getter = referencedObject.getClass().getDeclaredMethod("getDateCreated");
       return getter.invoke(referencedObject) != null;
@@ -1102,13 +1386,17 @@ public class DomainEntityHelper {
   public List<ValidationErrorInterface> validate(DomainEntityInterface object) throws Throwable {
     executeDomainMethod(object, "beforeValidate");
 
-    List<ValidationErrorInterface> res = validateColumns(object);
+    List<ValidationErrorInterface> res = object.validateGenerated();
+    if (res == null) {
+      // Not generated, so use the slower reflection approach.
+      res = validateColumns(object);
+    }
     List<ValidationErrorInterface> res2 = validateCustomFields(object);
     if (res2.size() > 0) {
       res.addAll(res2);
     }
-    try {
-      Method validateMethod = object.getClass().getDeclaredMethod("validate");
+    Method validateMethod = findDomainMethod(object.getClass(), "validate");
+    if (validateMethod != null) {
       Object methodRes = validateMethod.invoke(object);
       if (methodRes instanceof ValidationErrorInterface) {
         res.add((ValidationErrorInterface) methodRes);
@@ -1121,8 +1409,6 @@ public class DomainEntityHelper {
       } else if (methodRes != null) {
         throw new IllegalArgumentException(object.getClass().getName() + ".validate() must return a ValidationErrorInterface, null or list.");
       }
-    } catch (NoSuchMethodException ignored) {
-      // The method is not required in a domain object, so we just ignore this exception.
     }
 
     return res;
@@ -1157,38 +1443,89 @@ public class DomainEntityHelper {
    */
   protected List<ValidationErrorInterface> validateColumns(DomainEntityInterface object) throws NoSuchMethodException, InvocationTargetException {
     List<ValidationErrorInterface> res = new ArrayList<>();
-    for (PersistentProperty property : getPersistentProperties(object.getClass())) {
-      if (!ignoreFieldForValidation(property)) {
-        if (!property.isNullable()) {
-          try {
-            property.getField().setAccessible(true);  // Use work around to make this code simpler.  Should call getter().
-            Object value = property.getField().get(object);
-            if (value == null) {
-              //error.1.message=Required value is missing "{0}" ({1}).
-              res.add(new ValidationError(1, property.getName(), object.getClass().getSimpleName()));
-            } else if (value instanceof String && ((String) value).length() == 0) {
-              //error.1.message=Required value is missing "{0}" ({1}).
-              res.add(new ValidationError(1, property.getName(), object.getClass().getSimpleName()));
-            }
-          } catch (IllegalAccessException ignored) {
-            // Will always be accessible.
-          }
+    for (PersistentProperty property : getValidationProperties(object.getClass()).values()) {
+      try {
+        // Use work around to make this code simpler.  Should call getter().
+        Object value = property.getField().get(object);
+        checkColumnValue(res, object.getClass(), property, value);
+      } catch (IllegalAccessException ignored) {
+        // Will always be accessible.
+      }
+    }
+    return res;
+  }
+
+  /**
+   * Performs the column validations on a single field value.  Called by the validateGenerated() method that is
+   * added to the domain class by the {@link DomainEntity} annotation.
+   *
+   * @param res         The list of validation errors to add any new errors to.
+   * @param domainClass The domain class.
+   * @param fieldName   The field.
+   * @param value       The field value.
+   */
+  @SuppressWarnings("unused")
+  public void validateColumn(List<ValidationErrorInterface> res, Class domainClass, String fieldName, Object value)
+      throws NoSuchMethodException, InvocationTargetException {
+    PersistentProperty property = getValidationProperties(domainClass).get(fieldName);
+    if (property != null) {
+      checkColumnValue(res, domainClass, property, value);
+    }
+  }
+
+  /**
+   * Performs the column validations (null and length) on a single field value.
+   *
+   * @param res         The list of validation errors to add any new errors to.
+   * @param domainClass The domain class.
+   * @param property    The property.
+   * @param value       The field value.
+   */
+  private void checkColumnValue(List<ValidationErrorInterface> res, Class domainClass, PersistentProperty property,
+                                Object value) {
+    if (!property.isNullable()) {
+      if (value == null) {
+        //error.1.message=Required value is missing "{0}" ({1}).
+        res.add(new ValidationError(1, property.getName(), domainClass.getSimpleName()));
+      } else if (value instanceof String && ((String) value).length() == 0) {
+        //error.1.message=Required value is missing "{0}" ({1}).
+        res.add(new ValidationError(1, property.getName(), domainClass.getSimpleName()));
+      }
+    }
+    if (property.getType() == String.class && property.getMaxLength() > 0) {
+      if (value != null) {
+        String s = (String) value;
+        if (s.length() > property.getMaxLength()) {
+          //error.2.message=Value is too long (max={2}, length={1}) for field {0}.
+          res.add(new ValidationError(2, property.getName(), s.length(), property.getMaxLength()));
         }
-        if (property.getType() == String.class && property.getMaxLength() > 0) {
-          try {
-            property.getField().setAccessible(true);  // Use work around to make this code simpler.  Should call getter().
-            String value = (String) property.getField().get(object);
-            if (value != null) {
-              if (value.length() > property.getMaxLength()) {
-                //error.2.message=Value is too long (max={2}, length={1}) for field {0}.
-                res.add(new ValidationError(2, property.getName(), value.length(), property.getMaxLength()));
-              }
-            }
-          } catch (IllegalAccessException ignored) {
-            // Will always be accessible.
-          }
+      }
+    }
+  }
+
+  /**
+   * The cached properties checked by the column validations, by domain class.
+   */
+  private final Map<Class, Map<String, PersistentProperty>> validationProperties = new ConcurrentHashMap<>();
+
+  /**
+   * Returns the properties checked by the column validations (e.g. null and length) for the given domain class.
+   * These are built once for each class.
+   *
+   * @param domainClass The domain class.
+   * @return The properties, by field name (in field order).
+   */
+  protected Map<String, PersistentProperty> getValidationProperties(Class domainClass) throws NoSuchMethodException, InvocationTargetException {
+    Map<String, PersistentProperty> res = validationProperties.get(domainClass);
+    if (res == null) {
+      res = new LinkedHashMap<>();
+      for (PersistentProperty property : getPersistentProperties(domainClass)) {
+        if (!ignoreFieldForValidation(property)) {
+          property.getField().setAccessible(true);
+          res.put(property.getName(), property);
         }
       }
+      validationProperties.put(domainClass, res);
     }
     return res;
   }
@@ -1200,12 +1537,25 @@ public class DomainEntityHelper {
    * @return The list of validation errors.  Never null.
    */
   @SuppressWarnings("unchecked")
-  protected List<ValidationErrorInterface> validateCustomFields(DomainEntityInterface object) {
-    return (List<ValidationErrorInterface>) ASTUtils.invokeGroovyMethod(
-        "org.simplemes.eframe.custom.ExtensibleFieldHelper",
-        "validateCustomFields", object);
+  protected List<ValidationErrorInterface> validateCustomFields(DomainEntityInterface object) throws Throwable {
+    if (validateCustomFieldsMethod == null) {
+      // Find the method once, since the Java source tree is compiled before the groovy code.
+      Class<?> helperClass = Class.forName("org.simplemes.eframe.custom.ExtensibleFieldHelper");
+      validateCustomFieldsMethod = helperClass.getMethod("validateCustomFields", DomainEntityInterface.class);
+    }
+    try {
+      return (List<ValidationErrorInterface>) validateCustomFieldsMethod.invoke(null, object);
+    } catch (InvocationTargetException e) {
+      // Same exception as the ASTUtils.invokeGroovyMethod() used before.
+      throw new RuntimeException(e.getCause());
+    }
   }
 
+  /**
+   * The cached ExtensibleFieldHelper.validateCustomFields() method.
+   */
+  private static Method validateCustomFieldsMethod;
+
   /**
    * Returns the list of persistent properties (columns) for the given domain class.
    *
@@ -1293,6 +1643,37 @@ public class DomainEntityHelper {
     ASTUtils.invokeGroovyMethod("org.simplemes.eframe.domain.EFrameJdbcRepositoryOperations", "checkForTransactionStatic");
   }
 
+  /**
+   * The key for the cached repository method handles.
+   */
+  private static class FinderKey {
+    private final Class<?> repoClass;
+    private final String methodName;
+    private final Class<?>[] paramTypes;
+    private final int hash;
+
+    FinderKey(Class<?> repoClass, String methodName, Class<?>[] paramTypes) {
+      this.repoClass = repoClass;
+      this.methodName = methodName;
+      this.paramTypes = paramTypes;
+      this.hash = 31 * (31 * repoClass.hashCode() + methodName.hashCode()) + Arrays.hashCode(paramTypes);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof FinderKey)) {
+        return false;
+      }
+      FinderKey other = (FinderKey) o;
+      return repoClass == other.repoClass && methodName.equals(other.methodName) && Arrays.equals(paramTypes, other.paramTypes);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
   /**
    * Local class used to call the closure from the as a TransactionCallback.
    */
@@ -6,6 +6,9 @@ package org.simplemes.eframe.domain.annotation;
  *
  */
 
+import org.simplemes.eframe.domain.validate.ValidationErrorInterface;
+
+import java.util.List;
 import java.util.UUID;
 
 /**
@@ -42,4 +45,14 @@ public interface DomainEntityInterface {
    */
   Object delete();
 
+  /**
+   * Performs the column validations (e.g. null and length) with direct field access.  This is generated
+   * by the {@link DomainEntity} annotation.
+   *
+   * @return The list of validation errors.  Null if not generated.
+   */
+  default List<ValidationErrorInterface> validateGenerated() {
+    return null;
+  }
+
 }
@@ -100,6 +100,7 @@ public class DomainEntityTransformation implements ASTTransformation {
     addLazyChildLoaders(classNode, sourceUnit);
     addLazyReferenceLoaders(classNode, sourceUnit);
     addLazyRefListLoaders(classNode, sourceUnit);
+    addValidateGenerated(classNode, sourceUnit);
 
     Expression init = new MapExpression();
     ASTUtils.addField(DomainEntityHelper.DOMAIN_SETTINGS_FIELD_NAME, Map.class, Modifier.PUBLIC | Modifier.TRANSIENT, false, init,
@@ -231,6 +232,64 @@ public class DomainEntityTransformation implements ASTTransformation {
     }
   }
 
+  /**
+   * Adds the validateGenerated() method that performs the column validations (e.g. null and length) with direct
+   * field access.  The constraints for each field are determined at runtime by the helper.
+   * <pre>
+   *   List validateGenerated() {
+   *     List res = new ArrayList()
+   *     DomainEntityHelper.instance.validateColumn(res, Order, 'order', order)
+   *     . . .
+   *     return res
+   *   }
+   * </pre>
+   *
+   * @param classNode  The class to transform.
+   * @param sourceUnit The source the class came from.
+   */
+  private void addValidateGenerated(ClassNode classNode, SourceUnit sourceUnit) {
+    String methodName = "validateGenerated";
+    if (ASTUtils.methodExists(classNode, methodName, Parameter.EMPTY_ARRAY)) {
+      sourceUnit.getErrorCollector().addError(new SimpleMessage(methodName + "() already exists in " + classNode, sourceUnit));
+      return;
+    }
+
+    BlockStatement blockStatement = new BlockStatement();
+    VariableExpression resVariable = new VariableExpression("res", new ClassNode(List.class));
+    // The variable scopes are already resolved in this phase, so the local variable must refer to itself.
+    resVariable.setAccessedVariable(resVariable);
+    blockStatement.addStatement(new ExpressionStatement(
+        new DeclarationExpression(resVariable,
+            Token.newSymbol(Types.EQUAL, -1, -1),
+            new ConstructorCallExpression(new ClassNode(ArrayList.class), ArgumentListExpression.EMPTY_ARGUMENTS))));
+
+    for (FieldNode fieldNode : classNode.getFields()) {
+      if (fieldNode.isStatic() || Modifier.isTransient(fieldNode.getModifiers())) {
+        continue;
+      }
+      // DomainEntityHelper.instance.validateColumn(res, Order, 'order', order)
+      List<Expression> argumentList = new ArrayList<>();
+      argumentList.add(resVariable);
+      argumentList.add(new ClassExpression(classNode));
+      argumentList.add(new ConstantExpression(fieldNode.getName()));
+      argumentList.add(new FieldExpression(fieldNode));
+      MethodCallExpression method = new MethodCallExpression(
+          new PropertyExpression(new ClassExpression(new ClassNode(DomainEntityHelper.class)), "instance"),
+          "validateColumn",
+          new ArgumentListExpression(argumentList));
+      blockStatement.addStatement(new ExpressionStatement(method));
+    }
+    blockStatement.addStatement(new ReturnStatement(resVariable));
+
+    MethodNode methodNode = new MethodNode(methodName,
+        Modifier.PUBLIC,
+        new ClassNode(List.class),
+        Parameter.EMPTY_ARRAY,
+        null,
+        blockStatement);
+    classNode.addMethod(methodNode);
+  }
+
   /**
    * Returns true if the given field is a single reference to another domain entity.
    *
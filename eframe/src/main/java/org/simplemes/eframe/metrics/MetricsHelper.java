@@ -0,0 +1,448 @@
+/*
+ * Copyright (c) Michael Houston 2021. All rights reserved.
+ */
+
+package org.simplemes.eframe.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micronaut.context.ApplicationContext;
+import io.micronaut.http.HttpRequest;
+import io.micronaut.http.context.ServerRequestContext;
+import org.simplemes.eframe.ast.ASTUtils;
+
+import java.time.Duration;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records the framework's performance metrics (timers, counters and per-request counts).  The metrics are kept
+ * in the application's Micrometer registry, so they are also available in the Prometheus output.  The timers
+ * and distributions keep HDR-style histograms for the percentiles (50%, 95%, 99%).
+ * <p>
+ * Typical usage:
+ * <pre>
+ *   def start = System.nanoTime()
+ *   . . .
+ *   MetricsHelper.instance.record(MetricsHelper.REPORT_FILL, start)
+ * </pre>
+ * When tracing is enabled, each recorded time is also added as a span to the current request.  The spans are
+ * returned in the <code>Server-Timing</code> header and logged by the {@link MetricsFilter}.
+ */
+public class MetricsHelper {
+
+  /**
+   * A singleton, used for simplified unit testing with a mocked class.
+   */
+  protected static MetricsHelper instance = new MetricsHelper();
+
+  /**
+   * The request attribute that holds the metrics for the current request.
+   */
+  public static final String REQUEST_METRICS_ATTRIBUTE = "eframe.requestMetrics";
+
+  /**
+   * The timer for the search engine requests.  Tagged with the action.
+   */
+  public static final String SEARCH_REQUESTS = "eframe.search.requests";
+
+  /**
+   * The timer for the report compile.
+   */
+  public static final String REPORT_COMPILE = "eframe.report.compile";
+
+  /**
+   * The timer for the report fill.
+   */
+  public static final String REPORT_FILL = "eframe.report.fill";
+
+  /**
+   * The counter for the DB statements executed.
+   */
+  public static final String DB_QUERIES = "eframe.db.queries";
+
+  /**
+   * The distribution of DB statements executed for each HTTP request.
+   */
+  public static final String DB_QUERIES_PER_REQUEST = "eframe.db.queries.per.request";
+
+  /**
+   * The counter for the lazy loads of domain fields.  Tagged with the type (child, reference or referenceList).
+   */
+  public static final String LAZY_LOADS = "eframe.domain.lazy.loads";
+
+  /**
+   * The percentiles published for the timers and distributions.
+   */
+  protected static final double[] PERCENTILES = {0.5, 0.95, 0.99};
+
+  /**
+   * The time window for the percentiles.
+   */
+  protected static final Duration PERCENTILE_WINDOW = Duration.ofMinutes(5);
+
+  /**
+   * The meter name prefixes shown in the summary.
+   */
+  protected static final String[] SUMMARY_PREFIXES = {"eframe.", "mes."};
+
+  /**
+   * The registry used.  Found from the application context on first use.
+   */
+  private volatile MeterRegistry registry;
+
+  /**
+   * The timers, by name and tags.
+   */
+  private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+  /**
+   * The counters, by name and tags.
+   */
+  private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+  /**
+   * The distribution summaries, by name and tags.
+   */
+  private final Map<String, DistributionSummary> summaries = new ConcurrentHashMap<>();
+
+  /**
+   * If true, then the recorded times are added as spans to the current request.
+   */
+  private volatile boolean tracing = false;
+
+  /**
+   * Records the elapsed time since the given start for the given timer.
+   *
+   * @param name       The timer name.
+   * @param startNanos The start time (from System.nanoTime()).
+   * @param tags       The tags (key/value pairs).
+   * @return The elapsed time (ms).  Useful for the existing log messages.
+   */
+  public long record(String name, long startNanos, String... tags) {
+    long nanos = System.nanoTime() - startNanos;
+    getTimer(name, tags).record(nanos, TimeUnit.NANOSECONDS);
+    if (tracing) {
+      RequestMetrics requestMetrics = getRequestMetrics();
+      if (requestMetrics != null) {
+        requestMetrics.addSpan(tags.length > 1 ? name + "." + tags[1] : name, nanos);
+      }
+    }
+    return TimeUnit.NANOSECONDS.toMillis(nanos);
+  }
+
+  /**
+   * Increments the given counter.
+   *
+   * @param name The counter name.
+   * @param tags The tags (key/value pairs).
+   */
+  public void increment(String name, String... tags) {
+    getCounter(name, tags).increment();
+  }
+
+  /**
+   * Counts a DB statement execution.  Also counts it for the current request.
+   */
+  public void countQuery() {
+    increment(DB_QUERIES);
+    RequestMetrics requestMetrics = getRequestMetrics();
+    if (requestMetrics != null) {
+      requestMetrics.queries.incrementAndGet();
+    }
+  }
+
+  /**
+   * Counts a lazy load of a domain field.
+   *
+   * @param type The type of lazy load (child, reference or referenceList).
+   */
+  public void countLazyLoad(String type) {
+    increment(LAZY_LOADS, "type", type);
+  }
+
+  /**
+   * Starts the metrics for a request.  Called by the {@link MetricsFilter}.
+   *
+   * @param request The request.
+   * @return The request's metrics.
+   */
+  public RequestMetrics startRequest(HttpRequest<?> request) {
+    RequestMetrics requestMetrics = new RequestMetrics();
+    request.setAttribute(REQUEST_METRICS_ATTRIBUTE, requestMetrics);
+    return requestMetrics;
+  }
+
+  /**
+   * Finishes the metrics for a request.  Records the number of DB statements used by the request.
+   *
+   * @param requestMetrics The request's metrics.
+   */
+  public void finishRequest(RequestMetrics requestMetrics) {
+    getDistributionSummary(DB_QUERIES_PER_REQUEST).record(requestMetrics.queries.get());
+  }
+
+  /**
+   * Finds the metrics for the current request.
+   *
+   * @return The metrics.  Null if not in a request.
+   */
+  public RequestMetrics getRequestMetrics() {
+    Optional<HttpRequest<Object>> request = ServerRequestContext.currentRequest();
+    if (request.isPresent()) {
+      return request.get().getAttribute(REQUEST_METRICS_ATTRIBUTE, RequestMetrics.class).orElse(null);
+    }
+    return null;
+  }
+
+  /**
+   * Finds the timer with percentiles for the given name and tags.
+   *
+   * @param name The timer name.
+   * @param tags The tags (key/value pairs).
+   * @return The timer.
+   */
+  public Timer getTimer(String name, String... tags) {
+    String key = buildKey(name, tags);
+    Timer timer = timers.get(key);
+    if (timer == null) {
+      MeterRegistry meterRegistry = getRegistry();
+      timer = Timer.builder(name).tags(tags)
+          .publishPercentiles(PERCENTILES)
+          .distributionStatisticExpiry(PERCENTILE_WINDOW)
+          .register(meterRegistry);
+      if (meterRegistry == registry) {
+        timers.put(key, timer);
+      }
+    }
+    return timer;
+  }
+
+  /**
+   * Finds the distribution summary with percentiles for the given name and tags.
+   *
+   * @param name The summary name.
+   * @param tags The tags (key/value pairs).
+   * @return The summary.
+   */
+  public DistributionSummary getDistributionSummary(String name, String... tags) {
+    String key = buildKey(name, tags);
+    DistributionSummary summary = summaries.get(key);
+    if (summary == null) {
+      MeterRegistry meterRegistry = getRegistry();
+      summary = DistributionSummary.builder(name).tags(tags)
+          .publishPercentiles(PERCENTILES)
+          .distributionStatisticExpiry(PERCENTILE_WINDOW)
+          .register(meterRegistry);
+      if (meterRegistry == registry) {
+        summaries.put(key, summary);
+      }
+    }
+    return summary;
+  }
+
+  /**
+   * Finds the counter for the given name and tags.
+   *
+   * @param name The counter name.
+   * @param tags The tags (key/value pairs).
+   * @return The counter.
+   */
+  public Counter getCounter(String name, String... tags) {
+    String key = buildKey(name, tags);
+    Counter counter = counters.get(key);
+    if (counter == null) {
+      MeterRegistry meterRegistry = getRegistry();
+      counter = Counter.builder(name).tags(tags).register(meterRegistry);
+      if (meterRegistry == registry) {
+        counters.put(key, counter);
+      }
+    }
+    return counter;
+  }
+
+  /**
+   * Builds the key for the meter caches.
+   *
+   * @param name The meter name.
+   * @param tags The tags.
+   * @return The key.
+   */
+  private String buildKey(String name, String... tags) {
+    if (tags.length == 0) {
+      return name;
+    }
+    return name + ":" + String.join(",", tags);
+  }
+
+  /**
+   * Returns the registry from the application context.  Uses the global registry (no-op) until the application
+   * context has a registry.
+   *
+   * @return The registry.
+   */
+  public MeterRegistry getRegistry() {
+    if (registry == null) {
+      ApplicationContext context = (ApplicationContext) ASTUtils.invokeGroovyMethod("org.simplemes.eframe.application.Holders", "getApplicationContext");
+      if (context != null && context.isRunning()) {
+        registry = context.findBean(MeterRegistry.class).orElse(null);
+      }
+      if (registry == null) {
+        return Metrics.globalRegistry;
+      }
+    }
+    return registry;
+  }
+
+  /**
+   * Returns a summary of the framework's meters (names starting with 'eframe.' or 'mes.').
+   * <h3>Results Map</h3>
+   * The elements in the list of Maps includes:
+   * <ul>
+   *   <li><b>name</b> - The meter name. </li>
+   *   <li><b>tags</b> - The tags (a Map). </li>
+   *   <li><b>type</b> - The meter type (e.g. TIMER, COUNTER). </li>
+   *   <li><b>count</b> - The count (timers, counters and distributions). </li>
+   *   <li><b>mean</b> - The mean (ms for timers). </li>
+   *   <li><b>max</b> - The max (ms for timers). </li>
+   *   <li><b>p50/p95/p99</b> - The percentiles (ms for timers). </li>
+   *   <li><b>value</b> - The value for gauges. </li>
+   * </ul>
+   *
+   * @return The summary, sorted by name.
+   */
+  public List<Map<String, Object>> getSummary() {
+    List<Map<String, Object>> res = new ArrayList<>();
+    for (Meter meter : getRegistry().getMeters()) {
+      String name = meter.getId().getName();
+      if (!isSummaryMeter(name)) {
+        continue;
+      }
+      Map<String, Object> map = new LinkedHashMap<>();
+      map.put("name", name);
+      Map<String, String> tags = new LinkedHashMap<>();
+      for (Tag tag : meter.getId().getTags()) {
+        tags.put(tag.getKey(), tag.getValue());
+      }
+      map.put("tags", tags);
+      map.put("type", meter.getId().getType().toString());
+      if (meter instanceof Timer) {
+        addSnapshot(map, ((Timer) meter).takeSnapshot(), TimeUnit.MILLISECONDS);
+      } else if (meter instanceof DistributionSummary) {
+        addSnapshot(map, ((DistributionSummary) meter).takeSnapshot(), null);
+      } else if (meter instanceof Counter) {
+        map.put("count", ((Counter) meter).count());
+      } else if (meter instanceof FunctionCounter) {
+        map.put("count", ((FunctionCounter) meter).count());
+      } else if (meter instanceof Gauge) {
+        map.put("value", ((Gauge) meter).value());
+      }
+      res.add(map);
+    }
+    res.sort((a, b) -> (a.get("name") + a.get("tags").toString()).compareTo(b.get("name") + b.get("tags").toString()));
+    return res;
+  }
+
+  /**
+   * Determines if the meter is part of the summary.
+   *
+   * @param name The meter name.
+   * @return True if in the summary.
+   */
+  private boolean isSummaryMeter(String name) {
+    for (String prefix : SUMMARY_PREFIXES) {
+      if (name.startsWith(prefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Adds the histogram snapshot values to the summary map.
+   *
+   * @param map      The summary map.
+   * @param snapshot The snapshot.
+   * @param unit     The time units for the values.  Null if not a timer.
+   */
+  private void addSnapshot(Map<String, Object> map, HistogramSnapshot snapshot, TimeUnit unit) {
+    map.put("count", snapshot.count());
+    map.put("mean", unit != null ? snapshot.mean(unit) : snapshot.mean());
+    map.put("max", unit != null ? snapshot.max(unit) : snapshot.max());
+    for (ValueAtPercentile percentile : snapshot.percentileValues()) {
+      String key = "p" + Math.round(percentile.percentile() * 100);
+      map.put(key, unit != null ? percentile.value(unit) : percentile.value());
+    }
+  }
+
+  /**
+   * Clears the cached registry and meters and disables tracing.  Used by tests that use a new application context.
+   */
+  public void clear() {
+    tracing = false;
+    registry = null;
+    timers.clear();
+    counters.clear();
+    summaries.clear();
+  }
+
+  public boolean isTracing() {
+    return tracing;
+  }
+
+  public void setTracing(boolean tracing) {
+    this.tracing = tracing;
+  }
+
+  public static MetricsHelper getInstance() {
+    return instance;
+  }
+
+  public static void setInstance(MetricsHelper instance) {
+    MetricsHelper.instance = instance;
+  }
+
+  /**
+   * The metrics for a single request.
+   */
+  public static class RequestMetrics {
+
+    /**
+     * The number of DB statements executed.
+     */
+    public final AtomicInteger queries = new AtomicInteger();
+
+    /**
+     * The trace spans (name and ms), in the order recorded.
+     */
+    public final List<Map.Entry<String, Double>> spans = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * Adds a span to the request.
+     *
+     * @param name  The span name.
+     * @param nanos The elapsed time (nanoseconds).
+     */
+    public void addSpan(String name, long nanos) {
+      spans.add(new AbstractMap.SimpleImmutableEntry<>(name, nanos / 1000000.0));
+    }
+  }
+
+}
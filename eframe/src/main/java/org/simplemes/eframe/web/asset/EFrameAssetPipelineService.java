@@ -24,6 +24,7 @@ import java.lang.reflect.Method;
 import java.net.URL;
 import java.net.URLConnection;
 import java.util.Collection;
+import java.util.Optional;
 import java.util.Properties;
 
 /**
@@ -109,16 +110,7 @@ public class EFrameAssetPipelineService extends AssetPipelineService {
 
     }
 
-    // Use reflection to find the work around 265.
-    Boolean workAround265 = false;
-    try {
-      Class waClass = Class.forName("org.simplemes.eframe.application.issues.WorkArounds");
-      @SuppressWarnings("unchecked")
-      Method method = waClass.getDeclaredMethod("getWorkAround265");
-      workAround265 = (Boolean) method.invoke(null);
-    } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException | InvocationTargetException ignored) {
-    }
-
+    Boolean workAround265 = isWorkAround265();
     if (workAround265) {
       return handleAssetWorkAround(filename, contentType, encoding, request, chain);
     } else {
@@ -128,6 +120,37 @@ public class EFrameAssetPipelineService extends AssetPipelineService {
 
   // Begin WorkArounds.getWorkAround265()
   // Remove when WorkArounds.getWorkAround265() is removed.
+
+  /**
+   * The WorkArounds.getWorkAround265() method.  Found once since the Groovy class is not visible at compile time.
+   * Empty if not found.
+   */
+  private static volatile Optional<Method> workAround265Method;
+
+  /**
+   * Determines if the work around is needed.
+   *
+   * @return The WorkArounds.getWorkAround265() value.
+   */
+  private static Boolean isWorkAround265() {
+    if (workAround265Method == null) {
+      Method method = null;
+      try {
+        Class<?> waClass = Class.forName("org.simplemes.eframe.application.issues.WorkArounds");
+        method = waClass.getDeclaredMethod("getWorkAround265");
+      } catch (ClassNotFoundException | NoSuchMethodException ignored) {
+      }
+      workAround265Method = Optional.ofNullable(method);
+    }
+    if (workAround265Method.isPresent()) {
+      try {
+        return (Boolean) workAround265Method.get().invoke(null);
+      } catch (IllegalAccessException | InvocationTargetException ignored) {
+      }
+    }
+    return false;
+  }
+
   static final ProductionAssetCache fileCache = new ProductionAssetCache();
 
   public Flowable<MutableHttpResponse<?>> handleAssetWorkAround(String filename, MediaType contentType, String encoding, HttpRequest<?> request, ServerFilterChain chain) {
@@ -0,0 +1,9 @@
+/*
+ * Copyright (c) Michael Houston 2020. All rights reserved.
+ */
+
+
+ALTER TABLE public.flex_field
+    add column indexed boolean default false;
+ALTER TABLE public.field_extension
+    add column indexed boolean default false;
@@ -96,6 +96,18 @@ class ArchiverFactorySpec extends BaseSpecification {
       return new Object[0]
     }
 
+    /**
+     * Unarchive the given file, one domain object at a time.
+     * @param ref The file reference provided by the archive process.
+     * @param save If true, then the unarchived records will be automatically saved by the unarchive logic.
+     * @param callback The closure called for each domain object unarchived.
+     * @return The number of domain objects unarchived.
+     */
+    @Override
+    int unarchiveEach(String ref, Boolean save, Closure callback) {
+      return 0
+    }
+
     /**
      * Build the archive basic reference name.  This is a dynamic value that is intended to avoid
      * filling up a directory with .arc files.  The object's id can be used with this reference base
@@ -15,11 +15,13 @@ import org.simplemes.eframe.misc.FileFactory
 import org.simplemes.eframe.misc.FileUtils
 import org.simplemes.eframe.misc.TypeUtils
 import org.simplemes.eframe.test.BaseSpecification
+import org.simplemes.eframe.test.CompilerTestUtils
 import org.simplemes.eframe.test.MockAppender
 import org.simplemes.eframe.test.MockFileFactory
 import org.simplemes.eframe.test.UnitTestUtils
 import org.simplemes.eframe.test.annotation.Rollback
 import sample.domain.AllFieldsDomain
+import sample.domain.RMA
 import sample.domain.SampleChild
 import sample.domain.SampleParent
 
@@ -29,7 +31,7 @@ import sample.domain.SampleParent
 class FileArchiverSpec extends BaseSpecification {
 
   @SuppressWarnings("unused")
-  static dirtyDomains = [SampleParent, AllFieldsDomain, ArchiveLog]
+  static dirtyDomains = [SampleParent, AllFieldsDomain, RMA, ArchiveLog]
 
   /**
    * The string writer to contain the mocked file contents.
@@ -141,6 +143,127 @@ class FileArchiverSpec extends BaseSpecification {
     file?.delete()
   }
 
+  def "verify that compressed archives work - round trip - real file system"() {
+    given: 'the archiver will use the real file system'
+    FileFactory.instance = new FileFactory()
+
+    and: 'some domain records'
+    def sampleParent1 = null
+    SampleParent.withTransaction {
+      sampleParent1 = new SampleParent(name: 'SAMPLE', title: 'Sample')
+      sampleParent1.sampleChildren << new SampleChild(key: '123')
+      sampleParent1.save()
+    }
+
+    and: 'the archiver is configured to write a compressed file to the build directory'
+    Holders.configuration.archive.topFolder = 'build/archives'
+    Holders.configuration.archive.folderName = 'unit'
+    Holders.configuration.archive.fileName = 'compressed'
+    Holders.configuration.archive.compress = true
+
+    when: 'the domain is archived'
+    def ref = null
+    SampleParent.withTransaction {
+      def archiver = new FileArchiver()
+      archiver.archive(sampleParent1)
+      ref = archiver.close()
+    }
+    def file = new File(FileArchiver.makePathFromReference(ref))
+
+    then: 'the archive is compressed'
+    ref.endsWith(FileArchiver.COMPRESSED_ARCHIVE_EXTENSION)
+    file.exists()
+
+    and: 'the records are deleted'
+    SampleParent.withTransaction {
+      assert SampleParent.count() == 0
+      assert SampleChild.count() == 0
+      true
+    }
+
+    when: 'the archive is restored'
+    SampleParent.withTransaction {
+      new FileArchiver().unarchive(ref)
+    }
+
+    then: 'the records are re-created'
+    SampleParent.withTransaction {
+      def p = SampleParent.findByName('SAMPLE')
+      assert p.title == 'Sample'
+      assert p.sampleChildren.size() == 1
+      assert p.sampleChildren[0].key == '123'
+      true
+    }
+
+    cleanup:
+    file?.delete()
+  }
+
+  def "verify that simple domains are deleted with a set-based delete"() {
+    given: 'some simple domain records and a complex domain record'
+    def rmas = []
+    def sampleParent = null
+    RMA.withTransaction {
+      for (i in 1..3) {
+        rmas << new RMA(rma: "RMA$i").save()
+      }
+      sampleParent = new SampleParent(name: 'SAMPLE').save()
+    }
+
+    when: 'the records are archived'
+    RMA.withTransaction {
+      def archiver = new FileArchiver()
+      for (rma in rmas) {
+        archiver.archive(rma)
+      }
+      archiver.archive(sampleParent)
+      archiver.close()
+    }
+
+    then: 'all of the records are deleted'
+    RMA.withTransaction {
+      assert RMA.count() == 0
+      assert SampleParent.count() == 0
+      true
+    }
+
+    and: 'the file contains all of the records'
+    def json = new JsonSlurper().parse(stringWriter.toString().bytes)
+    json.size() == 8
+    json[0] == RMA.name
+    json[1].rma == 'RMA1'
+    json[6] == SampleParent.name
+  }
+
+  def "verify that isBulkDeleteAllowed detects the simple domains"() {
+    expect: 'the right value is returned'
+    new FileArchiver().isBulkDeleteAllowed(clazz) == result
+
+    where:
+    clazz           | result
+    RMA             | true
+    SampleParent    | false
+    SampleChild     | false
+    AllFieldsDomain | false
+  }
+
+  def "verify that isBulkDeleteAllowed rejects the cached domains"() {
+    given: 'a simple domain that is cached'
+    def src = """
+      import org.simplemes.eframe.domain.annotation.DomainEntity
+
+      @DomainEntity
+      class TestClass {
+        UUID uuid
+        static cache = true
+      }
+    """
+    def clazz = CompilerTestUtils.compileSource(src)
+
+    expect: 'the set-based delete is not used'
+    !new FileArchiver().isBulkDeleteAllowed(clazz)
+  }
+
   @SuppressWarnings("GroovyAssignabilityCheck")
   def "verify that archive works with related objects"() {
     given: 'a domain with some related files - an AllFieldsDomain with the same key field'
@@ -326,6 +449,45 @@ class FileArchiverSpec extends BaseSpecification {
     }
   }
 
+  def "verify that unarchiveEach saves and passes each object to the callback"() {
+    given: 'JSON with multiple records'
+    def s = """ [
+      "sample.domain.SampleParent",
+      {
+          "name": "SAMPLE1",
+          "title": "Sample1"
+      },
+      "sample.domain.SampleParent",
+      {
+          "name": "SAMPLE2",
+          "title": "Sample2"
+      }
+    ]
+    """
+
+    and: 'the text is available to the MockFile reader'
+    stringWriter.write(s)
+
+    when: 'the file is unarchived one object at a time'
+    def names = []
+    def count = 0
+    SampleParent.withTransaction {
+      count = new FileArchiver().unarchiveEach('dummy.arc', true) { Object o ->
+        names << o.name
+      }
+    }
+
+    then: 'the callback is called for each object'
+    count == 2
+    names == ['SAMPLE1', 'SAMPLE2']
+
+    and: 'the records are saved'
+    SampleParent.withTransaction {
+      assert SampleParent.count() == 2
+      true
+    }
+  }
+
   def "verify that unarchive can gracefully detect validation errors"() {
     given: 'JSON in the original framework 1.0 format - missing required field'
     def s = """ [
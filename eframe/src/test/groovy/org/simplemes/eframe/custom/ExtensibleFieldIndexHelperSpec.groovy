@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) Michael Houston 2020. All rights reserved.
+ */
+
+package org.simplemes.eframe.custom
+
+import org.simplemes.eframe.custom.domain.FieldExtension
+import org.simplemes.eframe.custom.domain.FlexField
+import org.simplemes.eframe.custom.domain.FlexType
+import org.simplemes.eframe.domain.SQLUtils
+import org.simplemes.eframe.domain.annotation.DomainEntityHelper
+import org.simplemes.eframe.search.SearchHelper
+import org.simplemes.eframe.test.BaseSpecification
+import org.simplemes.eframe.test.DataGenerator
+import org.simplemes.eframe.test.annotation.Rollback
+import sample.domain.CustomOrderComponent
+import sample.domain.Order
+import sample.domain.RMA
+import sample.domain.SampleParent
+
+import java.util.concurrent.ExecutorService
+
+/**
+ * Tests.
+ */
+class ExtensibleFieldIndexHelperSpec extends BaseSpecification {
+
+  @SuppressWarnings("unused")
+  static dirtyDomains = [FieldExtension, FlexType, SampleParent]
+
+  def setup() {
+    ExtensibleFieldIndexHelper.instance.clearCache()
+  }
+
+  def cleanup() {
+    // Remove any indexes built by the tests.
+    ExtensibleFieldIndexHelper.instance.waitForQueuedChanges()
+    ExtensibleFieldIndexHelper.instance.dropIndex(SampleParent, 'abc')
+    ExtensibleFieldIndexHelper.instance.dropIndex(RMA, 'serial')
+    ExtensibleFieldIndexHelper.instance.clearCache()
+  }
+
+  /**
+   * Determines if the given index exists in the DB.
+   * @param indexName The index name.
+   * @return True if found.
+   */
+  boolean indexExists(String indexName) {
+    def list = []
+    FieldExtension.withTransaction {
+      list = SQLUtils.instance.executeQuery("SELECT indexname FROM pg_indexes WHERE indexname = ?", Map, indexName)
+    }
+    return list.size() > 0
+  }
+
+  /**
+   * Saves the given record in its own transaction and waits for the queued index changes.
+   * @param record The record to save.
+   * @return The record.
+   */
+  def saveAndWait(Object record) {
+    FieldExtension.withTransaction {
+      record.save()
+    }
+    ExtensibleFieldIndexHelper.instance.waitForQueuedChanges()
+    return record
+  }
+
+  def "verify that getIndexName builds the correct names"() {
+    expect: 'the name is correct'
+    def name = ExtensibleFieldIndexHelper.instance.getIndexName(tableName, fieldName)
+    if (result) {
+      assert name == result
+    }
+    name.length() <= ExtensibleFieldIndexHelper.MAX_NAME_LENGTH
+    name.endsWith(ExtensibleFieldIndexHelper.INDEX_SUFFIX)
+
+    where:
+    tableName       | fieldName  | result
+    'sample_parent' | 'abc'      | 'sample_parent_abc_cf_idx'
+    'sample_parent' | 'ABC'      | 'sample_parent_abc_cf_idx'
+    'x' * 40        | 'y' * 40   | null
+  }
+
+  def "verify that getIndexName shortens long names and keeps them unique"() {
+    when: 'two long names are built'
+    def name1 = ExtensibleFieldIndexHelper.instance.getIndexName('x' * 40, 'y' * 40)
+    def name2 = ExtensibleFieldIndexHelper.instance.getIndexName('x' * 40, 'y' * 41)
+
+    then: 'the names are different'
+    name1 != name2
+  }
+
+  def "verify that saving an indexed FieldExtension creates and drops the DB index"() {
+    given: 'the index name'
+    def indexName = ExtensibleFieldIndexHelper.instance.getIndexName('sample_parent', 'abc')
+
+    when: 'an indexed custom field is saved'
+    def fieldExtension = saveAndWait(new FieldExtension(fieldName: 'abc', domainClassName: SampleParent.name, indexed: true))
+
+    then: 'the index is created'
+    indexExists(indexName)
+
+    and: 'the field is in the indexed list'
+    ExtensibleFieldIndexHelper.instance.getIndexedFields(SampleParent) == ['abc'] as Set
+
+    when: 'the field is no longer indexed'
+    fieldExtension.indexed = false
+    saveAndWait(fieldExtension)
+
+    then: 'the index is dropped'
+    !indexExists(indexName)
+    !ExtensibleFieldIndexHelper.instance.getIndexedFields(SampleParent)
+  }
+
+  def "verify that deleting an indexed FieldExtension drops the DB index"() {
+    given: 'an indexed custom field'
+    def fieldExtension = saveAndWait(new FieldExtension(fieldName: 'abc', domainClassName: SampleParent.name, indexed: true))
+    def indexName = ExtensibleFieldIndexHelper.instance.getIndexName('sample_parent', 'abc')
+    assert indexExists(indexName)
+
+    when: 'the field is deleted'
+    FieldExtension.withTransaction {
+      fieldExtension.delete()
+    }
+    ExtensibleFieldIndexHelper.instance.waitForQueuedChanges()
+
+    then: 'the index is dropped'
+    !indexExists(indexName)
+  }
+
+  def "verify that an indexed FlexField creates the DB index on all domains with a configurable type"() {
+    when: 'an indexed flex field is saved'
+    def flexType = new FlexType(flexType: 'XYZ')
+    flexType.fields << new FlexField(flexType: flexType, fieldName: 'serial', indexed: true)
+    saveAndWait(flexType)
+
+    then: 'the index is created on a domain with a configurable type field'
+    def tableName = DomainEntityHelper.instance.getTableName(RMA)
+    indexExists(ExtensibleFieldIndexHelper.instance.getIndexName(tableName, 'serial'))
+
+    and: 'the field is in the indexed list'
+    ExtensibleFieldIndexHelper.instance.getIndexedFields(RMA).contains('serial')
+
+    and: 'the field is not indexed for domains without a configurable type field'
+    !ExtensibleFieldIndexHelper.instance.getIndexedFields(SampleParent).contains('serial')
+  }
+
+  def "verify that createMissingIndexes creates the indexes"() {
+    given: 'an indexed custom field with no DB index'
+    saveAndWait(new FieldExtension(fieldName: 'abc', domainClassName: SampleParent.name, indexed: true))
+    def indexName = ExtensibleFieldIndexHelper.instance.getIndexName('sample_parent', 'abc')
+    ExtensibleFieldIndexHelper.instance.dropIndex(SampleParent, 'abc')
+    assert !indexExists(indexName)
+
+    when: 'the missing indexes are created'
+    ExtensibleFieldIndexHelper.instance.createMissingIndexes()
+
+    then: 'the index is created'
+    indexExists(indexName)
+  }
+
+  def "verify that saving a FieldExtension with no change to the index does not queue an index change"() {
+    given: 'an indexed custom field with its index'
+    def fieldExtension = saveAndWait(new FieldExtension(fieldName: 'abc', domainClassName: SampleParent.name, indexed: true))
+
+    and: 'the index builder is replaced with a mock'
+    def originalBuilder = ExtensibleFieldIndexHelper.instance.indexBuilder
+    def mockBuilder = Mock(ExecutorService)
+    ExtensibleFieldIndexHelper.instance.indexBuilder = mockBuilder
+
+    when: 'the field is saved with a change that does not affect the index'
+    fieldExtension.label = 'new label'
+    FieldExtension.withTransaction {
+      fieldExtension.save()
+    }
+
+    then: 'no index change is queued'
+    0 * mockBuilder.submit(_)
+
+    cleanup:
+    ExtensibleFieldIndexHelper.instance.indexBuilder = originalBuilder
+  }
+
+  @Rollback
+  def "verify that buildFilter builds the correct SQL filter for the supported cases"() {
+    given: 'an indexed custom field'
+    new FieldExtension(fieldName: 'abc', domainClassName: SampleParent.name, indexed: true).save()
+    new FieldExtension(fieldName: 'xyz', domainClassName: SampleParent.name).save()
+
+    when: 'the filter is built'
+    def filter = ExtensibleFieldIndexHelper.instance.buildFilter(SampleParent, search)
+
+    then: 'the filter is correct'
+    filter?.where == where
+    filter?.value == value
+
+    where:
+    search                        | where                            | value
+    'abc:XYZ'                     | "custom_fields->>'abc' = ?"      | 'XYZ'
+    'ABC:XYZ'                     | "custom_fields->>'abc' = ?"      | 'XYZ'
+    'customFields.abc:XYZ'        | "custom_fields->>'abc' = ?"      | 'XYZ'
+    'sampleParent.abc:XYZ'        | "custom_fields->>'abc' = ?"      | 'XYZ'
+    'abc:XY*'                     | "custom_fields->>'abc' LIKE ?"   | 'XY%'
+    'abc:X_%*'                    | "custom_fields->>'abc' LIKE ?"   | 'X\\_\\%%'
+    'xyz:XYZ'                     | null                             | null
+    'abc'                         | null                             | null
+    'abc:'                        | null                             | null
+    'XYZ'                         | null                             | null
+    "abc:'XYZ'"                   | null                             | null
+    'abc:XYZ OR name:ABC'         | null                             | null
+    ''                            | null                             | null
+    null                          | null                             | null
+  }
+
+  @Rollback
+  def "verify that buildFilter builds the SQL filter for a custom field in a custom child list"() {
+    given: 'an indexed custom field on the child'
+    new FieldExtension(fieldName: 'serial', domainClassName: CustomOrderComponent.name, indexed: true).save()
+
+    when: 'the filter is built'
+    def filter = ExtensibleFieldIndexHelper.instance.buildFilter(Order, 'order.customComponents.customFields.serial:S1')
+
+    then: 'the filter uses a sub-query on the child table'
+    def childTable = DomainEntityHelper.instance.getTableName(CustomOrderComponent)
+    filter.where == "uuid IN (SELECT order_id FROM $childTable WHERE custom_fields->>'serial' = ?)"
+    filter.value == 'S1'
+
+    and: 'the short form works too'
+    ExtensibleFieldIndexHelper.instance.buildFilter(Order, 'customComponents.serial:S1').where == filter.where
+  }
+
+  @Rollback
+  def "verify that invalid field names are not indexed"() {
+    when: 'a custom field with an invalid SQL name is saved as indexed'
+    new FieldExtension(fieldName: 'abc-def', domainClassName: SampleParent.name, indexed: true).save()
+
+    then: 'no index is created'
+    !indexExists(ExtensibleFieldIndexHelper.instance.getIndexName('sample_parent', 'abc-def'))
+
+    and: 'the field is not used for the searches'
+    !ExtensibleFieldIndexHelper.instance.getIndexedFields(SampleParent)
+  }
+
+  @Rollback
+  def "verify that getIndexUsage returns the usage for the custom field indexes"() {
+    given: 'an indexed custom field'
+    new FieldExtension(fieldName: 'abc', domainClassName: SampleParent.name, indexed: true).save()
+
+    when: 'the usage is found'
+    def list = ExtensibleFieldIndexHelper.instance.getIndexUsage()
+
+    then: 'the usage is returned without error'
+    list != null
+  }
+
+  @Rollback
+  def "verify that the indexed field is used by the DB search"() {
+    given: 'an indexed custom field'
+    new FieldExtension(fieldName: 'abc', domainClassName: SampleParent.name, indexed: true).save()
+
+    and: 'some records with values'
+    def records = DataGenerator.generate {
+      domain SampleParent
+      count 5
+      values name: 'ABC$i'
+    }
+    records.eachWithIndex { record, i ->
+      record.setFieldValue('abc', "V${i}")
+      record.save()
+    }
+
+    expect: 'the search finds the matching records'
+    def res = new SearchHelper().domainSearchInDB(SampleParent, search)
+    res.totalHits == count
+    res.hits.size() == count
+
+    where:
+    search   | count
+    'abc:V2' | 1
+    'abc:V*' | 5
+    'abc:X*' | 0
+  }
+
+}
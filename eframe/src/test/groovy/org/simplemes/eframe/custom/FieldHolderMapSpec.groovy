@@ -29,6 +29,8 @@ import org.simplemes.eframe.test.annotation.Rollback
 import sample.domain.RMA
 import sample.domain.SampleParent
 
+import java.util.concurrent.ConcurrentHashMap
+
 /**
  * Tests.
  */
@@ -470,6 +472,130 @@ class FieldHolderMapSpec extends BaseSpecification {
 
   }
 
+  def "verify that fromJSON only decodes the elements used"() {
+    given: 'some JSON with several elements'
+    def src = '{"field1": "XYZ", "field2": {"a": [1, 2, 3]}, "field3": 237, "_config": {}}'
+
+    when: 'the map is created and one value is used'
+    def map = FieldHolderMap.fromJSON(src)
+    def value = map.field1
+
+    then: 'the value is correct'
+    value == 'XYZ'
+
+    and: 'the other elements are not decoded'
+    map.@rawIndex.keySet() == ['field2', 'field3', '_config'] as Set
+
+    and: 'the size and containsKey work without decoding the elements'
+    map.size() == 4
+    map.containsKey('field3')
+    !map.containsKey('field4')
+    map.@rawIndex.size() == 3
+
+    when: 'the map is iterated'
+    def keys = []
+    map.each { k, v -> keys << k }
+
+    then: 'all elements are decoded'
+    keys.sort() == ['_config', 'field1', 'field2', 'field3']
+    map.@rawIndex == null
+    map.field2 == [a: [1, 2, 3]]
+    map.field3 == 237
+  }
+
+  def "verify that prepareForSharing decodes all elements and uses a concurrent cache for the typed values"() {
+    given: 'a map from JSON with a typed value'
+    def date = new Date(UnitTestUtils.SAMPLE_TIME_MS)
+    def origMap = new FieldHolderMap(parsingFromJSON: false)
+    origMap.put('field1', date)
+    origMap.put('field2', 'XYZ')
+    def map = FieldHolderMap.fromJSON(origMap.toJSON())
+
+    when: 'the map is prepared for sharing'
+    map.prepareForSharing()
+
+    then: 'all elements are decoded'
+    map.@rawIndex == null
+
+    and: 'the typed value cache is concurrent'
+    map.@convertedValues instanceof ConcurrentHashMap
+
+    and: 'the values are correct'
+    map.field1 == date
+    map.field2 == 'XYZ'
+
+    when: 'the map is iterated'
+    map.keySet()
+
+    then: 'the typed value cache is still concurrent'
+    map.@convertedValues instanceof ConcurrentHashMap
+  }
+
+  def "verify that toJSON passes the unused elements through verbatim"() {
+    given: 'a map from JSON with some unusual formatting in an element'
+    def src = '{ "field1" : "XYZ" ,\n  "field2":{"a":[1,  2,   3]} , "field3":"PDQ"}'
+    def map = FieldHolderMap.fromJSON(src)
+
+    when: 'one value is changed and the JSON is created'
+    map.put('field1', 'ABC')
+    def json = map.toJSON()
+
+    then: 'the unused element is copied verbatim'
+    json.contains('"field2":{"a":[1,  2,   3]}')
+
+    and: 'the JSON can be parsed with the right values'
+    def map2 = FieldHolderMap.fromJSON(json)
+    map2.field1 == 'ABC'
+    map2.field2 == [a: [1, 2, 3]]
+    map2.field3 == 'PDQ'
+  }
+
+  def "verify that fromJSON handles the edge cases"() {
+    expect: 'the map is correct'
+    def map = FieldHolderMap.fromJSON(src)
+    map == result
+
+    and: 'the map is not marked as dirty or parsing'
+    !map.isDirty()
+    !map.isParsingFromJSON()
+
+    where:
+    src                          | result
+    '{}'                         | [:]
+    ' { } '                      | [:]
+    '{"a":null}'                 | [a: null]
+    '{"a":"x,y}"}'               | [a: 'x,y}']
+    '{"a":"\\"quoted\\""}'   | [a: '"quoted"']
+    '{"a":[],"b":{}}'            | [a: [], b: [:]]
+  }
+
+  def "verify that get caches the converted values"() {
+    given: 'a map from JSON with a typed value'
+    def date = new Date(UnitTestUtils.SAMPLE_TIME_MS)
+    def origMap = new FieldHolderMap(parsingFromJSON: false)
+    origMap.put('field1', date)
+    def map = FieldHolderMap.fromJSON(origMap.toJSON())
+
+    when: 'the value is read twice'
+    def value1 = map.field1
+    def value2 = map.field1
+
+    then: 'the values are correct'
+    value1 == date
+    value2 == date
+
+    and: 'the value is cached, but a copy is returned since Dates are mutable'
+    map.@convertedValues.field1 == date
+    !value1.is(value2)
+
+    when: 'the value is changed'
+    def date2 = new Date(UnitTestUtils.SAMPLE_TIME_MS + 1000)
+    map.put('field1', date2)
+
+    then: 'the new value is returned'
+    map.field1 == date2
+  }
+
   // mergeConfig - changes type - no change
 
   // mergeMap Config is not overwritten if conflicting values are passed in as src.
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) Michael Houston 2020. All rights reserved.
+ */
+
+package org.simplemes.eframe.dashboard
+
+import org.simplemes.eframe.dashboard.domain.DashboardConfig
+import org.simplemes.eframe.domain.SQLUtils
+import org.simplemes.eframe.test.BaseSpecification
+import org.simplemes.eframe.test.DashboardUnitTestUtils
+import org.simplemes.eframe.test.annotation.Rollback
+
+/**
+ * Tests.
+ */
+class DashboardDefinitionCacheSpec extends BaseSpecification {
+
+  @SuppressWarnings("unused")
+  static dirtyDomains = [DashboardConfig]
+
+  def setup() {
+    DashboardDefinitionCache.instance.clear()
+  }
+
+  def cleanup() {
+    DashboardDefinitionCache.maxAge = 60000
+  }
+
+  @Rollback
+  def "verify that findByDashboard caches the loaded dashboard"() {
+    given: 'a dashboard with buttons'
+    def buttons = [[label: 'b2', url: '/page2', panel: 'A', buttonID: 'B2', sequence: 20],
+                   [label: 'b1', url: '/page1', panel: 'B', buttonID: 'B1', sequence: 10]]
+    DashboardUnitTestUtils.buildDashboardConfig('TEST', ['vertical0', '/page0', '/page1'], buttons)
+
+    when: 'the dashboard is found twice'
+    def definition1 = DashboardDefinitionCache.instance.findByDashboard('TEST')
+    def definition2 = DashboardDefinitionCache.instance.findByDashboard('TEST')
+
+    then: 'the same definition is returned'
+    definition1.is(definition2)
+
+    and: 'the child records are loaded'
+    definition1.dashboard == 'TEST'
+    definition1.dashboardConfig.dashboardPanels.size() == 2
+    definition1.dashboardConfig.splitterPanels.size() == 1
+
+    and: 'the buttons are sorted'
+    definition1.dashboardConfig.buttons*.label == ['b1', 'b2']
+  }
+
+  @Rollback
+  def "verify that findDefaultForCategory caches the loaded dashboard"() {
+    given: 'a default dashboard'
+    DashboardUnitTestUtils.buildDashboardConfig('TEST', ['/page0'])
+
+    when: 'the dashboard is found twice'
+    def definition1 = DashboardDefinitionCache.instance.findDefaultForCategory(DashboardConfig.DEFAULT_CATEGORY)
+    def definition2 = DashboardDefinitionCache.instance.findDefaultForCategory(DashboardConfig.DEFAULT_CATEGORY)
+
+    then: 'the same definition is returned'
+    definition1.is(definition2)
+    definition1.dashboard == 'TEST'
+
+    and: 'the same definition is used for the lookup by name'
+    DashboardDefinitionCache.instance.findByDashboard('TEST').is(definition1)
+  }
+
+  @Rollback
+  def "verify that the cache is cleared when the dashboard or a child is saved"() {
+    given: 'a cached dashboard'
+    def dashboardConfig = DashboardUnitTestUtils.buildDashboardConfig('TEST', ['vertical0', '/page0', '/page1'])
+    def definition1 = DashboardDefinitionCache.instance.findByDashboard('TEST')
+    definition1.getFragment('panels') { 'ABC' }
+
+    when: 'a child panel is changed'
+    dashboardConfig.dashboardPanels[0].defaultURL = '/page3'
+    dashboardConfig.dashboardPanels[0].save()
+
+    then: 'the new values are used'
+    def definition2 = DashboardDefinitionCache.instance.findByDashboard('TEST')
+    !definition2.is(definition1)
+    definition2.dashboardConfig.dashboardPanels[0].defaultURL == '/page3'
+
+    and: 'the fragments are built again'
+    definition2.getFragment('panels') { 'XYZ' } == 'XYZ'
+
+    when: 'the dashboard is changed'
+    dashboardConfig.title = 'new title'
+    dashboardConfig.save()
+
+    then: 'the new values are used'
+    DashboardDefinitionCache.instance.findByDashboard('TEST').dashboardConfig.title == 'new title'
+  }
+
+  @Rollback
+  def "verify that the cache is cleared when the dashboard is deleted"() {
+    given: 'a cached dashboard'
+    def dashboardConfig = DashboardUnitTestUtils.buildDashboardConfig('TEST', ['/page0'])
+    assert DashboardDefinitionCache.instance.findByDashboard('TEST')
+
+    when: 'the dashboard is deleted'
+    dashboardConfig.delete()
+
+    then: 'it is no longer found'
+    DashboardDefinitionCache.instance.findByDashboard('TEST') == null
+  }
+
+  @Rollback
+  def "verify that a dashboard changed on another server is re-loaded"() {
+    given: 'a cached default dashboard'
+    DashboardUnitTestUtils.buildDashboardConfig('TEST', ['/page0'])
+    def definition1 = DashboardDefinitionCache.instance.findDefaultForCategory(DashboardConfig.DEFAULT_CATEGORY)
+
+    when: 'the record is changed without the cache listener'
+    SQLUtils.instance.executeUpdate('UPDATE dashboard_config SET version = version + 1 WHERE dashboard = ?', 'TEST')
+
+    then: 'the definition is re-loaded'
+    def definition2 = DashboardDefinitionCache.instance.findByDashboard('TEST')
+    !definition2.is(definition1)
+    definition2.version == definition1.version + 1
+
+    and: 'the new definition is used for the category'
+    DashboardDefinitionCache.instance.findDefaultForCategory(DashboardConfig.DEFAULT_CATEGORY).is(definition2)
+  }
+
+  @Rollback
+  def "verify that an old definition is re-loaded"() {
+    given: 'a cached dashboard'
+    DashboardUnitTestUtils.buildDashboardConfig('TEST', ['/page0'])
+    def definition1 = DashboardDefinitionCache.instance.findByDashboard('TEST')
+
+    when: 'the definition is too old'
+    DashboardDefinitionCache.maxAge = 0
+
+    then: 'it is re-loaded'
+    !DashboardDefinitionCache.instance.findByDashboard('TEST').is(definition1)
+  }
+
+  def "verify that a missing dashboard is not cached"() {
+    expect: 'not found'
+    DashboardDefinitionCache.instance.findByDashboard('GONE') == null
+    DashboardDefinitionCache.instance.findDefaultForCategory('GONE') == null
+    DashboardDefinitionCache.instance.definitions.size() == 0
+  }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) Michael Houston 2020. All rights reserved.
+ */
+
+package org.simplemes.eframe.date
+
+import org.simplemes.eframe.test.BaseSpecification
+import org.simplemes.eframe.test.UnitTestUtils
+
+import java.text.DateFormat
+import java.text.SimpleDateFormat
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+
+/**
+ * Tests.
+ */
+class DateFormatRegistrySpec extends BaseSpecification {
+
+  void cleanup() {
+    DateFormatRegistry.clearCache()
+  }
+
+  def "verify that the formats are cached by locale"() {
+    expect: 'the same formats are returned for the same locale'
+    DateFormatRegistry.getFormats(Locale.US).is(DateFormatRegistry.getFormats(Locale.US))
+    !DateFormatRegistry.getFormats(Locale.US).is(DateFormatRegistry.getFormats(Locale.GERMANY))
+  }
+
+  def "verify that the java formats returned are copies"() {
+    given: 'the formats'
+    def formats = DateFormatRegistry.getFormats(Locale.US)
+
+    when: 'a copy is changed'
+    def dateFormat = formats.getDateTimeFormat()
+    dateFormat.setTimeZone(TimeZone.getTimeZone('Asia/Tokyo'))
+
+    then: 'the next copy is not changed'
+    formats.getDateTimeFormat().timeZone != dateFormat.timeZone
+  }
+
+  def "verify that the java.time formatters match the java.text formats for the common locales"() {
+    given: 'a time zone'
+    def timeZone = TimeZone.getTimeZone('America/New_York')
+
+    expect: 'the formatted values match the old java.text format output'
+    for (time in [UnitTestUtils.SAMPLE_TIME_MS, 0L, 1600000000000L, 946684799999L]) {
+      def date = new Date(time)
+      DateFormat oldFormat = DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.MEDIUM, locale)
+      oldFormat = new SimpleDateFormat(((SimpleDateFormat) oldFormat).toPattern().replaceAll('yy', 'yyyy'), locale)
+      oldFormat.setTimeZone(timeZone)
+      assert DateFormatRegistry.formatDateTime(date, locale, timeZone) == oldFormat.format(date)
+
+      DateFormat oldDateOnlyFormat = DateFormat.getDateInstance(DateFormat.SHORT, locale)
+      oldDateOnlyFormat = new SimpleDateFormat(((SimpleDateFormat) oldDateOnlyFormat).toPattern().replaceAll('yy', 'yyyy'), locale)
+      oldDateOnlyFormat.setTimeZone(DateUtils.TIMEZONE_UTC)
+      assert DateFormatRegistry.formatDateOnly(new DateOnly(time), locale) == oldDateOnlyFormat.format(date)
+    }
+
+    where:
+    locale << [Locale.US, Locale.GERMANY, Locale.UK, Locale.FRANCE, Locale.JAPAN, Locale.CHINA, new Locale('es')]
+  }
+
+  def "verify that formatForm and the form parser are consistent"() {
+    given: 'a time zone'
+    def timeZone = TimeZone.getTimeZone('America/New_York')
+    def date = new Date(UnitTestUtils.SAMPLE_TIME_MS)
+
+    when: 'the date is formatted'
+    def s = DateFormatRegistry.formatForm(date, timeZone)
+
+    then: 'the value is correct'
+    s == '2009-02-13 18:31:30'
+
+    and: 'the value can be parsed'
+    DateFormatRegistry.getFormParser(timeZone).parse(s).time == (long) (UnitTestUtils.SAMPLE_TIME_MS / 1000) * 1000
+  }
+
+  def "verify that the formatting is thread-safe"() {
+    given: 'some dates and the expected values'
+    def dates = (0..99).collect { new Date(UnitTestUtils.SAMPLE_TIME_MS + it * 86400000L * 37 + it * 3601000L) }
+    def timeZone = TimeZone.getTimeZone('America/New_York')
+    def expected = dates.collect { DateFormatRegistry.formatDateTime(it, Locale.GERMANY, timeZone) }
+
+    when: 'the dates are formatted on several threads'
+    def pool = Executors.newFixedThreadPool(8)
+    def tasks = (1..16).collect {
+      { -> dates.collect { DateFormatRegistry.formatDateTime(it, Locale.GERMANY, timeZone) } } as Callable<List<String>>
+    }
+    def results = pool.invokeAll(tasks)*.get()
+    pool.shutdown()
+
+    then: 'all of the values are correct'
+    results.every { it == expected }
+  }
+
+}
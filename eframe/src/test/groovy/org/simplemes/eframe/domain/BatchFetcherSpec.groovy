@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) Michael Houston 2020. All rights reserved.
+ */
+
+package org.simplemes.eframe.domain
+
+import org.simplemes.eframe.application.Holders
+import org.simplemes.eframe.domain.annotation.DomainEntityHelper
+import org.simplemes.eframe.test.BaseSpecification
+import org.simplemes.eframe.test.DataGenerator
+import org.simplemes.eframe.test.annotation.Rollback
+import sample.domain.AllFieldsDomain
+import sample.domain.Order
+import sample.domain.OrderLine
+import sample.domain.SampleParent
+
+/**
+ * Tests.
+ */
+class BatchFetcherSpec extends BaseSpecification {
+
+  @SuppressWarnings("unused")
+  static dirtyDomains = [OrderLine, Order, SampleParent, AllFieldsDomain]
+
+  /**
+   * Save the original setting.
+   */
+  Integer originalBatchFetchSize = Holders.configuration.batchFetchSize
+
+  void cleanup() {
+    Holders.configuration.batchFetchSize = originalBatchFetchSize
+  }
+
+  /**
+   * Creates the given number of orders, each with 2 order lines.
+   * @param count The number of orders.
+   */
+  void createOrders(int count) {
+    for (i in 1..count) {
+      def order = new Order(order: "M100$i")
+      order.orderLines << new OrderLine(sequence: 2, product: "PROD$i-2")
+      order.orderLines << new OrderLine(sequence: 1, product: "PROD$i-1")
+      order.save()
+    }
+  }
+
+  @Rollback
+  def "verify that the child lists for all records in a list are loaded by the first lazy load"() {
+    given: 'some orders with lines'
+    createOrders(3)
+
+    when: 'the orders are read and the first one is loaded'
+    def orders = Order.list().sort { it.order }
+    def lines = orders[0].orderLines
+
+    then: 'the first list is correct and sorted'
+    lines*.product == ['PROD1-1', 'PROD1-2']
+    lines[0].order.is(orders[0])
+
+    when: 'the other lists are used'
+    DomainEntityHelper.instance.lastLazyChildParentLoaded = null
+    def lines2 = orders[1].orderLines
+    def lines3 = orders[2].orderLines
+
+    then: 'they were not read again'
+    DomainEntityHelper.instance.lastLazyChildParentLoaded == null
+
+    and: 'the lists are correct'
+    lines2*.product == ['PROD2-1', 'PROD2-2']
+    lines3*.product == ['PROD3-1', 'PROD3-2']
+    lines3[1].order.is(orders[2])
+  }
+
+  @Rollback
+  def "verify that shared siblings are not loaded with the batch"() {
+    given: 'some orders with lines'
+    createOrders(3)
+
+    when: 'the orders are read and one is shared by the cache'
+    def orders = Order.list().sort { it.order }
+    DomainEntityHelper.instance.setDomainSettingValue(orders[1], DomainCache.SETTINGS_SHARED, true)
+    def lines = orders[0].orderLines
+
+    then: 'the first list is correct'
+    lines*.product == ['PROD1-1', 'PROD1-2']
+
+    and: 'the shared sibling is not changed'
+    orders[1].@orderLines == null
+
+    and: 'the other sibling is loaded'
+    orders[2].@orderLines*.product == ['PROD3-1', 'PROD3-2']
+  }
+
+  @Rollback
+  def "verify that the batch size limits the records loaded together"() {
+    given: 'some orders with lines'
+    createOrders(3)
+
+    and: 'a small batch size'
+    Holders.configuration.batchFetchSize = 2
+
+    when: 'the orders are read and the first one is loaded'
+    def orders = Order.list().sort { it.order }
+    orders[0].orderLines
+
+    and: 'the others are used'
+    DomainEntityHelper.instance.lastLazyChildParentLoaded = null
+    def found = orders.collect { it.orderLines.size() }
+
+    then: 'only the last one was read on its own'
+    DomainEntityHelper.instance.lastLazyChildParentLoaded == orders[2].uuid
+    found == [2, 2, 2]
+  }
+
+  @Rollback
+  def "verify that the automatic batch loading can be disabled"() {
+    given: 'some orders with lines'
+    createOrders(2)
+
+    and: 'the batch loading is disabled'
+    Holders.configuration.batchFetchSize = 0
+
+    when: 'the orders are read and the first one is loaded'
+    def orders = Order.list().sort { it.order }
+    orders[0].orderLines
+
+    and: 'the second one is used'
+    DomainEntityHelper.instance.lastLazyChildParentLoaded = null
+    orders[1].orderLines
+
+    then: 'the second one is read on its own'
+    DomainEntityHelper.instance.lastLazyChildParentLoaded == orders[1].uuid
+  }
+
+  @Rollback
+  def "verify that the foreign references for all records in a list are loaded by the first lazy load"() {
+    given: 'some records with references'
+    def order1 = new Order(order: 'M1001').save()
+    def order2 = new Order(order: 'M1002').save()
+    new AllFieldsDomain(name: 'ABC1', order: order1).save()
+    new AllFieldsDomain(name: 'ABC2', order: order2).save()
+    new AllFieldsDomain(name: 'ABC3', order: order1).save()
+    new AllFieldsDomain(name: 'ABC4').save()
+
+    when: 'the records are read and the first reference is loaded'
+    def list = AllFieldsDomain.list().sort { it.name }
+    def firstOrder = list[0].order
+
+    then: 'the reference is correct'
+    firstOrder.order == 'M1001'
+
+    when: 'the other references are used'
+    DomainEntityHelper.instance.lastLazyRefLoaded = null
+    def orders = list.collect { it.order?.order }
+
+    then: 'they were not read again'
+    DomainEntityHelper.instance.lastLazyRefLoaded == null
+
+    and: 'the references are correct'
+    orders == ['M1001', 'M1002', 'M1001', null]
+  }
+
+  @Rollback
+  def "verify that the reference lists for all records in a list are loaded by the first lazy load"() {
+    given: 'some parents with references'
+    List<AllFieldsDomain> afdList = DataGenerator.generate {
+      domain AllFieldsDomain
+      count 4
+      values name: 'ABC-$i'
+    }
+    def sampleParent1 = new SampleParent(name: 'SP1')
+    sampleParent1.allFieldsDomains = [afdList[0], afdList[1]] as List<AllFieldsDomain>
+    sampleParent1.save()
+    def sampleParent2 = new SampleParent(name: 'SP2')
+    sampleParent2.allFieldsDomains = [afdList[2]] as List<AllFieldsDomain>
+    sampleParent2.save()
+    new SampleParent(name: 'SP3').save()
+
+    when: 'the parents are read and the first list is loaded'
+    def parents = SampleParent.list().sort { it.name }
+    def list1 = parents[0].allFieldsDomains
+
+    then: 'the list is correct'
+    list1*.uuid.sort() == [afdList[0].uuid, afdList[1].uuid].sort()
+
+    when: 'the other lists are used'
+    DomainEntityHelper.instance.lastLazyRefParentLoaded = null
+    def list2 = parents[1].allFieldsDomains
+    def list3 = parents[2].allFieldsDomains
+
+    then: 'they were not read again'
+    DomainEntityHelper.instance.lastLazyRefParentLoaded == null
+
+    and: 'the lists are correct'
+    list2*.uuid == [afdList[2].uuid]
+    list3 == []
+  }
+
+  @Rollback
+  def "verify that fetch loads the given paths for records from an SQL query"() {
+    given: 'some records with references to orders with lines'
+    createOrders(2)
+    def orders = Order.list().sort { it.order }
+    new AllFieldsDomain(name: 'ABC1', order: orders[0]).save()
+    new AllFieldsDomain(name: 'ABC2', order: orders[1]).save()
+
+    and: 'the automatic batch loading is disabled'
+    Holders.configuration.batchFetchSize = 0
+
+    when: 'the records are read and fetched'
+    def list = SQLUtils.instance.executeQuery("SELECT * FROM all_fields_domain ORDER BY name", AllFieldsDomain)
+    SQLUtils.instance.fetch(list, 'order.orderLines')
+
+    and: 'the lists are used'
+    DomainEntityHelper.instance.lastLazyChildParentLoaded = null
+    def products = list.collect { it.order.orderLines*.product }
+
+    then: 'they were not read again'
+    DomainEntityHelper.instance.lastLazyChildParentLoaded == null
+
+    and: 'the values are correct'
+    products == [['PROD1-1', 'PROD1-2'], ['PROD2-1', 'PROD2-2']]
+  }
+
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) Michael Houston 2020. All rights reserved.
+ */
+
+package org.simplemes.eframe.domain
+
+import org.simplemes.eframe.custom.domain.FlexField
+import org.simplemes.eframe.custom.domain.FlexType
+import org.simplemes.eframe.domain.annotation.DomainEntityHelper
+import org.simplemes.eframe.domain.annotation.DomainEntityInterface
+import org.simplemes.eframe.test.BaseSpecification
+import org.simplemes.eframe.test.CompilerTestUtils
+import org.simplemes.eframe.test.DataGenerator
+import sample.domain.RMA
+
+/**
+ * Tests.
+ */
+class DomainCacheSpec extends BaseSpecification {
+
+  @SuppressWarnings("unused")
+  static dirtyDomains = [RMA, FlexType]
+
+  /**
+   * Compiles a test domain with the given cache setting.
+   * @param cache The cache setting (source form).  Null for no setting.
+   * @return The domain class.
+   */
+  Class buildDomain(String cache) {
+    def src = """
+      import org.simplemes.eframe.domain.annotation.DomainEntity
+
+      @DomainEntity
+      class TestClass {
+        UUID uuid
+        ${cache ? "static cache = $cache" : ''}
+      }
+    """
+    return CompilerTestUtils.compileSource(src)
+  }
+
+  /**
+   * Builds a record for the given domain.
+   * @param clazz The domain class.
+   * @return The record.
+   */
+  DomainEntityInterface buildRecord(Class clazz) {
+    def record = clazz.getConstructor().newInstance()
+    record.uuid = UUID.randomUUID()
+    return (DomainEntityInterface) record
+  }
+
+  def "verify that records are cached only for domains with the cache setting"() {
+    given: 'a cache and a domain'
+    def domainCache = new DomainCache()
+    def clazz = buildDomain(cache)
+    def record = buildRecord(clazz)
+
+    when: 'the record is added'
+    domainCache.put(record, domainCache.getGeneration(clazz))
+
+    then: 'the record is cached, if needed'
+    domainCache.get(clazz, record.uuid).is(cached ? record : null)
+
+    where:
+    cache                        | cached
+    null                         | false
+    'false'                      | false
+    'true'                       | true
+    '[ttl: 10, maxSize: 20]'     | true
+    '[maxSize: 0]'               | false
+  }
+
+  def "verify that the least recently used record is removed when the cache is full"() {
+    given: 'a cache and a domain'
+    def domainCache = new DomainCache()
+    def clazz = buildDomain('[maxSize: 2]')
+    def record1 = buildRecord(clazz)
+    def record2 = buildRecord(clazz)
+    def record3 = buildRecord(clazz)
+
+    when: 'the records are added and the first one is used'
+    domainCache.put(record1, 0)
+    domainCache.put(record2, 0)
+    domainCache.get(clazz, record1.uuid)
+    domainCache.put(record3, 0)
+
+    then: 'the least recently used record is removed'
+    domainCache.get(clazz, record1.uuid).is(record1)
+    domainCache.get(clazz, record2.uuid) == null
+    domainCache.get(clazz, record3.uuid).is(record3)
+
+    and: 'the statistics are correct'
+    def statistics = domainCache.statistics[0]
+    statistics.domain == 'TestClass'
+    statistics.size == 2
+    statistics.hits == 3
+    statistics.misses == 1
+    statistics.hitRate == 75.0
+    statistics.evictions == 1
+  }
+
+  def "verify that the records expire after the ttl"() {
+    given: 'a cache and a domain'
+    def domainCache = new DomainCache()
+    def clazz = buildDomain('[ttl: 1]')
+    def record = buildRecord(clazz)
+
+    when: 'the record is added'
+    domainCache.put(record, 0)
+
+    then: 'the record is cached'
+    domainCache.get(clazz, record.uuid).is(record)
+
+    when: 'the time passes'
+    sleep(1100)
+
+    then: 'the record has expired'
+    domainCache.get(clazz, record.uuid) == null
+  }
+
+  def "verify that remove prevents a stale record read before the remove from being cached"() {
+    given: 'a cache and a domain'
+    def domainCache = new DomainCache()
+    def clazz = buildDomain('true')
+    def record = buildRecord(clazz)
+    domainCache.put(record, domainCache.getGeneration(clazz))
+
+    when: 'a read is started and the record is removed before the read finishes'
+    def generation = domainCache.getGeneration(clazz)
+    domainCache.remove(record)
+    domainCache.put(record, generation)
+
+    then: 'the record is not cached'
+    domainCache.get(clazz, record.uuid) == null
+  }
+
+  def "verify that the cached record is flagged as shared"() {
+    given: 'a cache and a domain'
+    def domainCache = new DomainCache()
+    def clazz = buildDomain('true')
+    def record = buildRecord(clazz)
+
+    expect: 'the record is not shared before it is cached'
+    !domainCache.isShared(record)
+
+    when: 'the record is added'
+    domainCache.put(record, 0)
+
+    then: 'the record is shared'
+    domainCache.isShared(record)
+  }
+
+  def "verify that the lazy child lists are loaded once when the record is cached"() {
+    given: 'a record with children'
+    def flexType = DataGenerator.buildFlexType(fieldCount: 2)
+    def domainCache = new DomainCache()
+
+    when: 'the record is read and cached'
+    FlexType record = null
+    FlexType.withTransaction {
+      record = FlexType.findByUuid(flexType.uuid)
+      domainCache.put(record, 0)
+    }
+
+    and: 'the child list is used'
+    DomainEntityHelper.instance.lastLazyChildParentLoaded = null
+    def fields = record.fields
+
+    then: 'the list was loaded when cached and is not read again'
+    fields*.fieldName == ['FIELD1', 'FIELD2']
+    fields[0].flexType.is(record)
+    record.fields.is(fields)
+    DomainEntityHelper.instance.lastLazyChildParentLoaded == null
+
+    when: 'the shared list is changed'
+    fields << new FlexField(fieldName: 'FIELD3')
+
+    then: 'the change fails'
+    thrown(UnsupportedOperationException)
+  }
+
+  def "verify that lazyReferenceLoad uses the cache for the foreign references"() {
+    given: 'some records that reference a cached domain'
+    def flexType = DataGenerator.buildFlexType()
+    RMA.withTransaction {
+      new RMA(rma: 'RMA1', rmaType: flexType).save()
+      new RMA(rma: 'RMA2', rmaType: flexType).save()
+    }
+
+    when: 'the first reference is loaded'
+    def rma1 = RMA.findByRma('RMA1')
+    def rmaType1 = rma1.rmaType
+
+    then: 'it is read from the DB'
+    rmaType1.flexType == flexType.flexType
+    DomainEntityHelper.instance.lastLazyRefLoaded == flexType.uuid
+
+    when: 'another record uses the same reference'
+    DomainEntityHelper.instance.lastLazyRefLoaded = null
+    def rma2 = RMA.findByRma('RMA2')
+    def rmaType2 = rma2.rmaType
+
+    then: 'the cached record is used'
+    rmaType2.is(rmaType1)
+    DomainEntityHelper.instance.lastLazyRefLoaded == null
+
+    when: 'the cached record is saved'
+    FlexType.withTransaction {
+      def record = FlexType.findByUuid(flexType.uuid)
+      record.title = 'changed'
+      record.save()
+    }
+
+    and: 'the reference is loaded again'
+    def rma3 = RMA.findByRma('RMA1')
+
+    then: 'the new values are read from the DB'
+    rma3.rmaType.title == 'changed'
+    DomainEntityHelper.instance.lastLazyRefLoaded == flexType.uuid
+  }
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) Michael Houston 2020. All rights reserved.
+ */
+
+package org.simplemes.eframe.domain
+
+import org.simplemes.eframe.security.domain.User
+import org.simplemes.eframe.test.BaseSpecification
+import org.simplemes.eframe.test.MockDomainUtils
+import sample.domain.AllFieldsDomain
+import sample.domain.SampleParent
+
+/**
+ * Tests.
+ */
+class DomainRegistrySpec extends BaseSpecification {
+
+  def "verify that build finds the domain classes"() {
+    when: 'the registry is built'
+    def registry = DomainRegistry.build()
+
+    then: 'the known domains are in the list'
+    registry.domains.contains(User)
+    registry.domains.contains(SampleParent)
+  }
+
+  def "verify that the lookups work for the supported cases"() {
+    given: 'a registry'
+    def registry = new DomainRegistry([SampleParent, AllFieldsDomain])
+
+    expect: 'the lookups work'
+    registry.findBySimpleName('SampleParent') == SampleParent
+    registry.findBySimpleName('sampleParent') == null
+    registry.findBySimpleName(null) == null
+    registry.findBySimpleNameIgnoreCase('sampleParent') == SampleParent
+    registry.findBySimpleNameIgnoreCase('ALLFIELDSDOMAIN') == AllFieldsDomain
+    registry.findBySimpleNameIgnoreCase('gibberish') == null
+    registry.findBySimpleNameIgnoreCase('') == null
+  }
+
+  def "verify that the domain list cannot be changed"() {
+    given: 'a registry'
+    def registry = new DomainRegistry([SampleParent])
+
+    when: 'the list is changed'
+    registry.domains << AllFieldsDomain
+
+    then: 'an exception is thrown'
+    thrown(UnsupportedOperationException)
+  }
+
+  def "verify that the DomainUtils registry is only built once"() {
+    expect: 'the same registry is used'
+    DomainUtils.instance.domainRegistry.is(DomainUtils.instance.domainRegistry)
+    DomainRegistry.current.is(DomainUtils.instance.domainRegistry)
+  }
+
+  def "verify that current uses the mocked domain list"() {
+    given: 'a mocked domain utils'
+    new MockDomainUtils(this, AllFieldsDomain).install()
+
+    expect: 'the mocked list is used'
+    DomainRegistry.current.findBySimpleName('AllFieldsDomain') == AllFieldsDomain
+    DomainRegistry.current.findBySimpleName('SampleParent') == null
+  }
+
+}
@@ -4,6 +4,8 @@
 
 package org.simplemes.eframe.domain
 
+import io.micronaut.http.HttpRequest
+import org.simplemes.eframe.application.Holders
 import org.simplemes.eframe.custom.domain.FlexType
 import org.simplemes.eframe.data.annotation.ExtensibleFieldHolder
 import org.simplemes.eframe.security.domain.Role
@@ -78,6 +80,26 @@ class DomainUtilsSpec extends BaseSpecification {
     all.contains(Role)
   }
 
+  def "verify that the persistent fields and field definitions are built once for each class"() {
+    when: 'the fields are found twice'
+    def fields1 = DomainUtils.instance.getPersistentFields(SampleParent)
+    def fields2 = DomainUtils.instance.getPersistentFields(SampleParent)
+    def fieldDefs1 = DomainUtils.instance.getFieldDefinitions(SampleParent)
+    def fieldDefs2 = DomainUtils.instance.getFieldDefinitions(SampleParent)
+
+    then: 'the same definitions are returned'
+    fields1[0].is(fields2[0])
+    fieldDefs1.name.is(fieldDefs2.name)
+
+    and: 'each caller gets its own list that it can change'
+    !fields1.is(fields2)
+    !fieldDefs1.is(fieldDefs2)
+    fields1.clear()
+    fieldDefs1.remove('name')
+    DomainUtils.instance.getPersistentFields(SampleParent).size() == fields2.size()
+    DomainUtils.instance.getFieldDefinitions(SampleParent).name
+  }
+
   def "verify that getPrimarySortField returns the first field in the fieldOrder"() {
     expect: ''
     DomainUtils.instance.getPrimaryKeyField(SampleParent) == 'name'
@@ -297,6 +319,76 @@ class DomainUtilsSpec extends BaseSpecification {
     sampleParent2 == null
   }
 
+  def "verify that getFinder builds the finders once for each domain"() {
+    expect: 'the same finder is returned'
+    DomainUtils.instance.getFinder(SampleParent).is(DomainUtils.instance.getFinder(SampleParent))
+    !DomainUtils.instance.getFinder(SampleParent).is(DomainUtils.instance.getFinder(AllFieldsDomain))
+
+    and: 'the related record finder is detected'
+    DomainUtils.instance.getFinder(SampleParent).hasRelatedRecordsFinder()
+    !DomainUtils.instance.getFinder(AllFieldsDomain).hasRelatedRecordsFinder()
+  }
+
+  @Rollback
+  def "verify that findDomainRecord finds the record by key - non-String key"() {
+    given: 'a domain record with a numeric key'
+    def sampleParent = new SampleParent(name: '1234').save()
+
+    when: 'the record is found'
+    def sampleParent2 = DomainUtils.instance.findDomainRecord(SampleParent, 1234)
+
+    then: 'the record is found correctly'
+    sampleParent2 == sampleParent
+  }
+
+  @Rollback
+  def "verify that findDomainRecord uses the request cache when enabled"() {
+    given: 'the request cache is enabled'
+    Holders.configuration.domainRequestCache = true
+
+    and: 'a current request'
+    Holders.mockRequest = HttpRequest.GET('/sampleParent')
+
+    and: 'a domain record'
+    def sampleParent = new SampleParent(name: 'ABC').save()
+
+    when: 'the record is found several ways'
+    def byKey1 = DomainUtils.instance.findDomainRecord(SampleParent, 'ABC')
+    def byKey2 = DomainUtils.instance.findDomainRecord(SampleParent, 'ABC')
+    def byUuid = DomainUtils.instance.findDomainRecord(SampleParent, sampleParent.uuid)
+
+    then: 'the same object is returned'
+    byKey1 == sampleParent
+    byKey1.is(byKey2)
+    byKey1.is(byUuid)
+
+    when: 'a record is saved'
+    byKey1.title = 'changed'
+    byKey1.save()
+
+    then: 'the cache is cleared'
+    !DomainUtils.instance.findDomainRecord(SampleParent, 'ABC').is(byKey1)
+
+    cleanup:
+    Holders.configuration.domainRequestCache = false
+    Holders.mockRequest = null
+  }
+
+  @Rollback
+  def "verify that findDomainRecord does not use the request cache by default"() {
+    given: 'a current request'
+    Holders.mockRequest = HttpRequest.GET('/sampleParent')
+
+    and: 'a domain record'
+    new SampleParent(name: 'ABC').save()
+
+    expect: 'a new object is returned each time'
+    !DomainUtils.instance.findDomainRecord(SampleParent, 'ABC').is(DomainUtils.instance.findDomainRecord(SampleParent, 'ABC'))
+
+    cleanup:
+    Holders.mockRequest = null
+  }
+
   @Rollback
   def "verify that findRelatedRecords works for a domain with the method implemented"() {
     given: 'a domain with some related files - an AllFieldsDomain with the same key field'
@@ -195,6 +195,21 @@ class SQLUtilsSpec extends BaseSpecification {
     list[0] == order
   }
 
+  @Rollback
+  def "verify that executeUpdate works - array of UUIDs using and IN clause"() {
+    given: 'some domain records to delete'
+    def afd1 = new AllFieldsDomain(name: 'ABC1').save()
+    def afd2 = new AllFieldsDomain(name: 'ABC2').save()
+    def afd3 = new AllFieldsDomain(name: 'ABC3').save()
+
+    when: 'the delete is executed'
+    def count = SQLUtils.instance.executeUpdate("DELETE FROM all_fields_domain where uuid IN(?)", [afd1.uuid, afd3.uuid])
+
+    then: 'the right records are deleted'
+    count == 2
+    AllFieldsDomain.list() == [afd2]
+  }
+
   @Rollback
   def "verify that executeQuery gracefully handles SQL exception"() {
     when: 'the query is executed'
@@ -224,4 +239,30 @@ class SQLUtilsSpec extends BaseSpecification {
     UnitTestUtils.assertExceptionIsValid(ex, ['quote', 'all_X_fields_domain'])
   }
 
+  @Rollback
+  def "verify that executeFrameworkQuery allows literal constants in the SQL"() {
+    given: 'a domain record to find'
+    new Order(order: 'M1001', notes: 'red blue').save()
+
+    when: 'the query with literals is executed'
+    def sql = "SELECT * FROM ordr WHERE to_tsvector('simple', coalesce(notes, '')) @@ plainto_tsquery('simple', ?)"
+    def list = SQLUtils.instance.executeFrameworkQuery(sql, Order, 'blue')
+
+    then: 'the record is found'
+    list*.order == ['M1001']
+  }
+
+  @Rollback
+  def "verify that executeFrameworkUpdate allows literal constants in the SQL"() {
+    given: 'a domain record to update'
+    new Order(order: 'M1001').save()
+
+    when: 'the update with literals is executed'
+    def count = SQLUtils.instance.executeFrameworkUpdate("UPDATE ordr SET notes = 'ABC' WHERE ordr = ?", 'M1001')
+
+    then: 'the record is updated'
+    count == 1
+    Order.findByOrder('M1001').notes == 'ABC'
+  }
+
 }
@@ -4,6 +4,7 @@
 
 package org.simplemes.eframe.domain.annotation
 
+import io.micronaut.data.model.Pageable
 import io.micronaut.transaction.SynchronousTransactionManager
 import io.micronaut.transaction.annotation.TransactionalEventListener
 import io.micronaut.transaction.jdbc.DataSourceUtils
@@ -167,6 +168,29 @@ class DomainEntityHelperSpec extends BaseSpecification {
     Order.list().size() == 0
   }
 
+  @Rollback
+  def "verify that staticMethodMissingHandler re-uses the repository method for later calls"() {
+    given: 'some records'
+    new Order(order: 'M1001', qtyToBuild: 12.0).save()
+    new Order(order: 'M1002').save()
+    DomainEntityHelper.instance.clearCaches()
+
+    when: 'the finders are called several times'
+    def order1 = Order.findByOrder('M1001')
+    def order2 = Order.findByOrder('M1002')
+    def missing = Order.findByOrder('M1003')
+    def list = Order.list(Pageable.from(0, 10))
+
+    then: 'the results are correct'
+    order1.qtyToBuild == 12.0
+    order2.order == 'M1002'
+    missing == null
+    list.size() == 2
+
+    and: 'one handle is cached for each method'
+    DomainEntityHelper.instance.finderHandles.size() == 2
+  }
+
   @Rollback
   def "verify that lazyChildLoad works"() {
     given: 'a domain record with children'
@@ -925,6 +949,46 @@ class DomainEntityHelperSpec extends BaseSpecification {
     229     | true
   }
 
+  def "verify that the generated column validation matches the reflection validation"() {
+    given: 'a domain'
+    def src = """
+      import org.simplemes.eframe.domain.annotation.DomainEntity
+      import javax.persistence.Column
+      import javax.annotation.Nullable
+
+      @DomainEntity
+      class TestClass {
+        UUID uuid
+        @Column(length = 10)
+        String title
+        String notNullableField
+        @Nullable @Column(length = 5)
+        String notes
+        transient String ignored
+      }
+    """
+    def object = CompilerTestUtils.compileSource(src).getConstructor().newInstance()
+    object.title = title
+    object.notNullableField = notNullableField
+    object.notes = notes
+
+    when: 'the object is validated both ways'
+    def generated = ((DomainEntityInterface) object).validateGenerated()
+    def reflection = DomainEntityHelper.instance.validateColumns((DomainEntityInterface) object)
+
+    then: 'the errors are the same'
+    generated != null
+    generated*.toString() == reflection*.toString()
+    generated*.code == codes
+
+    where:
+    title     | notNullableField | notes    | codes
+    'ABC'     | 'XYZ'            | null     | []
+    null      | 'XYZ'            | null     | [1]
+    ''        | null             | null     | [1, 1]
+    'A' * 11  | 'XYZ'            | 'A' * 6  | [2, 2]
+  }
+
   def "verify that save detects missing column and throws an exception"() {
     given: 'a domain'
     def src = """
@@ -88,9 +88,10 @@ class MessageSourceSpec extends BaseSpecification {
     //_fields.summary.label={0,number} {0,choice,0#Fields|1#Field|1<Fields}
   }
 
-  def "verify that getMessage detects file changes in dev or test mode and clears the cache"() {
-    given: 'a message source'
+  def "verify that getMessage detects file changes in dev mode and clears the cache"() {
+    given: 'a message source in dev mode'
     def messageSource = new MessageSource()
+    messageSource.clearCacheOnFileChanged = true
 
     when: 'the resource is loaded'
     messageSource.getMessage('home.label', null) != null
@@ -103,6 +104,77 @@ class MessageSourceSpec extends BaseSpecification {
 
     then: 'the cache was cleared'
     messageSource.cachedResourceBundles.keySet().size() == 0
+    messageSource.messageTables.keySet().size() == 0
+
+    when: 'the check is made again with no change'
+    messageSource.getMessage('home.label', null) != null
+    messageSource.devModeCheckForChanges()
+
+    then: 'the cache is not cleared again'
+    messageSource.cachedResourceBundles.keySet().size() == 1
+  }
+
+  def "verify that the file change check is not enabled in test mode"() {
+    expect: 'the check is disabled'
+    !new MessageSource().clearCacheOnFileChanged
+  }
+
+  def "verify that getMessage remembers missing keys"() {
+    given: 'a message source'
+    def messageSource = new MessageSource()
+
+    when: 'a missing key is looked up'
+    def s = messageSource.getMessage('_gibberish.missing.label', Locale.US)
+
+    then: 'it is not found and is remembered'
+    s == null
+    messageSource.missingKeys[Locale.US].contains('_gibberish.missing.label')
+
+    and: 'a found key is not in the missing list'
+    messageSource.getMessage('home.label', Locale.US) == 'Home'
+    !messageSource.missingKeys[Locale.US].contains('home.label')
+  }
+
+  def "verify that getMessage supports messages with quotes and no arguments"() {
+    given: 'a compiled message with quotes'
+    def message = new MessageTable.CompiledMessage("Can''t find '{0}'")
+
+    expect: 'the quotes are handled the same as MessageFormat'
+    message.format(null) == "Can't find {0}"
+    message.format(['ABC'] as Object[]) == "Can't find {0}"
+  }
+
+  def "verify that an invalid message pattern fails when used"() {
+    given: 'a compiled message with a bad pattern'
+    def message = new MessageTable.CompiledMessage("Bad {0")
+
+    when: 'the message is used'
+    message.format(null)
+
+    then: 'the exception is thrown'
+    thrown(IllegalArgumentException)
+  }
+
+  def "verify that getMessage formatting is thread-safe"() {
+    given: 'some threads that format a message with a sub-format'
+    def messageSource = new MessageSource()
+    def errors = Collections.synchronizedList([])
+    def threads = (1..8).collect { t ->
+      Thread.start {
+        for (i in 2..120) {
+          def s = messageSource.getMessage('_fields.summary.label', null, i * t)
+          if (s != "${i * t} Fields".toString()) {
+            errors << s
+          }
+        }
+      }
+    }
+
+    when: 'the threads finish'
+    threads*.join()
+
+    then: 'all of the messages were correct'
+    errors == []
   }
 
   def "verify that getMessage caches the bundles"() {
@@ -66,6 +66,45 @@ class TypeableMapperSpec extends BaseSpecification {
     list[1] == o2
   }
 
+  def "verify that round-trip with the streaming generator works"() {
+    given: 'some POGO objects to be serialized'
+    def o1 = new SamplePOGO(name: 'ABC')
+    def o2 = new SampleAlternatePOGO(name: 'XYZ')
+
+    and: 'a buffer to write to'
+    def stringWriter = new StringWriter()
+
+    when: 'the objects are serialized, one at a time with a generator'
+    def generator = TypeableMapper.instance.createGenerator(stringWriter)
+    TypeableMapper.instance.start(generator)
+    TypeableMapper.instance.writeOne(generator, o1)
+    TypeableMapper.instance.writeOne(generator, o2)
+    TypeableMapper.instance.finish(generator)
+    generator.close()
+    //println "JSON = ${groovy.json.JsonOutput.prettyPrint(stringWriter.toString())}"
+
+    and: 'the JSON is de-serialized into objects'
+    def list = TypeableMapper.instance.read(new StringReader(stringWriter.toString()))
+
+    then: 'the right objects are returned'
+    list.size() == 2
+    list[0] == o1
+    list[1] == o2
+  }
+
+  def "verify that the streaming generator does not allow elements with wrong type"() {
+    given: 'a generator'
+    def generator = TypeableMapper.instance.createGenerator(new StringWriter())
+    TypeableMapper.instance.start(generator)
+
+    when: 'an invalid element is serialized'
+    TypeableMapper.instance.writeOne(generator, 'ABC')
+
+    then: 'the right exception is thrown'
+    def ex = thrown(Exception)
+    UnitTestUtils.assertExceptionIsValid(ex, ['String', 'not', 'allowed', 'TypeableMapper'])
+  }
+
   def "verify that elements with wrong type cannot be serialized"() {
     when: 'the list is serialized'
     TypeableMapper.instance.writeList(new StringWriter(), ['ABC'])
@@ -120,4 +159,66 @@ class TypeableMapperSpec extends BaseSpecification {
     UnitTestUtils.assertExceptionIsValid(ex, ['(1)', 'odd'])
   }
 
+  def "verify that read with a callback works"() {
+    given: 'some POGO objects serialized'
+    def o1 = new SamplePOGO(name: 'ABC')
+    def o2 = new SampleAlternatePOGO(name: 'XYZ')
+    def stringWriter = new StringWriter()
+    TypeableMapper.instance.writeList(stringWriter, [o1, o2])
+
+    when: 'the JSON is de-serialized one object at a time'
+    def classes = []
+    def list = []
+    def count = TypeableMapper.instance.read(new StringReader(stringWriter.toString())) { Class clazz, Object o ->
+      classes << clazz
+      list << o
+    }
+
+    then: 'the right objects are passed to the callback'
+    count == 2
+    classes == [SamplePOGO, SampleAlternatePOGO]
+    list == [o1, o2]
+  }
+
+  def "verify that read with a callback works with an empty list"() {
+    when: 'the JSON is de-serialized one object at a time'
+    def count = TypeableMapper.instance.read(new StringReader('[]')) { Class clazz, Object o ->
+      assert false, 'Callback should not be called'
+    }
+
+    then: 'no objects are read'
+    count == 0
+  }
+
+  def "verify that createReader can iterate and skip elements with the class filter"() {
+    given: 'some POGO objects serialized'
+    def o1 = new SamplePOGO(name: 'ABC')
+    def o2 = new SampleAlternatePOGO(name: 'XYZ')
+    def o3 = new SamplePOGO(name: 'PDQ')
+    def stringWriter = new StringWriter()
+    TypeableMapper.instance.writeList(stringWriter, [o1, o2, o3])
+
+    when: 'the JSON is iterated with a filter'
+    def list = []
+    def reader = TypeableMapper.instance.createReader(new StringReader(stringWriter.toString())) { Class clazz ->
+      clazz == SamplePOGO
+    }
+    for (element in reader) {
+      list << element.v2
+    }
+    reader.close()
+
+    then: 'only the matching objects are returned'
+    list == [o1, o3]
+  }
+
+  def "verify that the incremental reader detects invalid JSON structure"() {
+    when: 'the JSON is read'
+    TypeableMapper.instance.read(new StringReader('{"name": "ABC"}'))
+
+    then: 'the right exception is thrown'
+    def ex = thrown(Exception)
+    UnitTestUtils.assertExceptionIsValid(ex, ['array'])
+  }
+
 }
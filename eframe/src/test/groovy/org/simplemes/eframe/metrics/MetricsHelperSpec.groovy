@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) Michael Houston 2021. All rights reserved.
+ */
+
+package org.simplemes.eframe.metrics
+
+import io.micronaut.http.HttpRequest
+import io.micronaut.http.context.ServerRequestContext
+import org.simplemes.eframe.test.BaseSpecification
+import org.simplemes.eframe.test.annotation.Rollback
+import sample.domain.SampleChild
+import sample.domain.SampleParent
+
+/**
+ * Tests.
+ */
+class MetricsHelperSpec extends BaseSpecification {
+
+  @SuppressWarnings("unused")
+  static specNeeds = SERVER
+
+  def "verify that record updates the timer with percentiles and returns the elapsed time"() {
+    given: 'a start time in the past'
+    def start = System.nanoTime() - 20_000_000
+
+    when: 'the time is recorded'
+    def elapsed = MetricsHelper.instance.record('eframe.test.timer', start, 'action', 'test')
+
+    then: 'the elapsed time is returned'
+    elapsed >= 20
+
+    and: 'the timer is updated'
+    def timer = MetricsHelper.instance.getTimer('eframe.test.timer', 'action', 'test')
+    timer.count() == old(MetricsHelper.instance.getTimer('eframe.test.timer', 'action', 'test').count()) + 1
+
+    and: 'the summary has the percentiles'
+    def summary = MetricsHelper.instance.summary.find { it.name == 'eframe.test.timer' }
+    summary.tags == [action: 'test']
+    summary.type == 'TIMER'
+    summary.max >= 20.0
+    summary.containsKey('p50')
+    summary.containsKey('p95')
+    summary.containsKey('p99')
+  }
+
+  def "verify that the summary only includes the framework meters"() {
+    when: 'the summary is built'
+    MetricsHelper.instance.increment('eframe.test.counter')
+    def summary = MetricsHelper.instance.summary
+
+    then: 'only the framework meters are included'
+    summary.find { it.name == 'eframe.test.counter' }.count >= 1
+    summary.every { it.name.startsWith('eframe.') || it.name.startsWith('mes.') }
+  }
+
+  def "verify that countQuery counts the queries for the current request"() {
+    given: 'a request'
+    def request = HttpRequest.GET('/test')
+    def requestMetrics = MetricsHelper.instance.startRequest(request)
+
+    when: 'queries are counted in the request'
+    ServerRequestContext.with(request, {
+      MetricsHelper.instance.countQuery()
+      MetricsHelper.instance.countQuery()
+    } as Runnable)
+
+    and: 'a query is counted outside of the request'
+    MetricsHelper.instance.countQuery()
+
+    then: 'the request count is correct'
+    requestMetrics.queries.get() == 2
+  }
+
+  def "verify that finishRequest records the queries in the same distribution summary"() {
+    given: 'the current summary'
+    def summary = MetricsHelper.instance.getDistributionSummary(MetricsHelper.DB_QUERIES_PER_REQUEST)
+    def originalCount = summary.count()
+
+    when: 'two requests are finished'
+    def requestMetrics = MetricsHelper.instance.startRequest(HttpRequest.GET('/test'))
+    requestMetrics.queries.set(3)
+    MetricsHelper.instance.finishRequest(requestMetrics)
+    MetricsHelper.instance.finishRequest(requestMetrics)
+
+    then: 'the cached summary is used'
+    MetricsHelper.instance.getDistributionSummary(MetricsHelper.DB_QUERIES_PER_REQUEST).is(summary)
+    summary.count() == originalCount + 2
+  }
+
+  def "verify that the trace spans are recorded for the current request only when tracing is enabled"() {
+    given: 'a request'
+    def request = HttpRequest.GET('/test')
+    def requestMetrics = MetricsHelper.instance.startRequest(request)
+
+    when: 'a time is recorded with tracing disabled'
+    ServerRequestContext.with(request, {
+      MetricsHelper.instance.record('eframe.test.timer', System.nanoTime(), 'action', 'a')
+    } as Runnable)
+
+    then: 'no span is recorded'
+    requestMetrics.spans.size() == 0
+
+    when: 'a time is recorded with tracing enabled'
+    MetricsHelper.instance.tracing = true
+    ServerRequestContext.with(request, {
+      MetricsHelper.instance.record('eframe.test.timer', System.nanoTime(), 'action', 'b')
+    } as Runnable)
+
+    then: 'the span is recorded with the action in the name'
+    requestMetrics.spans.size() == 1
+    requestMetrics.spans[0].key == 'eframe.test.timer.b'
+
+    and: 'the Server-Timing header value is correct'
+    requestMetrics.queries.set(3)
+    new MetricsFilter().buildServerTiming(requestMetrics) ==~ /eframe\.test\.timer\.b;dur=\d+\.\d, db;desc="queries=3"/
+  }
+
+  @Rollback
+  def "verify that the domain saves and lazy loads are counted"() {
+    given: 'a saved record with a child'
+    def sampleParent = new SampleParent(name: 'ABC')
+    sampleParent.sampleChildren << new SampleChild(key: 'C1')
+    sampleParent.save()
+    def queries = MetricsHelper.instance.getCounter(MetricsHelper.DB_QUERIES)
+    def lazyLoads = MetricsHelper.instance.getCounter(MetricsHelper.LAZY_LOADS, 'type', 'child')
+    def queryCount = queries.count()
+    def lazyCount = lazyLoads.count()
+
+    when: 'the record is read and the children are loaded'
+    def record = SampleParent.findByUuid(sampleParent.uuid)
+    record.sampleChildren.size()
+
+    then: 'the queries and lazy loads are counted'
+    queries.count() >= queryCount + 2
+    lazyLoads.count() == lazyCount + 1
+  }
+
+}
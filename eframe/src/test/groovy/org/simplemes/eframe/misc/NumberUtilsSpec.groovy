@@ -194,5 +194,17 @@ class NumberUtilsSpec extends BaseSpecification {
     '1.231,127' | Locale.GERMANY | '1.231,127'
   }
 
+  def "verify that formatNumber and parseNumber use independent copies of the cached formats"() {
+    when: 'a value is formatted without grouping'
+    def s1 = NumberUtils.formatNumber(12345.6, Locale.US, false)
+
+    then: 'the cached grouping format is not changed'
+    NumberUtils.formatNumber(12345.6, Locale.US) == '12,345.6'
+    s1 == '12345.6'
+
+    and: 'the parse still returns a BigDecimal with the grouping'
+    NumberUtils.parseNumber('12,345.6', Locale.US) == 12345.6
+    NumberUtils.parseNumber('12,345.6', Locale.US) instanceof BigDecimal
+  }
 
 }
@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) Michael Houston 2020. All rights reserved.
+ */
+
+package org.simplemes.eframe.preference
+
+import org.simplemes.eframe.application.Holders
+import org.simplemes.eframe.application.ShutdownHandler
+import org.simplemes.eframe.preference.domain.UserPreference
+import org.simplemes.eframe.security.SecurityUtils
+import org.simplemes.eframe.test.BaseSpecification
+
+/**
+ * Tests.
+ */
+class UserPreferenceStoreSpec extends BaseSpecification {
+
+  @SuppressWarnings("unused")
+  static specNeeds = SERVER
+
+  @SuppressWarnings("unused")
+  static dirtyDomains = [UserPreference]
+
+  /**
+   * Save the original setting.
+   */
+  Integer originalFlushDelay = Holders.configuration.preferenceFlushDelay
+
+  /**
+   * Save the original setting.
+   */
+  Integer originalCacheSize = Holders.configuration.preferenceCacheSize
+
+  void cleanup() {
+    Holders.configuration.preferenceFlushDelay = originalFlushDelay
+    Holders.configuration.preferenceCacheSize = originalCacheSize
+  }
+
+  /**
+   * Finds the preference holder for the test page.
+   * @param elementParam The element.
+   * @return The holder.
+   */
+  PreferenceHolder findHolder(String elementParam = 'OrderList') {
+    return PreferenceHolder.find {
+      page '/app/testPage'
+      user SecurityUtils.API_TEST_USER
+      element elementParam
+    }
+  }
+
+  /**
+   * Reads the preference record directly from the database.
+   * @return The record.
+   */
+  UserPreference readRecord() {
+    UserPreference record = null
+    UserPreference.withTransaction {
+      record = UserPreference.findByUserNameAndPage(SecurityUtils.API_TEST_USER, '/app/testPage')
+    }
+    return record
+  }
+
+  def "verify that find returns a copy of the cached preferences"() {
+    given: 'a saved preference'
+    UserPreference.withTransaction {
+      findHolder().setPreference(new ColumnPreference(column: 'ABC', width: 237)).save()
+    }
+
+    when: 'the preferences are found twice'
+    def userPreference1 = UserPreferenceStore.instance.find(SecurityUtils.API_TEST_USER, '/app/testPage')
+    def userPreference2 = UserPreferenceStore.instance.find(SecurityUtils.API_TEST_USER, '/app/testPage')
+
+    then: 'the values are correct'
+    userPreference1.preferences[0].settings[0].width == 237
+    userPreference1.uuid == readRecord().uuid
+
+    and: 'each caller gets a copy'
+    !userPreference1.is(userPreference2)
+    !userPreference1.preferences[0].is(userPreference2.preferences[0])
+  }
+
+  def "verify that a full cache removes the least recently used entry"() {
+    given: 'a small cache'
+    Holders.configuration.preferenceCacheSize = 2
+    def store = new UserPreferenceStore()
+    def generation = store.generation.get()
+
+    when: 'the cache is filled and the first entry is used again'
+    store.putCache('A', new UserPreferenceStore.PreferenceEntry(), generation)
+    store.putCache('B', new UserPreferenceStore.PreferenceEntry(), generation)
+    store.cache.get('A')
+
+    and: 'another entry is added'
+    store.putCache('C', new UserPreferenceStore.PreferenceEntry(), generation)
+
+    then: 'only the least recently used entry is removed'
+    store.cache.keySet() == ['A', 'C'] as Set
+  }
+
+  def "verify that the changes are written later and coalesced"() {
+    given: 'a long flush delay'
+    Holders.configuration.preferenceFlushDelay = 3600
+
+    when: 'several changes are saved'
+    UserPreference.withTransaction {
+      findHolder().setPreference(new ColumnPreference(column: 'ABC', width: 137)).save()
+      findHolder().setPreference(new ColumnPreference(column: 'ABC', width: 237)).save()
+      findHolder().setPreference(new ColumnPreference(column: 'XYZ', width: 337)).save()
+    }
+
+    then: 'nothing is written yet'
+    readRecord() == null
+
+    and: 'the latest values are found'
+    findHolder()['ABC'].width == 237
+    findHolder()['XYZ'].width == 337
+
+    when: 'the changes are flushed'
+    UserPreferenceStore.instance.flush()
+
+    then: 'the latest values are in the database'
+    def record = readRecord()
+    def settings = record.preferences.find { it.element == 'OrderList' }.settings
+    settings.find { it.column == 'ABC' }.width == 237
+    settings.find { it.column == 'XYZ' }.width == 337
+
+    and: 'nothing is left to write'
+    UserPreferenceStore.instance.pending.size() == 0
+  }
+
+  def "verify that a failed background flush is retried with a longer delay"() {
+    given: 'a store that cannot write the preferences'
+    Holders.configuration.preferenceFlushDelay = 10
+    def store = new UserPreferenceStore() {
+      @Override
+      protected UserPreference flushEntry(UserPreferenceStore.PreferenceEntry entry) {
+        throw new IllegalStateException('write failed')
+      }
+    }
+    store.pending.put('a|b', new UserPreferenceStore.PreferenceEntry(userName: 'a', page: 'b', preferencesText: '[]'))
+
+    when: 'the background flush fails twice'
+    store.flushInBackground()
+    def delay1 = store.retryDelay
+    store.flushInBackground()
+    def delay2 = store.retryDelay
+
+    then: 'the retry delay grows'
+    delay1 == 20
+    delay2 == 40
+
+    and: 'the flush is scheduled again and the changes are kept'
+    store.flushScheduled.get()
+    store.pending.size() == 1
+
+    cleanup:
+    store.flusher?.shutdownNow()
+  }
+
+  def "verify that shutdown writes the pending changes"() {
+    given: 'a pending change'
+    Holders.configuration.preferenceFlushDelay = 3600
+    UserPreference.withTransaction {
+      findHolder().setPreference(new ColumnPreference(column: 'ABC', width: 137)).save()
+    }
+    assert readRecord() == null
+
+    when: 'the shutdown handler is triggered'
+    new ShutdownHandler().onShutdown(null)
+
+    then: 'the change is written'
+    readRecord().preferences[0].settings[0].width == 137
+  }
+
+  def "verify that concurrent changes to different elements are merged"() {
+    given: 'two holders read before either is saved'
+    def holder1 = findHolder('ListA')
+    def holder2 = findHolder('ListB')
+
+    when: 'both are changed and saved'
+    UserPreference.withTransaction {
+      holder1.setPreference(new ColumnPreference(column: 'ABC', width: 137)).save()
+      holder2.setPreference(new ColumnPreference(column: 'XYZ', width: 237)).save()
+    }
+
+    then: 'both changes are in the database'
+    def record = readRecord()
+    record.preferences.find { it.element == 'ListA' }.settings[0].width == 137
+    record.preferences.find { it.element == 'ListB' }.settings[0].width == 237
+  }
+
+  def "verify that a save by other logic replaces the cached value"() {
+    given: 'a cached preference'
+    UserPreference.withTransaction {
+      findHolder().setPreference(new ColumnPreference(column: 'ABC', width: 137)).save()
+    }
+    assert findHolder()['ABC'].width == 137
+
+    when: 'the record is changed directly'
+    UserPreference.withTransaction {
+      def record = UserPreference.findByUserNameAndPage(SecurityUtils.API_TEST_USER, '/app/testPage')
+      record.preferences[0].settings[0].width = 437
+      record.save()
+    }
+
+    then: 'the new value is found'
+    findHolder()['ABC'].width == 437
+  }
+
+  def "verify that a delete removes the cached value"() {
+    given: 'a cached preference'
+    UserPreference.withTransaction {
+      findHolder().setPreference(new ColumnPreference(column: 'ABC', width: 137)).save()
+    }
+    assert findHolder()['ABC'].width == 137
+
+    when: 'the record is deleted'
+    UserPreference.withTransaction {
+      UserPreference.findByUserNameAndPage(SecurityUtils.API_TEST_USER, '/app/testPage').delete()
+    }
+
+    then: 'the value is no longer found'
+    findHolder()['ABC'] == null
+  }
+
+}
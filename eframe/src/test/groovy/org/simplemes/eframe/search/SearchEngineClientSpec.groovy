@@ -21,6 +21,8 @@ import sample.domain.Order
 import sample.domain.RMA
 import sample.domain.SampleParent
 
+import java.util.zip.GZIPInputStream
+
 /**
  * Tests for the client.  This does not test the real interaction with the external search engine.
  * The SearchEngineLiveSpec does that.
@@ -808,5 +810,81 @@ class SearchEngineClientSpec extends BaseSpecification {
     json.customFields.config.custom1.type
   }
 
+  @Rollback
+  def "verify that bulkIndexAsync calls the callback with the response"() {
+    given: 'some saved domain objects'
+    def parent1 = new SampleParent(name: 'ABC1').save()
+    def parent2 = new SampleParent(name: 'ABC2').save()
+    def list = [parent1, parent2]
+
+    and: 'a mock search rest client and response'
+    def mockRestClient = new MockRestClient(method: 'POST', uri: '/_bulk', response: [items: list])
+    def searchEngineClient = new SearchEngineClient(restClient: mockRestClient)
+
+    when: 'the objects are indexed'
+    Map res = null
+    Throwable failure = null
+    searchEngineClient.bulkIndexAsync(list, null) { Map json, Throwable t ->
+      res = json
+      failure = t
+    }
+
+    then: 'the callback gets the response'
+    failure == null
+    List items = res.items as List
+    items.size() == 2
+    items[0].index._id == "$parent1.uuid"
+    items[1].index._id == "$parent2.uuid"
+
+    and: 'the in-flight slot and buffer are released'
+    searchEngineClient.inFlightWindow.availablePermits() == Holders.configuration.search.maxInFlightRequests
+    searchEngineClient.bufferPool.size() == 1
+  }
+
+  @Rollback
+  def "verify that the request content is compressed when configured"() {
+    given: 'some saved domain objects'
+    def list = [new SampleParent(name: 'ABC1').save(), new SampleParent(name: 'ABC2').save()]
+
+    and: 'the original setting'
+    def originalCompress = Holders.configuration.search.compressRequests
+    Holders.configuration.search.compressRequests = compress
+
+    when: 'the content is written'
+    def searchEngineClient = new SearchEngineClient()
+    def buffer = searchEngineClient.writeContent { OutputStream out ->
+      SearchEngineClient.writeBulkIndexContent(out, list)
+    }
+    def entity = buffer.toEntity(compress)
+    def content = compress ? new GZIPInputStream(entity.content).getText('UTF-8') : entity.content.getText('UTF-8')
+
+    then: 'the content matches the un-compressed content'
+    content == SearchEngineClient.buildBulkIndexContent(list)
+    (entity.contentEncoding?.value == 'gzip') == compress
+
+    cleanup:
+    Holders.configuration.search.compressRequests = originalCompress
+
+    where:
+    compress | _
+    true     | _
+    false    | _
+  }
+
+  def "verify that parseBulkResponse reads the items and skips the other structures"() {
+    given: 'a response'
+    def content = """{"took": 30, "errors": true, "other": {"a": [1, 2, {"b": 3}]}, 
+                      "items": [{"index": {"_id": "1", "result": "created"}}]}"""
+    def response = new MockRestClient.MockResponse(new MockRestClient(), content)
+
+    when: 'the response is parsed'
+    def res = SearchEngineClient.parseBulkResponse(response)
+
+    then: 'the values are correct'
+    res.took == 30
+    res.errors == true
+    res.items == [[index: [_id: '1', result: 'created']]]
+    !res.containsKey('other')
+  }
 
 }
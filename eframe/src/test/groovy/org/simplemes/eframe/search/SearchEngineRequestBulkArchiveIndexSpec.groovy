@@ -29,6 +29,7 @@ class SearchEngineRequestBulkArchiveIndexSpec extends BaseSpecification {
     FileFactory.instance = new FileFactory()
     Holders.configuration.archive = new EFrameConfiguration.Archive()
     SearchHelper.instance = new SearchHelper()
+    SearchEngineRequestBulkArchiveIndex.chunkSize = 100
   }
 
   /**
@@ -200,4 +201,28 @@ class SearchEngineRequestBulkArchiveIndexSpec extends BaseSpecification {
     mockAppender.assertMessageIsValid(['bad exception', 'abc_1', '"_index"'])
   }
 
+  @Rollback
+  def "verify that the run indexes the archives in chunks"() {
+    given: 'a number of archived domains to process'
+    def (List refList, objects) = buildMockArchives(3)
+
+    and: 'a small chunk size'
+    SearchEngineRequestBulkArchiveIndex.chunkSize = 2
+
+    and: 'a mock client that simulates the index action'
+    def searchHelper = Mock(SearchHelper)
+    SearchHelper.instance = searchHelper
+
+    when: 'the archives are indexed'
+    new SearchEngineRequestBulkArchiveIndex(refList).run()
+
+    then: 'the objects are sent in two chunks'
+    1 * searchHelper.bulkIndex(objects[0..1], refList[0..1]) >> [items: [[index: [result: 'created']], [index: [result: 'created']]]]
+    1 * searchHelper.bulkIndex([objects[2]], [refList[2]]) >> [items: [[index: [result: 'created']]]]
+    _ * searchHelper.isSearchable(_) >> true
+
+    and: 'the search helper was notified once'
+    1 * searchHelper.finishedBulkRequest(0)
+  }
+
 }
@@ -156,7 +156,7 @@ class SearchEngineRequestBulkIndexSpec extends BaseSpecification {
 
     then: 'the search helper was notified'
     1 * searchHelper.finishedBulkRequest(0)
-    1 * searchHelper.bulkIndex(_) >> [items: [[index: [result: 'created']]]]
+    1 * searchHelper.bulkIndexAsync(_, _) >> { args -> args[1].call([items: [[index: [result: 'created']]]], null) }
   }
 
   @Rollback
@@ -176,7 +176,30 @@ class SearchEngineRequestBulkIndexSpec extends BaseSpecification {
 
     then: 'the search helper was notified'
     1 * searchHelper.finishedBulkRequest(1)
-    1 * searchHelper.bulkIndex(_) >> [items: [[index: [result: 'failed']]]]
+    1 * searchHelper.bulkIndexAsync(_, _) >> { args -> args[1].call([items: [[index: [result: 'failed']]]], null) }
+  }
+
+  @Rollback
+  def "verify that a bad response notifies the SearchHelper it finished once"() {
+    given: 'a number of domains to process'
+    def objects = buildParentRecords(1)
+
+    and: 'a mock client that simulates the index action'
+    def searchHelper = Mock(SearchHelper)
+    SearchHelper.instance = searchHelper
+
+    and: 'a mock appender to reduce output to console'
+    MockAppender.mock(SearchEngineRequestBulkIndex, Level.ERROR)
+
+    when: 'an attempt is made to index an object and the response has no items'
+    new SearchEngineRequestBulkIndex(objects).run()
+
+    then: 'no exception is thrown to the caller'
+    notThrown(Exception)
+
+    and: 'the search helper was notified once with an error'
+    1 * searchHelper.finishedBulkRequest(1)
+    1 * searchHelper.bulkIndexAsync(_, _) >> { args -> args[1].call([:], null) }
   }
 
   @Rollback
@@ -200,7 +223,7 @@ class SearchEngineRequestBulkIndexSpec extends BaseSpecification {
 
     and: 'the search helper was notified'
     1 * searchHelper.finishedBulkRequest(1)
-    1 * searchHelper.bulkIndex(_) >> { throw new IllegalArgumentException('bad exception') }
+    1 * searchHelper.bulkIndexAsync(_, _) >> { throw new IllegalArgumentException('bad exception') }
     _ * searchHelper.isSearchable(objects[0].class) >> true
     _ * searchHelper.getSearchDomainSettings(objects[0].class) >> new SearchDomainSettings()
 
@@ -10,6 +10,7 @@ import org.simplemes.eframe.application.Holders
 import org.simplemes.eframe.archive.FileArchiver
 import org.simplemes.eframe.archive.domain.ArchiveLog
 import org.simplemes.eframe.date.DateOnly
+import org.simplemes.eframe.domain.SQLUtils
 import org.simplemes.eframe.domain.annotation.DomainEntityHelper
 import org.simplemes.eframe.domain.annotation.DomainEntityInterface
 import org.simplemes.eframe.misc.FileFactory
@@ -958,6 +959,28 @@ class SearchHelperSpec extends BaseSpecification {
     res.hits[0].object.name == 'ABC001'
   }
 
+  @Rollback
+  def "verify that domainSearchInDB ignores an invalid sort direction"() {
+    given: 'some domain objects'
+    def list = buildSampleParentRecords(5)
+
+    and: 'the params with SQL in the sort direction'
+    def params = [sort: 'name', order: order]
+
+    when: 'the search is performed'
+    def res = new SearchHelper().domainSearchInDB(SampleParent, 'ABC', params)
+
+    then: 'the result is sorted in ascending order'
+    res.totalHits == list.size()
+    res.hits[0].object.name == 'ABC001'
+
+    and: 'the records still exist'
+    SampleParent.list().size() == list.size()
+
+    where:
+    order << ['desc; DELETE FROM sample_parent; --', "asc, (SELECT 1 FROM sample_parent WHERE name = 'x')", 'bad']
+  }
+
   @Rollback
   def "verify that domainSearchInDB handles paging"() {
     given: 'some domain objects'
@@ -1042,6 +1065,69 @@ class SearchHelperSpec extends BaseSpecification {
     mockAppender.assertMessageIsValid(['INFO', 'elapsed', 'AllFieldsDomain', 'records', 'of 10'])
   }
 
+  @Rollback
+  def "verify that domainSearchInDB searches the dbSearchFields and ranks the results"() {
+    given: 'some domain objects'
+    new SampleParent(name: 'ABC001', title: 'red pump').save()
+    new SampleParent(name: 'ABC002', title: 'blue valve', notes: 'replaces pump').save()
+    new SampleParent(name: 'ABC003', title: 'pump', notes: 'pump housing').save()
+    new SampleParent(name: 'ABC004', title: 'blue motor').save()
+
+    when: 'the search is performed'
+    def res = new SearchHelper().domainSearchInDB(SampleParent, 'pump')
+
+    then: 'the records that contain the word are found, best matches first'
+    res.totalHits == 3
+    !res.totalHitsEstimated
+    res.hits[0].object.name == 'ABC003'
+    res.hits*.object*.name.sort() == ['ABC001', 'ABC002', 'ABC003']
+
+    when: 'the key field is searched with a partial value'
+    res = new SearchHelper().domainSearchInDB(SampleParent, 'C004')
+
+    then: 'the key field match is found'
+    res.hits*.object*.name == ['ABC004']
+  }
+
+  @Rollback
+  def "verify that domainSearchInDB limits the count of matching records"() {
+    given: 'some domain objects'
+    buildSampleParentRecords(5)
+
+    and: 'the count limit is set'
+    Holders.configuration.search.dbCountLimit = limit
+
+    when: 'the search is performed'
+    def res = new SearchHelper().domainSearchInDB(SampleParent, search)
+
+    then: 'the total is correct'
+    res.totalHitsEstimated == estimated
+    estimated ? res.totalHits >= total : res.totalHits == total
+
+    where:
+    search | limit | total | estimated
+    'ABC'  | 3     | 3     | true
+    'ABC'  | 5     | 5     | false
+    'ABC'  | 0     | 5     | false
+    ''     | 3     | 3     | true
+    ''     | 0     | 5     | false
+  }
+
+  def "verify that createDBSearchIndexes creates the index for the dbSearchFields"() {
+    given: 'the index creation is enabled'
+    Holders.configuration.search.dbSearchIndexes = true
+
+    when: 'the indexes are created'
+    new SearchHelper().createDBSearchIndexes()
+
+    then: 'the full text index exists'
+    SampleParent.withTransaction {
+      def sql = "SELECT indexname FROM pg_indexes WHERE indexname = ?"
+      assert SQLUtils.instance.executeQuery(sql, Map, 'sample_parent_search_idx')
+      true
+    }
+  }
+
   @Rollback
   def "verify that domainSearch uses fallback when search engine is not available"() {
     given: 'some domain objects'
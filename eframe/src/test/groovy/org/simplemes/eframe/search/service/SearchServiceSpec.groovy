@@ -4,12 +4,17 @@
 
 package org.simplemes.eframe.search.service
 
+import ch.qos.logback.classic.Level
 import org.simplemes.eframe.application.Holders
+import org.simplemes.eframe.custom.ExtensibleFieldIndexHelper
+import org.simplemes.eframe.custom.domain.FieldExtension
 import org.simplemes.eframe.search.MockSearchEngineClient
 import org.simplemes.eframe.search.SearchHelper
 import org.simplemes.eframe.search.SearchResult
 import org.simplemes.eframe.search.SearchStatus
 import org.simplemes.eframe.test.BaseSpecification
+import org.simplemes.eframe.test.DataGenerator
+import org.simplemes.eframe.test.MockAppender
 import org.simplemes.eframe.test.annotation.Rollback
 import sample.SearchAdjustQueryExtension
 import sample.domain.RMA
@@ -25,6 +30,9 @@ class SearchServiceSpec extends BaseSpecification {
   static specNeeds = SERVER
 
 
+  @SuppressWarnings('unused')
+  static dirtyDomains = [FieldExtension, SampleParent]
+
   SearchService service
 
   def setup() {
@@ -142,7 +150,7 @@ class SearchServiceSpec extends BaseSpecification {
     res.totalHits == 237
 
     then: 'the search helper was used with the passed in arguments with the query string adjustment made'
-    1 * searchHelper.domainSearchInDB(RMA, 'abc', params) >> new SearchResult([totalHits: 237], [])
+    1 * searchHelper.domainSearchInDB(RMA, 'abc*', params) >> new SearchResult([totalHits: 237], [])
     1 * searchHelper.isDomainSearchable(RMA) >> false
   }
 
@@ -176,6 +184,44 @@ class SearchServiceSpec extends BaseSpecification {
     hits[1].object == parents[1]
   }
 
+  @Rollback
+  def "verify that domainSearch in the DB uses the adjusted query for an indexed custom field"() {
+    given: 'an indexed custom field'
+    new FieldExtension(fieldName: 'abc', domainClassName: SampleParent.name, indexed: true).save()
+
+    and: 'some records with values'
+    def records = DataGenerator.generate {
+      domain SampleParent
+      count 5
+      values name: 'ABC$i'
+    }
+    records.eachWithIndex { record, i ->
+      record.setFieldValue('abc', "V${i}")
+      record.save()
+    }
+
+    and: 'the DB search is used'
+    SearchHelper.instance = Spy(SearchHelper) {
+      isDomainSearchable(SampleParent) >> false
+    }
+
+    and: 'a mock appender to capture the SQL'
+    def mockAppender = MockAppender.mock(SearchHelper, Level.DEBUG)
+
+    when: 'a partial value is searched'
+    def res = service.domainSearch(SampleParent, 'abc:V')
+
+    then: 'the adjusted query (with the wildcard) is used for the indexed expression'
+    res.totalHits == 5
+    res.hits.size() == 5
+    mockAppender.assertFirstFoundMessageIsValid('sql:', ["->>'abc' LIKE"])
+
+    cleanup:
+    ExtensibleFieldIndexHelper.instance.waitForQueuedChanges()
+    ExtensibleFieldIndexHelper.instance.dropIndex(SampleParent, 'abc')
+    ExtensibleFieldIndexHelper.instance.clearCache()
+  }
+
   def "verify that adjustQuery calls the extensions"() {
     given: 'the extension is configured to adjust the value'
     SearchAdjustQueryExtension.adjust = true
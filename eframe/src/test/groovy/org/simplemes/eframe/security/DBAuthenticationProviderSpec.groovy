@@ -6,13 +6,23 @@ package org.simplemes.eframe.security
 
 
 import io.micronaut.security.authentication.AuthenticationFailed
+import io.micronaut.security.authentication.AuthenticationResponse
 import io.micronaut.security.authentication.UserDetails
 import io.micronaut.security.authentication.UsernamePasswordCredentials
+import io.reactivex.Flowable
+import org.simplemes.eframe.application.EFrameConfiguration
+import org.simplemes.eframe.application.Holders
+import org.simplemes.eframe.domain.SQLUtils
 import org.simplemes.eframe.security.domain.Role
 import org.simplemes.eframe.security.domain.User
 import org.simplemes.eframe.test.BaseSpecification
 import org.simplemes.eframe.test.UnitTestUtils
-import org.simplemes.eframe.test.annotation.Rollback
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder
+
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
 
 /**
  * Tests.
@@ -20,21 +30,41 @@ import org.simplemes.eframe.test.annotation.Rollback
 class DBAuthenticationProviderSpec extends BaseSpecification {
 
   @SuppressWarnings("unused")
-  static dirtyDomains = [User]
+  static dirtyDomains = [User, Role]
+
+  void cleanup() {
+    Holders.configuration.security = new EFrameConfiguration.Security()
+    User.passwordEncoder = null
+    DBAuthenticationProvider.resetPool()
+    UserAuthenticationCache.instance.clear()
+  }
+
+  /**
+   * Authenticates the user and waits for the response.
+   * @param userName The user.
+   * @param password The password.
+   * @return The response.
+   */
+  AuthenticationResponse authenticate(String userName, String password) {
+    def publisher = new DBAuthenticationProvider().authenticate(mockRequest(), new UsernamePasswordCredentials(userName, password))
+    return Flowable.fromPublisher(publisher).blockingFirst()
+  }
 
-  @Rollback
   def "verify that authenticate works with User record in DB"() {
     given: 'a user record with roles'
-    def role1 = new Role(authority: 'ROLE_1', title: '1').save()
-    def role2 = new Role(authority: 'ROLE_2', title: '2').save()
-    def user = new User(userName: 'ABC', password: 'XYZ')
-    user.userRoles << role1
-    user.userRoles << role2
-    user.save()
-
+    def role1 = null
+    def role2 = null
+    User.withTransaction {
+      role1 = new Role(authority: 'ROLE_1', title: '1').save()
+      role2 = new Role(authority: 'ROLE_2', title: '2').save()
+      def user = new User(userName: 'ABC', password: 'XYZ')
+      user.userRoles << role1
+      user.userRoles << role2
+      user.save()
+    }
 
     when: 'the authentication is checked'
-    UserDetails res = new DBAuthenticationProvider().authenticate(mockRequest(), new UsernamePasswordCredentials('ABC', 'XYZ')).call()
+    UserDetails res = authenticate('ABC', 'XYZ')
 
     then: 'the user is authenticated'
     res instanceof UserDetails
@@ -44,23 +74,22 @@ class DBAuthenticationProviderSpec extends BaseSpecification {
     res.roles.contains(role2.authority)
   }
 
-  @Rollback
   def "verify that authenticate detects missing user record"() {
     when: 'the authentication is checked'
-    def res = new DBAuthenticationProvider().authenticate(mockRequest(), new UsernamePasswordCredentials('ABC', 'XYZ')).call()
+    def res = authenticate('ABC', 'XYZ')
 
     then: 'the user is authenticated'
     res instanceof AuthenticationFailed
   }
 
-  @Rollback
   def "verify that authenticate fails with disabled User record"() {
     given: 'a disabled record'
-    def user = new User(userName: 'ABC', password: 'XYZ', enabled: false)
-    user.save()
+    User.withTransaction {
+      new User(userName: 'ABC', password: 'XYZ', enabled: false).save()
+    }
 
     when: 'the authentication is checked'
-    def res = new DBAuthenticationProvider().authenticate(mockRequest(), new UsernamePasswordCredentials('ABC', 'XYZ')).call()
+    def res = authenticate('ABC', 'XYZ')
 
     then: 'the user is authenticated'
     res instanceof AuthenticationFailed
@@ -76,7 +105,7 @@ class DBAuthenticationProviderSpec extends BaseSpecification {
     }
 
     when: 'the authentication is checked'
-    AuthenticationFailed res = new DBAuthenticationProvider().authenticate(mockRequest(), new UsernamePasswordCredentials('ABC', 'XYZ')).call()
+    AuthenticationFailed res = authenticate('ABC', 'XYZ')
 
     then: 'the user is authenticated'
     res instanceof AuthenticationFailed
@@ -90,4 +119,169 @@ class DBAuthenticationProviderSpec extends BaseSpecification {
     [accountExpired: true]  | ['account', 'expired']
     [passwordExpired: true] | ['password', 'expired']
   }
+
+  def "verify that authenticate does no work until subscribed"() {
+    given: 'a password encoder that counts the checks'
+    def encoder = new CountingPasswordEncoder()
+    User.passwordEncoder = encoder
+    User.withTransaction {
+      new User(userName: 'ABC', password: 'XYZ').save()
+    }
+
+    when: 'the publisher is created but not subscribed to'
+    def publisher = new DBAuthenticationProvider().authenticate(mockRequest(), new UsernamePasswordCredentials('ABC', 'XYZ'))
+    sleep(100)
+
+    then: 'no password check is made'
+    encoder.count.get() == 0
+
+    when: 'the publisher is subscribed to'
+    def res = Flowable.fromPublisher(publisher).blockingFirst()
+
+    then: 'the user is authenticated on an authentication thread'
+    res instanceof UserDetails
+    encoder.count.get() == 1
+    encoder.threadNames.every { it.startsWith('auth-') }
+  }
+
+  def "verify that authenticate uses the cached user values"() {
+    given: 'a user that has logged in once'
+    User.withTransaction {
+      new User(userName: 'ABC', password: 'XYZ').save()
+    }
+    assert authenticate('ABC', 'XYZ') instanceof UserDetails
+
+    when: 'the user is disabled in the DB without a save event'
+    User.withTransaction {
+      SQLUtils.instance.executeUpdate("UPDATE usr SET enabled=false WHERE user_name=?", 'ABC')
+    }
+
+    then: 'the cached values are used for the next login'
+    authenticate('ABC', 'XYZ') instanceof UserDetails
+
+    when: 'the cache is disabled'
+    Holders.configuration.security.userCacheTTL = 0
+    UserAuthenticationCache.instance.clear()
+
+    then: 'the DB values are used'
+    authenticate('ABC', 'XYZ') instanceof AuthenticationFailed
+  }
+
+  def "verify that a User save clears the cached user values"() {
+    given: 'a user that has logged in once'
+    User.withTransaction {
+      new User(userName: 'ABC', password: 'XYZ').save()
+    }
+    assert authenticate('ABC', 'XYZ') instanceof UserDetails
+
+    when: 'the password is changed'
+    User.withTransaction {
+      def user = User.findByUserName('ABC')
+      user.password = 'PDQ'
+      user.save()
+    }
+
+    then: 'the old password fails'
+    authenticate('ABC', 'XYZ') instanceof AuthenticationFailed
+
+    and: 'the new password works'
+    authenticate('ABC', 'PDQ') instanceof UserDetails
+  }
+
+  def "verify that a User delete clears the cached user values"() {
+    given: 'a user that has logged in once'
+    User.withTransaction {
+      new User(userName: 'ABC', password: 'XYZ').save()
+    }
+    assert authenticate('ABC', 'XYZ') instanceof UserDetails
+
+    when: 'the user is deleted'
+    User.withTransaction {
+      User.findByUserName('ABC').delete()
+    }
+
+    then: 'the login fails'
+    authenticate('ABC', 'XYZ') instanceof AuthenticationFailed
+  }
+
+  def "verify that a burst of 500 logins works and limits the concurrent hash checks"() {
+    given: 'the limits are set'
+    Holders.configuration.security.authThreadSize = 8
+    Holders.configuration.security.authHashMax = 2
+    DBAuthenticationProvider.resetPool()
+
+    and: 'a password encoder that tracks the concurrent checks'
+    def encoder = new CountingPasswordEncoder(delay: 2)
+    User.passwordEncoder = encoder
+
+    and: 'some users'
+    def userCount = 10
+    User.withTransaction {
+      for (i in 1..userCount) {
+        new User(userName: "USER$i", password: "PW$i").save()
+      }
+    }
+
+    when: 'a burst of logins is subscribed to at once'
+    def loginCount = 500
+    def latch = new CountDownLatch(loginCount)
+    def responses = new ConcurrentLinkedQueue<AuthenticationResponse>()
+    def provider = new DBAuthenticationProvider()
+    def start = System.currentTimeMillis()
+    for (i in 0..<loginCount) {
+      def n = (i % userCount) + 1
+      def publisher = provider.authenticate(mockRequest(), new UsernamePasswordCredentials("USER$n", "PW$n"))
+      Flowable.fromPublisher(publisher).subscribe({ res ->
+        responses << res
+        latch.countDown()
+      }, { ex ->
+        latch.countDown()
+      })
+    }
+    def subscribeElapsed = System.currentTimeMillis() - start
+
+    then: 'all logins finish and succeed'
+    latch.await(60, TimeUnit.SECONDS)
+    responses.size() == loginCount
+    responses.every { it instanceof UserDetails }
+
+    and: 'the subscribing thread is not blocked by the work'
+    subscribeElapsed < loginCount * encoder.delay / 2
+
+    and: 'the hash checks are limited'
+    encoder.count.get() == loginCount
+    encoder.maxConcurrent.get() <= 2
+  }
+
+  /**
+   * A password encoder that counts the checks and tracks the max concurrent checks.
+   */
+  static class CountingPasswordEncoder extends PasswordEncoderService {
+    AtomicInteger count = new AtomicInteger()
+    AtomicInteger current = new AtomicInteger()
+    AtomicInteger maxConcurrent = new AtomicInteger()
+    Collection<String> threadNames = new ConcurrentLinkedQueue<String>()
+    long delay = 0
+
+    CountingPasswordEncoder() {
+      // Use a cheap hash strength for the tests.
+      delegate = new BCryptPasswordEncoder(4)
+    }
+
+    @Override
+    boolean matches(String rawPassword, String encodedPassword) {
+      count.incrementAndGet()
+      threadNames << Thread.currentThread().name
+      def n = current.incrementAndGet()
+      maxConcurrent.accumulateAndGet(n) { a, b -> Math.max(a, b) }
+      try {
+        if (delay) {
+          sleep(delay)
+        }
+        return super.matches(rawPassword, encodedPassword)
+      } finally {
+        current.decrementAndGet()
+      }
+    }
+  }
 }
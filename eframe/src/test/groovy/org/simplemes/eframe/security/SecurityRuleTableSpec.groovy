@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) Michael Houston 2020. All rights reserved.
+ */
+
+package org.simplemes.eframe.security
+
+import org.simplemes.eframe.test.BaseSpecification
+import org.simplemes.eframe.test.CompilerTestUtils
+
+/**
+ * Tests.
+ */
+class SecurityRuleTableSpec extends BaseSpecification {
+
+  /**
+   * Compiles a test controller with the given @Secured value.
+   * @param secured The annotation value (source form).
+   * @return The controller class.
+   */
+  Class buildController(String secured) {
+    def src = """
+    package sample
+    import io.micronaut.security.annotation.Secured
+    import io.micronaut.security.rules.SecurityRule
+
+    @Secured($secured)
+    class _ATestController {
+    }
+    """
+    return CompilerTestUtils.compileSource(src)
+  }
+
+  def "verify that the rule is built from the annotation"() {
+    given: 'a table'
+    def table = new SecurityRuleTable()
+
+    when: 'the rule is built'
+    def rule = table.getRule(buildController(secured))
+
+    then: 'the rule is correct'
+    rule.secured
+    rule.anonymous == anonymous
+    rule.authenticated == authenticated
+    Long.bitCount(rule.roleMask) == roleCount
+
+    where:
+    secured                                     | anonymous | authenticated | roleCount
+    'SecurityRule.IS_ANONYMOUS'                 | true      | false         | 0
+    'SecurityRule.IS_AUTHENTICATED'             | false     | true          | 0
+    '"MANAGER"'                                 | false     | false         | 1
+    '["ADMIN", "MANAGER"]'                      | false     | false         | 2
+    '[SecurityRule.IS_AUTHENTICATED, "ADMIN"]'  | false     | true          | 1
+  }
+
+  def "verify that the rule is built once for each controller"() {
+    given: 'a table and a controller'
+    def table = new SecurityRuleTable()
+    def clazz = buildController('"MANAGER"')
+
+    expect: 'the same rule is returned'
+    table.getRule(clazz).is(table.getRule(clazz))
+  }
+
+  def "verify that the role masks match the rule masks"() {
+    given: 'a table with the rules built'
+    def table = new SecurityRuleTable()
+    def rule = table.getRule(buildController('["ADMIN", "MANAGER"]'))
+
+    expect: 'the user roles match correctly'
+    rule.hasRole(table.getRoleMask(roles), roles) == result
+
+    where:
+    roles                    | result
+    ['MANAGER']              | true
+    ['OPERATOR', 'ADMIN']    | true
+    ['OPERATOR']             | false
+    ['OPERATOR', 'DESIGNER'] | false
+    []                       | false
+  }
+
+  def "verify that the user role masks are cached and are rebuilt when a new role is assigned a bit"() {
+    given: 'a table with a rule'
+    def table = new SecurityRuleTable()
+    table.getRule(buildController('"MANAGER"'))
+
+    when: 'the mask is built for a user with an unused role'
+    def mask1 = table.getRoleMask(['MANAGER', 'DESIGNER'])
+
+    then: 'the mask is cached'
+    table.roleMasks.size() == 1
+
+    when: 'a rule that uses the other role is built'
+    def rule = table.getRule(buildController('"DESIGNER"'))
+
+    then: 'the new mask has the new role'
+    def mask2 = table.getRoleMask(['MANAGER', 'DESIGNER'])
+    mask2 != mask1
+    rule.hasRole(mask2, ['MANAGER', 'DESIGNER'])
+  }
+
+  def "verify that a mask built while a new role is assigned a bit is not cached"() {
+    given: 'a table that assigns a bit to a new role after the first role lookup'
+    def table = new SecurityRuleTable()
+    table.getRule(buildController('"MANAGER"'))
+    def bits = table.roleBits
+    def assigned = false
+    table.roleBits = [get : { Object key ->
+                        def bit = bits.get(key)
+                        if (!assigned) {
+                          assigned = true
+                          table.getRoleBit('DESIGNER')
+                        }
+                        return bit
+                      },
+                      size: { -> bits.size() },
+                      put : { Object key, Object value -> bits.put(key, value) }] as Map
+
+    when: 'the mask is built while the new role is assigned a bit'
+    def mask1 = table.getRoleMask(['DESIGNER'])
+
+    then: 'the stale mask is not cached'
+    mask1 == 0L
+    table.roleMasks.size() == 0
+
+    and: 'the next mask has the new role'
+    table.getRoleMask(['DESIGNER']) == (1L << bits.DESIGNER)
+  }
+
+  def "verify that the roles beyond the max bits are checked by name"() {
+    given: 'a table with all bits used'
+    def table = new SecurityRuleTable()
+    for (i in 0..<SecurityRuleTable.MAX_ROLE_BITS) {
+      table.getRoleBit("ROLE$i")
+    }
+
+    when: 'a rule with a new role is built'
+    def rule = table.getRule(buildController('"MANAGER"'))
+
+    then: 'the role is checked by name'
+    rule.roleMask == 0L
+    rule.otherRoles == ['MANAGER']
+    rule.hasRole(table.getRoleMask(['MANAGER']), ['MANAGER'])
+    !rule.hasRole(table.getRoleMask(['ROLE1']), ['ROLE1'])
+  }
+
+  def "verify that a controller without the annotation is not secured"() {
+    given: 'a controller with no annotation'
+    def src = """
+    package sample
+
+    class _ATestController {
+    }
+    """
+    def clazz = CompilerTestUtils.compileSource(src)
+
+    expect: 'the rule is not secured'
+    !new SecurityRuleTable().getRule(clazz).secured
+  }
+
+}
@@ -14,6 +14,9 @@ import io.reactivex.Single
 import org.simplemes.eframe.application.EFrameConfiguration
 import org.simplemes.eframe.application.Holders
 import org.simplemes.eframe.date.DateUtils
+import org.simplemes.eframe.domain.SQLUtils
+import org.simplemes.eframe.metrics.MetricsHelper
+import org.simplemes.eframe.security.RefreshTokenCache
 import org.simplemes.eframe.security.domain.RefreshToken
 import org.simplemes.eframe.security.domain.User
 import org.simplemes.eframe.test.BaseSpecification
@@ -22,6 +25,8 @@ import org.simplemes.eframe.test.UnitTestUtils
 import org.simplemes.eframe.test.annotation.Rollback
 
 import java.time.Duration
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
 
 /**
  * Tests.
@@ -41,6 +46,16 @@ class RefreshTokenServiceSpec extends BaseSpecification {
     refreshTokenValidator = Holders.getBean(RefreshTokenValidator)
   }
 
+  /**
+   * Save the original setting.
+   */
+  Integer originalFlushDelay = Holders.configuration.security.refreshFlushDelay
+
+  void cleanup() {
+    RefreshTokenCache.instance.clear()
+    Holders.configuration.security.refreshFlushDelay = originalFlushDelay
+  }
+
   /**
    * Creates a token and persists it.
    * @param userName The user to create the token for.
@@ -391,6 +406,170 @@ class RefreshTokenServiceSpec extends BaseSpecification {
     RefreshToken.findByRefreshToken(getUUID(expiredTokenUsedMultipleTimes))
   }
 
+  /**
+   * Returns the DB use count for the given token.
+   * @param token The encoded token.
+   * @return The count.
+   */
+  Integer getDBUseCount(String token) {
+    Integer count = null
+    RefreshToken.withTransaction {
+      count = RefreshToken.findByRefreshToken(getUUID(token)).useAttemptCount
+    }
+    return count
+  }
+
+  def "verify that replaceRefreshToken re-use counts are written to the DB later"() {
+    given: 'a refresh token is saved'
+    Holders.configuration.security.refreshFlushDelay = 3600
+    def token = createToken('admin')
+
+    when: 'the token is re-used a few times'
+    for (i in 1..3) {
+      assert service.replaceRefreshToken(token, mockRequest(), false).userDetails
+    }
+
+    then: 'the DB is not updated yet'
+    getDBUseCount(token) == 0
+
+    when: 'the counts are written'
+    RefreshTokenCache.instance.flush()
+
+    then: 'the DB is updated'
+    getDBUseCount(token) == 3
+  }
+
+  def "verify that replaceRefreshToken writes the re-use counts immediately with no flush delay"() {
+    given: 'a refresh token is saved and no background writes'
+    Holders.configuration.security.refreshFlushDelay = 0
+    def token = createToken('admin')
+
+    when: 'the token is re-used a few times'
+    for (i in 1..3) {
+      assert service.replaceRefreshToken(token, mockRequest(), false).userDetails
+    }
+
+    then: 'the DB is updated without a flush'
+    getDBUseCount(token) == 3
+  }
+
+  def "verify that a cached token is not read from the DB before the re-validate interval"() {
+    given: 'a refresh token that has been used once and is cached'
+    Holders.configuration.security.refreshFlushDelay = 3600
+    def token = createToken('admin')
+    service.replaceRefreshToken(token, mockRequest(), false)
+    def counter = MetricsHelper.instance.getCounter(MetricsHelper.DB_QUERIES)
+    def originalCount = counter.count()
+
+    when: 'the token state is found again'
+    def tokenState = RefreshTokenCache.instance.find(getUUID(token))
+
+    then: 'the cached state is used without a DB query'
+    tokenState.useAttemptCount == 1
+    counter.count() == originalCount
+  }
+
+  def "verify that concurrent re-uses do not go past the limit"() {
+    given: 'a cached token state with 10 uses left'
+    Holders.configuration.security.refreshFlushDelay = 3600
+    def token = createToken('admin')
+    def tokenState = RefreshTokenCache.instance.find(getUUID(token))
+
+    when: 'many uses are added at the same time'
+    def pool = Executors.newFixedThreadPool(8)
+    def results = (1..50).collect { pool.submit({ RefreshTokenCache.instance.addUse(tokenState, 10) } as Callable) }
+    def added = results.count { it.get() }
+    pool.shutdown()
+
+    then: 'only the uses below the limit are added'
+    added == 10
+    tokenState.useAttemptCount == 10
+  }
+
+  def "verify that replaceRefreshToken detects a token revoked by another server"() {
+    given: 'a refresh token that has been used once'
+    Holders.configuration.security.refreshFlushDelay = 3600
+    def token = createToken('admin')
+    service.replaceRefreshToken(token, mockRequest(), false)
+
+    and: 'another server revokes the token'
+    RefreshToken.withTransaction {
+      SQLUtils.instance.executeUpdate("UPDATE refresh_token SET enabled=false WHERE refresh_token=?", getUUID(token))
+    }
+
+    and: 'a mock appender to reduce console clutter'
+    MockAppender.mock(RefreshTokenService, Level.ERROR)
+
+    when: 'the counts are written and the token is used again'
+    RefreshTokenCache.instance.flush()
+    def replacementToken = service.replaceRefreshToken(token, mockRequest(), false)
+
+    then: 'the refresh fails'
+    !replacementToken
+
+    and: 'all uses are counted in the DB'
+    getDBUseCount(token) == 2
+  }
+
+  def "verify that replaceRefreshToken detects a token revoked by another server before the counts are written"() {
+    given: 'a refresh token that has been used once and is cached'
+    Holders.configuration.security.refreshFlushDelay = 3600
+    def token = createToken('admin')
+    service.replaceRefreshToken(token, mockRequest(), false)
+
+    and: 'another server revokes the token'
+    RefreshToken.withTransaction {
+      SQLUtils.instance.executeUpdate("UPDATE refresh_token SET enabled=false WHERE refresh_token=?", getUUID(token))
+    }
+
+    and: 'a mock appender to reduce console clutter'
+    MockAppender.mock(RefreshTokenService, Level.ERROR)
+
+    when: 'the token is used again without a flush, after the re-validate interval'
+    RefreshTokenCache.instance.find(getUUID(token)).validatedTime = 0L
+    def replacementToken = service.replaceRefreshToken(token, mockRequest(), false)
+
+    then: 'the refresh fails'
+    !replacementToken
+  }
+
+  def "verify that shutdown writes the pending re-use counts"() {
+    given: 'a refresh token is saved'
+    Holders.configuration.security.refreshFlushDelay = 3600
+    def token = createToken('admin')
+
+    when: 'the token is re-used and the cache is shut down'
+    service.replaceRefreshToken(token, mockRequest(), false)
+    RefreshTokenCache.instance.shutdown()
+
+    then: 'the DB is updated'
+    getDBUseCount(token) == 1
+  }
+
+  def "verify that replaceRefreshToken counts the uses from another server toward the limit"() {
+    given: 'a refresh token that has been used once'
+    def maxUses = new EFrameConfiguration().security.jwtRefreshUseMax
+    Holders.configuration.security.refreshFlushDelay = 3600
+    def token = createToken('admin')
+    service.replaceRefreshToken(token, mockRequest(), false)
+
+    and: 'another server uses the token many times'
+    RefreshToken.withTransaction {
+      SQLUtils.instance.executeUpdate("UPDATE refresh_token SET use_attempt_count=use_attempt_count+? WHERE refresh_token=?",
+                                      maxUses - 2, getUUID(token))
+    }
+
+    when: 'the counts are written and the token is used again'
+    RefreshTokenCache.instance.flush()
+    def replacementTokenResponse = service.replaceRefreshToken(token, mockRequest(), false)
+
+    then: 'the token is replaced'
+    replacementTokenResponse.refreshToken
+
+    and: 'the original token is used up'
+    getDBUseCount(token) == maxUses
+  }
+
   def "verify that getRequestSource builds a source with the correct values"() {
     when: 'the token is refreshed and replaced from a different address'
     def address = new InetSocketAddress(originalAddress, 437)
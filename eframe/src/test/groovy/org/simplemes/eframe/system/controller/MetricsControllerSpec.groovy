@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) Michael Houston 2021. All rights reserved.
+ */
+
+package org.simplemes.eframe.system.controller
+
+import io.micronaut.http.HttpStatus
+import org.simplemes.eframe.application.Holders
+import org.simplemes.eframe.metrics.MetricsHelper
+import org.simplemes.eframe.test.BaseSpecification
+import org.simplemes.eframe.test.ControllerTester
+
+/**
+ * Tests.
+ */
+class MetricsControllerSpec extends BaseSpecification {
+
+  @SuppressWarnings("unused")
+  static specNeeds = SERVER
+
+  def "verify that the controller passes the standard controller test - security, etc"() {
+    expect: 'the controller passes'
+    ControllerTester.test {
+      controller MetricsController
+    }
+  }
+
+  def "verify that index returns the metrics summary and cache statistics"() {
+    given: 'a recorded time'
+    MetricsHelper.instance.record(MetricsHelper.REPORT_FILL, System.nanoTime())
+
+    when: 'the metrics are requested'
+    def res = new MetricsController().index()
+
+    then: 'the summary is returned'
+    res.metrics.find { it.name == MetricsHelper.REPORT_FILL }.count >= 1
+    res.domainCache instanceof List
+    res.markerCache instanceof List
+    res.tracing == false
+  }
+
+  def "verify that prometheus returns the metrics in the Prometheus text format"() {
+    given: 'a recorded time'
+    MetricsHelper.instance.record(MetricsHelper.REPORT_FILL, System.nanoTime())
+
+    when: 'the metrics are requested'
+    def res = new MetricsController().prometheus()
+
+    then: 'the text contains the timer'
+    res.status == HttpStatus.OK
+    res.body().toString().contains('eframe_report_fill_seconds')
+  }
+
+  def "verify that customFieldIndexes returns the custom field index usage"() {
+    when: 'the index usage is requested'
+    def res = new MetricsController().customFieldIndexes()
+
+    then: 'the list is returned'
+    res.indexes instanceof List
+  }
+
+  def "verify that trace enables and disables the request spans"() {
+    when: 'tracing is enabled'
+    def res = new MetricsController().trace(Holders.objectMapper.writeValueAsString([enabled: true]))
+
+    then: 'the tracing is enabled'
+    res.tracing
+    MetricsHelper.instance.tracing
+
+    when: 'tracing is disabled'
+    res = new MetricsController().trace(Holders.objectMapper.writeValueAsString([enabled: false]))
+
+    then: 'the tracing is disabled'
+    !res.tracing
+    !MetricsHelper.instance.tracing
+  }
+
+}
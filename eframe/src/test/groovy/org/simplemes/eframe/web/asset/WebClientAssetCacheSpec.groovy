@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) Michael Houston 2021. All rights reserved.
+ */
+
+package org.simplemes.eframe.web.asset
+
+import io.micronaut.http.HttpRequest
+import io.micronaut.http.HttpStatus
+import io.netty.buffer.ByteBuf
+import org.simplemes.eframe.test.BaseSpecification
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.util.zip.GZIPInputStream
+
+/**
+ * Tests.
+ */
+class WebClientAssetCacheSpec extends BaseSpecification {
+
+  /**
+   * The temporary folder that holds the test assets.
+   */
+  File folder
+
+  /**
+   * The content of the test .js asset.
+   */
+  String jsContent = 'console.log("test");\n' * 100
+
+  void cleanup() {
+    folder?.deleteDir()
+    WebClientAssetCache.instance = new WebClientAssetCache()
+  }
+
+  /**
+   * Builds a cache that uses a temporary folder with some test assets.
+   * @param files The extra files to create (name: content).
+   * @return The cache.
+   */
+  WebClientAssetCache buildCache(Map<String, Object> files = [:]) {
+    folder = Files.createTempDirectory('assets').toFile()
+    def allFiles = ['client/test/app.js': jsContent, 'client/test/page.html': '<html>page</html>'] + files
+    allFiles.each { name, content ->
+      def file = new File(folder, name)
+      file.parentFile.mkdirs()
+      if (content instanceof byte[]) {
+        file.bytes = (byte[]) content
+      } else {
+        file.text = content
+      }
+    }
+    return new WebClientAssetCache(classLoader: new URLClassLoader([folder.toURI().toURL()] as URL[], (ClassLoader) null))
+  }
+
+  /**
+   * Returns the given buffer as a string.
+   * @param buffer The buffer.
+   * @return The string.
+   */
+  String asString(ByteBuf buffer) {
+    return buffer.duplicate().toString(StandardCharsets.UTF_8)
+  }
+
+  /**
+   * Returns the given buffer's content.
+   * @param buffer The buffer.
+   * @return The bytes.
+   */
+  byte[] asBytes(ByteBuf buffer) {
+    def bytes = new byte[buffer.readableBytes()]
+    buffer.duplicate().readBytes(bytes)
+    return bytes
+  }
+
+  def "verify that find caches the asset with a generated gzip variant and content ETag"() {
+    given: 'a cache'
+    def cache = buildCache()
+
+    when: 'the asset is found'
+    def asset = cache.find('client/test/app.js')
+
+    then: 'the content is correct'
+    asString(asset.content) == jsContent
+    !asset.html
+
+    and: 'the gzip variant is generated'
+    asset.gzipExists
+    new GZIPInputStream(new ByteArrayInputStream(asBytes(asset.gzipContent))).text == jsContent
+    asset.gzipContent.readableBytes() < jsContent.size()
+
+    and: 'the ETag is based on the content'
+    asset.etag ==~ /"[0-9a-f]{32}"/
+
+    and: 'the same asset is returned later'
+    cache.find('client/test/app.js').is(asset)
+  }
+
+  def "verify that find uses the shipped compressed variants"() {
+    given: 'a cache with shipped variants'
+    def cache = buildCache(['client/test/app.js.gz': 'gzipContent'.bytes, 'client/test/app.js.br': 'brContent'.bytes])
+
+    when: 'the asset is found'
+    def asset = cache.find('client/test/app.js')
+
+    then: 'the variants are used'
+    asString(asset.gzipContent) == 'gzipContent'
+    asString(asset.brotliContent) == 'brContent'
+  }
+
+  def "verify that find supports HTML pages without the extension"() {
+    given: 'a cache'
+    def cache = buildCache()
+
+    when: 'the page is found'
+    def asset = cache.find('client/test/page')
+
+    then: 'the HTML page is used'
+    asset.html
+    asset.path == 'client/test/page.html'
+    asString(asset.content) == '<html>page</html>'
+  }
+
+  def "verify that find does not search for assets that are not indexed"() {
+    given: 'a cache'
+    def cache = buildCache()
+    cache.buildIndex()
+
+    when: 'an asset is added after the index is built'
+    def file = new File(folder, 'client/test/other.js')
+    file.text = 'other'
+
+    then: 'it is not found'
+    cache.find('client/test/other.js') == null
+
+    and: 'the indexed assets are found'
+    cache.index.contains('client/test/app.js')
+    cache.find('client/test/app.js')
+  }
+
+  def "verify that find rejects relative paths"() {
+    given: 'a cache'
+    def cache = buildCache()
+
+    expect: 'the relative path is not found'
+    cache.find('client/test/../test/app.js') == null
+  }
+
+  def "verify that handleAsset returns the compressed content and supports the ETag"() {
+    given: 'a cache'
+    WebClientAssetCache.instance = buildCache()
+    def service = new WebClientAssetService()
+
+    when: 'the asset is requested'
+    def request = HttpRequest.GET('/client/test/app.js').header('Accept-Encoding', 'gzip, deflate')
+    def response = service.handleAsset('client/test/app.js', request, null).blockingFirst()
+
+    then: 'the gzip content is returned'
+    response.status == HttpStatus.OK
+    response.header('Content-Encoding') == 'gzip'
+    def body = (ByteBuf) response.body()
+    new GZIPInputStream(new ByteArrayInputStream(asBytes(body))).text == jsContent
+
+    and: 'the caching headers are correct'
+    def etag = response.header('ETag')
+    etag
+    response.header('Cache-Control').contains('max-age')
+
+    when: 'the asset is requested again with the ETag'
+    request = HttpRequest.GET('/client/test/app.js').header('If-None-Match', etag)
+    response = service.handleAsset('client/test/app.js', request, null).blockingFirst()
+
+    then: 'the asset is not sent again'
+    response.status == HttpStatus.NOT_MODIFIED
+  }
+
+  def "verify that handleAsset does not allow the client to cache HTML pages"() {
+    given: 'a cache'
+    WebClientAssetCache.instance = buildCache()
+    def service = new WebClientAssetService()
+
+    when: 'the page is requested'
+    def request = HttpRequest.GET('/client/test/page')
+    def response = service.handleAsset('client/test/page', request, null).blockingFirst()
+
+    then: 'the page is returned without caching headers'
+    asString((ByteBuf) response.body()) == '<html>page</html>'
+    !response.header('ETag')
+    !response.header('Cache-Control')
+  }
+
+}
@@ -357,6 +357,43 @@ class DashboardMarkerSpec extends BaseMarkerSpecification {
     page.contains("""dashboard._addActivityParameter("workCenter","WC\\\"227");""")
   }
 
+  @Rollback
+  def "verify that the marker uses the cached dashboard definition with the user's splitter sizes"() {
+    given: 'a dashboard config with a default panel size'
+    def cfg = DashboardUnitTestUtils.buildDashboardConfig('DASHBOARD', ['vertical0', 'page0', 'horizontal1', 'page1', 'page2'])
+    cfg.dashboardPanels[0].defaultSize = 23.7
+    cfg.dashboardPanels[0].save()
+
+    and: 'the dashboard is displayed once to cache the definition'
+    def page1 = execute(source: '<@efDashboard category="NONE"/>', uri: '/dashboard?arg=value')
+    def panelAText1 = TextUtils.findLine(page1, 'id: "PanelA"')
+    assert JavascriptTestUtils.extractProperty(panelAText1, 'width') == 'tk.pw("23.7%")'
+
+    and: 'the splitter preference is set for the user'
+    setCurrentUser()
+    PreferenceHolder preferenceHolder = PreferenceHolder.find {
+      page '/dashboard'
+      user SecurityUtils.TEST_USER
+      element '_dDASHBOARD'
+    }
+    preferenceHolder.setPreference(new SplitterPreference(resizer: 'resizer0', size: 23.4))
+    preferenceHolder.save()
+
+    when: 'the HTML is generated again'
+    def page2 = execute(source: '<@efDashboard category="NONE"/>', uri: '/dashboard?arg=value')
+
+    then: 'the HTML is valid'
+    checkPage(page2)
+
+    and: 'the user splitter size is used'
+    def panelAText2 = TextUtils.findLine(page2, 'id: "PanelA"')
+    JavascriptTestUtils.extractProperty(panelAText2, 'width') == 'tk.pw("23.4%")'
+
+    and: 'no placeholders are left in the page'
+    !page1.contains('@@')
+    !page2.contains('@@')
+  }
+
   @Rollback
   def "verify that the marker logs the hierarchy with trace logging"() {
     given: 'a dashboard config'
@@ -63,4 +63,24 @@ class DefinitionListMarkerSpec extends BaseMarkerSpecification {
     TextUtils.findLine(viewBlock, 'url:').contains('/sampleParent/list')
   }
 
+  def "verify that the second page display uses the fragment cache"() {
+    given: 'an empty cache'
+    MarkerFragmentCache.instance.clear()
+    MarkerFragmentCache.instance.clearStatistics()
+
+    when: 'the page is built twice'
+    def page1 = execute(source: '<@efDefinitionList id="dummyID" columns="name, title"/>', controllerClass: SampleParentController)
+    def page2 = execute(source: '<@efDefinitionList id="dummyID" columns="name, title"/>', controllerClass: SampleParentController)
+
+    then: 'the pages are the same'
+    checkPage(page2)
+    page1 == page2
+
+    and: 'the second display was a cache hit'
+    def stats = MarkerFragmentCache.instance.renderStatistics.find { it.marker == 'DefinitionListMarker' }
+    stats.hits == 1
+    stats.misses == 1
+    stats.renderCount == 2
+  }
+
 }
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) Michael Houston 2020. All rights reserved.
+ */
+
+package org.simplemes.eframe.web.ui.webix.freemarker
+
+import org.simplemes.eframe.application.Holders
+import org.simplemes.eframe.test.BaseSpecification
+import sample.controller.SampleParentController
+import sample.domain.SampleParent
+
+/**
+ * Tests.
+ */
+class MarkerFragmentCacheSpec extends BaseSpecification {
+
+  Integer originalCacheSize
+
+  def setup() {
+    originalCacheSize = Holders.configuration.markerCacheSize
+    MarkerFragmentCache.instance.clear()
+    MarkerFragmentCache.instance.clearStatistics()
+  }
+
+  void cleanup() {
+    Holders.configuration.markerCacheSize = originalCacheSize
+    MarkerFragmentCache.maxAge = 300000
+    MarkerFragmentCache.instance.clearStatistics()
+  }
+
+  /**
+   * Builds a marker for testing.
+   * @param parameters The marker parameters.
+   * @return The marker.
+   */
+  BaseMarker buildMarker(Map parameters = [id: 'abc']) {
+    def marker = new ListMarker()
+    marker.parameters = parameters as Map<String, String>
+    marker.controllerClass = SampleParentController
+    marker.domainClass = SampleParent
+    marker.markerContext = new MarkerContext(controllerClass: SampleParentController, uri: '/sampleParent')
+    return marker
+  }
+
+  def "verify that render caches the fragment and adds the scripts again on a hit"() {
+    given: 'a renderer that adds scripts'
+    def count = 0
+    def renderer = { MarkerCoordinator coordinator ->
+      count++
+      coordinator.addPrescript('pre();')
+      coordinator.addPostscript('post();')
+      coordinator.addGlobalPostscript('global();')
+      return 'TEXT'
+    }
+
+    when: 'the fragment is rendered twice with different coordinators'
+    def marker1 = buildMarker()
+    marker1.markerContext.markerCoordinator.addPrescript('other();')
+    def key = MarkerFragmentCache.instance.buildKey(marker1, 'x')
+    def text1 = MarkerFragmentCache.instance.render(marker1, key) { renderer(marker1.markerContext.markerCoordinator) }
+    def marker2 = buildMarker()
+    def text2 = MarkerFragmentCache.instance.render(marker2, key) { renderer(marker2.markerContext.markerCoordinator) }
+
+    then: 'the fragment is only rendered once'
+    text1 == 'TEXT'
+    text2 == 'TEXT'
+    count == 1
+
+    and: 'only the scripts added during the render are added on the hit'
+    marker2.markerContext.markerCoordinator.prescript == 'pre();'
+    marker2.markerContext.markerCoordinator.postscript == 'post();'
+    marker2.markerContext.markerCoordinator.globalPostscript == 'global();'
+
+    and: 'the statistics are updated'
+    def stats = MarkerFragmentCache.instance.renderStatistics.find { it.marker == 'ListMarker' }
+    stats.hits == 1
+    stats.misses == 1
+    stats.hitRate == 50.0
+  }
+
+  def "verify that buildKey includes the marker parameters and other values"() {
+    expect: 'the keys are different'
+    def cache = MarkerFragmentCache.instance
+    cache.buildKey(buildMarker([id: 'abc'])) == cache.buildKey(buildMarker([id: 'abc']))
+    cache.buildKey(buildMarker([id: 'abc'])) != cache.buildKey(buildMarker([id: 'xyz']))
+    cache.buildKey(buildMarker(), 'a') != cache.buildKey(buildMarker(), 'b')
+  }
+
+  def "verify that clear removes the cached fragments and values"() {
+    given: 'a cached fragment and value'
+    def marker = buildMarker()
+    def key = MarkerFragmentCache.instance.buildKey(marker)
+    MarkerFragmentCache.instance.render(marker, key) { 'ABC' }
+    MarkerFragmentCache.instance.findValue('value') { ['a'] }
+
+    when: 'the cache is cleared'
+    MarkerFragmentCache.instance.clear()
+
+    then: 'the new values are used'
+    MarkerFragmentCache.instance.render(marker, key) { 'XYZ' } == 'XYZ'
+    MarkerFragmentCache.instance.findValue('value') { ['b'] } == ['b']
+  }
+
+  def "verify that a render that started before a clear is not cached"() {
+    given: 'a marker'
+    def marker = buildMarker()
+    def key = MarkerFragmentCache.instance.buildKey(marker)
+
+    when: 'the cache is cleared during the render'
+    MarkerFragmentCache.instance.render(marker, key) {
+      MarkerFragmentCache.instance.clear()
+      return 'OLD'
+    }
+
+    then: 'the stale value is not cached'
+    MarkerFragmentCache.instance.render(marker, key) { 'NEW' } == 'NEW'
+  }
+
+  def "verify that the cache can be disabled with the configuration"() {
+    given: 'the cache is disabled'
+    Holders.configuration.markerCacheSize = 0
+    def marker = buildMarker()
+    def key = MarkerFragmentCache.instance.buildKey(marker)
+
+    when: 'the fragment is rendered twice'
+    MarkerFragmentCache.instance.render(marker, key) { 'ABC' }
+    def text = MarkerFragmentCache.instance.render(marker, key) { 'XYZ' }
+
+    then: 'the fragment is not cached'
+    text == 'XYZ'
+  }
+
+  def "verify that the least recently used fragment is removed when the cache is full"() {
+    given: 'a small cache'
+    Holders.configuration.markerCacheSize = 2
+    def marker = buildMarker()
+
+    when: 'more values are cached than will fit, with a hit on the first value'
+    MarkerFragmentCache.instance.render(marker, 'key1') { 'TEXT1' }
+    MarkerFragmentCache.instance.render(marker, 'key2') { 'TEXT2' }
+    MarkerFragmentCache.instance.render(marker, 'key1') { 'XYZ' }
+    MarkerFragmentCache.instance.render(marker, 'key3') { 'TEXT3' }
+
+    then: 'the cache size is limited'
+    MarkerFragmentCache.instance.fragments.size() == 2
+
+    and: 'the least recently used value is removed'
+    MarkerFragmentCache.instance.fragments.keySet() == ['key1', 'key3'] as Set
+  }
+
+  def "verify that the cache is cleared when it is too old"() {
+    given: 'a cached fragment'
+    def marker = buildMarker()
+    MarkerFragmentCache.instance.render(marker, 'key1') { 'ABC' }
+
+    when: 'the cache is too old'
+    MarkerFragmentCache.maxAge = 0
+    def text = MarkerFragmentCache.instance.render(marker, 'key1') { 'XYZ' }
+
+    then: 'the fragment is rendered again'
+    text == 'XYZ'
+  }
+
+  def "verify that recordRender tracks the render time"() {
+    when: 'some renders are recorded'
+    MarkerFragmentCache.instance.recordRender(ListMarker, 2000000L)
+    MarkerFragmentCache.instance.recordRender(ListMarker, 4000000L)
+
+    then: 'the average is correct'
+    def stats = MarkerFragmentCache.instance.renderStatistics.find { it.marker == 'ListMarker' }
+    stats.renderCount == 2
+    stats.averageRenderTime == 3.0
+  }
+
+}
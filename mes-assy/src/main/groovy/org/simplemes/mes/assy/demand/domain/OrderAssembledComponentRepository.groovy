@@ -4,6 +4,7 @@
 
 package org.simplemes.mes.assy.demand.domain
 
+import io.micronaut.data.annotation.Join
 import io.micronaut.data.jdbc.annotation.JdbcRepository
 import io.micronaut.data.model.query.builder.sql.Dialect
 import io.micronaut.data.repository.CrudRepository
@@ -22,6 +23,13 @@ interface OrderAssembledComponentRepository extends BaseRepository, CrudReposito
 
   List<OrderAssembledComponent> findAllByOrder(Order order)
 
+  /**
+   * Finds the records for the order, with the component product read in the same query.
+   * Used by the assembly state logic.
+   */
+  @Join(value = "component", type = Join.Type.LEFT_FETCH)
+  List<OrderAssembledComponent> readAllByOrder(Order order)
+
   List<OrderAssembledComponent> list()
 
 }
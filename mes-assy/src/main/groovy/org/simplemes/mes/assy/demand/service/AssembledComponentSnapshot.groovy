@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) Michael Houston 2020. All rights reserved.
+ */
+
+package org.simplemes.mes.assy.demand.service
+
+import groovy.transform.ToString
+import org.simplemes.eframe.custom.domain.FlexType
+import org.simplemes.mes.assy.demand.domain.OrderAssembledComponent
+import org.simplemes.mes.product.domain.Product
+
+/**
+ * An immutable copy of the values from a single assembled component record, as held by the
+ * {@link AssemblyStateIndex}.  Only the values needed to build the assembly state are copied, so the index never
+ * holds (or shares) the domain records themselves.
+ */
+@ToString(includeNames = true, includePackage = false)
+class AssembledComponentSnapshot {
+
+  /**
+   * The record's sequence.
+   */
+  final Integer sequence
+
+  /**
+   * The BOM sequence (0 for non-BOM components).
+   */
+  final Integer bomSequence
+
+  /**
+   * The LSN's UUID.  Null if assembled to the order.
+   */
+  final UUID lsnUuid
+
+  /**
+   * The qty assembled.
+   */
+  final BigDecimal qty
+
+  /**
+   * The component product's UUID.
+   */
+  final UUID componentUuid
+
+  /**
+   * The component product's name.
+   */
+  final String componentProduct
+
+  /**
+   * The component product's title.
+   */
+  final String componentTitle
+
+  /**
+   * The assembly data type's UUID.  Can be null.
+   */
+  final UUID assemblyDataUuid
+
+  /**
+   * The assembly data values (the JSON text from the record's custom field holder).
+   */
+  final String fields
+
+  /**
+   * Copies the values from the given record.  Reads the LSN and assembly data fields directly to avoid the lazy
+   * loads of those records.
+   * @param record The record.
+   */
+  AssembledComponentSnapshot(OrderAssembledComponent record) {
+    sequence = record.sequence
+    bomSequence = record.bomSequence ?: 0
+    lsnUuid = record.@lsn?.uuid
+    qty = record.qty
+    componentUuid = record.component?.uuid
+    componentProduct = record.component?.product
+    componentTitle = record.component?.title
+    assemblyDataUuid = record.@assemblyData?.uuid
+    fields = record.fields
+  }
+
+  /**
+   * Builds a new (unsaved) assembled component record with these values.  Used to format the assembly data for
+   * a single request.  The record is not shared with other requests.
+   * @param assemblyData The assembly data type (see {@link #assemblyDataUuid}).
+   * @return The record.
+   */
+  OrderAssembledComponent toRecord(FlexType assemblyData) {
+    def component = new Product(uuid: componentUuid, product: componentProduct, title: componentTitle)
+    return new OrderAssembledComponent(sequence: sequence, bomSequence: bomSequence, qty: qty, component: component,
+                                       assemblyData: assemblyData, fields: fields)
+  }
+
+}
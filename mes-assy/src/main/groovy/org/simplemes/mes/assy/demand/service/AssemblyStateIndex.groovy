@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) Michael Houston 2020. All rights reserved.
+ */
+
+package org.simplemes.mes.assy.demand.service
+
+import groovy.transform.ToString
+import org.simplemes.mes.assy.demand.AssembledComponentStateEnum
+import org.simplemes.mes.assy.demand.domain.OrderAssembledComponent
+
+/**
+ * An in-memory index of the assembled components for a single order.  The currently assembled records are
+ * grouped by the BOM sequence, so the assembly state for an order can be built without scanning all of the
+ * assembled components for each BOM component.  The index holds immutable snapshots of the records
+ * (see {@link AssembledComponentSnapshot}), never the domain records.
+ * <p>
+ * The index is kept between requests by the {@link OrderAssyService} and is updated when components are
+ * added or removed.  The version of the index (the record count and the latest update time) is compared with the
+ * database on each use.  Any change made elsewhere (e.g. another server or a rolled back transaction) will force
+ * a rebuild of the index.
+ */
+@ToString(includeNames = true, includePackage = false, excludes = ['assembledByBOMSequence'])
+class AssemblyStateIndex {
+
+  /**
+   * The order this index is for.
+   */
+  final UUID orderUuid
+
+  /**
+   * The number of assembled component records (any state) for the order.
+   */
+  protected int recordCount
+
+  /**
+   * The latest dateUpdated (ms) for the records in this index.
+   */
+  protected long lastUpdated
+
+  /**
+   * The currently assembled records, grouped by BOM sequence.  The lists are in sequence order.
+   * The non-BOM records are stored under BOM sequence 0.
+   */
+  protected final Map<Integer, List<AssembledComponentSnapshot>> assembledByBOMSequence = [:]
+
+  /**
+   * Builds the index from the given assembled component records.
+   * @param orderUuid The order.
+   * @param records The assembled component records for the order (all states).
+   */
+  AssemblyStateIndex(UUID orderUuid, List<OrderAssembledComponent> records) {
+    this.orderUuid = orderUuid
+    for (record in records.toSorted { it.sequence }) {
+      add(record)
+    }
+  }
+
+  /**
+   * Determines if this index matches the given database version of the order's assembled records.
+   * @param recordCount The number of records in the database.
+   * @param lastUpdated The latest dateUpdated (ms) in the database.
+   * @return True if the index is current.
+   */
+  synchronized boolean isCurrent(int recordCount, long lastUpdated) {
+    return this.recordCount == recordCount && this.lastUpdated == lastUpdated
+  }
+
+  /**
+   * Adds a new assembled component record to the index.
+   * @param record The new record.
+   */
+  synchronized void add(OrderAssembledComponent record) {
+    recordCount++
+    updateLastUpdated(record)
+    if (record.state == AssembledComponentStateEnum.ASSEMBLED) {
+      addAssembled(new AssembledComponentSnapshot(record))
+    }
+  }
+
+  /**
+   * Updates the latest update time for records that were saved without a change to the assembly state
+   * (e.g. saved with the parent order).
+   * @param records The saved records.
+   */
+  synchronized void touch(Collection<OrderAssembledComponent> records) {
+    for (record in records) {
+      updateLastUpdated(record)
+    }
+  }
+
+  /**
+   * Updates the index for a change in the state of a record already in the index (e.g. a removal).
+   * @param record The changed record.
+   */
+  synchronized void update(OrderAssembledComponent record) {
+    updateLastUpdated(record)
+    def list = assembledByBOMSequence[record.bomSequence ?: 0]
+    list?.removeIf { it.sequence == record.sequence }
+    if (record.state == AssembledComponentStateEnum.ASSEMBLED) {
+      addAssembled(new AssembledComponentSnapshot(record))
+    }
+  }
+
+  /**
+   * Finds the currently assembled records for the given BOM sequence.  Only the records with no LSN or for the
+   * given LSN are returned.
+   * @param bomSequence The BOM sequence (0 for non-BOM components).
+   * @param lsnUuid The LSN.  Null means only records assembled to the order.
+   * @return The records, in sequence order.  Never null.
+   */
+  synchronized List<AssembledComponentSnapshot> findAssembled(Integer bomSequence, UUID lsnUuid) {
+    def list = assembledByBOMSequence[bomSequence ?: 0]
+    if (!list) {
+      return []
+    }
+    return list.findAll { AssembledComponentSnapshot record ->
+      record.lsnUuid == null || record.lsnUuid == lsnUuid
+    }
+  }
+
+  /**
+   * Finds all of the currently assembled non-BOM records for the order (any LSN).
+   * @return The records, in sequence order.  Never null.
+   */
+  synchronized List<AssembledComponentSnapshot> findNonBOM() {
+    return new ArrayList<AssembledComponentSnapshot>(assembledByBOMSequence[0] ?: [])
+  }
+
+  /**
+   * Adds the record snapshot to the assembled list for its BOM sequence, in sequence order.
+   * @param record The record snapshot.
+   */
+  protected void addAssembled(AssembledComponentSnapshot record) {
+    def list = assembledByBOMSequence.computeIfAbsent(record.bomSequence) { [] }
+    def index = list.findIndexOf { it.sequence > record.sequence }
+    if (index < 0) {
+      list << record
+    } else {
+      list.add(index, record)
+    }
+  }
+
+  /**
+   * Tracks the latest update time for the records in the index.
+   * @param record The record.
+   */
+  protected void updateLastUpdated(OrderAssembledComponent record) {
+    def time = record.dateUpdated?.time ?: 0L
+    if (time > lastUpdated) {
+      lastUpdated = time
+    }
+  }
+
+}
@@ -1,9 +1,12 @@
 package org.simplemes.mes.assy.demand.service
 
+import groovy.transform.ToString
 import groovy.util.logging.Slf4j
 import org.simplemes.eframe.custom.ExtensibleFieldHelper
 import org.simplemes.eframe.custom.domain.FlexField
+import org.simplemes.eframe.custom.domain.FlexType
 import org.simplemes.eframe.date.DateUtils
+import org.simplemes.eframe.domain.SQLUtils
 import org.simplemes.eframe.exception.BusinessException
 import org.simplemes.eframe.i18n.GlobalUtils
 import org.simplemes.eframe.misc.ArgumentUtils
@@ -50,6 +53,30 @@ class OrderAssyService implements OrderReleasePoint, AdjustQueryInterface {
    */
   static final Integer MAX_ASSY_DATA_STRING_LENGTH = 300
 
+  /**
+   * The maximum number of orders with an assembly state index kept in memory.
+   */
+  static final int MAX_ASSEMBLY_STATE_INDEXES = 500
+
+  /**
+   * The SQL used to sum the assembled qty for each BOM sequence/LSN and to find the version of the
+   * assembled records for an order.
+   */
+  protected static final String SUMMARY_SQL = 'SELECT bom_sequence, lsn_id, state, SUM(qty) AS qty, COUNT(*) AS record_count,' +
+    ' MAX(date_updated) AS last_updated FROM order_assembled_component WHERE order_id = ?' +
+    ' GROUP BY bom_sequence, lsn_id, state LIMIT ALL OFFSET 0'
+
+  /**
+   * The most recently used assembly state indexes (key: order UUID).
+   */
+  protected final Map<UUID, AssemblyStateIndex> assemblyStateIndexes = Collections.synchronizedMap(
+    new LinkedHashMap<UUID, AssemblyStateIndex>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<UUID, AssemblyStateIndex> eldest) {
+        return size() > MAX_ASSEMBLY_STATE_INDEXES
+      }
+    })
+
   /**
    * Pre-release extension method for the order release process.
    * <p>
@@ -125,6 +152,7 @@ class OrderAssyService implements OrderReleasePoint, AdjustQueryInterface {
     order.assembledComponents << orderAssembledComponent
     order.dateUpdated = new Date()
     order.save()
+    updateAssemblyStateIndex(order, orderAssembledComponent, true)
     return orderAssembledComponent
   }
 
@@ -196,6 +224,7 @@ class OrderAssyService implements OrderReleasePoint, AdjustQueryInterface {
     orderAssembledComponent.removedDate = new Date()
 
     orderAssembledComponent.save()
+    updateAssemblyStateIndex(order, orderAssembledComponent, false)
 
     return orderAssembledComponent
 
@@ -232,6 +261,7 @@ class OrderAssyService implements OrderReleasePoint, AdjustQueryInterface {
     orderAssembledComponent.removedDate = null
 
     orderAssembledComponent.save()
+    updateAssemblyStateIndex(order, orderAssembledComponent, false)
 
     return orderAssembledComponent
 
@@ -245,6 +275,10 @@ class OrderAssyService implements OrderReleasePoint, AdjustQueryInterface {
    * <p>
    * This method does no pagination or filtering, but it does sort by sequence.  It does group by the
    * BOM component record.
+   * <p>
+   * The assembled quantities are summed by the database in a single grouped query.  The assembled records
+   * are found from an in-memory index for the order (see {@link AssemblyStateIndex}), which is only re-read
+   * when the database records change outside of this service.
    *
    * @param request The find request.
    * @return The component states.
@@ -266,20 +300,28 @@ class OrderAssyService implements OrderReleasePoint, AdjustQueryInterface {
       order = lsn.order
     }
 
-    // Find the BOM requirements
-    List<OrderBOMComponent> orderComponents = order.components
+    // Find the assembled quantities and the assembled records for the order.
+    def summary = findAssembledSummary(order, lsn)
+    def index = findAssemblyStateIndex(order, summary)
+
+    // Find the BOM requirements, with the component products.
+    List<OrderBOMComponent> orderComponents = OrderBOMComponent.readAllByOrder(order)
+    orderComponents = orderComponents.toSorted { it.sequence }
     log.trace('findComponentAssemblyState: orderComponents = {}', orderComponents)
 
     // and add them to the result, with the current assembly state.
+    Map<UUID, FlexType> productTypes = [:]
+    Map<UUID, FlexType> assemblyDataTypes = [:]
     for (orderComponent in orderComponents) {
       // Calculate the required qty for the requested element
       def qtyRequired = orderComponent.qty * (lsn?.qty ?: order?.qtyToBuild)
-      def orderComponentState = new OrderComponentState(component: orderComponent.component.product,
-                                                        componentAndTitle: TypeUtils.toShortString(orderComponent.component, true),
+      Product product = orderComponent.component
+      def orderComponentState = new OrderComponentState(component: product.product,
+                                                        componentAndTitle: TypeUtils.toShortString(product, true),
                                                         sequence: orderComponent.sequence,
                                                         qtyRequired: qtyRequired,
                                                         qtyAssembled: 0.0)
-      orderComponentState.assemblyData = orderComponent.component.assemblyDataType
+      orderComponentState.assemblyData = findAssemblyDataType(product, productTypes, assemblyDataTypes)
       if (orderComponentState.assemblyData?.fields?.size()) {
         orderComponentState.firstAssemblyDataField = orderComponentState.assemblyData.fields[0].fieldName
       }
@@ -289,15 +331,10 @@ class OrderAssyService implements OrderReleasePoint, AdjustQueryInterface {
     // Now, figure out how much has been assembled for each bom component record.
     // Only find the ones still assembled and for the LSN (if LSN is passed in) or for the entire order.
     for (orderComponentState in res) {
-      List<OrderAssembledComponent> matches = order.assembledComponents.findAll() { OrderAssembledComponent comp ->
-        comp.state == AssembledComponentStateEnum.ASSEMBLED &&
-          comp.bomSequence == orderComponentState.sequence &&
-          (comp.lsn == null || comp.lsn == lsn)
+      List<OrderAssembledComponent> matches = index.findAssembled(orderComponentState.sequence, lsn?.uuid).collect {
+        toRecord(it, assemblyDataTypes)
       }
-      def qtyAssembled = matches.sum() { it.qty } as BigDecimal
-      orderComponentState.qtyAssembled = qtyAssembled ?: 0.0
-      //println "qtyAssembled = $qtyAssembled for $matches"
-      //println "orderComponentState = $orderComponentState"
+      orderComponentState.qtyAssembled = summary.qtyAssembled[orderComponentState.sequence] ?: 0.0
       // Now, copy the assy data values to the output record.
       if (matches) {
         // Use only the first Assy data type (only one is valid).
@@ -329,10 +366,7 @@ class OrderAssyService implements OrderReleasePoint, AdjustQueryInterface {
       }
     } else {
       // Now, add any non-BOM components currently assembled.
-      List<OrderAssembledComponent> nonBOMs = order.assembledComponents.findAll() { OrderAssembledComponent comp ->
-        comp.state == AssembledComponentStateEnum.ASSEMBLED &&
-          comp.bomSequence == 0
-      }
+      List<OrderAssembledComponent> nonBOMs = index.findNonBOM().collect { toRecord(it, assemblyDataTypes) }
       // Now, sort the nonBOMs by product name for consistent sorting and find next sequence to use for nonBOMs.
       def currentSequence = 0
       if (nonBOMs) {
@@ -365,6 +399,142 @@ class OrderAssyService implements OrderReleasePoint, AdjustQueryInterface {
     return res
   }
 
+  /**
+   * Finds the assembled quantity for each BOM sequence and the version of the order's assembled records with
+   * a single grouped query.  Only the quantities assembled to the order or the given LSN are counted.
+   * @param order The order.
+   * @param lsn The LSN.  Null means only the components assembled to the order are counted.
+   * @return The summary.
+   */
+  protected AssembledSummary findAssembledSummary(Order order, LSN lsn) {
+    def summary = new AssembledSummary()
+    def rows = SQLUtils.instance.executeQuery(SUMMARY_SQL, Map, order.uuid)
+    for (row in rows) {
+      summary.recordCount += row.record_count as int
+      def lastUpdated = (row.last_updated as Date)?.time ?: 0L
+      summary.lastUpdated = Math.max(summary.lastUpdated, lastUpdated)
+      def lsnUuid = row.lsn_id as UUID
+      if (isAssembledState(row.state as String) && (lsnUuid == null || lsnUuid == lsn?.uuid)) {
+        def bomSequence = row.bom_sequence as Integer
+        def qty = (row.qty as BigDecimal) ?: 0.0
+        summary.qtyAssembled[bomSequence] = (summary.qtyAssembled[bomSequence] ?: 0.0) + qty
+      }
+    }
+    log.trace('findAssembledSummary: summary = {}', summary)
+    return summary
+  }
+
+  /**
+   * Determines if the given DB value for the assembled component state is the ASSEMBLED state.
+   * @param state The DB value (enum name or ID).
+   * @return True if assembled.
+   */
+  protected boolean isAssembledState(String state) {
+    return state == AssembledComponentStateEnum.ASSEMBLED.name() || state == AssembledComponentStateEnum.ASSEMBLED.id
+  }
+
+  /**
+   * Finds the current index of assembled records for the given order.  Re-builds it if the database records
+   * have changed since the index was built.
+   * @param order The order.
+   * @param summary The current summary from the database.
+   * @return The index.
+   */
+  protected AssemblyStateIndex findAssemblyStateIndex(Order order, AssembledSummary summary) {
+    def index = assemblyStateIndexes.get(order.uuid)
+    if (index?.isCurrent(summary.recordCount, summary.lastUpdated)) {
+      return index
+    }
+    List<OrderAssembledComponent> records = OrderAssembledComponent.readAllByOrder(order)
+    index = new AssemblyStateIndex(order.uuid, records)
+    log.debug('findAssemblyStateIndex: Built index for order {} with {} records', order.order, records.size())
+    assemblyStateIndexes.put(order.uuid, index)
+    return index
+  }
+
+  /**
+   * Builds a new assembled component record from the snapshot held by the index, for use by a single request.
+   * The assembly data type is shared with the other records in the request and is read once per flex type.
+   * @param snapshot The snapshot from the index.
+   * @param assemblyDataTypes The assembly data types found so far (key: flex type UUID).  The types read here are
+   *                          added.
+   * @return The record.
+   */
+  protected OrderAssembledComponent toRecord(AssembledComponentSnapshot snapshot, Map<UUID, FlexType> assemblyDataTypes) {
+    FlexType flexType = null
+    def uuid = snapshot.assemblyDataUuid
+    if (uuid) {
+      flexType = assemblyDataTypes[uuid]
+      if (!flexType) {
+        flexType = FlexType.findByUuid(uuid)
+        assemblyDataTypes[uuid] = flexType
+      }
+    }
+    return snapshot.toRecord(flexType)
+  }
+
+  /**
+   * Finds the assembly data type for the given component product.  Cached by product and by flex type for the
+   * current call.
+   * @param product The component product.
+   * @param productTypes The assembly data types found so far (key: product UUID).
+   * @param assemblyDataTypes The assembly data types found so far (key: flex type UUID).
+   * @return The assembly data type.  Can be null.
+   */
+  protected FlexType findAssemblyDataType(Product product, Map<UUID, FlexType> productTypes,
+                                          Map<UUID, FlexType> assemblyDataTypes) {
+    if (productTypes.containsKey(product.uuid)) {
+      return productTypes[product.uuid]
+    }
+    FlexType flexType = product.assemblyDataType
+    if (flexType) {
+      // Use the same instance for all products with this type, so the flex fields are read once.
+      flexType = assemblyDataTypes.putIfAbsent(flexType.uuid, flexType) ?: flexType
+    }
+    productTypes[product.uuid] = flexType
+    return flexType
+  }
+
+  /**
+   * Updates the assembly state index for the order, if one exists.
+   * @param order The order.
+   * @param orderAssembledComponent The added or changed record.
+   * @param added True if the record was added.
+   */
+  protected void updateAssemblyStateIndex(Order order, OrderAssembledComponent orderAssembledComponent, boolean added) {
+    def index = assemblyStateIndexes.get(order.uuid)
+    if (index) {
+      if (added) {
+        index.add(orderAssembledComponent)
+        // The other records are saved with the order, so they have a new update time.
+        index.touch(order.assembledComponents as List<OrderAssembledComponent>)
+      } else {
+        index.update(orderAssembledComponent)
+      }
+    }
+  }
+
+  /**
+   * The assembled quantities and the version of the assembled records for an order.
+   */
+  @ToString(includeNames = true, includePackage = false)
+  protected static class AssembledSummary {
+    /**
+     * The number of assembled component records (any state).
+     */
+    int recordCount
+
+    /**
+     * The latest dateUpdated (ms) for the records.
+     */
+    long lastUpdated
+
+    /**
+     * The qty currently assembled for each BOM sequence.
+     */
+    Map<Integer, BigDecimal> qtyAssembled = [:]
+  }
+
   /**
    * Sets the various state values and flags based on the quantities in the state POGO.
    * This updates the value in place.
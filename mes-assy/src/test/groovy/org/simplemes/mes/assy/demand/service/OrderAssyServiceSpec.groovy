@@ -1042,6 +1042,110 @@ class OrderAssyServiceSpec extends BaseSpecification {
     !s.contains('DDD')
   }
 
+  @Rollback
+  @SuppressWarnings("GroovyAssignabilityCheck")
+  def "verify that findComponentAssemblyState keeps the assembly state index current for service changes"() {
+    given: 'a released order with one component assembled'
+    def order = AssyUnitTestUtils.releaseOrder(components: ['CPU', 'MOTHERBOARD'])
+    setCurrentUser()
+    service.addComponent(new AddOrderAssembledComponentRequest(order: order, bomSequence: 10))
+
+    when: 'the state is found'
+    def res1 = service.findComponentAssemblyState(new FindComponentAssemblyStateRequest(order))
+    def index = service.assemblyStateIndexes[order.uuid]
+
+    then: 'the state is correct'
+    res1[0].qtyAssembled == 1.0
+    res1[1].qtyAssembled == 0.0
+
+    when: 'another component is added and the first is removed with the service'
+    def comp2 = service.addComponent(new AddOrderAssembledComponentRequest(order: order, bomSequence: 20, qty: 2.0))
+    def comp1 = order.assembledComponents.find { it.bomSequence == 10 }
+    service.removeComponent(new RemoveOrderAssembledComponentRequest(comp1, order))
+    def res2 = service.findComponentAssemblyState(new FindComponentAssemblyStateRequest(order))
+
+    then: 'the state is correct'
+    res2[0].qtyAssembled == 0.0
+    res2[0].sequencesForRemoval == []
+    res2[1].qtyAssembled == 2.0
+    res2[1].sequencesForRemoval == [comp2.sequence]
+
+    and: 'the same index was used'
+    service.assemblyStateIndexes[order.uuid].is(index)
+  }
+
+  @Rollback
+  def "verify that the assembly state index holds snapshots of the assembled records"() {
+    given: 'a released order with one component assembled'
+    def order = AssyUnitTestUtils.releaseOrder(components: ['CPU', 'MOTHERBOARD'])
+    def comp1 = AssyUnitTestUtils.assembleComponent(order, [sequence: 10])
+
+    when: 'the state is found to build the index'
+    service.findComponentAssemblyState(new FindComponentAssemblyStateRequest(order))
+    def snapshots = service.assemblyStateIndexes[order.uuid].findAssembled(10, null)
+
+    then: 'the index holds a snapshot of the record values'
+    snapshots.size() == 1
+    snapshots[0] instanceof AssembledComponentSnapshot
+    snapshots[0].sequence == comp1.sequence
+    snapshots[0].qty == comp1.qty
+    snapshots[0].componentProduct == comp1.component.product
+
+    and: 'the records built for a request are new records'
+    def record = snapshots[0].toRecord(null)
+    !record.is(comp1)
+    record.sequence == comp1.sequence
+  }
+
+  @Rollback
+  def "verify that findComponentAssemblyState detects changes made outside of the service"() {
+    given: 'a released order with one component assembled'
+    def order = AssyUnitTestUtils.releaseOrder(components: ['CPU', 'MOTHERBOARD'])
+    def comp1 = AssyUnitTestUtils.assembleComponent(order, [sequence: 10])
+
+    and: 'the state is found once to build the index'
+    def res1 = service.findComponentAssemblyState(new FindComponentAssemblyStateRequest(order))
+    assert res1[0].sequencesForRemoval == [comp1.sequence]
+    def index = service.assemblyStateIndexes[order.uuid]
+
+    when: 'another component is assembled without the service'
+    def comp2 = AssyUnitTestUtils.assembleComponent(order, [sequence: 20])
+    def res2 = service.findComponentAssemblyState(new FindComponentAssemblyStateRequest(order))
+
+    then: 'the new component is found'
+    res2[1].qtyAssembled == 2.0
+    res2[1].sequencesForRemoval == [comp2.sequence]
+
+    and: 'the index was re-built'
+    !service.assemblyStateIndexes[order.uuid].is(index)
+  }
+
+  @Rollback
+  def "verify that findComponentAssemblyState works with a large BOM and many assembled components"() {
+    given: 'a released order with a large BOM'
+    def bomSize = 50
+    def order = AssyUnitTestUtils.releaseOrder(components: (1..bomSize).collect { "COMP$it" })
+
+    and: 'several components assembled for each BOM line'
+    for (i in 1..bomSize) {
+      AssyUnitTestUtils.assembleComponent(order, [sequence: i * 10, qty: i / 2.0])
+    }
+    for (i in 1..bomSize) {
+      AssyUnitTestUtils.assembleComponent(order, [sequence: i * 10, qty: i / 2.0])
+    }
+
+    when: 'the components are searched'
+    def orderComponentState = service.findComponentAssemblyState(new FindComponentAssemblyStateRequest(order))
+
+    then: 'the quantities are correct'
+    orderComponentState.size() == bomSize
+    orderComponentState.every { it.sequencesForRemoval.size() == 2 }
+    for (i in 0..<bomSize) {
+      assert orderComponentState[i].qtyAssembled == orderComponentState[i].qtyRequired
+      assert orderComponentState[i].overallState == OrderComponentStateEnum.FULL
+    }
+  }
+
   @Rollback
   @SuppressWarnings("GroovyAssignabilityCheck")
   def "verify that removeComponent can mark a component as removed"() {
@@ -108,17 +108,18 @@ class OrderService {
     // Figure out where to place the qtyInQueue.
     if (routing) {
       // A routing is to be used, so create the operation state records.
-      routing.operations.sort()
+      // The product's routing may be a shared (cached) record, so sort a copy.
+      def operations = routing.operations.sort(false)
       if (order.lsns) {
         for (lsn in order.lsns) {
-          for (oper in routing.operations) {
+          for (oper in operations) {
             lsn.operationStates << new LSNOperState(oper)
           }
           lsn.operationStates[0].queueQty(lsn.qty, dateReleased)
         }
       } else {
         // No LSNs, so we will just have order-level states
-        for (oper in routing.operations) {
+        for (oper in operations) {
           order.operationStates << new OrderOperState(oper)
         }
         // Place released Qty in queue at first step.
@@ -4,6 +4,7 @@ import groovy.util.logging.Slf4j
 import io.micronaut.data.model.Pageable
 import org.simplemes.eframe.application.Holders
 import org.simplemes.eframe.domain.SQLUtils
+import org.simplemes.eframe.metrics.MetricsHelper
 import org.simplemes.mes.demand.FindWorkRequest
 import org.simplemes.mes.demand.FindWorkResponse
 import org.simplemes.mes.demand.FindWorkResponseDetail
@@ -56,6 +57,7 @@ class WorkListService {
     //  D LSNs with a routing.
 
     //  A Orders with no routing.
+    long start = System.nanoTime()
     long timeA = System.currentTimeMillis()
     findWorkDetails(Order, findWorkRequest).each { Map map ->
       details << new FindWorkResponseDetail(map)
@@ -83,6 +85,7 @@ class WorkListService {
     }
     totalAvailable += findWorkTotalCount(LSNOperState, findWorkRequest)
 
+    MetricsHelper.instance.record('mes.worklist.find', start)
     if (log.infoEnabled) {
       long endTime = System.currentTimeMillis()
       log.info('findWork queries: time: {} - {}/{}/{}/{} (ms) found: {} for request: {}',
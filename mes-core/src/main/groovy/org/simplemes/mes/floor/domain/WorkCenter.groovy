@@ -73,6 +73,11 @@ class WorkCenter {
   @SuppressWarnings("GroovyUnusedDeclaration")
   static fieldOrder = ['workCenter', 'title', 'overallStatus']
 
+  /**
+   * The records are cached when read as a foreign reference (see DomainCache).
+   */
+  static cache = [ttl: 600, maxSize: 1000]
+
   /**
    * Called before validate happens.  Used to set the description if needed.
    */
@@ -70,6 +70,11 @@ class MasterRouting implements RoutingTrait {
    */
   static searchable = true
 
+  /**
+   * The records are cached when read as a foreign reference (see DomainCache).
+   */
+  static cache = [ttl: 600, maxSize: 1000]
+
   /**
    * The custom field holder.
    */
@@ -126,6 +126,11 @@ class Product implements RoutingTrait {
    */
   static searchable = true
 
+  /**
+   * The records are cached when read as a foreign reference (see DomainCache).
+   */
+  static cache = [ttl: 600, maxSize: 1000]
+
   /**
    * Defines the default general field ordering for GUIs and other field listings/reports.
    */
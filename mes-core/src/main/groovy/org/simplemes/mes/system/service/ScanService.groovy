@@ -3,6 +3,7 @@ package org.simplemes.mes.system.service
 import groovy.util.logging.Slf4j
 import org.simplemes.eframe.custom.annotation.ExtensionPoint
 import org.simplemes.eframe.i18n.GlobalUtils
+import org.simplemes.eframe.metrics.MetricsHelper
 import org.simplemes.eframe.misc.ArgumentUtils
 import org.simplemes.eframe.misc.NumberUtils
 import org.simplemes.mes.demand.CompleteRequest
@@ -71,6 +72,11 @@ class ScanService {
    */
   public static final String BARCODE_BUTTON = 'BUTTON'
 
+  /**
+   * The timer for the scan latency.  Tagged with the type (button or barcode).
+   */
+  public static final String SCAN_TIMER = 'mes.scan'
+
   /**
    * The mapping between barcode prefixes and the logical meaning of those prefixes.  Maps 'BTN' to 'BUTTON' for clarify.
    */
@@ -88,6 +94,7 @@ class ScanService {
   @Transactional
   @ExtensionPoint(value = ScanPoint, comment = "The Scan dashboard scan() method")
   ScanResponseInterface scan(ScanRequestInterface scanRequest) {
+    def start = System.nanoTime()
     ArgumentUtils.checkMissing(scanRequest, 'scanRequest')
     ArgumentUtils.checkMissing(scanRequest.barcode, 'scanRequest.barcode')
     log.trace('scan() request: {}', scanRequest)
@@ -99,6 +106,7 @@ class ScanService {
       response.scanActions << new ButtonPressAction(button: parsedScan[BARCODE_BUTTON])
       response.resolved = true
       log.trace('scan() response1: {}', response)
+      MetricsHelper.instance.record(SCAN_TIMER, start, 'type', 'button')
       return response
     }
 
@@ -121,6 +129,7 @@ class ScanService {
     }
 
     log.trace('scan() response: {}', response)
+    MetricsHelper.instance.record(SCAN_TIMER, start, 'type', 'barcode')
     return response
   }
 
@@ -12,7 +12,7 @@ import groovy.transform.ToString
  * The request archive old ProductionLog records.  Used for the archiveOld() method.
  */
 @ToString(includeNames = true, includePackage = false)
-@EqualsAndHashCode(includes = ['ageDays', 'batchSize', 'delete'])
+@EqualsAndHashCode(includes = ['ageDays', 'batchSize', 'delete', 'threadCount'])
 class ProductionLogArchiveRequest {
 
   /**
@@ -32,4 +32,10 @@ class ProductionLogArchiveRequest {
    */
   Boolean delete = false
 
+  /**
+   * The number of batches to archive in parallel.  Each batch is archived in its own thread and transaction.
+   * (<b>Default:</b> 1, the batches are archived one at a time).
+   */
+  Integer threadCount = 1
+
 }
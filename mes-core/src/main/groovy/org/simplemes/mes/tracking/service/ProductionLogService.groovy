@@ -5,6 +5,9 @@ import io.micronaut.data.model.Pageable
 import org.simplemes.eframe.application.Holders
 import org.simplemes.eframe.archive.ArchiverFactoryInterface
 import org.simplemes.eframe.date.DateUtils
+import org.simplemes.eframe.domain.SQLUtils
+import org.simplemes.eframe.domain.annotation.DomainEntityHelper
+import org.simplemes.eframe.metrics.MetricsHelper
 import org.simplemes.eframe.misc.ArgumentUtils
 import org.simplemes.eframe.misc.LogUtils
 import org.simplemes.eframe.security.SecurityUtils
@@ -14,6 +17,12 @@ import org.simplemes.mes.tracking.domain.ProductionLog
 
 import javax.inject.Singleton
 import javax.transaction.Transactional
+import java.util.concurrent.Callable
+import java.util.concurrent.ConcurrentSkipListMap
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.atomic.AtomicLong
 
 /*
  * Copyright Michael Houston. All rights reserved.
@@ -62,9 +71,15 @@ class ProductionLogService {
 
   /**
    * Archives/deletes old records, using the given configuration.
+   * The old records are processed in batches of disjoint key (uuid) ranges.  Each batch is archived (or deleted)
+   * in its own transaction.  If the request's threadCount is greater than 1, then the batches are
+   * processed in parallel by a pool of worker threads.
+   * <p>
+   * In delete mode, the records are removed with a set-based delete (DELETE ... WHERE uuid IN (...)).
    * <p>
    * <b>Note:</b> This method creates new transactions when archiving each batch of records.
-   *              If called from within an existing transaction, then no new transactions will be created.
+   *              If called from within an existing transaction, then no new transactions will be created
+   *              (unless the threadCount is greater than 1).
    *
    *  <h3>Logging</h3>
    * The logging for this class that can be enabled:
@@ -78,13 +93,11 @@ class ProductionLogService {
    * @param request The configuration to use for this archive run.
    * @return The list of archive references, if delete=false.
    */
-  @SuppressWarnings(["GroovyMissingReturnStatement", "NestedBlockDepth"])
   List<String> archiveOld(ProductionLogArchiveRequest request) {
-    def res = []
     ArgumentUtils.checkMissing(request, 'request')
     ArgumentUtils.checkMissing(request.ageDays, 'request.ageDays')
 
-    def start = System.currentTimeMillis()
+    def start = System.nanoTime()
 
     // Archive/delete records in small batches/transactions until no more eligible records are found.
     def now = new Date()
@@ -92,65 +105,125 @@ class ProductionLogService {
     def ageDate = new Date(now.time - offset)
     //println "ageDate = $ageDate"
     //println "  $ageDate.time"
-    def batchSize = request.batchSize ?: 500
+    int batchSize = (int) (request.batchSize ?: 500)
+    int threadCount = request.threadCount ?: 1
     log.debug("archiveOld: request = {}, ageDate = {}", request, ageDate)
 
-    long totalCount = 0
-    def batchCount = 0
     def archive = !request.delete
+    def totalCount = new AtomicLong()
+    Map<Integer, String> fileRefs = new ConcurrentSkipListMap<Integer, String>()
+    def batchCount = 0
 
-    while (true) {
-      def recCount = 0
-      def archiver
-
-      // Archive one batch, in a transaction.
-      ProductionLog.withTransaction { txnStatus ->
-        try {
-          //println "list1 = ${ProductionLog.list().size()}:${ProductionLog.list()*.dateTime}"
-          def recs = ProductionLog.findAllByDateTimeLessThan(ageDate, Pageable.from((Integer) 0, (Integer) batchSize))
-
-          recCount = recs.size()
-          //println " recs = ${recs*.dateTime}"
-
-          if (recCount) {
-            if (archive) {
-              def factory = Holders.applicationContext.getBean(ArchiverFactoryInterface)
-              archiver = factory.archiver
-            }
-            for (rec in recs) {
-              if (archive) {
-                archiver.archive(rec)
-              } else {
-                rec.delete()
-              }
-              totalCount++
-            }
-            batchCount++
-            if (archive) {
-              def fileRef = archiver.close()
-              res << fileRef
-              log.trace("archiveOld: archived {} records in batch {} to {}", recs.size(), batchCount, fileRef)
-            } else {
-              log.trace("archiveOld: deleted {} records in batch {}", recs.size(), batchCount)
-            }
+    ExecutorService executor = null
+    if (threadCount > 1) {
+      executor = Executors.newFixedThreadPool(threadCount)
+    }
+    try {
+      List<Future<Boolean>> pending = []
+      UUID lastKey = null
+      def failed = false
+      while (!failed) {
+        def keys = findOldKeys(ageDate, lastKey, batchSize)
+        if (!keys) {
+          // No more records.
+          break
+        }
+        lastKey = keys[-1]
+        batchCount++
+        def batchNumber = batchCount
+        if (executor) {
+          pending << executor.submit({ archiveBatch(keys, archive, batchNumber, fileRefs, totalCount) } as Callable<Boolean>)
+          // Limit the batches waiting on the workers, so the keys read ahead are bounded.
+          while (pending.size() >= threadCount) {
+            failed = !pending.remove(0).get() || failed
           }
-        } catch (Exception e) {
-          log.error("Exception during Archive.", e)
-          LogUtils.logStackTrace(log, e, 'ProductionLogService')
-          txnStatus.setRollbackOnly()
-          // Force an exit of the loop to avoid re-trying the execution.
-          recCount = 0
+        } else {
+          failed = !archiveBatch(keys, archive, batchNumber, fileRefs, totalCount)
         }
       }
-      if (!recCount) {
-        // No more records.
-        break
+      for (future in pending) {
+        future.get()
       }
+    } finally {
+      executor?.shutdown()
     }
 
-    def elapsedTime = System.currentTimeMillis() - start
-    log.info("archiveOld: archived {} records in {} batches in {}ms", totalCount, batchCount, elapsedTime)
+    def elapsedTime = MetricsHelper.instance.record('mes.productionLog.archive', start)
+    log.info("archiveOld: archived {} records in {} batches in {}ms", totalCount.get(), batchCount, elapsedTime)
+
+    return new ArrayList<String>(fileRefs.values())
+  }
+
+  /**
+   * Finds the next batch of old record keys (uuids).  Uses a keyset (uuid) range, so each batch is disjoint from
+   * the previous batches.
+   * @param ageDate The age date.  Records older than this are returned.
+   * @param afterKey The last key from the previous batch (null for the first batch).
+   * @param batchSize The max number of keys to return.
+   * @return The keys, in uuid order.
+   */
+  protected List<UUID> findOldKeys(Date ageDate, UUID afterKey, int batchSize) {
+    String tableName = DomainEntityHelper.instance.getTableName(ProductionLog)
+    String dateColumn = DomainEntityHelper.instance.getColumnName(ProductionLog, 'dateTime')
+    List<UUID> keys = []
+    ProductionLog.withTransaction {
+      def pageable = Pageable.from(0, batchSize)
+      def list
+      if (afterKey) {
+        list = SQLUtils.instance.executeQuery("SELECT uuid FROM $tableName WHERE $dateColumn < ? AND uuid > ? ORDER BY uuid",
+                                              Map, pageable, ageDate, afterKey)
+      } else {
+        list = SQLUtils.instance.executeQuery("SELECT uuid FROM $tableName WHERE $dateColumn < ? ORDER BY uuid",
+                                              Map, pageable, ageDate)
+      }
+      for (row in list) {
+        keys << (UUID) row.uuid
+      }
+    }
+    return keys
+  }
 
+  /**
+   * Archives/deletes a single batch of records in a transaction.  Any errors are logged and the transaction is
+   * rolled back.
+   * @param keys The keys (uuids) of the records in this batch.
+   * @param archive If true, then the records are archived.  If false, they are just deleted.
+   * @param batchNumber The batch number (for logging and archive reference ordering).
+   * @param fileRefs The archive references created, keyed by the batch number (updated).
+   * @param totalCount The total records processed (updated).
+   * @return True if the batch was processed.
+   */
+  protected boolean archiveBatch(List<UUID> keys, boolean archive, int batchNumber, Map<Integer, String> fileRefs,
+                                 AtomicLong totalCount) {
+    def res = true
+    ProductionLog.withTransaction { txnStatus ->
+      try {
+        String tableName = DomainEntityHelper.instance.getTableName(ProductionLog)
+        if (archive) {
+          def recs = SQLUtils.instance.executeQuery("SELECT * FROM $tableName WHERE uuid IN(?) ORDER BY uuid",
+                                                    ProductionLog, Pageable.from(0, keys.size()), keys)
+          def factory = Holders.applicationContext.getBean(ArchiverFactoryInterface)
+          def archiver = factory.archiver
+          for (rec in recs) {
+            archiver.archive(rec)
+          }
+          def fileRef = archiver.close()
+          fileRefs.put(batchNumber, fileRef)
+          totalCount.addAndGet(recs.size())
+          log.trace("archiveOld: archived {} records in batch {} to {}", recs.size(), batchNumber, fileRef)
+        } else {
+          def count = SQLUtils.instance.executeUpdate("DELETE FROM $tableName WHERE uuid IN(?)", keys)
+          totalCount.addAndGet(count)
+          log.trace("archiveOld: deleted {} records in batch {}", count, batchNumber)
+        }
+      } catch (Exception e) {
+        log.error("Exception during Archive.", e)
+        LogUtils.logStackTrace(log, e, 'ProductionLogService')
+        txnStatus.setRollbackOnly()
+        // Force an exit of the loop to avoid re-trying the execution.
+        res = false
+      }
+    }
     return res
   }
 
@@ -4,7 +4,9 @@ import ch.qos.logback.classic.Level
 import org.simplemes.eframe.application.Holders
 import org.simplemes.eframe.archive.ArchiverFactoryInterface
 import org.simplemes.eframe.archive.FileArchiver
+import org.simplemes.eframe.domain.DomainCache
 import org.simplemes.eframe.exception.BusinessException
+import org.simplemes.eframe.metrics.MetricsHelper
 import org.simplemes.eframe.test.BaseSpecification
 import org.simplemes.eframe.test.MockAppender
 import org.simplemes.eframe.test.MockBean
@@ -213,6 +215,46 @@ class OrderServiceSpec extends BaseSpecification {
     lsn.operationStates[2].qtyInQueue == 0.0
   }
 
+  @Rollback
+  def "verify that release of an LSN order does not re-read the cached product routing"() {
+    given: 'a product with a routing and two LSN orders'
+    def product = MESUnitTestUtils.buildSimpleProductWithRouting(lsnTrackingOption: LSNTrackingOption.LSN_ONLY)
+    new Order(order: 'M001', qtyToBuild: 5, product: product).save()
+    new Order(order: 'M002', qtyToBuild: 5, product: product).save()
+
+    and: 'the first order is released, which caches the product with its routing'
+    service.release(new OrderReleaseRequest(Order.findByOrder('M001')))
+    def order2 = Order.findByOrder('M002')
+
+    and: 'the query counter and the SQL log'
+    def counter = MetricsHelper.instance.getCounter(MetricsHelper.DB_QUERIES)
+    def mockAppender = MockAppender.mock('io.micronaut.data.query', Level.DEBUG)
+
+    when: 'the cached routing is used as the release uses it for each LSN'
+    def originalCount = counter.count()
+    def routing = order2.product.determineEffectiveRouting()
+    for (i in 1..5) {
+      assert routing.operations.size() == 3
+    }
+
+    then: 'no queries are made'
+    counter.count() == originalCount
+
+    when: 'the second order is released'
+    service.release(new OrderReleaseRequest(order2))
+
+    then: 'the routing is not read again'
+    !mockAppender.messages.find { it.contains('product_operation') }
+
+    and: 'the LSNs have the operation states from the routing'
+    def lsns = Order.findByOrder('M002').lsns
+    lsns.size() == 5
+    lsns.every { it.operationStates*.sequence == [1, 2, 3] }
+
+    cleanup:
+    DomainCache.instance.clear()
+  }
+
   @Rollback
   def "test release with routing and no LSNs"() {
     given: 'an order with a product routing ready for release'
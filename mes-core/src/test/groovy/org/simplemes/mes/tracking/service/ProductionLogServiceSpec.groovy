@@ -284,6 +284,51 @@ class ProductionLogServiceSpec extends BaseSpecification {
     0 * fileArchiver._
   }
 
+  def "verify that archiveOld deletes records correctly - parallel delete mode"() {
+    given: 'some old and recent production log records'
+    def now = new Date()
+    buildProductionLogRecords(action: 'OLD', count: 23, beginDateTime: now - 100)
+    buildProductionLogRecords(action: 'NEW', count: 10, beginDateTime: now - 10)
+
+    when: 'the archive method is called with several threads'
+    def request = new ProductionLogArchiveRequest(ageDays: 15, delete: true, batchSize: 5, threadCount: 3)
+    productionLogService.archiveOld(request)
+
+    then: 'the old records are removed and the new ones are left in the DB'
+    ProductionLog.withTransaction {
+      assert !ProductionLog.list().find { it.action == 'OLD' }
+      assert ProductionLog.list().findAll { it.action == 'NEW' }.size() == 10
+      true
+    }
+  }
+
+  @SuppressWarnings("GroovyAssignabilityCheck")
+  def "verify that archiveOld archives records in parallel batches correctly"() {
+    given: 'a mock archiver factory that returns an object'
+    def fileArchiver = Mock(FileArchiver)
+    def mockFactory = Mock(ArchiverFactoryInterface)
+    mockFactory.getArchiver() >> fileArchiver
+    new MockBean(this, ArchiverFactoryInterface, mockFactory).install()
+
+    and: 'some old production log records'
+    buildProductionLogRecords(action: 'OLD', count: 20, beginDateTime: new Date() - 100)
+
+    and: 'an archive request with several threads'
+    def request = new ProductionLogArchiveRequest(ageDays: 15, delete: false, batchSize: 5, threadCount: 2)
+
+    when: 'the archive method is called'
+    def fileRefs = productionLogService.archiveOld(request)
+
+    then: 'the records are written as four files'
+    fileRefs.size() == 4
+    fileRefs.toSet().size() == 4
+
+    and: 'each record is archived once'
+    20 * fileArchiver.archive(_) >> { args -> args[0].delete() }
+    4 * fileArchiver.close() >>> ["dummy1.arc", "dummy2.arc", "dummy3.arc", "dummy4.arc"]
+    0 * fileArchiver._
+  }
+
   @Rollback
   def "verify that archiveOld fails with missing request"() {
     when: 'the archive method is called with null'